@@ -0,0 +1,631 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Represents the B+ tree index of one table.
+ * The tree owns everything about the index that is not in a node: the page of its root,
+ *  its height, the primary key it is on and its fanout n. Nodes are read through the page buffer,
+ *  and every operation on a node is given the tree it belongs to, so any number of trees
+ *  can be walked at once.
+ *
+ * The root and, when the tree is tall enough, the interior nodes right below it are kept
+ *  pinned in the page buffer, so the top of the tree is never evicted and every lookup
+ *  starts from nodes already in memory. The pins are moved when the root changes and when
+ *  a node right below it splits. At most a quarter of the buffer is pinned, so the nodes
+ *  an insert is working on still have room; in a very small buffer nothing is pinned.
+ * Lookups take the tree's lock for reading and inserts take it for writing,
+ *  so lookups can run at the same time as each other but not with an insert.
+ *  A range scan takes the lock for reading each time it moves, not for the whole scan.
+ *
+ * @author Tyler Black tcb8683
+ */
+public class BplusTree {
+    private final PageBuffer pageBuffer;
+    private final int treeId; // the id of the table the tree is for
+    private final AttributeSchema primaryKey;
+    private final int n; // the most values a node can hold
+    private final ReentrantReadWriteLock lock;
+    private final List<Integer> pinnedPages; // pages of the nodes pinned in the buffer
+    private int rootPage; // page of the root node
+    private int height; // number of levels, counting the root and the leaves
+    private int pinnedRootPointers; // number of pointers the root had when the nodes below it were pinned
+
+    /**
+     * Constructs a BplusTree for a tree that already has its root in the tree file
+     * @param pageBuffer the buffer the nodes are read through
+     * @param treeId the id of the table the tree is for
+     * @param primaryKey the primary key of the table
+     * @param rootPage the page of the root node
+     * @param pageSize the size of a page
+     * @throws IOException
+     */
+    public BplusTree(PageBuffer pageBuffer, int treeId, AttributeSchema primaryKey, int rootPage, int pageSize) throws IOException {
+        this.pageBuffer = pageBuffer;
+        this.treeId = treeId;
+        this.primaryKey = primaryKey;
+        this.n = computeN(primaryKey, pageSize);
+        this.lock = new ReentrantReadWriteLock();
+        pageBuffer.setTreeLatch(treeId, lock);
+        this.pinnedPages = new ArrayList<>();
+        this.rootPage = rootPage;
+        this.height = 1;
+        BplusTreeNode node = getNode(rootPage);
+        while (!node.isLeaf()){
+            node = getNode(node.getPointerPage(0));
+            this.height += 1;
+        }
+        pinUpperLevels();
+    }
+
+    /**
+     * Makes a new tree with one empty leaf as its root, on page 1 of an empty tree file
+     * @param pageBuffer the buffer the nodes are read through
+     * @param treeId the id of the table the tree is for
+     * @param primaryKey the primary key of the table
+     * @param pageSize the size of a page
+     * @return the tree
+     * @throws IOException
+     */
+    public static BplusTree create(PageBuffer pageBuffer, int treeId, AttributeSchema primaryKey, int pageSize) throws IOException {
+        BplusTreeNode root = new BplusTreeNode(computeN(primaryKey, pageSize), 1, treeId, -1, primaryKey.getType());
+        Catalog.setRoot(treeId, 1);
+
+        //Rewrite the header and push the new page
+        //This will make a table's Bplus file always start with one page before inserts begin
+        pageBuffer.insertPage(treeId, 0, 1, true);
+        pageBuffer.pushPage(treeId, 1, root);
+        return new BplusTree(pageBuffer, treeId, primaryKey, 1, pageSize);
+    }
+
+    /**
+     * Calculates the most values a node can hold, so a full node with its pointers fits in a page.
+     * A char or varchar key is sized at two bytes a char whether or not the database has compact strings:
+     *  a node holds a fixed number of keys, and a key in UTF-8 can take more than two bytes a char,
+     *  so a compact node could not promise to fit any more keys than this.
+     * @param primaryKey the primary key the tree is on
+     * @param pageSize the size of a page
+     * @return n for the tree
+     */
+    public static int computeN(AttributeSchema primaryKey, int pageSize) {
+        AttributeType keyType = primaryKey.getType();
+        int keyPointerSize;
+        if (keyType == AttributeType.CHAR || keyType == AttributeType.VARCHAR){
+            keyPointerSize = primaryKey.getSize()*2 + 8;
+        } else{
+            keyPointerSize = primaryKey.getSize() + 8;
+        }
+        return (int)Math.floor(((double)pageSize)/keyPointerSize) - 1;
+    }
+
+    /**
+     * Gets the id of the table the tree is for
+     * @return the id
+     */
+    public int getTreeId() {
+        return treeId;
+    }
+
+    /**
+     * Gets the type of the primary key the tree is on
+     * @return the type
+     */
+    public AttributeType getKeyType() {
+        return primaryKey.getType();
+    }
+
+    /**
+     * Gets the most values a node can hold
+     * @return n
+     */
+    public int getN() {
+        return n;
+    }
+
+    /**
+     * Gets the number of levels in the tree, counting the root and the leaves
+     * @return the height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the page of the root node
+     * @return the page number
+     */
+    public int getRootPage() {
+        return rootPage;
+    }
+
+    /**
+     * Gets the root node from the buffer; it is always there when it is pinned
+     * @return the root
+     * @throws IOException
+     */
+    private BplusTreeNode getRoot() throws IOException {
+        return getNode(rootPage);
+    }
+
+    /**
+     * Finds the table page the record with a primary key value is in
+     * @param key the primary key value
+     * @return the page; -1 if the key is not in the tree
+     * @throws IOException
+     */
+    public int search(Object key) throws IOException {
+        lock.readLock().lock();
+        try {
+            return getRoot().search(this, key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Scans the keys of the tree in order, from a low key to a high key.
+     * The tree is only traversed once, to the leaf the range starts in;
+     *  the rest of the range is found by following the links from each leaf to the next.
+     * @param low the lowest key in the range; null for no lowest key
+     * @param lowInclusive true if a key equal to low is in the range
+     * @param high the highest key in the range; null for no highest key
+     * @param highInclusive true if a key equal to high is in the range
+     * @return iterator over the keys in the range, in key order, that also gives the table page
+     *          of the record with each key. It throws an UncheckedIOException if a node can not be read.
+     * @throws IOException
+     */
+    public RangeIterator range(Object low, boolean lowInclusive, Object high, boolean highInclusive) throws IOException {
+        lock.readLock().lock();
+        try {
+            BplusTreeNode leaf;
+            int index;
+            if (low == null){
+                leaf = getRoot();
+                while (!leaf.isLeaf()){
+                    leaf = getNode(leaf.getPointerPage(0));
+                }
+                index = 0;
+            } else {
+                leaf = getRoot().traversBplusTree(this, low);
+                index = leaf.searchValues(low, !lowInclusive);
+            }
+            leaf = (BplusTreeNode)pageBuffer.pinPage(treeId, leaf.getPageNumber(), primaryKey, true, false);
+            return new RangeIterator(leaf, index, high, highInclusive);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Walks the leaves of the tree from a starting key to the high key of a range.
+     * The leaf the iterator is in is kept pinned in the buffer, so it is the same node an insert changes
+     *  while the iterator is between calls; it is unpinned once the range is done or the iterator is closed.
+     */
+    public class RangeIterator implements Iterator<Object>, AutoCloseable {
+        private BplusTreeNode leaf; // pinned leaf the next key is in; null once the range is done
+        private int index; // index of the next key in the leaf
+        private int page; // table page of the record with the key next returned
+        private final Object high;
+        private final boolean highInclusive;
+
+        /**
+         * Constructs a RangeIterator
+         * @param leaf leaf the first key is in, pinned for the iterator
+         * @param index index of the first key in the leaf; may be past the last key of the leaf
+         * @param high the highest key in the range; null for no highest key
+         * @param highInclusive true if a key equal to high is in the range
+         */
+        RangeIterator(BplusTreeNode leaf, int index, Object high, boolean highInclusive) {
+            this.leaf = leaf;
+            this.index = index;
+            this.high = high;
+            this.highInclusive = highInclusive;
+            this.page = -1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            lock.readLock().lock();
+            try {
+                //move on to the next leaf that has keys left
+                while (leaf != null && index >= leaf.getValues().size()){
+                    int nextPage = leaf.getNumPointers() == 0 ? -1 : leaf.getPointerPage(leaf.getNumPointers() - 1);
+                    BplusTreeNode next = nextPage == -1 ? null : (BplusTreeNode)pageBuffer.pinPage(treeId, nextPage, primaryKey, true, false);
+                    close();
+                    leaf = next;
+                    index = 0;
+                }
+                if (leaf != null && high != null){
+                    int compared = leaf.getValues().compare(index, high);
+                    if (compared > 0 || (compared == 0 && !highInclusive)){
+                        close();
+                    }
+                }
+                return leaf != null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public Object next() {
+            if (!hasNext()){
+                throw new NoSuchElementException();
+            }
+            lock.readLock().lock();
+            try {
+                Object key = leaf.getValues().get(index);
+                page = leaf.getPointerPage(index);
+                index += 1;
+                return key;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Unpins the leaf the iterator is in and ends the range.
+         * Must be called if the iterator is dropped before hasNext returns false.
+         */
+        @Override
+        public void close() {
+            if (leaf != null){
+                pageBuffer.unpinPage(treeId, leaf.getPageNumber(), true);
+                leaf = null;
+            }
+        }
+
+        /**
+         * Gets the table page of the record with the key next returned
+         * @return the page; -1 before next is called
+         */
+        public int getPage() {
+            return page;
+        }
+    }
+
+    /**
+     * Adds a primary key value to the tree
+     * @param key the primary key value
+     * @return the table page the record with the key should be inserted in;
+     *          -1 if the key is already in the tree
+     * @throws IOException
+     */
+    public int insert(Object key) throws IOException {
+        lock.writeLock().lock();
+        try {
+            //the leaf the key goes in is over full until it splits, so it is held in the buffer
+            //  for the whole insert to keep it from being written out like that
+            int leafPage = getRoot().traversBplusTree(this, key).getPageNumber();
+            int page;
+            pageBuffer.pinPage(treeId, leafPage, primaryKey, true, false);
+            try {
+                page = getRoot().addNewValue(this, key);
+            } finally {
+                pageBuffer.unpinPage(treeId, leafPage, true);
+            }
+            //a node right below the root split
+            if (getRoot().getNumPointers() != pinnedRootPointers){
+                pinUpperLevels();
+            }
+            return page;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a primary key value from the tree, after the record with it was deleted from its page.
+     *  A key that is the only one in its leaf is not removed, since nodes are never merged;
+     *  the table is then rebuilt with a new tree instead.
+     * @param key the primary key value
+     * @return true if the key was removed; false if it is not in the tree or is the only key in its leaf
+     * @throws IOException
+     */
+    public boolean remove(Object key) throws IOException {
+        lock.writeLock().lock();
+        try {
+            return getRoot().removeValue(this, key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Points the keys in a range at a new table page, after the records with them were moved there
+     * @param first first key in the range
+     * @param last last key in the range
+     * @param newPageId the id of the new page
+     * @throws IOException
+     */
+    public void updatePagePointer(Object first, Object last, int newPageId) throws IOException {
+        lock.writeLock().lock();
+        try {
+            getRoot().updatePagePointer(this, first, last, newPageId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Unpins the nodes the tree keeps in the buffer.
+     * Must be called before the tree file is removed.
+     */
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            unpinAll();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets a node of the tree from the buffer
+     * @param pageId the page of the node
+     * @return the node
+     * @throws IOException
+     */
+    public BplusTreeNode getNode(int pageId) throws IOException {
+        return (BplusTreeNode)pageBuffer.getPage(treeId, pageId, primaryKey, true);
+    }
+
+    /**
+     * Pushes a node of the tree to the buffer after it has changed
+     * @param node the node
+     * @throws IOException
+     */
+    public void pushNode(BplusTreeNode node) throws IOException {
+        pageBuffer.pushPage(treeId, node.getPageNumber(), node);
+    }
+
+    /**
+     * Makes a node the root of the tree, after the old root split and the node was made its parent
+     * @param newRoot the new root
+     * @throws IOException
+     */
+    public void setRoot(BplusTreeNode newRoot) throws IOException {
+        this.rootPage = newRoot.getPageNumber();
+        this.height += 1;
+        Catalog.setRoot(treeId, newRoot.getPageNumber());
+        pinUpperLevels();
+    }
+
+    /**
+     * Starts building the tree from the bottom up, out of keys given in increasing order.
+     * The tree must be empty. The nodes are written one after the other as they fill,
+     *  on pages numbered level by level from the leaves up, so the root ends up on the last page.
+     * @param numKeys the number of keys that will be given; more than 0
+     * @param fillFactor how full to make the nodes, from 0 to 1; a node always holds at least one key
+     *                   and an interior node at least three children, when n allows it
+     * @return the loader to give the keys to
+     * @throws IOException
+     */
+    public Loader load(int numKeys, double fillFactor) throws IOException {
+        return new Loader(numKeys, fillFactor);
+    }
+
+    /**
+     * Builds a tree from the bottom up. How many nodes each level has, and how many keys
+     *  or children go in each node, is worked out from the number of keys before any are given,
+     *  so the parent of every node is known when it is made and every node is written once, when it is full.
+     * A node is kept in memory only until it is full, so one node for each level is held at a time.
+     */
+    public class Loader {
+        private final int numKeys;
+        private final int[] counts; // number of nodes on each level, from the leaves up
+        private final int[] firstPages; // page of the first node on each level
+        private final int[] totals; // number of keys or children the nodes on each level hold between them
+        private final BplusTreeNode[] nodes; // node being filled on each level; null if it is full
+        private final int[] nodeIndexes; // index on its level of the node being filled on each level
+        private final int[][] pointerPages; // page of each pointer of the node being filled on each level
+        private final int[][] pointerIndexes; // index of each pointer of the node being filled on each level
+        private final int[] filled; // number of keys or children in the node being filled on each level
+        private BplusTreeNode lastLeaf; // the leaf the last key went in
+        private int added; // number of keys given so far
+
+        /**
+         * Constructs a Loader and sets aside the pages of the tree in its directory
+         * @param numKeys the number of keys that will be given
+         * @param fillFactor how full to make the nodes
+         * @throws IOException
+         */
+        private Loader(int numKeys, double fillFactor) throws IOException {
+            if (numKeys < 1 || n < 2 || getRoot().getValues().size() > 0){
+                throw new IllegalStateException("Only an empty tree with n of at least 2 can be loaded with at least one key");
+            }
+            int leafKeys = Math.max(1, Math.min(n, (int)Math.floor(n * fillFactor)));
+            int interiorChildren = Math.max(3, Math.min(n + 1, (int)Math.floor((n + 1) * fillFactor)));
+
+            List<Integer> levelCounts = new ArrayList<>();
+            levelCounts.add((numKeys + leafKeys - 1) / leafKeys);
+            while (levelCounts.get(levelCounts.size() - 1) > 1){
+                int below = levelCounts.get(levelCounts.size() - 1);
+                levelCounts.add((below + interiorChildren - 1) / interiorChildren);
+            }
+            int levels = levelCounts.size();
+            this.numKeys = numKeys;
+            this.counts = new int[levels];
+            this.firstPages = new int[levels];
+            this.totals = new int[levels];
+            int page = 1; //the first leaf goes on the page of the empty root
+            for (int level = 0; level < levels; level++){
+                counts[level] = levelCounts.get(level);
+                firstPages[level] = page;
+                totals[level] = level == 0 ? numKeys : counts[level - 1];
+                page += counts[level];
+            }
+            this.nodes = new BplusTreeNode[levels];
+            this.nodeIndexes = new int[levels];
+            Arrays.fill(nodeIndexes, -1);
+            this.pointerPages = new int[levels][];
+            this.pointerIndexes = new int[levels][];
+            this.filled = new int[levels];
+            this.added = 0;
+
+            lock.writeLock().lock();
+            try {
+                //the old root is written over, so it is not kept pinned
+                unpinAll();
+                pageBuffer.appendPages(treeId, 2, page - 2, true);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Helper function for the number of keys or children a node holds, when they are spread
+         *  as evenly as they can be over the nodes of its level
+         * @param level the level of the node
+         * @param index the index of the node on its level
+         * @return the number of keys in a leaf or children in an interior node
+         */
+        private int sizeOf(int level, int index) {
+            int size = totals[level] / counts[level];
+            return index < totals[level] % counts[level] ? size + 1 : size;
+        }
+
+        /**
+         * Adds the next key
+         * @param key the key; greater than the key added before it
+         * @param page the table page of the record with the key
+         * @throws IOException
+         */
+        public void add(Object key, int page) throws IOException {
+            if (added == numKeys){
+                throw new IllegalStateException("More keys were added than the loader was made for");
+            }
+            if (lastLeaf != null && lastLeaf.getValues().compare(lastLeaf.getValues().size() - 1, key) >= 0){
+                throw new IllegalStateException("Keys must be added in increasing order");
+            }
+            lock.writeLock().lock();
+            try {
+                addEntry(0, key, page, 0);
+                added += 1;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Helper function for adding a key to the leaf being filled, or a child to the interior node
+         *  being filled, on a level. A new node is made when the last one is full, which adds it
+         *  as a child of the level above.
+         * @param level the level to add to
+         * @param key the key; for a child, the lowest key under it
+         * @param page the table page the key points to, or the page of the child
+         * @param index 0 for a key, or -1 for a child
+         * @return the page of the node the key or child was added to
+         * @throws IOException
+         */
+        private int addEntry(int level, Object key, int page, int index) throws IOException {
+            BplusTreeNode node = nodes[level];
+            if (node == null){
+                nodeIndexes[level] += 1;
+                int nodePage = firstPages[level] + nodeIndexes[level];
+                int parent = level + 1 < counts.length ? addEntry(level + 1, key, nodePage, -1) : -1;
+                node = new BplusTreeNode(n, nodePage, treeId, parent, primaryKey.getType());
+                nodes[level] = node;
+                int size = sizeOf(level, nodeIndexes[level]);
+                pointerPages[level] = new int[size + 1];
+                pointerIndexes[level] = new int[size + 1];
+                filled[level] = 0;
+            }
+            //an interior node has one fewer key than children; its first child needs no key
+            if (level == 0 || filled[level] > 0){
+                node.getValues().insert(node.getValues().size(), key);
+            }
+            if (level == 0){
+                lastLeaf = node;
+            }
+            pointerPages[level][filled[level]] = page;
+            pointerIndexes[level][filled[level]] = index;
+            filled[level] += 1;
+
+            int size = sizeOf(level, nodeIndexes[level]);
+            if (filled[level] == size){
+                int count = size;
+                if (level == 0){
+                    //the last pointer of a leaf goes to the next leaf
+                    boolean lastNode = nodeIndexes[level] == counts[level] - 1;
+                    pointerPages[level][size] = lastNode ? -1 : node.getPageNumber() + 1;
+                    pointerIndexes[level][size] = -2;
+                    count += 1;
+                }
+                node.setPointers(pointerPages[level], pointerIndexes[level], count);
+                pushNode(node);
+                nodes[level] = null;
+            }
+            return node.getPageNumber();
+        }
+
+        /**
+         * Finishes the tree once every key has been added, making the last node written its root
+         * @throws IOException
+         */
+        public void finish() throws IOException {
+            if (added != numKeys){
+                throw new IllegalStateException("Fewer keys were added than the loader was made for");
+            }
+            lock.writeLock().lock();
+            try {
+                rootPage = firstPages[counts.length - 1];
+                height = counts.length;
+                Catalog.setRoot(treeId, rootPage);
+                pinUpperLevels();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Helper function for pinning the root, and the nodes right below it when they are not leaves
+     *  and fit in the part of the buffer that can be pinned, in place of the nodes pinned before
+     * @throws IOException
+     */
+    private void pinUpperLevels() throws IOException {
+        unpinAll();
+        int maxPinned = pageBuffer.getCapacity() / 4;
+        if (maxPinned < 1){
+            pinnedRootPointers = getRoot().getNumPointers();
+            return;
+        }
+        BplusTreeNode root = pin(rootPage);
+        if (height > 2 && root.getNumPointers() < maxPinned){
+            for (int i = 0; i < root.getNumPointers(); i++){
+                pin(root.getPointerPage(i));
+            }
+        }
+        pinnedRootPointers = root.getNumPointers();
+    }
+
+    /**
+     * Helper function for pinning a node in the buffer
+     * @param pageId the page of the node
+     * @return the node
+     * @throws IOException
+     */
+    private BplusTreeNode pin(int pageId) throws IOException {
+        BplusTreeNode node = (BplusTreeNode)pageBuffer.pinPage(treeId, pageId, primaryKey, true, false);
+        pinnedPages.add(pageId);
+        return node;
+    }
+
+    /**
+     * Helper function for unpinning every node the tree pinned
+     */
+    private void unpinAll() {
+        for (int pageId : pinnedPages){
+            pageBuffer.unpinPage(treeId, pageId, true);
+        }
+        pinnedPages.clear();
+    }
+}
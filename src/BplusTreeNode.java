@@ -1,50 +1,117 @@
-import java.nio.*;
-import java.nio.channels.FileChannel;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Collections;
 import java.io.*;
 
 
 /**
- * Manages all logic for and represents a B+ tree
+ * Manages all logic for and represents a node of a B+ tree.
+ *  The tree a node belongs to, which holds its root, is passed to every operation that walks the tree (see BplusTree).
+ *
+ * The keys of a node are held as primitives of the primary key's type (see NodeKeys).
+ * Each pointer is packed into a long: the page number in the high 32 bits and the index in the low 32 bits.
+ *  In a leaf a pointer holds the table page of the record with the key, with an index of 0,
+ *  and the last pointer holds the next leaf with an index of -2.
+ *  The records of a table are kept in primary key order, so where a record is in its page is found
+ *  from its key (see Page.indexOfKey); records moving within a page do not change the tree;
+ *  in an interior node a pointer holds a child node with an index of -1.
  * 
  * @author Tyler Black tcb8683, Teagan Harvey tph6529
  */
 public class BplusTreeNode {
-    private List<Object> values;
-    private List<int[]> pointers;
+    private NodeKeys values;
+    private long[] pointers; // one more pointer than there are values, in the first numPointers slots
+    private int numPointers;
     private int parentPointer;
     private int pageNumber;
     private AttributeType primaryKeyType;
     private int n;
     private int treeId;
-    private static BplusTreeNode rootNode;
+    private volatile int version; // incremented every time the node changes
+    private int cleanVersion; // the version that was last read from or written to disk
 
     public BplusTreeNode(int n, int pageNumber, int treeId, int parentPointer, AttributeType primaryKeyType){
-        this.values = new ArrayList<Object>();
-        this.pointers = new ArrayList<int[]>();
+        this.values = NodeKeys.forType(primaryKeyType);
+        this.pointers = new long[Math.max(2, Math.min(n + 3, 1024))];
+        this.numPointers = 0;
         this.parentPointer = parentPointer;
         this.primaryKeyType = primaryKeyType;
         this.treeId = treeId;
         this.pageNumber = pageNumber;
         this.n = n;
+        this.version = 1; //a new node has not been written to disk
+        this.cleanVersion = 0;
     }
 
     /**
      * return the set of values in this node
      */
-    public List<Object> getValues(){
+    public NodeKeys getValues(){
         return values;
     }
 
     /**
-     * return the set of pointers in this node
+     * get the number of pointers in this node; one more than the number of values, or 0 if it is empty
      */
-    public List<int[]> getPointers(){
-        return pointers;
+    public int getNumPointers(){
+        return numPointers;
+    }
+
+    /**
+     * get the page number a pointer of this node holds
+     */
+    public int getPointerPage(int index){
+        return (int)(pointers[index] >> 32);
+    }
+
+    /**
+     * get the index a pointer of this node holds
+     */
+    public int getPointerIndex(int index){
+        return (int)pointers[index];
+    }
+
+    /**
+     * packs a page number and an index into a pointer
+     */
+    private static long pointer(int page, int index){
+        return ((long)page << 32) | (index & 0xffffffffL);
+    }
+
+    /**
+     * sets a pointer of this node
+     */
+    private void setPointer(int index, int page, int pointerIndex){
+        pointers[index] = pointer(page, pointerIndex);
+    }
+
+    /**
+     * inserts a pointer into this node, moving the pointers from index on up by one
+     */
+    private void insertPointer(int index, int page, int pointerIndex){
+        if (numPointers == pointers.length){
+            pointers = Arrays.copyOf(pointers, numPointers * 2);
+        }
+        System.arraycopy(pointers, index, pointers, index + 1, numPointers - index);
+        pointers[index] = pointer(page, pointerIndex);
+        numPointers += 1;
+    }
+
+    /**
+     * removes a pointer from this node, moving the pointers after index down by one
+     */
+    private void removePointer(int index){
+        System.arraycopy(pointers, index + 1, pointers, index, numPointers - index - 1);
+        numPointers -= 1;
+    }
+
+    /**
+     * moves the pointers from index on out of this node into another node
+     */
+    private void movePointers(int from, BplusTreeNode other){
+        other.pointers = Arrays.copyOfRange(pointers, from, Math.max(numPointers, from + 2));
+        other.numPointers = numPointers - from;
+        numPointers = from;
     }
 
     /**
@@ -68,248 +135,253 @@ public class BplusTreeNode {
         return primaryKeyType; 
     }
 
-    // These 3 setters are used when reading/writing b+ tree nodes
+    // These 2 setters are used when reading b+ tree nodes
     /**
-     * set the values list for this node
+     * set the values for this node
      */
-    public void setValues(List<Object> values) {
+    public void setValues(NodeKeys values) {
         this.values = values;
+        this.version++;
     }
 
     /**
-     * set the pointers list for this node
+     * set the pointers for this node from page numbers and indexes
      */
-    public void setPointers(List<int[]> pointers) {
-        this.pointers = pointers;
+    public void setPointers(int[] pages, int[] indexes, int count) {
+        this.pointers = new long[Math.max(2, count + 2)];
+        for (int i = 0; i < count; i++){
+            pointers[i] = pointer(pages[i], indexes[i]);
+        }
+        this.numPointers = count;
+        this.version++;
     }
 
     /**
-     * function for seeing if the newValue Object is lessThan the value Object
+     * check if this node has changed since it was last written to disk
      */
-    private boolean lessThan(Object newValue, Object value){
-        if (primaryKeyType == AttributeType.BOOLEAN){
-            if (((Boolean)newValue).equals(false) && ((Boolean)value).equals(true)){
-                return true;
-            }
-            return false;
-        } else if (primaryKeyType == AttributeType.INTEGER){
-            return (Integer)newValue < (Integer)value;
-        } else if (primaryKeyType == AttributeType.DOUBLE){
-            return (Double)newValue < (Double)value;
-        } else {
-            String newValueString = (String)newValue;
-            String valueString = (String)value;
-            int result = newValueString.compareTo(valueString);
-            if (result < 0){
-                return true;
+    public boolean isDirty() {
+        return version != cleanVersion;
+    }
+
+    /**
+     * mark this node as matching what is on disk; used after reading/writing the node
+     */
+    public void markClean() {
+        this.cleanVersion = version;
+    }
+
+    /**
+     * get the version of this node; it changes every time the node changes
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * mark this node as matching what is on disk as of the given version;
+     *  the node stays dirty if it has changed since that version was written
+     */
+    public void markClean(int writtenVersion) {
+        if (version == writtenVersion) {
+            this.cleanVersion = writtenVersion;
+        }
+    }
+
+    /**
+     * function for seeing if the value at an index of this node is lessThan the value Object
+     */
+    private boolean lessThan(int valueIndex, Object value){
+        return values.compare(valueIndex, value) < 0;
+    }
+
+    /**
+     * Binary searches the values of this node
+     * @param value value to search for
+     * @param after true to find the first value greater than value,
+     *              false to find the first value that is not less than value
+     * @return the index of the value found; values.size() if there is none
+     */
+    public int searchValues(Object value, boolean after){
+        int low = 0;
+        int high = values.size();
+        while (low < high){
+            int middle = (low + high) >>> 1;
+            int compared = values.compare(middle, value);
+            if (compared > 0 || (!after && compared == 0)){
+                high = middle;
+            } else {
+                low = middle + 1;
             }
-            return false;
         }
+        return low;
+    }
+
+    /**
+     * function for seeing if this node is a leaf; a leaf's pointers go to table pages
+     */
+    public boolean isLeaf(){
+        return getPointerIndex(0) != -1;
+    }
+
+    /**
+     * Finds where the record with a primary key value is, by traversing to the leaf layer
+     * @param tree the tree this node belongs to
+     * @param key primary key value to look for
+     * @return the table page the record is in; -1 if the key is not in the tree
+     * @throws IOException
+     */
+    public int search(BplusTree tree, Object key) throws IOException{
+        if (values.size() == 0){
+            return -1;
+        }
+        BplusTreeNode leaf = traversBplusTree(tree, key);
+        int index = leaf.searchValues(key, false);
+        if (index == leaf.values.size() || !leaf.values.matches(index, key)){
+            return -1;
+        }
+        return leaf.getPointerPage(index);
     }
 
     /**
      * adds a new value to the B+ tree by traversing to leaf layer, if full, splits and passes value up
+     * @param tree the tree this node belongs to
      * @param newValue value to add
-     * @return pointer to insert value in table
+     * @return the table page to insert the record with the value in; -1 if the value is already in the tree
      * @throws IOException
      */
-    public int[] addNewValue(Object newValue) throws IOException{
+    public int addNewValue(BplusTree tree, Object newValue) throws IOException{
         // if empty node, set default values
         if (values.size() == 0){
-            values.add(newValue);
-            int[] pointer = {1, 0};
-            pointers.add(pointer);
-            int[] lastPointer = {-1, -2};
-            pointers.add(lastPointer);
+            values.insert(0, newValue);
+            insertPointer(0, 1, 0);
+            insertPointer(1, -1, -2);
+            this.version++;
             //push this node to the buffer
-            List<Integer> pageOrder = StorageManager.getPageOrder(this.treeId, true);
-            StorageManager.pushBplusNode(this.treeId, this.pageNumber, this, pageOrder);
-            return pointer;
-        }
-        int[] pointer = null;
-        int value_index = 0;
-        // loop through list; if less than value, go to pointer on the left
-        for (value_index = 0; value_index < values.size(); value_index++){
-            if(newValue.equals(values.get(value_index))){
-                pointer = pointers.get(value_index);
-                if(pointer[1] != -1){
-                    return null;
-                }
-            }else if (lessThan(newValue, values.get(value_index))){
-                pointer = pointers.get(value_index);
-                break;
-            }
-        }
-        // else go to last pointer
-        if(pointer == null){
-            //use values.size() because pointers is always 1 greater than values
-            // so last index of pointers would be values.size()
-            pointer = pointers.get(values.size());
+            tree.pushNode(this);
+            return 1;
         }
+        // go to the pointer on the left of the first value greater than newValue;
+        //  if there is none, this is values.size(), the last pointer
+        int value_index = searchValues(newValue, true);
+        int pointer = value_index; //index of the pointer to follow
 
         // is leaf node
-        if(pointer[1] != -1){
-            // add value to node
-            values.add(value_index, newValue);
-            //add new pointer to node
-            int[] value_pointer = new int[2];
-            if(value_index > 0){
-                value_pointer[0] = pointers.get(value_index - 1)[0];
-                value_pointer[1] = pointers.get(value_index - 1)[1]+1;
-            }else{
-                value_pointer[0] = pointers.get(value_index)[0];
-                value_pointer[1] = pointers.get(value_index)[1];
+        if(isLeaf()){
+            // already in the tree
+            if(value_index > 0 && values.matches(value_index - 1, newValue)){
+                return -1;
             }
-            pointers.add(value_index, value_pointer);
-
-
-            BplusTreeNode currentNode = this;
-            int currentIndex = value_index + 1;
-            int tablePageNumber = this.pointers.get(value_index)[0];
-            List<int[]> currentPointers = this.pointers;
+            // add value to node
+            values.insert(value_index, newValue);
+            //the record goes in the page of the record before it, or of the one after it for a first key;
+            //  where it goes in that page is found from its key, so no other pointer changes
+            int value_page = getPointerPage(value_index > 0 ? value_index - 1 : value_index);
+            insertPointer(value_index, value_page, 0);
+            this.version++;
+            tree.pushNode(this);
             List<Integer> pageOrder = StorageManager.getPageOrder(treeId, true);
 
-            // if last pointer in node, get next node
-            boolean end = false;
-            if(currentIndex == pointers.size() - 1){
-                if (currentPointers.get(currentIndex)[0] == -1){
-                    end = true;
-                }else{
-                    currentNode = StorageManager.getBplusNode(treeId, currentPointers.get(currentIndex)[0], pageOrder);
-                    currentIndex = 0;
-                    currentPointers = currentNode.pointers;
-                }
-            }
-            // loop through pointers after inserted pointer and add 1 to index until the pointer is to new tablePage
-            //This will always push the updates to this node, so don't have to worry about that later
-            while(!end){
-                if (currentPointers.get(currentIndex)[0] != tablePageNumber){
-                    break;
-                }
-
-                int[] updated_pointer = currentPointers.get(currentIndex);
-                updated_pointer[1] += 1;
-                currentNode.pointers.set(currentIndex, updated_pointer);
-
-                // if last value pointer in node, get next node
-                if (currentIndex == currentPointers.size() - 2){
-                    //push current node before getting new
-                    StorageManager.pushBplusNode(this.treeId,currentNode.pageNumber, currentNode, pageOrder);
-                    //Same problem as up above
-                    if (currentPointers.get(currentPointers.size() -1)[0] == -1){
-                        break;
-                    }
-                    currentNode = StorageManager.getBplusNode(treeId, currentPointers.get(currentPointers.size() -1)[0], pageOrder);
-                    currentIndex = 0;
-                    currentPointers = currentNode.pointers;
-                } else {
-                    currentIndex += 1;
-                }
-            }
-
             // can't insert
             if(values.size() > n){
                 // calculate where to split
                 int split_index = (int)Math.ceil(n / 2.0);
-                Object split_value = values.get(split_index);
-
-                List<Object> oldValues = new ArrayList<>(values);
-                List<int[]> oldPointers = new ArrayList<>(pointers);
                 
                 // split node in half
                 BplusTreeNode rightNode = new BplusTreeNode(n, Collections.max(pageOrder)+1, this.treeId ,parentPointer, primaryKeyType);
                 
-                // copy values and pointers from old node to split nodes
-                List<Object> leftNodeValuesSublist = oldValues.subList(0, split_index);
-                this.values = new ArrayList<>(leftNodeValuesSublist);
-                
-                List<int[]> leftNodePointersSublist = oldPointers.subList(0, split_index);
-                this.pointers = new ArrayList<>(leftNodePointersSublist);
-
-                List<Object> rightNodeValuesSublist = oldValues.subList(split_index, oldValues.size());
-                rightNode.values = new ArrayList<>(rightNodeValuesSublist);
-
-                List<int[]> rightNodePointersSublist = oldPointers.subList(split_index, oldPointers.size());
-                rightNode.pointers = new ArrayList<>(rightNodePointersSublist);
+                // move values and pointers from split_index on to the right node
+                rightNode.values = this.values.splitOff(split_index);
+                movePointers(split_index, rightNode);
+                this.version++;
 
                 //Need to add a pointer in left pointers that points to right page
-                int[] newLeftNodePointer = {rightNode.pageNumber, -2};
-                this.pointers.add(newLeftNodePointer);
+                insertPointer(numPointers, rightNode.pageNumber, -2);
 
                 //put the new page at the end
-                pageOrder = StorageManager.rewriteTableFileHeader(treeId, pageOrder.size(), Collections.max(pageOrder)+1, true);
+                pageOrder = StorageManager.insertPageIntoDirectory(treeId, pageOrder.size(), Collections.max(pageOrder)+1, true);
 
                 //push leftNode
-                StorageManager.pushBplusNode(treeId, pageNumber, this, pageOrder);
+                tree.pushNode(this);
                 //push rightNode
-                StorageManager.pushBplusNode(treeId, rightNode.pageNumber, rightNode, pageOrder);
+                tree.pushNode(rightNode);
 
                 //handle what happens at root
                 if (this.parentPointer == -1){
                     BplusTreeNode newParent = new BplusTreeNode(n,Collections.max(pageOrder)+1, this.treeId,-1, primaryKeyType);
-                    pageOrder = StorageManager.rewriteTableFileHeader(this.treeId, pageOrder.size(), Collections.max(pageOrder)+1, true);
-                    StorageManager.pushBplusNode(this.treeId, newParent.pageNumber, newParent, pageOrder);
+                    pageOrder = StorageManager.insertPageIntoDirectory(this.treeId, pageOrder.size(), Collections.max(pageOrder)+1, true);
+                    tree.pushNode(newParent);
 
                     this.setParent(newParent.pageNumber);
-                    StorageManager.pushBplusNode(this.treeId, this.pageNumber, this, pageOrder);
+                    tree.pushNode(this);
                     rightNode.setParent(newParent.pageNumber);
-                    StorageManager.pushBplusNode(this.treeId, rightNode.pageNumber, rightNode, pageOrder);
-                    newParent.reflectUp(rightNode.values.get(0), this, rightNode);
-                    setRoot(newParent);
+                    tree.pushNode(rightNode);
+                    newParent.reflectUp(tree, rightNode.values.get(0), this, rightNode);
+                    tree.setRoot(newParent);
                 }else {
-                    BplusTreeNode parent = StorageManager.getBplusNode(this.treeId, this.parentPointer, pageOrder);
-                    parent.reflectUp(rightNode.values.get(0), this, rightNode);
+                    BplusTreeNode parent = tree.getNode(this.parentPointer);
+                    parent.reflectUp(tree, rightNode.values.get(0), this, rightNode);
                 }
             }
-            return value_pointer;
+            return value_page;
         // not a leaf node
         } else {
-            int childPageNum = pointer[0];
-            //BplusTreeNode childNode = pages.get(childPageNum);
-            List<Integer> pageOrder = StorageManager.getPageOrder(this.treeId, true);
-            BplusTreeNode childNode = StorageManager.getBplusNode(this.treeId, childPageNum, pageOrder);
-            return childNode.addNewValue(newValue);
+            int childPageNum = getPointerPage(pointer);
+            BplusTreeNode childNode = tree.getNode(childPageNum);
+            return childNode.addNewValue(tree, newValue);
         }
     }
 
+    /**
+     * removes a value from its leaf, by traversing to the leaf layer.
+     *  Nodes are never merged, so a value is only removed if its leaf keeps at least one other value;
+     *  the values above the leaf still send every key to the right leaf without it
+     * @param tree the tree this node belongs to
+     * @param value value to remove
+     * @return true if the value was removed; false if it is not in the tree or is the only value in its leaf
+     * @throws IOException
+     */
+    public boolean removeValue(BplusTree tree, Object value) throws IOException{
+        if (values.size() == 0){
+            return false;
+        }
+        BplusTreeNode leaf = traversBplusTree(tree, value);
+        int index = leaf.searchValues(value, false);
+        if (index == leaf.values.size() || !leaf.values.matches(index, value) || leaf.values.size() == 1){
+            return false;
+        }
+        leaf.values.remove(index);
+        leaf.removePointer(index);
+        leaf.version++;
+        tree.pushNode(leaf);
+        return true;
+    }
+
     /**
      * adds a value to the given node and if full, splits, updates children pointers, and passes value up
+     * @param tree the tree this node belongs to
      * @param value value to be added
      * @param leftNode left node child
      * @param rightNode right node child
      * @throws IOException
      */
-    private void reflectUp(Object value, BplusTreeNode leftNode, BplusTreeNode rightNode) throws IOException{
+    private void reflectUp(BplusTree tree, Object value, BplusTreeNode leftNode, BplusTreeNode rightNode) throws IOException{
         if (values.size() == 0){
-            values.add(value);
-            int[] pointer = {leftNode.pageNumber, -1};
-            pointers.add(pointer);
-            int[] lastPointer = {rightNode.pageNumber, -1};
-            pointers.add(lastPointer);
+            values.insert(0, value);
+            insertPointer(0, leftNode.pageNumber, -1);
+            insertPointer(1, rightNode.pageNumber, -1);
+            this.version++;
             //push this node to the buffer
-            List<Integer> pageOrder = StorageManager.getPageOrder(this.treeId, true);
-            StorageManager.pushBplusNode(this.treeId, this.pageNumber, this, pageOrder);
+            tree.pushNode(this);
             return;
         }
-        int value_index = 0;
-        // loop through list;
-        for (value_index = 0; value_index < values.size(); value_index++){
-            if (lessThan(value, values.get(value_index))){
-                break;
-            }
-        }
+        int value_index = searchValues(value, true);
 
         // add value to node
-        values.add(value_index, value);
-        //temp pointer
-        int[] temp_value_pointer = {-1, -1};
-        pointers.add(value_index, temp_value_pointer);
-
-        int[] left_node_pointer = {leftNode.pageNumber, -1};
-        pointers.set(value_index, left_node_pointer);
-
-        int[] right_node_pointer = {rightNode.pageNumber, -1};
-        pointers.set(value_index+1, right_node_pointer);
+        values.insert(value_index, value);
+        //the left node goes before the value and the right node takes the place of the old pointer after it
+        insertPointer(value_index, leftNode.pageNumber, -1);
+        setPointer(value_index+1, rightNode.pageNumber, -1);
+        this.version++;
 
         //push this node so updates are saved
         List<Integer> pageOrder = StorageManager.getPageOrder(this.treeId, true);
@@ -319,168 +391,138 @@ public class BplusTreeNode {
 
             // calculate where to split
             int split_index = (int)Math.ceil(n / 2.0);
-            Object split_value = values.get(split_index);
             
             // split node in half
             BplusTreeNode newRightNode = new BplusTreeNode(n, Collections.max(pageOrder)+1, this.treeId, parentPointer, primaryKeyType);
             
-            // copy values and pointers from old node to split nodes
-            List<Object> oldValues = new ArrayList<>(values);
-            List<int[]> oldPointers = new ArrayList<>(pointers);
-
-            List<Object> newLeftNodeValuesSublist = oldValues.subList(0, split_index);
-            this.values = new ArrayList<>(newLeftNodeValuesSublist);
-            //for interior, need to get one more pointer than split_index
-            List<int[]> newLeftNodePointersSublist = oldPointers.subList(0, split_index+1);
-            this.pointers = new ArrayList<>(newLeftNodePointersSublist);
-
-            List<Object> newRightNodeValuesSublist = oldValues.subList(split_index, oldValues.size());
-            newRightNode.values = new ArrayList<>(newRightNodeValuesSublist);
-            List<int[]> newRightNodePointersSublist = oldPointers.subList(split_index+1, oldPointers.size());
-            newRightNode.pointers = new ArrayList<>(newRightNodePointersSublist);
+            // move values and pointers to the right node
+            newRightNode.values = this.values.splitOff(split_index);
+            //for interior, need to keep one more pointer than split_index
+            movePointers(split_index+1, newRightNode);
+            this.version++;
 
             //Need to remove first in the right because it is reflecting up 
-            Object reflectUpValue = newRightNode.values.remove(0);
+            Object reflectUpValue = newRightNode.values.get(0);
+            newRightNode.values.remove(0);
 
             //put the new page at the end
-            pageOrder = StorageManager.rewriteTableFileHeader(treeId, pageOrder.size(), Collections.max(pageOrder)+1, true);
+            pageOrder = StorageManager.insertPageIntoDirectory(treeId, pageOrder.size(), Collections.max(pageOrder)+1, true);
 
             //push leftNode
-            StorageManager.pushBplusNode(treeId, this.pageNumber, this, pageOrder);
+            tree.pushNode(this);
             //push rightNode
-            StorageManager.pushBplusNode(treeId, newRightNode.pageNumber, newRightNode, pageOrder);
+            tree.pushNode(newRightNode);
 
             // update all children of right node to point to right node as parent
-            for(int[] pointer : newRightNode.pointers) {
-                if(pointer[0] != -1){
-                    BplusTreeNode child = StorageManager.getBplusNode(treeId, pointer[0], pageOrder);
+            for(int i = 0; i < newRightNode.numPointers; i++) {
+                int childPage = newRightNode.getPointerPage(i);
+                if(childPage != -1){
+                    BplusTreeNode child = tree.getNode(childPage);
                     child.setParent(newRightNode.pageNumber);
-                    StorageManager.pushBplusNode(treeId, child.pageNumber, child, pageOrder);
+                    tree.pushNode(child);
                 } 
             }
 
             //handles what happens at a root
             if (this.parentPointer == -1){
                 BplusTreeNode newParent = new BplusTreeNode(n,Collections.max(pageOrder)+1, this.treeId, -1, primaryKeyType);
-                pageOrder = StorageManager.rewriteTableFileHeader(this.treeId, pageOrder.size(), Collections.max(pageOrder)+1, true);
-                StorageManager.pushBplusNode(this.treeId, newParent.pageNumber, newParent, pageOrder);
+                pageOrder = StorageManager.insertPageIntoDirectory(this.treeId, pageOrder.size(), Collections.max(pageOrder)+1, true);
+                tree.pushNode(newParent);
 
                 this.setParent(newParent.pageNumber);
-                StorageManager.pushBplusNode(this.treeId, this.pageNumber, this, pageOrder);
+                tree.pushNode(this);
                 newRightNode.setParent(newParent.pageNumber);
-                StorageManager.pushBplusNode(this.treeId, newRightNode.pageNumber, newRightNode, pageOrder);
-                newParent.reflectUp(reflectUpValue, this, newRightNode);
-                setRoot(newParent);
+                tree.pushNode(newRightNode);
+                newParent.reflectUp(tree, reflectUpValue, this, newRightNode);
+                tree.setRoot(newParent);
             } else {
-                BplusTreeNode parent = StorageManager.getBplusNode(this.treeId, this.parentPointer, pageOrder);
-                parent.reflectUp(reflectUpValue, this, newRightNode);
+                BplusTreeNode parent = tree.getNode(this.parentPointer);
+                parent.reflectUp(tree, reflectUpValue, this, newRightNode);
             }
         }
 
     }
 
-    /**
-     * Sets the root of the tree
-     * @param newRoot the root to be set
-     * @throws IOException
-     */
-    public static void setRoot(BplusTreeNode newRoot) throws IOException{
-        rootNode = newRoot;
-        Catalog.setRoot(newRoot.treeId, newRoot.pageNumber);
-    }
-
     /**
      * sets the parent pointer of current node
      * @param parentPointer node to be set as parent
      */
     private void setParent(int parentPointer){
         this.parentPointer = parentPointer;
+        this.version++;
     }
 
     /**
      * traverses the tree to leaf layer based on given valuer and returns leaf
+     * @param tree the tree this node belongs to
      * @param value value to traverse by
-     * @param pageOrder order of nodes
      * @return leaf with value
      * @throws IOException
      */
-    private BplusTreeNode traversBplusTree(Object value, List<Integer> pageOrder) throws IOException{
+    public BplusTreeNode traversBplusTree(BplusTree tree, Object value) throws IOException{
         //if it made it to the leaf node, return the leaf node
-        if (this.pointers.get(0)[1] != -1){
+        if (isLeaf()){
             return this;
         }
 
-        for (int i = 0; i < this.values.size(); i++){
-            if (lessThan(value, values.get(i))){
-                BplusTreeNode child = StorageManager.getBplusNode(this.treeId, this.pointers.get(i)[0], pageOrder);
-                return child.traversBplusTree(value, pageOrder);
-            }
-        }
-        BplusTreeNode child = StorageManager.getBplusNode(this.treeId, this.pointers.get(values.size())[0], pageOrder);
-        return child.traversBplusTree(value, pageOrder);
+        // go to the pointer on the left of the first value greater than value
+        BplusTreeNode child = tree.getNode(getPointerPage(searchValues(value, true)));
+        return child.traversBplusTree(tree, value);
     }
 
     /**
-     * Updates a range of pointers between two given index keys
+     * Updates a range of pointers between two given index keys, after the records with them
+     *  moved to a new table page
+     * @param tree the tree this node belongs to
      * @param first first index key in rnage
      * @param last last index key in range
      * @param newPageId new page id to set
      * @throws IOException
      */
-    public void updatePagePointer(Object first, Object last, int newPageId) throws IOException{
-        List<Integer> pageOrder = StorageManager.getPageOrder(this.treeId, true);
-        BplusTreeNode currentNode = traversBplusTree(first, pageOrder);
-        int currentIndex = 0; //index in the pointers array
-        while (lessThan(currentNode.values.get(currentIndex), first)){
-            currentIndex += 1;
-        }
-        List<int[]> currentPointers = currentNode.pointers;
-        Object currentValue = first;
-        int pageIndex = 0; //index in the table page
+    public void updatePagePointer(BplusTree tree, Object first, Object last, int newPageId) throws IOException{
+        BplusTreeNode currentNode = traversBplusTree(tree, first);
+        int currentIndex = currentNode.searchValues(first, false); //index in the pointers array
+        //whether the value the pointer being updated belongs to is before last; it starts at first
+        NodeKeys firstKey = NodeKeys.forType(primaryKeyType);
+        firstKey.insert(0, first);
+        boolean beforeLast = firstKey.compare(0, last) < 0;
 
         // if last pointer in node, get next node
         boolean end = false;
-        if(currentIndex == currentPointers.size() - 1){
-            if (currentPointers.get(currentIndex)[0] == -1){
+        if(currentIndex == currentNode.numPointers - 1){
+            if (currentNode.getPointerPage(currentIndex) == -1){
                 end = true;
             }else{
-                currentNode = StorageManager.getBplusNode(this.treeId, currentPointers.get(currentIndex)[0], pageOrder);
+                currentNode = tree.getNode(currentNode.getPointerPage(currentIndex));
                 currentIndex = 0;
-                currentPointers = currentNode.pointers;
             }
         }
-        // loop through pointers after inserted pointer and add 1 to index until the pointer is to new tablePage
+        // loop through the pointers from first to last, pointing each at the new tablePage
         while(!end){
-            // updates pagePointer and index in BplusNodes to match new tablePage
-            int[] updated_pointer = currentPointers.get(currentIndex);
-            updated_pointer[0] = newPageId;
-            updated_pointer[1] = pageIndex;
-            currentNode.pointers.set(currentIndex, updated_pointer);
+            currentNode.setPointer(currentIndex, newPageId, 0);
+            currentNode.version++;
             
-            if (!lessThan(currentValue, last)){
+            if (!beforeLast){
                 //push current node
-                StorageManager.pushBplusNode(this.treeId,currentNode.pageNumber, currentNode, pageOrder);
+                tree.pushNode(currentNode);
                 break;
             }
 
-            pageIndex += 1;
-
             // if last value pointer in node, get next node
-            if (currentIndex == currentPointers.size() - 2){
+            if (currentIndex == currentNode.numPointers - 2){
                 //push current node before getting new
-                StorageManager.pushBplusNode(this.treeId,currentNode.pageNumber, currentNode, pageOrder);
-                //currentNode = pages.get(currentPointers.get(currentPointers.size() -1)[0]);
-                if (currentPointers.get(currentPointers.size() -1)[0] == -1){
+                tree.pushNode(currentNode);
+                int nextPage = currentNode.getPointerPage(currentNode.numPointers - 1);
+                if (nextPage == -1){
                     break;
                 }
-                currentNode = StorageManager.getBplusNode(treeId, currentPointers.get(currentPointers.size() -1)[0], pageOrder);
+                currentNode = tree.getNode(nextPage);
                 currentIndex = 0;
-                currentPointers = currentNode.pointers;
             } else {
                 currentIndex += 1;
             }
             //update with the next value
-            currentValue = currentNode.values.get(currentIndex);
+            beforeLast = currentNode.lessThan(currentIndex, last);
         }
         
     }
@@ -0,0 +1,437 @@
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters kept by the page buffer: hits and misses, evictions, pages written back,
+ *  bytes read and written, a breakdown of those by table, and how long reads and writes take.
+ * Every counter is a LongAdder or an atomic, so the buffer can count from any thread
+ *  without taking a lock; the counts are only added up when a snapshot is taken.
+ * A snapshot is a copy of the counts at one point in time and does not change after it is taken.
+ *
+ * @author Tyler Black tcb8683
+ */
+public class BufferStats {
+    private final LongAdder hits; // pages asked for that were in the buffer
+    private final LongAdder misses; // pages asked for that were not in the buffer
+    private final LongAdder slabHits; // misses that were served from the off-heap slab
+    private final LongAdder readAheadHits; // misses that were served by a page read ahead
+    private final LongAdder evictions; // pages evicted from the buffer
+    private final LongAdder dirtyEvictions; // evicted pages that had to be written before they could leave
+    private final LongAdder pagesRead; // pages read from disk
+    private final LongAdder pagesWritten; // pages written to disk
+    private final LongAdder bytesRead; // bytes read from disk
+    private final LongAdder bytesWritten; // bytes written to disk
+    private final LongAdder pagesReadAhead; // pages read from disk ahead of a scan
+    private final Map<Integer, TableCounters> tables; // counters of each table
+    private final LatencyHistogram readLatency; // time taken by each read from disk
+    private final LatencyHistogram writeLatency; // time taken by each write to disk
+
+    /**
+     * Counters of one table
+     */
+    static class TableCounters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder pagesRead = new LongAdder();
+        final LongAdder pagesWritten = new LongAdder();
+    }
+
+    /**
+     * Counts how long operations take in buckets of powers of two microseconds.
+     * Bucket i holds the operations that took less than 2^i microseconds
+     *  and at least 2^(i-1); the last bucket holds everything slower.
+     */
+    static class LatencyHistogram {
+        static final int NUM_BUCKETS = 32;
+        private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        /**
+         * Records one operation
+         * @param nanos how long it took in nanoseconds
+         */
+        void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            int bucket = Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        Latency snapshot() {
+            long[] counts = new long[NUM_BUCKETS];
+            for (int i = 0; i < NUM_BUCKETS; i++){
+                counts[i] = buckets.get(i);
+            }
+            return new Latency(counts, totalNanos.sum(), maxNanos.get());
+        }
+
+        void reset() {
+            for (int i = 0; i < NUM_BUCKETS; i++){
+                buckets.set(i, 0);
+            }
+            totalNanos.reset();
+            maxNanos.reset();
+        }
+    }
+
+    /**
+     * Constructs a BufferStats with every count at 0
+     */
+    public BufferStats() {
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.slabHits = new LongAdder();
+        this.readAheadHits = new LongAdder();
+        this.evictions = new LongAdder();
+        this.dirtyEvictions = new LongAdder();
+        this.pagesRead = new LongAdder();
+        this.pagesWritten = new LongAdder();
+        this.bytesRead = new LongAdder();
+        this.bytesWritten = new LongAdder();
+        this.pagesReadAhead = new LongAdder();
+        this.tables = new ConcurrentHashMap<>();
+        this.readLatency = new LatencyHistogram();
+        this.writeLatency = new LatencyHistogram();
+    }
+
+    /**
+     * Gets the counters of a table, making them the first time the table is counted
+     * @param tableId the id of the table
+     * @return the counters
+     */
+    private TableCounters getTable(int tableId) {
+        TableCounters counters = tables.get(tableId);
+        if (counters == null){
+            counters = tables.computeIfAbsent(tableId, id -> new TableCounters());
+        }
+        return counters;
+    }
+
+    /**
+     * Counts a page that was asked for and found in the buffer
+     * @param tableId the id of the table the page belongs to
+     */
+    public void recordHit(int tableId) {
+        hits.increment();
+        getTable(tableId).hits.increment();
+    }
+
+    /**
+     * Counts a page that was asked for and was not in the buffer
+     * @param tableId the id of the table the page belongs to
+     */
+    public void recordMiss(int tableId) {
+        misses.increment();
+        getTable(tableId).misses.increment();
+    }
+
+    /**
+     * Counts a miss that was served from the off-heap slab instead of disk
+     */
+    public void recordSlabHit() {
+        slabHits.increment();
+    }
+
+    /**
+     * Counts a miss that was served by a page read ahead of a scan
+     */
+    public void recordReadAheadHit() {
+        readAheadHits.increment();
+    }
+
+    /**
+     * Counts a page evicted from the buffer
+     * @param writtenBack true if the page had to be written to disk before it could leave
+     */
+    public void recordEviction(boolean writtenBack) {
+        evictions.increment();
+        if (writtenBack){
+            dirtyEvictions.increment();
+        }
+    }
+
+    /**
+     * Counts a read of one page from disk
+     * @param tableId the id of the table the page belongs to
+     * @param bytes the number of bytes read
+     * @param nanos how long the read took in nanoseconds
+     */
+    public void recordRead(int tableId, long bytes, long nanos) {
+        pagesRead.increment();
+        bytesRead.add(bytes);
+        getTable(tableId).pagesRead.increment();
+        readLatency.record(nanos);
+    }
+
+    /**
+     * Counts a page read from disk ahead of a scan; the read itself is counted by recordRead
+     */
+    public void recordReadAhead() {
+        pagesReadAhead.increment();
+    }
+
+    /**
+     * Counts a write of one or more neighboring pages to disk
+     * @param tableId the id of the table the pages belong to
+     * @param pages the number of pages written
+     * @param bytes the number of bytes written
+     * @param nanos how long the write took in nanoseconds
+     */
+    public void recordWrite(int tableId, int pages, long bytes, long nanos) {
+        pagesWritten.add(pages);
+        bytesWritten.add(bytes);
+        getTable(tableId).pagesWritten.add(pages);
+        writeLatency.record(nanos);
+    }
+
+    /**
+     * Drops the counters of a table that has been deleted; its counts stay in the totals
+     * @param tableId the id of the table
+     */
+    public void removeTable(int tableId) {
+        tables.remove(tableId);
+    }
+
+    /**
+     * Adds the counters of a table to the counters of the table rebuilt to replace it,
+     *  so the history of a table is not lost each time an update, delete or alter rebuilds it
+     * @param oldTableId the id of the table being replaced
+     * @param newTableId the id of the table replacing it
+     */
+    public void moveTable(int oldTableId, int newTableId) {
+        TableCounters old = tables.remove(oldTableId);
+        if (old != null){
+            TableCounters counters = getTable(newTableId);
+            counters.hits.add(old.hits.sum());
+            counters.misses.add(old.misses.sum());
+            counters.pagesRead.add(old.pagesRead.sum());
+            counters.pagesWritten.add(old.pagesWritten.sum());
+        }
+    }
+
+    /**
+     * Sets every count back to 0.
+     * Counts made while the reset is happening may or may not be kept.
+     */
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        slabHits.reset();
+        readAheadHits.reset();
+        evictions.reset();
+        dirtyEvictions.reset();
+        pagesRead.reset();
+        pagesWritten.reset();
+        bytesRead.reset();
+        bytesWritten.reset();
+        pagesReadAhead.reset();
+        tables.clear();
+        readLatency.reset();
+        writeLatency.reset();
+    }
+
+    /**
+     * Takes a snapshot of the counts
+     * @param bufferSize the number of pages the buffer holds
+     * @param pageSize the size of a page in bytes
+     * @param pagesInBuffer the number of pages in the buffer right now
+     * @param slabFrames the number of frames in the off-heap slab; 0 if there is no slab
+     * @param pagesInSlab the number of page images in the slab right now
+     * @return the snapshot
+     */
+    public Snapshot snapshot(int bufferSize, int pageSize, int pagesInBuffer, int slabFrames, int pagesInSlab) {
+        Map<Integer, TableSnapshot> tableSnapshots = new TreeMap<>();
+        for (Map.Entry<Integer, TableCounters> entry : tables.entrySet()){
+            TableCounters counters = entry.getValue();
+            tableSnapshots.put(entry.getKey(), new TableSnapshot(counters.hits.sum(), counters.misses.sum(),
+                                                                 counters.pagesRead.sum(), counters.pagesWritten.sum()));
+        }
+        return new Snapshot(this, bufferSize, pageSize, pagesInBuffer, slabFrames, pagesInSlab,
+                            Collections.unmodifiableMap(tableSnapshots));
+    }
+
+    /**
+     * The counts of the buffer at one point in time
+     */
+    public static class Snapshot {
+        private final int bufferSize;
+        private final int pageSize;
+        private final int pagesInBuffer;
+        private final int slabFrames;
+        private final int pagesInSlab;
+        private final long hits;
+        private final long misses;
+        private final long slabHits;
+        private final long readAheadHits;
+        private final long evictions;
+        private final long dirtyEvictions;
+        private final long pagesRead;
+        private final long pagesWritten;
+        private final long bytesRead;
+        private final long bytesWritten;
+        private final long pagesReadAhead;
+        private final Map<Integer, TableSnapshot> tables;
+        private final Latency readLatency;
+        private final Latency writeLatency;
+
+        private Snapshot(BufferStats stats, int bufferSize, int pageSize, int pagesInBuffer,
+                         int slabFrames, int pagesInSlab, Map<Integer, TableSnapshot> tables) {
+            this.bufferSize = bufferSize;
+            this.pageSize = pageSize;
+            this.pagesInBuffer = pagesInBuffer;
+            this.slabFrames = slabFrames;
+            this.pagesInSlab = pagesInSlab;
+            this.hits = stats.hits.sum();
+            this.misses = stats.misses.sum();
+            this.slabHits = stats.slabHits.sum();
+            this.readAheadHits = stats.readAheadHits.sum();
+            this.evictions = stats.evictions.sum();
+            this.dirtyEvictions = stats.dirtyEvictions.sum();
+            this.pagesRead = stats.pagesRead.sum();
+            this.pagesWritten = stats.pagesWritten.sum();
+            this.bytesRead = stats.bytesRead.sum();
+            this.bytesWritten = stats.bytesWritten.sum();
+            this.pagesReadAhead = stats.pagesReadAhead.sum();
+            this.tables = tables;
+            this.readLatency = stats.readLatency.snapshot();
+            this.writeLatency = stats.writeLatency.snapshot();
+        }
+
+        public int getBufferSize() { return bufferSize; }
+        public int getPageSize() { return pageSize; }
+        public int getPagesInBuffer() { return pagesInBuffer; }
+        public int getSlabFrames() { return slabFrames; }
+        public int getPagesInSlab() { return pagesInSlab; }
+        public long getHits() { return hits; }
+        public long getMisses() { return misses; }
+        public long getSlabHits() { return slabHits; }
+        public long getReadAheadHits() { return readAheadHits; }
+        public long getEvictions() { return evictions; }
+        public long getDirtyEvictions() { return dirtyEvictions; }
+        public long getPagesRead() { return pagesRead; }
+        public long getPagesWritten() { return pagesWritten; }
+        public long getBytesRead() { return bytesRead; }
+        public long getBytesWritten() { return bytesWritten; }
+        public long getPagesReadAhead() { return pagesReadAhead; }
+        public Latency getReadLatency() { return readLatency; }
+        public Latency getWriteLatency() { return writeLatency; }
+
+        /**
+         * Gets the counts of each table that has been counted and not deleted, by table id
+         * @return the counts of each table
+         */
+        public Map<Integer, TableSnapshot> getTables() { return tables; }
+
+        /**
+         * Gets the share of pages asked for that were in the buffer
+         * @return the hit ratio from 0 to 1; 0 if no pages have been asked for
+         */
+        public double getHitRatio() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double)hits / requests;
+        }
+    }
+
+    /**
+     * The counts of one table at one point in time
+     */
+    public static class TableSnapshot {
+        private final long hits;
+        private final long misses;
+        private final long pagesRead;
+        private final long pagesWritten;
+
+        private TableSnapshot(long hits, long misses, long pagesRead, long pagesWritten) {
+            this.hits = hits;
+            this.misses = misses;
+            this.pagesRead = pagesRead;
+            this.pagesWritten = pagesWritten;
+        }
+
+        public long getHits() { return hits; }
+        public long getMisses() { return misses; }
+        public long getPagesRead() { return pagesRead; }
+        public long getPagesWritten() { return pagesWritten; }
+
+        /**
+         * Gets the share of the table's pages asked for that were in the buffer
+         * @return the hit ratio from 0 to 1; 0 if no pages have been asked for
+         */
+        public double getHitRatio() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double)hits / requests;
+        }
+    }
+
+    /**
+     * A latency histogram at one point in time
+     */
+    public static class Latency {
+        private final long[] buckets;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        private Latency(long[] buckets, long totalNanos, long maxNanos) {
+            long count = 0;
+            for (long bucket : buckets){
+                count += bucket;
+            }
+            this.buckets = buckets;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /**
+         * Returns the number of operations counted
+         */
+        public long getCount() { return count; }
+
+        /**
+         * Returns the slowest operation in microseconds
+         */
+        public double getMaxMicros() { return maxNanos / 1000.0; }
+
+        /**
+         * Returns the average operation in microseconds; 0 if nothing was counted
+         */
+        public double getMeanMicros() {
+            return count == 0 ? 0 : totalNanos / 1000.0 / count;
+        }
+
+        /**
+         * Gets an upper bound on how long a given share of the operations took
+         * @param percentile the share of operations, from 0 to 100
+         * @return the upper bound of the bucket the percentile falls in, in microseconds; 0 if nothing was counted
+         */
+        public long getPercentileMicros(double percentile) {
+            if (count == 0){
+                return 0;
+            }
+            long rank = (long)Math.ceil(count * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++){
+                seen += buckets[i];
+                if (seen >= rank){
+                    return 1L << i;
+                }
+            }
+            return 1L << (buckets.length - 1);
+        }
+
+        /**
+         * Gets the number of operations in each bucket.
+         * Bucket i holds the operations that took less than 2^i microseconds.
+         * @return a copy of the buckets
+         */
+        public long[] getBuckets() { return buckets.clone(); }
+    }
+}
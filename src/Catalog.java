@@ -71,21 +71,7 @@ public class Catalog {
         lastUsedId += 1;
         tableSchemasByName.put(schema.getTableName(), schema);
 
-         BplusTreeNode root = null;
         if(givenIndexOn){
-            // 4.5 calculate n for the BplusTreeNode
-            AttributeSchema primaryKey = schema.getPrimaryKey();
-            AttributeType keyType = primaryKey.getType();
-
-            int keyPointerSize;
-            if (keyType == AttributeType.CHAR || keyType == AttributeType.VARCHAR){
-                keyPointerSize = primaryKey.getSize()*2 + 8;
-            } else{
-                keyPointerSize = primaryKey.getSize() + 8;
-            }
-            int n = (int)Math.floor(((double)pageSize)/keyPointerSize) - 1;
-            
-            root = new BplusTreeNode(n, 1, lastUsedId, -1, keyType);
             treeNodes.put(lastUsedId, 1);
         }
 
@@ -106,11 +92,7 @@ public class Catalog {
             if (!treeFileCreated){
                 System.err.println("Error with creating a new Tree File");
             }
-            //Rewrite the header and push the new page
-            //This will make a table's Bplus file always start with one page before inserts begin
-            StorageManager.rewriteTableFileHeader(lastUsedId, 0, 1, true);
-            List<Integer> pageOrder = StorageManager.getPageOrder(lastUsedId, true);
-            StorageManager.pushBplusNode(lastUsedId, 1, root, pageOrder);
+            StorageManager.createBplusTree(lastUsedId, schema.getPrimaryKey());
         }
     }
 
@@ -16,6 +16,8 @@ public class DMLFunctions {
 
         String val;
         WhereNode left, right;
+        int column = -1; // index of the attribute this operand names in the row; -1 if it names none
+        Object literal; // value of this operand when it names no attribute; parsed the first time it is needed
 
         WhereNode(String val){
 
@@ -33,6 +35,51 @@ public class DMLFunctions {
 
     }
 
+    /**
+     * The range of primary keys a where clause can only be true within,
+     *  found from the comparisons of the primary key with a value that the clause checks first
+     */
+    private static class KeyRange{
+
+        Object low; // lowest key in the range; null for no lowest key
+        boolean lowInclusive = true;
+        Object high; // highest key in the range; null for no highest key
+        boolean highInclusive = true;
+        boolean equality; // true if the range came from checking the key is equal to a value
+
+    }
+
+    /**
+     * A where clause that every record of one update or delete is checked against.
+     *  The clause is parsed the first time a record is checked and kept for the rest of the statement,
+     *  so errors in it are still found on the first record, the same as without keeping it.
+     */
+    public static class WhereCondition{
+
+        private final TableSchema schema; // schema of the records checked
+        private final String input; // the where clause
+        private final List<TableSchema> fromTablesSchemas; // overhead for where functions
+        private WhereNode root; // parsed and bound tree of the clause; null until a record is checked
+        private RecordView view; // view the records are read through
+
+        /**
+         * makes a where condition for one statement
+         * @param schema schema of table containing the records
+         * @param input where clause to check
+         * @param fromTablesSchemas overhead for where functions
+         */
+        public WhereCondition(TableSchema schema, String input, List<TableSchema> fromTablesSchemas){
+
+            this.schema = schema;
+            this.input = input;
+            this.fromTablesSchemas = fromTablesSchemas;
+
+        }
+
+    }
+
+    private static final List<String> OPERATORS = List.of("=", "!=", ">", "<", ">=", "<=", "and", "or"); // operators of a where clause
+
     private static final Pattern TOKEN_PATTERN = Pattern.compile(
 
         "(\\b\\w+\\.\\w+\\b)|" +  // Matches "table.column"
@@ -47,13 +94,14 @@ public class DMLFunctions {
      * @param catalog catalog of database to use
      * @param storage_manager storage manager of database to use
      * @param table_schemas the table schema to combine
+     * @param where_input the where clause of the select; "" if there is none
      * @return new table schema of the combined tables
      * @throws IOException
      */
-    public static TableSchema select_from(Catalog catalog, StorageManager storage_manager, List<TableSchema> table_schemas) throws Exception{
+    public static TableSchema select_from(Catalog catalog, StorageManager storage_manager, List<TableSchema> table_schemas, String where_input) throws Exception{
         // if selecting from only one table, select from single function
         if(table_schemas.size() == 1){
-            return select_from_single(catalog, storage_manager, table_schemas.get(0));
+            return select_from_single(catalog, storage_manager, table_schemas.get(0), where_input);
         }
         
         // combine the first two tables
@@ -80,10 +128,12 @@ public class DMLFunctions {
      * @param catalog catalog of database to use
      * @param storage_manager storage manager of database to use
      * @param table the table schema to use
-     * @return new table schema of the single table
+     * @param where_input the where clause of the select; "" if there is none
+     * @return new table schema of the single table; it is left empty when the where clause
+     *          will read the table through its index instead
      * @throws IOException
      */
-    public static TableSchema select_from_single(Catalog catalog, StorageManager storage_manager, TableSchema table) throws Exception{
+    public static TableSchema select_from_single(Catalog catalog, StorageManager storage_manager, TableSchema table, String where_input) throws Exception{
         // create temporary table
         TableSchema new_table = new TableSchema("from_temp" + catalog.getLastUsed() + 1, catalog.getLastUsed() + 1);
         // go through all attributes, renaming with prefix "{tableName}." before each attribute name and add to new table schema
@@ -94,10 +144,14 @@ public class DMLFunctions {
         }
 
         catalog.addTable(new_table, false);
+        // where only needs the names of the attributes when it reads a range of the table through the index
+        if(usesIndex(new_table, where_input, catalog, List.of(table))){
+            return new_table;
+        }
         List<Integer> page_nums = storage_manager.getPageOrder(table.getTableNum(), false);
         // loop through all pages
         for(Integer page_num : page_nums){
-            Page cur_page = storage_manager.getPage(table.getTableNum(), page_num, page_nums);
+            Page cur_page = storage_manager.scanPage(table.getTableNum(), page_num);
             List<Record> page_records = cur_page.getRecords();
             // copy over all records from previous table
             for(Record record : page_records){
@@ -153,38 +207,43 @@ public class DMLFunctions {
 
         // perform a block nested-loop join on the two tables
         for(int table1_page_num : table1_page_nums){
-            Page table1_cur_page = storage_manager.getPage(table1_num, table1_page_num, table1_page_nums);
+            // keep the outer page in the buffer while the inner table is scanned
+            Page table1_cur_page = storage_manager.pinPage(table1_num, table1_page_num);
             List<Record> table1_page_records = table1_cur_page.getRecords();
-            for(int table2_page_num : table2_page_nums){
-                Page table2_cur_page = storage_manager.getPage(table2_num, table2_page_num, table2_page_nums);
-                List<Record> table2_page_records = table2_cur_page.getRecords();
-                for(Record table1_record : table1_page_records){
-                    for(Record table2_record : table2_page_records){
-
-                        // get raw data from both table's records
-                        byte[] table1_data = table1_record.getData();
-                        byte[] table2_data = table2_record.getData();
-
-                        byte[] combined_data = new byte[table1_data.length + table2_data.length];
-
-                        // get sizes for both records null bit maps
-                        int table1_map_length = table1.getAttributes().size();
-                        int table2_map_length = table2.getAttributes().size();
-                        int total_map_length = table1_map_length + table2_map_length;
-
-                        // move null bit maps from both records to start of new record
-                        System.arraycopy(table1_data, 0, combined_data, 0, table1_map_length);
-                        System.arraycopy(table2_data, 0, combined_data, table1_map_length, table2_map_length);
-                        // move values from both records into new record
-                        System.arraycopy(table1_data, table1_map_length, combined_data, total_map_length, table1_data.length - table1_map_length);
-                        System.arraycopy(table2_data, table2_map_length, combined_data, total_map_length + (table1_data.length - table1_map_length), table2_data.length - table2_map_length);
-
-                        // insert combined record into combined table
-                        Record combined_record = new Record(combined_data);
-                        List<Integer> combined_table_page_nums = storage_manager.getPageOrder(combined_table_num, false);
-                        storage_manager.insertRecord(combined_record, combined_table_num, combined_table_page_nums, true, false);
+            try {
+                for(int table2_page_num : table2_page_nums){
+                    Page table2_cur_page = storage_manager.scanPage(table2_num, table2_page_num);
+                    List<Record> table2_page_records = table2_cur_page.getRecords();
+                    for(Record table1_record : table1_page_records){
+                        for(Record table2_record : table2_page_records){
+
+                            // get raw data from both table's records
+                            byte[] table1_data = table1_record.getData();
+                            byte[] table2_data = table2_record.getData();
+
+                            byte[] combined_data = new byte[table1_data.length + table2_data.length];
+
+                            // get sizes for both records null bit maps
+                            int table1_map_length = table1.getAttributes().size();
+                            int table2_map_length = table2.getAttributes().size();
+                            int total_map_length = table1_map_length + table2_map_length;
+
+                            // move null bit maps from both records to start of new record
+                            System.arraycopy(table1_data, 0, combined_data, 0, table1_map_length);
+                            System.arraycopy(table2_data, 0, combined_data, table1_map_length, table2_map_length);
+                            // move values from both records into new record
+                            System.arraycopy(table1_data, table1_map_length, combined_data, total_map_length, table1_data.length - table1_map_length);
+                            System.arraycopy(table2_data, table2_map_length, combined_data, total_map_length + (table1_data.length - table1_map_length), table2_data.length - table2_map_length);
+
+                            // insert combined record into combined table
+                            Record combined_record = new Record(combined_data);
+                            List<Integer> combined_table_page_nums = storage_manager.getPageOrder(combined_table_num, false);
+                            storage_manager.insertRecord(combined_record, combined_table_num, combined_table_page_nums, true, false);
+                        }
                     }
                 }
+            } finally {
+                storage_manager.unpinPage(table1_num, table1_page_num);
             }
         }
         return combined_table;
@@ -273,7 +332,7 @@ public class DMLFunctions {
      */
     private static boolean isOperator(String token){
 
-        return Arrays.asList("=", "!=", ">", "<", ">=", "<=", "and", "or").contains(token);
+        return OPERATORS.contains(token);
 
     }
 
@@ -309,28 +368,24 @@ public class DMLFunctions {
 
     /**
      * checks if a record satisfies the given where condition
-     * @param schema schema of table containing record
+     * @param condition where condition of the statement
      * @param record record to check
-     * @param input where clause to check
-     * @param fromTablesSchemas overhead for where functions
      * @return true or false, whether where clause is satisfied or not
      * @throws Exception
      */
-    public static boolean whereRecord(TableSchema schema, Record record, String input, List<TableSchema> fromTablesSchemas) throws Exception{
-
-        WhereNode root = parseWhere(tokenizeWhere(input));
-
-        Map<String, Object> row = new HashMap<>();
-
-        List<Object> recordValues = DMLParser.convert_record_to_values(schema.getAttributes(), record);
+    public static boolean whereRecord(WhereCondition condition, Record record) throws Exception{
 
-        for(int i = 0; i < schema.getAttributes().size(); i++){
+        // updates and deletes check every record of a table against the same clause, so it is only parsed once
+        if(condition.root == null){
 
-            row.put((schema.getAttributes().get(i).getName()), recordValues.get(i));
+            WhereNode root = parseWhere(tokenizeWhere(condition.input));
+            bindColumns(root, condition.schema.getAttributes(), condition.fromTablesSchemas.get(0).getTableName(), condition.fromTablesSchemas.size());
+            condition.view = condition.schema.newRecordView();
+            condition.root = root;
 
         }
 
-        return evaluateCondition(root, row, fromTablesSchemas.get(0).getTableName(), fromTablesSchemas.size());
+        return evaluateCondition(condition.root, condition.view.wrap(record));
 
     }
 
@@ -343,6 +398,7 @@ public class DMLFunctions {
      * @param fromTablesSchemas overhead for where functions
      * @return resulting table schema
      * @throws Exception any input errors for the where clause
+     * @throws IllegalStateException if the index of the table has a key its page does not
      */
     public static TableSchema where(TableSchema schema, String input, Catalog catalog, StorageManager storageManager, List<TableSchema> fromTablesSchemas) throws Exception {
 
@@ -365,45 +421,397 @@ public class DMLFunctions {
 
         catalog.addTable(temp, false);
 
+        // every record is read through one view, with the attributes the clause names found once
+        bindColumns(root, schema.getAttributes(), fromTablesSchemas.get(0).getTableName(), fromTablesSchemas.size());
+        RecordView row = schema.newRecordView();
+
+        // only the records in the range of primary keys the clause allows are read, in key order,
+        //  straight from the table; the records have the same attributes as the schema
+        KeyRange range = fromTablesSchemas.size() == 1 ? findKeyRange(root, catalog, fromTablesSchemas.get(0)) : null;
+        if(range != null){
+
+            int tableNum = fromTablesSchemas.get(0).getTableNum();
+            int page_num = -1; // page being read; it is pinned while its records are read
+            try(BplusTree.RangeIterator keys = StorageManager.getBplusTree(tableNum).range(range.low, range.lowInclusive, range.high, range.highInclusive)){
+
+                List<Record> page_records = null;
+                int record_index = -1;
+                while(keys.hasNext()){
+
+                    Object key = keys.next();
+                    if(keys.getPage() != page_num){
+
+                        // the first key of a page is found in it; the keys after it in the same page
+                        //  are the records after it, since both are in key order
+                        if(page_num != -1) storageManager.unpinPage(tableNum, page_num);
+                        page_num = -1;
+                        Page cur_page = storageManager.pinPage(tableNum, keys.getPage());
+                        page_num = keys.getPage();
+                        page_records = cur_page.getRecords();
+                        record_index = cur_page.indexOfKey(key, fromTablesSchemas.get(0));
+
+                    }else{
+
+                        record_index += 1;
+
+                    }
+                    if(record_index == -1 || record_index >= page_records.size()){
+
+                        // the tree only holds keys that are in the table, so it is wrong about this one
+                        catalog.removeTableByName(temp.getTableName());
+                        throw new IllegalStateException("Index of table " + tableNum + " does not point to the record with key " + key);
+
+                    }
+                    insertIfSatisfies(root, row, page_records.get(record_index), temp, catalog, storageManager);
+
+                }
+
+            }finally{
+
+                if(page_num != -1) storageManager.unpinPage(tableNum, page_num);
+
+            }
+
+            return temp;
+
+        }
+
         List<Integer> page_nums = storageManager.getPageOrder(schema.getTableNum(), false);
         // loop through all pages
         for(Integer page_num : page_nums){
 
-            Page cur_page = storageManager.getPage(schema.getTableNum(), page_num, page_nums);
+            Page cur_page = storageManager.scanPage(schema.getTableNum(), page_num);
             List<Record> page_records = cur_page.getRecords();
             
             for(Record record : page_records){
-                
-                Map<String, Object> row = new HashMap<>();
-                List<Object> recordValues = DMLParser.convert_record_to_values(schema.getAttributes(), record);
 
-                for(int i = 0; i < schema.getAttributes().size(); i++){
+                insertIfSatisfies(root, row, record, temp, catalog, storageManager);
 
-                    row.put((schema.getAttributes().get(i).getName()), recordValues.get(i));
+            }
 
-                }
+        }
 
-                try{
+        return temp;
 
-                    if(evaluateCondition(root, row, fromTablesSchemas.get(0).getTableName(), fromTablesSchemas.size())){
+    }
 
-                        List<Integer> oldOrder = storageManager.getPageOrder(temp.getTableNum(), false);
-                        storageManager.insertRecord(record, temp.getTableNum(), oldOrder, true, false);
-    
-                    }
+    /**
+     * helper function for where; adds a record to the result of the where if it satisfies the clause
+     * @param root root node of the parsed where tree, with its columns bound
+     * @param row view to read the record through
+     * @param record record to check
+     * @param temp table holding the result of the where; removed if the clause can not be evaluated
+     * @param catalog working catalog
+     * @param storageManager working storage manager
+     * @throws Exception any errors evaluating the where clause
+     */
+    private static void insertIfSatisfies(WhereNode root, RecordView row, Record record, TableSchema temp, Catalog catalog, StorageManager storageManager) throws Exception{
+
+        try{
+
+            if(evaluateCondition(root, row.wrap(record))){
+
+                List<Integer> oldOrder = storageManager.getPageOrder(temp.getTableNum(), false);
+                storageManager.insertRecord(record, temp.getTableNum(), oldOrder, true, false);
 
-                } catch (Exception e){
+            }
+
+        } catch (Exception e){
+
+            catalog.removeTableByName(temp.getTableName());
+            throw e;
+
+        }
+
+    }
 
-                    catalog.removeTableByName(temp.getTableName());
-                    throw e;
+    /**
+     * checks if where will read a range of the table through its index for a where clause
+     * @param schema schema of the rows the clause is evaluated against
+     * @param input the where clause; "" if there is none
+     * @param catalog working catalog
+     * @param fromTablesSchemas the tables being selected from
+     * @return true if it will
+     */
+    public static boolean usesIndex(TableSchema schema, String input, Catalog catalog, List<TableSchema> fromTablesSchemas){
+
+        if(input.equals("") || !Catalog.isIndexOn() || fromTablesSchemas.size() != 1) return false;
+
+        try{
+
+            WhereNode root = parseWhere(tokenizeWhere(input));
+            bindColumns(root, schema.getAttributes(), fromTablesSchemas.get(0).getTableName(), fromTablesSchemas.size());
+            return findKeyRange(root, catalog, fromTablesSchemas.get(0)) != null;
+
+        } catch (RuntimeException e){
+
+            // where reports what is wrong with the clause
+            return false;
+
+        }
+
+    }
+
+    /**
+     * checks through the index of a table if a where clause can not be true for any of its records,
+     *  so an update or delete with the clause would leave the table as it is
+     * @param table the table
+     * @param input the where clause; "" if there is none
+     * @param catalog working catalog
+     * @return true if the clause limits the primary key to a range with no records in it
+     * @throws IOException
+     */
+    public static boolean matchesNoKeys(TableSchema table, String input, Catalog catalog) throws IOException{
+
+        KeyRange range = findStatementKeyRange(table, input, catalog);
+        if(range == null) return false;
+        try(BplusTree.RangeIterator keys = StorageManager.getBplusTree(table.getTableNum()).range(range.low, range.lowInclusive, range.high, range.highInclusive)){
+
+            return !keys.hasNext();
+
+        }
+
+    }
+
+    /**
+     * finds the one primary key an update or delete with a where clause can match, when the clause
+     *  checks the key is equal to a value, so the record with it can be changed where it is
+     * @param table the table
+     * @param input the where clause; "" if there is none
+     * @param catalog working catalog
+     * @return the key, as the index holds it, or null if the clause can match more than one key
+     */
+    public static Object findEqualKey(TableSchema table, String input, Catalog catalog){
+
+        KeyRange range = findStatementKeyRange(table, input, catalog);
+        if(range == null || range.low == null || range.high == null || !range.lowInclusive || !range.highInclusive) return null;
+        return compareKeys(range.low, range.high) == 0 ? range.low : null;
+
+    }
+
+    /**
+     * helper function for matchesNoKeys and findEqualKey; finds the range of primary keys the where clause
+     *  of an update or delete limits the records of a table to
+     * @param table the table
+     * @param input the where clause; "" if there is none
+     * @param catalog working catalog
+     * @return the range, or null if the table has no index or the clause does not limit the primary key
+     */
+    private static KeyRange findStatementKeyRange(TableSchema table, String input, Catalog catalog){
+
+        if(input.equals("") || !Catalog.isIndexOn()) return null;
+
+        try{
+
+            WhereNode root = parseWhere(tokenizeWhere(input));
+            // updates and deletes name the attributes of the table without the name of the table
+            bindColumns(root, table.getAttributes(), table.getTableName(), 2);
+            return findKeyRange(root, catalog, table);
+
+        } catch (RuntimeException e){
+
+            return null;
+
+        }
+
+    }
+
+    /**
+     * helper function for where; finds the range of primary keys of a table that a where clause
+     *  can only be true within. The range comes from the comparisons of the primary key with a number
+     *  or string that are anded together at the start of the clause. A row with a key outside the
+     *  range fails one of them before anything else in the clause is evaluated, so skipping it
+     *  changes neither the result nor the errors the clause gives.
+     * @param root root node of parsed where tree, with its columns bound to the attributes of the table
+     * @param catalog working catalog
+     * @param table the table the rows come from
+     * @return the range, or null if the table has no index or the clause does not limit the primary key
+     */
+    private static KeyRange findKeyRange(WhereNode root, Catalog catalog, TableSchema table){
+
+        if(!Catalog.isIndexOn() || catalog.getRoot(table.getTableNum()) == null) return null;
+
+        try{
+
+            validateWhereTree(root);
+
+        } catch (IllegalArgumentException e){
+
+            return null;
+
+        }
+
+        List<AttributeSchema> attributes = table.getAttributes();
+        int keyColumn = -1;
+        for(int i = 0; i < attributes.size(); i++){
+
+            if(attributes.get(i).isPrimaryKey()) keyColumn = i;
+
+        }
+        if(keyColumn == -1) return null;
+
+        List<WhereNode> conditions = new ArrayList<>();
+        if(!collectConditions(root, conditions)) return null;
+
+        KeyRange range = new KeyRange();
+        for(WhereNode condition : conditions){
+
+            if(!narrowKeyRange(condition, keyColumn, attributes.get(keyColumn).getType(), range)) break;
+
+        }
+
+        if(range.low == null && range.high == null) return null;
+
+        // a string checked for equality with a key of "true", "false" or "null" is an error,
+        //  which only a scan of every row gives
+        if(range.equality && range.low instanceof String){
+
+            try{
+
+                BplusTree tree = StorageManager.getBplusTree(table.getTableNum());
+                for(String special : new String[]{"true", "false", "null"}){
+
+                    if(tree.search(special) != -1) return null;
 
                 }
 
+            } catch (IOException e){
+
+                return null;
+
             }
 
         }
 
-        return temp;
+        return range;
+
+    }
+
+    /**
+     * helper function for findKeyRange; lists the conditions anded together in a where tree, in the order they are evaluated
+     * @param node node of the where tree
+     * @param conditions list to add the conditions to
+     * @return false if an and has an operand that is not a condition, which is evaluated for every row
+     */
+    private static boolean collectConditions(WhereNode node, List<WhereNode> conditions){
+
+        if(!node.val.equals("and")){
+
+            conditions.add(node);
+            return true;
+
+        }
+        if(!isOperator(node.left.val) || !isOperator(node.right.val)) return false;
+        return collectConditions(node.left, conditions) && collectConditions(node.right, conditions);
+
+    }
+
+    /**
+     * helper function for findKeyRange; narrows a range of keys by a condition that compares the primary key with a value
+     * @param condition the condition
+     * @param keyColumn index of the primary key in the row
+     * @param keyType type of the primary key
+     * @param range the range to narrow
+     * @return false if the condition is not a comparison of the primary key with a value of its type
+     */
+    private static boolean narrowKeyRange(WhereNode condition, int keyColumn, AttributeType keyType, KeyRange range){
+
+        String operator = condition.val;
+        if(!operator.equals("=") && !operator.equals("<") && !operator.equals("<=") && !operator.equals(">") && !operator.equals(">=")) return false;
+        if(isOperator(condition.left.val) || isOperator(condition.right.val)) return false;
+
+        WhereNode valueNode;
+        if(condition.left.column == keyColumn && condition.right.column == -1){
+
+            valueNode = condition.right;
+
+        }else if(condition.right.column == keyColumn && condition.left.column == -1){
+
+            valueNode = condition.left;
+            // the key is on the right, so the comparison is turned around
+            operator = operator.replace('<', '~').replace('>', '<').replace('~', '>');
+
+        }else{
+
+            return false;
+
+        }
+
+        Object literal;
+        try{
+
+            literal = getLiteral(valueNode);
+
+        } catch (IllegalArgumentException e){
+
+            return false;
+
+        }
+
+        // the key as it is held in the index; an integer is ordered against a double key the same way
+        //  a double is, but is never equal to one
+        boolean equality = operator.equals("=");
+        Object key;
+        if(keyType == AttributeType.INTEGER && literal instanceof Integer){
+
+            key = literal;
+
+        }else if(keyType == AttributeType.DOUBLE && (literal instanceof Double || (!equality && literal instanceof Integer)) &&
+                 !Double.isNaN(((Number)literal).doubleValue())){
+
+            key = ((Number)literal).doubleValue();
+
+        }else if((keyType == AttributeType.CHAR || keyType == AttributeType.VARCHAR) && literal instanceof String &&
+                 !(equality && isSpecialString((String)literal))){
+
+            key = literal;
+
+        }else{
+
+            return false;
+
+        }
+
+        // the index orders 0.0 and -0.0 as equal, where does not, so both are always kept for doubles
+        boolean inclusive = (!operator.equals("<") && !operator.equals(">")) || keyType == AttributeType.DOUBLE;
+        range.equality |= equality;
+        if(equality || operator.startsWith(">")){
+
+            int compared = range.low == null ? 1 : compareKeys(key, range.low);
+            if(compared > 0 || (compared == 0 && !inclusive)){
+
+                range.low = key;
+                range.lowInclusive = inclusive;
+
+            }
+
+        }
+        if(equality || operator.startsWith("<")){
+
+            int compared = range.high == null ? -1 : compareKeys(key, range.high);
+            if(compared < 0 || (compared == 0 && !inclusive)){
+
+                range.high = key;
+                range.highInclusive = inclusive;
+
+            }
+
+        }
+
+        return true;
+
+    }
+
+    /**
+     * helper function for narrowKeyRange; compares two keys of the same type
+     * @param a left key
+     * @param b right key
+     * @return less than, equal to or greater than zero as a is less than, equal to or greater than b
+     */
+    @SuppressWarnings("unchecked")
+    private static int compareKeys(Object a, Object b){
+
+        return ((Comparable<Object>)a).compareTo(b);
 
     }
 
@@ -468,43 +876,82 @@ public class DMLFunctions {
     
 
     /**
-     * main where logic, goes through the tree and evaluates the where clause
+     * helper function for where; finds the attribute each operand of the tree names,
+     *  so a row can be read by index instead of by name
      * @param node root node of parsed where tree
-     * @param row row to evaluate; key is name of the attribute (string), value is the row's value for that attribute
+     * @param attributes attributes of the rows the tree is evaluated against
      * @param tableName name of working table
-     * @param fromTablesSize overhead for helper functions
+     * @param fromTablesSize used to check if there is only 1 working table, if so "foo.x" and "x" are both possible
+     */
+    private static void bindColumns(WhereNode node, List<AttributeSchema> attributes, String tableName, int fromTablesSize){
+
+        if(node == null) return;
+
+        int qualified = -1;
+        int plain = -1;
+        // the last attribute with a name wins, as it would in a map of the row
+        for(int i = 0; i < attributes.size(); i++){
+
+            String name = attributes.get(i).getName();
+            if(fromTablesSize == 1 && name.equals(tableName + "." + node.val)) qualified = i;
+            if(name.equals(node.val)) plain = i;
+
+        }
+
+        node.column = qualified != -1 ? qualified : plain;
+        node.literal = null;
+        bindColumns(node.left, attributes, tableName, fromTablesSize);
+        bindColumns(node.right, attributes, tableName, fromTablesSize);
+
+    }
+
+    /**
+     * main where logic, goes through the tree and evaluates the where clause
+     * @param node root node of parsed where tree, with its columns bound to the attributes of the row
+     * @param row view of the row to evaluate
      * @return true or false, if the row meets the where clause 
      */
-    public static boolean evaluateCondition(WhereNode node, Map<String, Object> row, String tableName, int fromTablesSize){
+    public static boolean evaluateCondition(WhereNode node, RecordView row){
         
         validateWhereTree(node);
 
-        if(node == null) return false;
-        
-        /*if(node.left == null && node.right == null){
+        return evaluateNode(node, row);
 
-            if(row.containsKey(node.val)){
-
-                Object value = row.get(node.val);
+    }
 
-                if(value instanceof Boolean){
+    /**
+     * helper function for where; evaluates a node of a tree that has been checked by validateWhereTree
+     * @param node node to evaluate
+     * @param row view of the row to evaluate
+     * @return true or false, if the row meets the condition of the node
+     */
+    private static boolean evaluateNode(WhereNode node, RecordView row){
 
-                    return (Boolean) value;
+        if(node == null) return false;
 
-                }
+        if (isOperator(node.val)){
 
-                return false; 
+            // a column compared with a number, or a char with a string, is checked
+            //  without taking the value out of the row
+            int compared = isValidOperator(node.val) ?
+                compareInPlace(node.left, node.right, row, node.val.equals("=") || node.val.equals("!=")) : NOT_COMPARED;
+            if (compared != NOT_COMPARED){
 
-            }
+                return switch(node.val){
 
-            return isBooleanLiteral(node.val); 
+                    case "=" -> compared == 0;
+                    case "!=" -> compared != 0;
+                    case ">" -> compared > 0;
+                    case "<" -> compared < 0;
+                    case ">=" -> compared >= 0;
+                    default -> compared <= 0;
 
-        }*/
+                };
 
-        if (isOperator(node.val)){
+            }
 
-            Object leftVal = getValue(node.left, row, tableName, fromTablesSize);
-            Object rightVal = getValue(node.right, row, tableName, fromTablesSize);
+            Object leftVal = getValue(node.left, row);
+            Object rightVal = getValue(node.right, row);
 
             if (leftVal == null || rightVal == null) {
                 throw new IllegalArgumentException("Invalid WHERE clause: Operand is missing or undefined.");
@@ -530,8 +977,8 @@ public class DMLFunctions {
                 case "<" -> compare(leftVal, rightVal) < 0;
                 case ">=" -> compare(leftVal, rightVal) >= 0;
                 case "<=" -> compare(leftVal, rightVal) <= 0;
-                case "and" -> evaluateCondition(node.left, row, tableName, fromTablesSize) && evaluateCondition(node.right, row, tableName, fromTablesSize);
-                case "or" -> evaluateCondition(node.left, row, tableName, fromTablesSize) || evaluateCondition(node.right, row, tableName, fromTablesSize);
+                case "and" -> evaluateNode(node.left, row) && evaluateNode(node.right, row);
+                case "or" -> evaluateNode(node.left, row) || evaluateNode(node.right, row);
                 default -> throw new IllegalArgumentException("Invalid operator");
     
             };
@@ -542,27 +989,158 @@ public class DMLFunctions {
 
     }
 
+    private static final int NOT_COMPARED = Integer.MIN_VALUE; // compareInPlace could not compare the operands
+
     /**
-     * helper function for where; checks the row table to see if the value is from the table
+     * helper function for where; compares two operands straight from the row when at least one
+     *  is a column and both are numbers or both are strings, giving the same answer as compare and equalTo
+     * @param left left operand
+     * @param right right operand
+     * @param equality true if the operands are checked for equality, false if they are ordered
+     * @return less than, equal to or greater than zero as left is less than, equal to or greater than right,
+     *          or NOT_COMPARED if they have to be taken out of the row to be compared
+     */
+    private static int compareInPlace(WhereNode left, WhereNode right, RecordView row, boolean equality){
+
+        if(isOperator(left.val) || isOperator(right.val)) return NOT_COMPARED;
+        if(left.column == -1 && right.column == -1) return NOT_COMPARED;
+
+        Object leftLiteral = left.column == -1 ? getLiteral(left) : null;
+        Object rightLiteral = right.column == -1 ? getLiteral(right) : null;
+        AttributeType leftType = getOperandType(left, leftLiteral, row);
+        AttributeType rightType = getOperandType(right, rightLiteral, row);
+        if(leftType == null || rightType == null) return NOT_COMPARED;
+
+        boolean leftIsString = leftType == AttributeType.VARCHAR;
+        boolean rightIsString = rightType == AttributeType.VARCHAR;
+        if(leftIsString != rightIsString) return NOT_COMPARED;
+
+        if(!leftIsString){
+
+            // equalTo only checks numbers of the same type for equality
+            if(equality && leftType != rightType) return NOT_COMPARED;
+            if(leftType == AttributeType.INTEGER && rightType == AttributeType.INTEGER){
+
+                return Integer.compare(getIntOperand(left, leftLiteral, row), getIntOperand(right, rightLiteral, row));
+
+            }
+            return Double.compare(getDoubleOperand(left, leftLiteral, row), getDoubleOperand(right, rightLiteral, row));
+
+        }
+
+        // two chars are compared the usual way
+        if(left.column != -1 && right.column != -1) return NOT_COMPARED;
+
+        WhereNode columnNode = left.column != -1 ? left : right;
+        String literal = (String)(left.column != -1 ? rightLiteral : leftLiteral);
+        // equalTo treats these values as booleans and nulls
+        if(equality && (isSpecialString(literal) || row.compareString(columnNode.column, "true") == 0 ||
+           row.compareString(columnNode.column, "false") == 0 || row.compareString(columnNode.column, "null") == 0)){
+
+            return NOT_COMPARED;
+
+        }
+
+        int compared = Integer.signum(row.compareString(columnNode.column, literal));
+        return left.column != -1 ? compared : -compared;
+
+    }
+
+    /**
+     * helper function for where; gets the kind of an operand for compareInPlace
+     * @param node the operand
+     * @param literal the value of the operand if it is not a column
+     * @param row view of the row being evaluated
+     * @return INTEGER or DOUBLE for a number, VARCHAR for a string,
+     *          or null if the operand is a null, a boolean or anything else
+     */
+    private static AttributeType getOperandType(WhereNode node, Object literal, RecordView row){
+
+        if(node.column != -1){
+
+            if(row.isNull(node.column)) return null;
+            AttributeType type = row.getType(node.column);
+            if(type == AttributeType.CHAR) return AttributeType.VARCHAR;
+            return type == AttributeType.BOOLEAN ? null : type;
+
+        }
+        if(literal instanceof Integer) return AttributeType.INTEGER;
+        if(literal instanceof Double) return AttributeType.DOUBLE;
+        return literal instanceof String ? AttributeType.VARCHAR : null;
+
+    }
+
+    /**
+     * helper function for where; gets an integer operand
+     * @param node the operand
+     * @param literal the value of the operand if it is not a column
+     * @param row view of the row being evaluated
+     * @return the value of the operand
+     */
+    private static int getIntOperand(WhereNode node, Object literal, RecordView row){
+
+        return node.column != -1 ? row.getInt(node.column) : (Integer)literal;
+
+    }
+
+    /**
+     * helper function for where; gets an integer or double operand as a double
+     * @param node the operand
+     * @param literal the value of the operand if it is not a column
+     * @param row view of the row being evaluated
+     * @return the value of the operand
+     */
+    private static double getDoubleOperand(WhereNode node, Object literal, RecordView row){
+
+        if(node.column == -1) return ((Number)literal).doubleValue();
+        return row.getType(node.column) == AttributeType.INTEGER ? row.getInt(node.column) : row.getDouble(node.column);
+
+    }
+
+    /**
+     * helper function for where; checks if a string is one equalTo treats as a boolean or a null
+     * @param value string to check
+     * @return true or false
+     */
+    private static boolean isSpecialString(String value){
+
+        return value.equals("true") || value.equals("false") || value.equals("null");
+
+    }
+
+    /**
+     * helper function for where; gets the value of an operand from the row, or as a literal
      * @param node node to check value of
-     * @param row map of row to check value from
-     * @param tableName name of working table
-     * @param fromTablesSize used to check if there is only 1 working table, if so "foo.x" and "x" are both possible
+     * @param row view of the row to evaluate
      * @return the resulting value, whether from the row or just as a literal
      */
-    private static Object getValue(WhereNode node, Map<String, Object> row, String tableName, int fromTablesSize){
+    private static Object getValue(WhereNode node, RecordView row){
 
-        if(fromTablesSize == 1 && row.containsKey(tableName + "." + node.val)){
+        if(node.column != -1){
 
-            return row.get(tableName + "." + node.val);
+            return row.getValue(node.column);
 
-        }else if(row.containsKey(node.val)){
+        }
+
+        return getLiteral(node); 
+
+    }
+
+    /**
+     * helper function for where; gets the value of an operand that is not from the row,
+     *  parsing it the first time it is needed
+     * @param node node to get the value of
+     * @return the parsed literal
+     */
+    private static Object getLiteral(WhereNode node){
+
+        if(node.literal == null){
+
+            node.literal = parseLiteral(node.val);
 
-            return row.get(node.val);
-            
         }
 
-        return parseLiteral(node.val); 
+        return node.literal;
 
     }
 
@@ -819,7 +1397,7 @@ public class DMLFunctions {
         List<Integer> oldPageNums = storageManager.getPageOrder(oldTableNum, false);
 
         for (Integer oldPage : oldPageNums) {
-            Page page = storageManager.getPage(oldTableNum, oldPage, oldPageNums);
+            Page page = storageManager.scanPage(oldTableNum, oldPage);
             List<Record> records = page.getRecords();
 
             for (Record oldRecord : records) {
@@ -907,7 +1485,7 @@ public class DMLFunctions {
         List<Integer> page_nums = storage_manager.getPageOrder(table.getTableNum(), false);
         // loop through all pages
         for(Integer page_num : page_nums){
-            Page cur_page = storage_manager.getPage(table.getTableNum(), page_num, page_nums);
+            Page cur_page = storage_manager.scanPage(table.getTableNum(), page_num);
             List<Record> page_records = cur_page.getRecords();
             // copy over all records from previous table
             for(Record record : page_records){
@@ -940,6 +1518,16 @@ public class DMLFunctions {
      */
     public static void delete(Catalog catalog, StorageManager storage_manager, String table_name, String where_arguments) throws Exception{
         TableSchema original_schema = catalog.getTableSchemaByName(table_name);
+        // nothing is deleted when the index has no keys the where condition allows
+        if(matchesNoKeys(original_schema, where_arguments, catalog)){
+            System.out.println("SUCCESS");
+            return;
+        }
+        // a where condition that allows one key deletes its record from its page when it can
+        Object key = findEqualKey(original_schema, where_arguments, catalog);
+        if(key != null && storage_manager.deleteRowInPlace(where_arguments, original_schema.getTableNum(), key)){
+            return;
+        }
         // duplicates the schema
         TableSchema duplicate_schema = catalog.duplicateSchema(table_name);
 
@@ -1088,11 +1676,33 @@ public class DMLFunctions {
             isUnique = true;
         }
         
+        //if the index has no keys the where clause allows, no records are updated
+        //  and the table is left as it is
+        if (matchesNoKeys(tableSchema, whereClause, catalog)){
+            System.out.println();
+            System.out.println("SUCCESS");
+            return;
+        }
+
+        System.out.println();
+        //if the where clause allows one key, the record with it is changed in its page when it can be
+        Object key = findEqualKey(tableSchema, whereClause, catalog);
+        if (key != null){
+            try{
+                if (storage_manager.updateRecordInPlace(tableId, key, attributeIndex, value, isUnique, whereClause)){
+                    System.out.println("SUCCESS");
+                    return;
+                }
+            } catch (Exception e){
+                System.err.println(e.getMessage()+"\nERROR");
+                return;
+            }
+        }
+
         //creates a new TableSchema object that is a duplicate of another one
         TableSchema copyTableSchema = catalog.duplicateSchema(table_name);
 
         //System.out.println("Even Spicier of the meatballs");
-        System.out.println();
         try{
             //update some records in the table
             storage_manager.updateRecords(tableId, copyTableSchema, attributeIndex, value, isUnique, whereClause);
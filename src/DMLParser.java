@@ -1,5 +1,5 @@
 /**
- * Implementation of the DML Parser of the database handling the insert, select, display_info, and display_schema statements
+ * Implementation of the DML Parser of the database handling the insert, select, display_info, display_schema, and display_stats statements
  * 
  * @author Teagan Harvey tph6529
  */
@@ -112,14 +112,13 @@ public class DMLParser {
                         }else{
                             value = record.get(i);
                         }
-                        if(!catalog.isIndexOn()){
-                            Record duplicate = storage_manager.getRecord(table_num, value);
-                            if(!(duplicate == null)){
-                                ArrayList<Object> converted_values = convert_record_to_values(attributes, duplicate);
-                                String message = "Duplicate primary key for ";
-                                print_insert_error(message, converted_values, record);
-                                return;
-                            }
+                        // with the index on, this is a search of the B+ tree
+                        Record duplicate = storage_manager.getRecord(table_num, value);
+                        if(!(duplicate == null)){
+                            ArrayList<Object> converted_values = convert_record_to_values(attributes, duplicate);
+                            String message = "Duplicate primary key for ";
+                            print_insert_error(message, converted_values, record);
+                            return;
                         }
                     }
                     int expected_length = attributes.get(i).getSize();
@@ -141,7 +140,7 @@ public class DMLParser {
                         
                         // loop through all pages
                         for(Integer page_num : pageOrder){
-                            Page cur_page = storage_manager.getPage(table_num, page_num, pageOrder);
+                            Page cur_page = storage_manager.scanPage(table_num, page_num);
                             List<Record> page_records = cur_page.getRecords();
                             // convert the page's records into printable values
                             for(Record page_record : page_records){
@@ -369,7 +368,7 @@ public class DMLParser {
         }
 
         // perform "from" function to combine given tables
-        TableSchema combined_schema = DMLFunctions.select_from(catalog, storage_manager, from_table_schemas);
+        TableSchema combined_schema = DMLFunctions.select_from(catalog, storage_manager, from_table_schemas, where_arguments);
         to_delete_schemas.add(combined_schema);
         
         try {
@@ -433,7 +432,7 @@ public class DMLParser {
             List<Integer> page_nums = storage_manager.getPageOrder(table_num, false);
             // loop through all pages
             for(Integer page_num : page_nums){
-                Page cur_page = storage_manager.getPage(table_num, page_num, page_nums);
+                Page cur_page = storage_manager.scanPage(table_num, page_num);
                 List<Record> page_records = cur_page.getRecords();
                 // convert the page's records into printable values
                 for(Record record : page_records){
@@ -552,69 +551,12 @@ public class DMLParser {
      * @return a list of the converted values
      */
     public static ArrayList<Object> convert_record_to_values(List<AttributeSchema> attributes, Record record){
-        ByteBuffer buffer = ByteBuffer.allocate(record.computeSize());
-        record.writeToBuffer(buffer);
+        RecordView view = new RecordView(attributes).wrap(record);
 
         ArrayList<Object> converted_values = new ArrayList<Object>();
-        int num_attributes = attributes.size();
-        byte[] null_map = new byte[num_attributes];
-
-        // move past size of record
-        buffer.position(4);
-        
-        // get the null map for record
-        for(int i = 0; i < num_attributes; i++){
-            null_map[i] = buffer.get();
-        }
-        // loop through record and convert into their respective types
-        for(int i = 0; i < num_attributes; i++){
-            // if attribute empty, mark as null
-            if(null_map[i] == 1){
-                converted_values.add("null");
-                continue;
-            }
-            AttributeType type = attributes.get(i).getType();
-            String word = "";
-            int word_length = 0;
-            switch (type) {
-                case INTEGER:
-                    converted_values.add(buffer.getInt());
-                    break;
-                case DOUBLE:
-                    converted_values.add(buffer.getDouble());
-                    break;
-                // 0 = false; 1 = true
-                case BOOLEAN:
-                    byte bool = buffer.get();
-                    if(bool == 0){
-                        converted_values.add("false");
-                        //converted_values.add(false);
-                    }else{
-                        converted_values.add("true");
-                        //converted_values.add(true);
-                    }
-                    break;
-                // get word length from attribute schema
-                case CHAR:
-                    word_length = attributes.get(i).getSize();
-                    for(int j = 0; j < word_length; j++){
-                        word += buffer.getChar();
-                    }
-                    converted_values.add(word);
-                    break;
-                // get word length stored in record
-                case VARCHAR:
-                    word_length = buffer.getInt();
-                    for(int j = 0; j < word_length; j++){
-                        word += buffer.getChar();
-                    }
-                    converted_values.add(word);
-                    break;
-                // should never get here
-                default:
-                    System.out.println("Invalid attribute type");
-                    break;
-            }
+        // booleans come back as "true" or "false" and empty attributes as "null"
+        for(int i = 0; i < attributes.size(); i++){
+            converted_values.add(view.getValue(i));
         }
         return converted_values;
     }
@@ -680,7 +622,7 @@ public class DMLParser {
         int num_pages = page_nums.size();
         int num_records = 0;
         for(int page_num : page_nums){
-            Page cur_page = storage_manager.getPage(table_num, page_num, page_nums);
+            Page cur_page = storage_manager.scanPage(table_num, page_num);
             num_records += cur_page.getNumRecords();
         }
          
@@ -725,6 +667,70 @@ public class DMLParser {
         }
     }
 
+    /**
+     * displays the counts kept by the page buffer in the form:
+     *          Buffer Size: <buffer_size> (<pages_in_buffer> in use)
+     *          Page Size: <page_size>
+     *          Hits: <hits>
+     *          Misses: <misses> (<from_slab> from memory, <read_ahead> read ahead)
+     *          ...
+     * 
+     *          Tables:
+     *          <table_name>: hits <hits>, misses <misses>, pages read <reads>, pages written <writes>
+     * @param catalog catalog of the database
+     * @param storage_manager storage manager of the database
+     */
+    public static void display_stats(Catalog catalog, StorageManager storage_manager){
+        BufferStats.Snapshot stats = storage_manager.getBufferStats();
+        System.out.println("Buffer Size: " + stats.getBufferSize() + " (" + stats.getPagesInBuffer() + " in use)");
+        System.out.println("Page Size: " + stats.getPageSize());
+        if (stats.getSlabFrames() > 0){
+            System.out.println("Buffer Memory Frames: " + stats.getSlabFrames() + " (" + stats.getPagesInSlab() + " in use)");
+        }
+        System.out.println("Hits: " + stats.getHits());
+        System.out.println("Misses: " + stats.getMisses() + " (" + stats.getSlabHits() + " from memory, " +
+                           stats.getReadAheadHits() + " read ahead)");
+        System.out.println(String.format("Hit Ratio: %.2f%%", stats.getHitRatio() * 100));
+        System.out.println("Evictions: " + stats.getEvictions() + " (" + stats.getDirtyEvictions() + " written back)");
+        System.out.println("Pages Read: " + stats.getPagesRead() + " (" + stats.getPagesReadAhead() + " read ahead)");
+        System.out.println("Pages Written: " + stats.getPagesWritten());
+        System.out.println("Bytes Read: " + stats.getBytesRead());
+        System.out.println("Bytes Written: " + stats.getBytesWritten());
+        print_latency("Read", stats.getReadLatency());
+        print_latency("Write", stats.getWriteLatency());
+
+        if (!stats.getTables().isEmpty()){
+            System.out.println("\nTables:");
+            for (Map.Entry<Integer, BufferStats.TableSnapshot> entry : stats.getTables().entrySet()){
+                TableSchema table_schema = catalog.getTableSchemaByNum(entry.getKey());
+                if (table_schema == null){
+                    //a page of a dropped table was counted while it was being dropped
+                    continue;
+                }
+                BufferStats.TableSnapshot table = entry.getValue();
+                System.out.println(table_schema.getTableName() + ": hits " + table.getHits() + ", misses " + table.getMisses() +
+                                   ", pages read " + table.getPagesRead() + ", pages written " + table.getPagesWritten());
+            }
+        }
+        System.out.println("SUCCESS");
+    }
+
+    /**
+     * prints one line summing up a latency histogram, or n/a if nothing has been counted
+     * @param name name of the operation
+     * @param latency the histogram
+     */
+    private static void print_latency(String name, BufferStats.Latency latency){
+        if (latency.getCount() == 0){
+            System.out.println(name + " Latency: n/a");
+            return;
+        }
+        System.out.println(String.format("%s Latency: count %d, mean %.1fus, p50 <%dus, p99 <%dus, max %.1fus",
+                                         name, latency.getCount(), latency.getMeanMicros(),
+                                         latency.getPercentileMicros(50), latency.getPercentileMicros(99),
+                                         latency.getMaxMicros()));
+    }
+
 
     /**
      * deletes rows from a given table depending on given conditions
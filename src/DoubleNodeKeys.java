@@ -0,0 +1,99 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The keys of a B+ tree node with a double primary key, held as the bits of each double in a long array.
+ * Two keys are the same when their bits are, the way Double.equals has it,
+ *  and are ordered the way the < operator orders doubles.
+ *
+ * @author Tyler Black tcb8683
+ */
+public class DoubleNodeKeys implements NodeKeys {
+    private long[] keys; // bits of the keys, in order, in the first size slots
+    private int size; // the number of keys
+
+    /**
+     * Constructs an empty set of keys
+     */
+    public DoubleNodeKeys() {
+        this.keys = new long[8];
+        this.size = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Object get(int index) {
+        return getDouble(index);
+    }
+
+    /**
+     * Gets a key as a double, without boxing it
+     * @param index the index of the key
+     * @return the key
+     */
+    public double getDouble(int index) {
+        return Double.longBitsToDouble(keys[index]);
+    }
+
+    @Override
+    public int compare(int index, Object key) {
+        double value = getDouble(index);
+        double other = (Double)key;
+        if (value < other){
+            return -1;
+        }
+        return other < value ? 1 : 0;
+    }
+
+    @Override
+    public boolean matches(int index, Object key) {
+        return keys[index] == Double.doubleToLongBits((Double)key);
+    }
+
+    @Override
+    public void insert(int index, Object key) {
+        if (size == keys.length){
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        keys[index] = Double.doubleToLongBits((Double)key);
+        size += 1;
+    }
+
+    @Override
+    public void remove(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        size -= 1;
+    }
+
+    @Override
+    public NodeKeys splitOff(int from) {
+        DoubleNodeKeys other = new DoubleNodeKeys();
+        other.keys = Arrays.copyOfRange(keys, from, Math.max(size, from + 8));
+        other.size = size - from;
+        size = from;
+        return other;
+    }
+
+    @Override
+    public void write(ByteBuffer buffer) {
+        for (int i = 0; i < size; i++){
+            buffer.putDouble(getDouble(i));
+        }
+    }
+
+    @Override
+    public void read(ByteBuffer buffer, int count, int size) {
+        if (this.size + count > keys.length){
+            keys = Arrays.copyOf(keys, this.size + count);
+        }
+        for (int i = 0; i < count; i++){
+            keys[this.size] = Double.doubleToLongBits(buffer.getDouble());
+            this.size += 1;
+        }
+    }
+}
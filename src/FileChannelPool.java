@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the table, tree and directory files that are being used open
+ *  so pages can be read and written without opening the file every time.
+ * At most maxOpen files are kept open at once; when another file is needed
+ *  the file that was used least recently is closed.
+ * The pool can be shared between threads. A channel closed by the pool while
+ *  another thread is using it throws ClosedChannelException; the caller should
+ *  get the channel again and retry.
+ *
+ * @author Tyler Black tcb8683
+ */
+public class FileChannelPool {
+    private final int maxOpen; // maximum number of files kept open at once
+    private final LinkedHashMap<Long, FileChannel> channels; // open channels, least recently used first
+
+    /**
+     * Constructs a FileChannelPool
+     * @param maxOpen the maximum number of files that can be open at once
+     */
+    public FileChannelPool(int maxOpen) {
+        this.maxOpen = maxOpen;
+        this.channels = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Gets the open channel for a file, opening the file if it is not open already
+     * @param key the key of the file; unique to the file
+     * @param filePath the path of the file
+     * @return the channel of the file, open for reading and writing
+     * @throws IOException if the file can not be opened
+     */
+    public synchronized FileChannel getChannel(long key, String filePath) throws IOException {
+        FileChannel channel = channels.get(key);
+        if (channel != null && channel.isOpen()){
+            return channel;
+        }
+
+        if (channels.size() >= maxOpen){
+            closeLeastRecentlyUsed();
+        }
+        channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channels.put(key, channel);
+        return channel;
+    }
+
+    /**
+     * Closes the channel of the file that was used least recently
+     * @throws IOException
+     */
+    private void closeLeastRecentlyUsed() throws IOException {
+        Iterator<Map.Entry<Long, FileChannel>> iterator = channels.entrySet().iterator();
+        if (iterator.hasNext()){
+            FileChannel channel = iterator.next().getValue();
+            iterator.remove();
+            channel.close();
+        }
+    }
+
+    /**
+     * Closes the channel of a file if it is open.
+     * Must be called before the file is deleted.
+     * @param key the key of the file
+     * @throws IOException
+     */
+    public synchronized void close(long key) throws IOException {
+        FileChannel channel = channels.remove(key);
+        if (channel != null){
+            channel.close();
+        }
+    }
+
+    /**
+     * Closes every open channel
+     * @throws IOException
+     */
+    public synchronized void closeAll() throws IOException {
+        for (FileChannel channel : channels.values()){
+            channel.close();
+        }
+        channels.clear();
+    }
+
+    /**
+     * Gets the number of files that are currently open
+     * @return the number of open channels
+     */
+    public synchronized int size() {
+        return channels.size();
+    }
+}
@@ -0,0 +1,257 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+
+/**
+ * A fixed amount of off-heap memory, split into equal sized frames, that holds the
+ *  on-disk images of pages and B+ tree nodes that have left the page buffer.
+ * The memory is allocated once as direct ByteBuffers when the slab is made,
+ *  so the memory the slab uses is known exactly and is never garbage collected.
+ *
+ * A page is either in the page buffer or in the slab, never both.
+ *  When a page leaves the page buffer its image is written into a free frame;
+ *  when it is needed again it is read back out of the frame and the frame is freed.
+ * When there are no free frames the oldest image leaves the slab and its frame is reused.
+ *  The slab never writes to disk itself: a changed image that leaves it is copied aside and its
+ *  key is handed back to the caller, which writes the copy out with getImageToWrite and written once it
+ *  holds no locks. Until then the copy still counts as the page's image, so the page can be
+ *  taken back out of it and is never read from its out of date file.
+ *  An image that stays in the slab is only copied aside when it is about to be written, so every copy
+ *  aside is one that a caller is writing or about to write: at most one for each thread making room
+ *  in the buffer or writing the slab out, however many images are changed.
+ * All methods are synchronized so one slab can be shared by every shard of the buffer.
+ *
+ * @author Tyler Black tcb8683
+ */
+public class FrameSlab {
+    private static final int MAX_SLAB_SIZE = 1 << 30; // largest direct buffer allocated at once (1GB)
+
+    private final int frameSize; // size of one frame in bytes
+    private final int framesPerSlab; // number of frames in each direct buffer
+    private final ByteBuffer[] slabs; // the off-heap memory holding the frames
+    private final Integer[] frameNumbers; // boxed frame numbers, made once so the index never allocates
+    private final boolean[] dirty; // true if the image in a frame has not been written to disk yet
+    private final LongLinkedMap frames; // frame number of each page in the slab, oldest first
+    private final int[] freeFrames; // frames that are not in use
+    private int numFree; // number of frames in freeFrames
+    private final LongLinkedMap leaving; // copies of changed images that are about to be written, by key
+
+    /**
+     * Constructs a FrameSlab
+     * @param budget the number of bytes of off-heap memory to use
+     * @param frameSize the size of one frame; must be large enough for any page or node
+     */
+    public FrameSlab(long budget, int frameSize) {
+        int numFrames = (int)Math.min(budget / frameSize, Integer.MAX_VALUE - 8);
+        if (numFrames < 1){
+            throw new IllegalArgumentException("A budget of " + budget + " bytes can not hold a frame of " + frameSize + " bytes");
+        }
+        this.frameSize = frameSize;
+        this.framesPerSlab = Math.max(1, MAX_SLAB_SIZE / frameSize);
+        this.slabs = new ByteBuffer[(numFrames + framesPerSlab - 1) / framesPerSlab];
+        for (int i = 0; i < slabs.length; i++){
+            int framesInSlab = Math.min(framesPerSlab, numFrames - i * framesPerSlab);
+            slabs[i] = ByteBuffer.allocateDirect(framesInSlab * frameSize);
+        }
+        this.frameNumbers = new Integer[numFrames];
+        this.freeFrames = new int[numFrames];
+        for (int i = 0; i < numFrames; i++){
+            frameNumbers[i] = i;
+            freeFrames[i] = numFrames - 1 - i;
+        }
+        this.numFree = numFrames;
+        this.dirty = new boolean[numFrames];
+        this.frames = new LongLinkedMap(numFrames);
+        this.leaving = new LongLinkedMap();
+    }
+
+    /**
+     * Gets the memory of a frame
+     * @param frameNumber the frame
+     * @return a buffer of frameSize bytes, positioned at the start of the frame
+     */
+    private ByteBuffer getFrame(int frameNumber) {
+        ByteBuffer slab = slabs[frameNumber / framesPerSlab];
+        return slab.slice((frameNumber % framesPerSlab) * frameSize, frameSize);
+    }
+
+    /**
+     * Stores the image of a page in the slab, making room by moving the oldest image out if needed
+     * @param key the key of the page
+     * @param changed true if the page has changed since it was last written to disk
+     * @param encoder writes the image of the page into the frame it is given
+     * @return the key of a changed image that left the slab to make room and has to be written
+     *          to disk by the caller (see getImageToWrite); -1 if there is none
+     */
+    public synchronized long put(long key, boolean changed, Consumer<ByteBuffer> encoder) {
+        Integer frameNumber = (Integer)frames.remove(key);
+        //an older image of the page that is still to be written is replaced by this one
+        if (leaving.remove(key) != null){
+            changed = true;
+        }
+        long left = -1;
+        if (frameNumber == null){
+            if (numFree == 0){
+                left = evictOldest();
+            }
+            numFree -= 1;
+            frameNumber = frameNumbers[freeFrames[numFree]];
+        }
+        encoder.accept(getFrame(frameNumber));
+        dirty[frameNumber] = changed;
+        frames.put(key, frameNumber);
+        return left;
+    }
+
+    /**
+     * Takes the image of a page out of the slab, freeing its frame
+     * @param key the key of the page
+     * @param decoder turns the image into a page; it is given the image
+     *                and whether the image has changed since it was last written to disk.
+     *                The image can not be used after the decoder returns.
+     * @return what the decoder returned, or null if the page is not in the slab
+     */
+    public synchronized Object take(long key, BiFunction<ByteBuffer, Boolean, Object> decoder) {
+        //a copy still to be written is not written once the page is taken; the page is changed instead
+        ByteBuffer copy = (ByteBuffer)leaving.remove(key);
+        Integer frameNumber = (Integer)frames.remove(key);
+        if (frameNumber == null){
+            return copy == null ? null : decoder.apply(copy.duplicate(), true);
+        }
+        Object page = decoder.apply(getFrame(frameNumber), dirty[frameNumber] || copy != null);
+        freeFrames[numFree] = frameNumber;
+        numFree += 1;
+        return page;
+    }
+
+    /**
+     * Checks if the image of a page is in the slab
+     * @param key the key of the page
+     * @return true if the page is in the slab
+     */
+    public synchronized boolean contains(long key) {
+        return frames.containsKey(key) || leaving.containsKey(key);
+    }
+
+    /**
+     * Frees the frame of the oldest image, copying the image aside if it has changed
+     * @return the key of the image if it has to be written; -1 if not
+     */
+    private long evictOldest() {
+        long key = frames.keyAt(frames.firstEntry());
+        int frameNumber = (Integer)frames.remove(key);
+        long left = -1;
+        if (dirty[frameNumber]){
+            leaving.put(key, copyOf(frameNumber));
+            left = key;
+        }
+        freeFrames[numFree] = frameNumber;
+        numFree += 1;
+        return left;
+    }
+
+    /**
+     * Helper function for copying an image out of off-heap memory
+     * @param frameNumber the frame holding the image
+     * @return the copy, positioned at the start of it
+     */
+    private ByteBuffer copyOf(int frameNumber) {
+        ByteBuffer copy = ByteBuffer.allocate(frameSize);
+        copy.put(getFrame(frameNumber));
+        copy.flip();
+        return copy;
+    }
+
+    /**
+     * Gets the keys of every changed image, in the slab or copied aside, without copying any of them.
+     * The caller writes each one out with getImageToWrite and written.
+     * @return the keys of the images the caller has to write to disk
+     */
+    public synchronized long[] getChangedKeys() {
+        long[] keys = new long[frames.size() + leaving.size()];
+        int count = 0;
+        for (int entry = frames.firstEntry(); entry != LongLinkedMap.NONE; entry = frames.nextEntry(entry)){
+            long key = frames.keyAt(entry);
+            if (dirty[(Integer)frames.get(key)]){
+                keys[count] = key;
+                count += 1;
+            }
+        }
+        for (long key : leaving.keys()){
+            keys[count] = key;
+            count += 1;
+        }
+        return Arrays.copyOf(keys, count);
+    }
+
+    /**
+     * Gets a copy of the changed image of a page to write to disk: the copy of an image that left the slab,
+     *  or else a copy of the image in the slab if it has changed, which counts as unchanged from then on.
+     *  The copy counts as the page's image until it is written.
+     * Whoever writes it should hold the page's write mark in the PageWriter,
+     *  so the newest copy of a page is always the last one written.
+     * @param key the key of the page
+     * @return the copy, which must not be changed; null if there is nothing to write
+     *          because the page was taken back out of the slab or was already written
+     */
+    public synchronized ByteBuffer getImageToWrite(long key) {
+        ByteBuffer copy = (ByteBuffer)leaving.get(key);
+        if (copy == null){
+            Integer frameNumber = (Integer)frames.get(key);
+            if (frameNumber != null && dirty[frameNumber]){
+                copy = copyOf(frameNumber);
+                leaving.put(key, copy);
+                dirty[frameNumber] = false;
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Forgets the copy of an image once it has been written to disk,
+     *  unless a newer copy of the page has taken its place
+     * @param key the key of the page
+     * @param copy the copy that was written, as getImageToWrite gave it
+     */
+    public synchronized void written(long key, ByteBuffer copy) {
+        if (leaving.get(key) == copy){
+            leaving.remove(key);
+        }
+    }
+
+    /**
+     * Drops the images of pages without writing them, used when their file is deleted
+     * @param drop tells if the page with a given key should be dropped
+     */
+    public synchronized void removeIf(LongPredicate drop) {
+        for (long key : frames.keys()){
+            if (drop.test(key)){
+                int frameNumber = (Integer)frames.remove(key);
+                freeFrames[numFree] = frameNumber;
+                numFree += 1;
+            }
+        }
+        for (long key : leaving.keys()){
+            if (drop.test(key)){
+                leaving.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of frames in the slab
+     * @return the number of frames
+     */
+    public int getNumFrames() {
+        return frameNumbers.length;
+    }
+
+    /**
+     * Returns the number of page images in the slab
+     */
+    public synchronized int size() {
+        return frames.size();
+    }
+}
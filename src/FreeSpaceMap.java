@@ -0,0 +1,86 @@
+import java.util.Arrays;
+
+/**
+ * A compact map of how much free space each page of a table has.
+ * Four bits are kept per page, two pages to a byte, indexed by page id:
+ *  0 means the free space of the page is not known, and 1 to 15 give the free space
+ *  in steps of a fourteenth of the page size, rounded down.
+ * The map is only a hint kept in memory; whoever uses it to pick a page
+ *  must still check the page itself has room.
+ *
+ * @author Tyler Black tcb8683
+ */
+public class FreeSpaceMap {
+    private static final int STEPS = 14; // number of steps the free space of a page is split into
+
+    private final int pageSize; // the size of a page
+    private byte[] levels; // level of each page, two pages per byte; 0 if not known
+
+    /**
+     * Constructs an empty FreeSpaceMap
+     * @param pageSize the size of a page
+     */
+    public FreeSpaceMap(int pageSize) {
+        this.pageSize = pageSize;
+        this.levels = new byte[8];
+    }
+
+    /**
+     * Records the free space of a page
+     * @param pageId the id of the page
+     * @param freeBytes the number of bytes that can still be added to the page
+     */
+    public void set(int pageId, int freeBytes) {
+        int step = (int)((long)Math.max(0, Math.min(freeBytes, pageSize)) * STEPS / pageSize);
+        setLevel(pageId, step + 1);
+    }
+
+    /**
+     * Forgets the free space of a page
+     * @param pageId the id of the page
+     */
+    public void forget(int pageId) {
+        setLevel(pageId, 0);
+    }
+
+    /**
+     * Gets the free space of a page
+     * @param pageId the id of the page
+     * @return the number of bytes that can at least be added to the page, or -1 if not known
+     */
+    public int get(int pageId) {
+        int level = getLevel(pageId);
+        if (level == 0){
+            return -1;
+        }
+        return (int)((long)(level - 1) * pageSize / STEPS);
+    }
+
+    /**
+     * Helper function for reading the four bits of a page
+     * @param pageId the id of the page
+     * @return the level of the page
+     */
+    private int getLevel(int pageId) {
+        if (pageId < 0 || pageId / 2 >= levels.length){
+            return 0;
+        }
+        return (levels[pageId / 2] >> ((pageId % 2) * 4)) & 0xf;
+    }
+
+    /**
+     * Helper function for writing the four bits of a page
+     * @param pageId the id of the page
+     * @param level the level of the page
+     */
+    private void setLevel(int pageId, int level) {
+        if (pageId < 0){
+            return;
+        }
+        if (pageId / 2 >= levels.length){
+            levels = Arrays.copyOf(levels, Math.max(pageId / 2 + 1, levels.length * 2));
+        }
+        int shift = (pageId % 2) * 4;
+        levels[pageId / 2] = (byte)((levels[pageId / 2] & ~(0xf << shift)) | (level << shift));
+    }
+}
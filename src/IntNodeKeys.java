@@ -0,0 +1,115 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The keys of a B+ tree node with an integer or boolean primary key, held in an int array.
+ *  A boolean is held as 0 for false and 1 for true, so false comes before true.
+ *
+ * @author Tyler Black tcb8683
+ */
+public class IntNodeKeys implements NodeKeys {
+    private final boolean booleans; // true if the keys are booleans
+    private int[] keys; // the keys, in order, in the first size slots
+    private int size; // the number of keys
+
+    /**
+     * Constructs an empty set of keys
+     * @param booleans true if the keys are booleans, false if they are integers
+     */
+    public IntNodeKeys(boolean booleans) {
+        this.booleans = booleans;
+        this.keys = new int[8];
+        this.size = 0;
+    }
+
+    /**
+     * Helper function for turning a key object into the int it is held as
+     * @param key a Boolean or an Integer
+     * @return the int
+     */
+    private int toInt(Object key) {
+        if (booleans){
+            return (Boolean)key ? 1 : 0;
+        }
+        return (Integer)key;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Object get(int index) {
+        if (booleans){
+            return keys[index] != 0;
+        }
+        return keys[index];
+    }
+
+    /**
+     * Gets a key as an int, without boxing it
+     * @param index the index of the key
+     * @return the key; 0 or 1 for a boolean
+     */
+    public int getInt(int index) {
+        return keys[index];
+    }
+
+    @Override
+    public int compare(int index, Object key) {
+        return Integer.compare(keys[index], toInt(key));
+    }
+
+    @Override
+    public boolean matches(int index, Object key) {
+        return keys[index] == toInt(key);
+    }
+
+    @Override
+    public void insert(int index, Object key) {
+        if (size == keys.length){
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        keys[index] = toInt(key);
+        size += 1;
+    }
+
+    @Override
+    public void remove(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        size -= 1;
+    }
+
+    @Override
+    public NodeKeys splitOff(int from) {
+        IntNodeKeys other = new IntNodeKeys(booleans);
+        other.keys = Arrays.copyOfRange(keys, from, Math.max(size, from + 8));
+        other.size = size - from;
+        size = from;
+        return other;
+    }
+
+    @Override
+    public void write(ByteBuffer buffer) {
+        for (int i = 0; i < size; i++){
+            if (booleans){
+                buffer.put((byte)keys[i]);
+            } else {
+                buffer.putInt(keys[i]);
+            }
+        }
+    }
+
+    @Override
+    public void read(ByteBuffer buffer, int count, int size) {
+        if (this.size + count > keys.length){
+            keys = Arrays.copyOf(keys, this.size + count);
+        }
+        for (int i = 0; i < count; i++){
+            keys[this.size] = booleans ? (buffer.get() == 1 ? 1 : 0) : buffer.getInt();
+            this.size += 1;
+        }
+    }
+}
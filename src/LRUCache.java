@@ -1,139 +1,89 @@
-import java.util.*;
+import java.util.function.LongPredicate;
 
 /**
  * Implements a Least Recently Used (LRU) cache for managing pages in memory.
- * Uses a hashmap for quick lookups and a doubly linked list for maintaining usage order.
- * 
+ * Uses a LongLinkedMap for quick lookups and for maintaining usage order,
+ *  least recently used first; keys are never boxed and no node is allocated per page.
+ * Pages read by a sequential scan are put at the least recently used end
+ *  of the list, so they are the first to be evicted.
+ *
  * @author Justin Talbot, jmt8032@rit.edu
  * @author Brayden Mossey, bjm9599@rit.edu
  */
-public class LRUCache {
+public class LRUCache implements ReplacementPolicy {
 
-    /**
-     * Represents a node in the doubly linked list.
-     * Stores a page and its key.
-     */
-    static class Node {
-        int key;
-        Object page;
-        Node prev, next;
-
-        Node(int key, Object page) {
-            this.key = key;
-            this.page = page;
-        }
-    }
-
-    private final Node head, tail; // Pointers to the LRU list
-    private final Map<Integer, Node> cache; // Map for fast lookups
-    private final int capacity; // Maximum cache size
+    private final LongLinkedMap cache; // pages by key, least recently used first
 
     /**
      * Constructor for LRU cache
-     * @param capacity the capacity of the cache
-     */
-    public LRUCache(int capacity) {
-        this.head = new Node(-1, null);
-        this.tail = new Node(-1, null);
-        this.capacity = capacity;
-        this.cache = new HashMap<>();
-        head.next = this.tail;
-        tail.prev = this.head;
-    }
-
-    /**
-     * Moves a node to the front of the list (most recently used).
-     */
-    private void moveToFront(Node node) {
-        removeNode(node);
-        insertAtFront(node);
-    }
-
-    /**
-     * Removes a node from the list.
      */
-    private void removeNode(Node node) {
-        node.prev.next = node.next;
-        node.next.prev = node.prev;
-    }
-
-    /**
-     * Inserts a node at the front of the list (most recently used).
-     */
-    private void insertAtFront(Node node) {
-        node.next = this.head.next;
-        node.prev = this.head;
-        this.head.next.prev = node;
-        this.head.next = node;
+    public LRUCache() {
+        this.cache = new LongLinkedMap();
     }
 
     /**
      * Retrieves a page from the cache.
-     * If the page exists, it is marked as recently used.
+     * If the page exists and is not being read by a scan, it is marked as recently used.
      */
-    public Object get(int key) {
-        Node node = cache.get(key);
-        if (node == null) {
-            return null;
+    @Override
+    public Object get(long key, boolean scan) {
+        if (scan) {
+            return cache.get(key);
         }
-        moveToFront(node);
-        return node.page;
+        return cache.moveToLast(key);
     }
 
     /**
-     * Inserts a page into the cache. Evicts the least recently used page if necessary.
+     * Inserts a page into the cache.
+     * A page that is being read by a scan goes to the least recently used end.
      */
-    public Object put(int key, Object page) {
-        Node node = cache.get(key);
-        Object output = null;
-
-        if (node != null) {
-            node.page = page;
-            moveToFront(node);
-        } else {
-            if (cache.size() == capacity) {
-                int lruKey = getLRUKey();
-                if (lruKey != -1) {
-                    cache.remove(lruKey);
-                    output = tail.prev.page;
-                    removeNode(tail.prev);
-                }
+    @Override
+    public void put(long key, Object page, boolean scan) {
+        if (cache.containsKey(key)) {
+            cache.put(key, page);
+            if (!scan) {
+                cache.moveToLast(key);
             }
-
-            Node newNode = new Node(key, page);
-            cache.put(key, newNode);
-            insertAtFront(newNode);
+        } else if (scan) {
+            cache.putFirst(key, page);
+        } else {
+            cache.put(key, page);
         }
+    }
 
-        return output;
+    /**
+     * Checks if a page is in the cache.
+     */
+    @Override
+    public boolean contains(long key) {
+        return cache.containsKey(key);
     }
 
     /**
-     * Gets the least recently used page's key.
+     * Gets the key of the least recently used page that can be evicted.
      */
-    public int getLRUKey() {
-        if (tail.prev == head) {
-            return -1;
+    @Override
+    public long getVictimKey(LongPredicate evictable) {
+        for (int entry = cache.firstEntry(); entry != LongLinkedMap.NONE; entry = cache.nextEntry(entry)) {
+            if (evictable.test(cache.keyAt(entry))) {
+                return cache.keyAt(entry);
+            }
         }
-        return tail.prev.key;
+        return -1;
     }
 
     /**
      * Removes a page from the cache.
      */
-    public Object remove(int key) {
-        Node node = cache.get(key);
-        if (node == null) {
-            return null;
-        }
-        removeNode(node);
-        cache.remove(key);
-        return node.page;
+    @Override
+    public Object remove(long key) {
+        return cache.remove(key);
     }
 
     /**
      * Returns the current number of pages in the cache.
      */
+    @Override
     public int size() {
         return cache.size();
     }
@@ -0,0 +1,345 @@
+import java.util.Arrays;
+
+/**
+ * An ordered map from long keys to objects, used for the frame tables of the page buffer.
+ * Works like a LinkedHashMap, but keys are never boxed and no entry object is
+ *  allocated per key: entries live in parallel arrays that are reused once removed,
+ *  and are found through an open addressing hash table with linear probing.
+ * The entries are kept in a doubly linked list, oldest first. New keys are added
+ *  at the end (or the front with putFirst) and a key can be moved to the end when used.
+ *
+ * Entries are walked with firstEntry/nextEntry, which hand out entry numbers
+ *  that are only valid until the map is next changed.
+ *
+ * @author Tyler Black tcb8683
+ */
+public class LongLinkedMap {
+    public static final int NONE = -1; // no entry
+    private long[] keys; // key of each entry
+    private Object[] values; // value of each entry
+    private int[] prev; // entry before each entry in the list; NONE if first
+    private int[] next; // entry after each entry in the list; NONE if last. Also links the free entries
+    private int[] table; // hash table of entry number + 1 for each bucket; 0 if the bucket is empty
+    private int mask; // table length - 1; the table length is always a power of two
+    private int head; // first (oldest) entry
+    private int tail; // last (newest) entry
+    private int free; // first free entry that can be reused
+    private int used; // number of entries that have ever been handed out
+    private int size; // number of keys in the map
+
+    /**
+     * Constructs an empty LongLinkedMap
+     */
+    public LongLinkedMap() {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty LongLinkedMap
+     * @param expectedSize the number of keys the map should hold before it has to grow
+     */
+    public LongLinkedMap(int expectedSize) {
+        int capacity = Math.max(4, expectedSize);
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.prev = new int[capacity];
+        this.next = new int[capacity];
+        //keep the table at most half full so probe sequences stay short
+        this.table = new int[Integer.highestOneBit(capacity * 2 - 1) * 2];
+        this.mask = table.length - 1;
+        this.head = NONE;
+        this.tail = NONE;
+        this.free = NONE;
+        this.used = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Gets the bucket a key hashes to
+     * @param key the key
+     * @return the bucket in the hash table
+     */
+    private int bucket(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int)(hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Finds the entry of a key
+     * @param key the key
+     * @return the entry number, or NONE if the key is not in the map
+     */
+    private int find(long key) {
+        int bucket = bucket(key);
+        while (table[bucket] != 0){
+            int entry = table[bucket] - 1;
+            if (keys[entry] == key){
+                return entry;
+            }
+            bucket = (bucket + 1) & mask;
+        }
+        return NONE;
+    }
+
+    /**
+     * Gets the value of a key
+     * @param key the key
+     * @return the value, or null if the key is not in the map
+     */
+    public Object get(long key) {
+        int entry = find(key);
+        return entry == NONE ? null : values[entry];
+    }
+
+    /**
+     * Checks if a key is in the map
+     * @param key the key
+     * @return true if the key is in the map
+     */
+    public boolean containsKey(long key) {
+        return find(key) != NONE;
+    }
+
+    /**
+     * Adds a key at the end of the map, or replaces the value of a key
+     *  already in the map without moving it
+     * @param key the key
+     * @param value the value
+     * @return the old value, or null if the key was not in the map
+     */
+    public Object put(long key, Object value) {
+        return put(key, value, false);
+    }
+
+    /**
+     * Adds a key at the front of the map, or replaces the value of a key
+     *  already in the map without moving it
+     * @param key the key
+     * @param value the value
+     * @return the old value, or null if the key was not in the map
+     */
+    public Object putFirst(long key, Object value) {
+        return put(key, value, true);
+    }
+
+    /**
+     * Helper function for adding a key to the map
+     * @param key the key
+     * @param value the value
+     * @param first true to add a new key at the front instead of the end
+     * @return the old value, or null if the key was not in the map
+     */
+    private Object put(long key, Object value, boolean first) {
+        int entry = find(key);
+        if (entry != NONE){
+            Object old = values[entry];
+            values[entry] = value;
+            return old;
+        }
+
+        entry = newEntry();
+        keys[entry] = key;
+        values[entry] = value;
+        if (first){
+            linkFirst(entry);
+        } else {
+            linkLast(entry);
+        }
+        int bucket = bucket(key);
+        while (table[bucket] != 0){
+            bucket = (bucket + 1) & mask;
+        }
+        table[bucket] = entry + 1;
+        size += 1;
+        return null;
+    }
+
+    /**
+     * Moves a key to the end of the map
+     * @param key the key
+     * @return the value of the key, or null if the key is not in the map
+     */
+    public Object moveToLast(long key) {
+        int entry = find(key);
+        if (entry == NONE){
+            return null;
+        }
+        if (entry != tail){
+            unlink(entry);
+            linkLast(entry);
+        }
+        return values[entry];
+    }
+
+    /**
+     * Removes a key from the map
+     * @param key the key
+     * @return the value of the key, or null if the key was not in the map
+     */
+    public Object remove(long key) {
+        int bucket = bucket(key);
+        while (table[bucket] != 0 && keys[table[bucket] - 1] != key){
+            bucket = (bucket + 1) & mask;
+        }
+        if (table[bucket] == 0){
+            return null;
+        }
+        int entry = table[bucket] - 1;
+        Object old = values[entry];
+
+        //shift the keys after the removed one back so no probe sequence is broken
+        int hole = bucket;
+        int i = (bucket + 1) & mask;
+        while (table[i] != 0){
+            int home = bucket(keys[table[i] - 1]);
+            if (((i - home) & mask) >= ((i - hole) & mask)){
+                table[hole] = table[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        table[hole] = 0;
+
+        unlink(entry);
+        values[entry] = null;
+        next[entry] = free;
+        free = entry;
+        size -= 1;
+        return old;
+    }
+
+    /**
+     * Returns the number of keys in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks if the map is empty
+     * @return true if there are no keys in the map
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets the first (oldest) entry of the map
+     * @return the entry number, or NONE if the map is empty
+     */
+    public int firstEntry() {
+        return head;
+    }
+
+    /**
+     * Gets the entry after an entry
+     * @param entry the entry number
+     * @return the next entry number, or NONE if entry is the last one
+     */
+    public int nextEntry(int entry) {
+        return next[entry];
+    }
+
+    /**
+     * Gets the key of an entry
+     * @param entry the entry number
+     * @return the key
+     */
+    public long keyAt(int entry) {
+        return keys[entry];
+    }
+
+    /**
+     * Gets a copy of the keys in the map, oldest first.
+     * The map can be changed while the copy is walked.
+     * @return the keys
+     */
+    public long[] keys() {
+        long[] copy = new long[size];
+        int i = 0;
+        for (int entry = head; entry != NONE; entry = next[entry]){
+            copy[i++] = keys[entry];
+        }
+        return copy;
+    }
+
+    /**
+     * Gets an entry that is not in use, growing the map if there are none
+     * @return the entry number
+     */
+    private int newEntry() {
+        if (free != NONE){
+            int entry = free;
+            free = next[entry];
+            return entry;
+        }
+        if (used == keys.length){
+            grow();
+        }
+        return used++;
+    }
+
+    /**
+     * Doubles the number of entries and rebuilds the hash table
+     */
+    private void grow() {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        values = Arrays.copyOf(values, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        next = Arrays.copyOf(next, capacity);
+        table = new int[table.length * 2];
+        mask = table.length - 1;
+        for (int entry = head; entry != NONE; entry = next[entry]){
+            int bucket = bucket(keys[entry]);
+            while (table[bucket] != 0){
+                bucket = (bucket + 1) & mask;
+            }
+            table[bucket] = entry + 1;
+        }
+    }
+
+    /**
+     * Adds an entry to the end of the list
+     */
+    private void linkLast(int entry) {
+        prev[entry] = tail;
+        next[entry] = NONE;
+        if (tail == NONE){
+            head = entry;
+        } else {
+            next[tail] = entry;
+        }
+        tail = entry;
+    }
+
+    /**
+     * Adds an entry to the front of the list
+     */
+    private void linkFirst(int entry) {
+        prev[entry] = NONE;
+        next[entry] = head;
+        if (head == NONE){
+            tail = entry;
+        } else {
+            prev[head] = entry;
+        }
+        head = entry;
+    }
+
+    /**
+     * Removes an entry from the list
+     */
+    private void unlink(int entry) {
+        if (prev[entry] == NONE){
+            head = next[entry];
+        } else {
+            next[prev[entry]] = next[entry];
+        }
+        if (next[entry] == NONE){
+            tail = prev[entry];
+        } else {
+            prev[next[entry]] = prev[entry];
+        }
+    }
+}
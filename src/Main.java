@@ -103,6 +103,7 @@ public class Main {
             }
 
 
+            //the page buffer keeps the storage manager's defaults; its setters change them
             StorageManager storageManager = new StorageManager(db_loc, pageSize, bufferSize, catalog);
 
             System.out.print("Please enter commands, enter <quit> to shutdown the db\n");
@@ -149,6 +150,9 @@ public class Main {
             // display schema
             }else if(input_lower.equals("display schema;")){
                 DMLParser.display_schema(catalog, db_loc, bufferSize, storageManager);
+            // display stats
+            }else if(input_lower.equals("display stats;")){
+                DMLParser.display_stats(catalog, storageManager);
             // delete
             }else if(input_lower.startsWith("delete")){
                 SQLParser.parse_delete(catalog, input, storageManager);
@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read only memory mapping of a table file or tree file.
+ * The file is mapped in chunks that each hold a whole number of slots,
+ *  so a page never crosses from one chunk into the next.
+ * A chunk at the end of the file only covers the part of the file that existed
+ *  when it was mapped; it is mapped again once the file has grown past it.
+ * A mapping can not be undone directly in Java; it goes away once nothing refers to it.
+ *  The frames handed out are only read while a page is decoded, so closing the file
+ *  drops the last references to its chunks before the file is deleted.
+ *
+ * @author Tyler Black tcb8683
+ */
+public class MappedFile {
+    private static final int CHUNK_SIZE = 1 << 22; // target size of a mapped chunk in bytes (4MB)
+    private final int frameSize; // size of one slot in the file
+    private final int framesPerChunk; // number of slots in one full chunk
+    private final List<MappedByteBuffer> chunks; // mapped chunks of the file; null if not mapped yet
+    private boolean closed; // true once the file is closed; no more chunks are mapped
+
+    /**
+     * Constructs a MappedFile
+     * @param frameSize the size of one slot in the file
+     */
+    public MappedFile(int frameSize) {
+        this.frameSize = frameSize;
+        this.framesPerChunk = Math.max(1, CHUNK_SIZE / frameSize);
+        this.chunks = new ArrayList<>();
+        this.closed = false;
+    }
+
+    /**
+     * Gets the contents of a slot in the file without copying it
+     * @param channel an open channel of the file; used to map chunks that are not mapped yet
+     * @param slot the slot to get
+     * @return a buffer of frameSize bytes positioned at the start of the slot,
+     *          or null if the slot is past the end of the file or the file has been closed
+     * @throws IOException
+     */
+    public synchronized ByteBuffer getFrame(FileChannel channel, int slot) throws IOException {
+        if (closed){
+            return null;
+        }
+        int chunkIndex = slot / framesPerChunk;
+        int offsetInChunk = (slot % framesPerChunk) * frameSize;
+
+        while (chunks.size() <= chunkIndex){
+            chunks.add(null);
+        }
+        MappedByteBuffer chunk = chunks.get(chunkIndex);
+        if (chunk == null || chunk.capacity() < offsetInChunk + frameSize){
+            //chunk has not been mapped, or the file has grown since it was mapped
+            long chunkStart = (long)chunkIndex * framesPerChunk * frameSize;
+            long length = Math.min((long)framesPerChunk * frameSize, channel.size() - chunkStart);
+            if (length < offsetInChunk + frameSize){
+                return null;
+            }
+            chunk = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, length);
+            chunks.set(chunkIndex, chunk);
+        }
+        return chunk.slice(offsetInChunk, frameSize);
+    }
+
+    /**
+     * Drops every mapped chunk of the file, so the mappings can be released before
+     *  the file's channel is closed and the file is deleted. Nothing is mapped after this.
+     */
+    public synchronized void close() {
+        chunks.clear();
+        closed = true;
+    }
+}
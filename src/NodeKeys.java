@@ -0,0 +1,99 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Holds the keys of a B+ tree node, in order, as primitives of the primary key's type
+ *  instead of boxed objects.
+ * Keys are given and returned as the objects Record.getPrimaryKeyValue makes
+ *  (Boolean, Integer, Double or String) and are compared the same way those objects are:
+ *  compare orders keys the way the tree always has, and matches checks two keys
+ *  are the same the way equals does.
+ *
+ * Keys are written to and read from the image of a node in the form the image has always had:
+ *  a boolean as a byte, an integer as an int, a double as a double,
+ *  a char as its chars and a varchar as its length in an int followed by its chars.
+ *
+ * @author Tyler Black tcb8683
+ */
+public interface NodeKeys {
+
+    /**
+     * Makes an empty set of keys for a type of primary key
+     * @param type the type of the primary key
+     * @return the keys
+     */
+    static NodeKeys forType(AttributeType type) {
+        switch (type){
+            case BOOLEAN:
+            case INTEGER:
+                return new IntNodeKeys(type == AttributeType.BOOLEAN);
+            case DOUBLE:
+                return new DoubleNodeKeys();
+            default:
+                return new StringNodeKeys(type == AttributeType.CHAR);
+        }
+    }
+
+    /**
+     * Gets the number of keys
+     * @return the number of keys
+     */
+    int size();
+
+    /**
+     * Gets a key as an object
+     * @param index the index of the key
+     * @return the key
+     */
+    Object get(int index);
+
+    /**
+     * Compares a key with another key
+     * @param index the index of the key
+     * @param key the other key
+     * @return less than 0 if the key at index is less than the other key,
+     *          greater than 0 if the other key is less than it, 0 otherwise
+     */
+    int compare(int index, Object key);
+
+    /**
+     * Checks if a key is the same as another key
+     * @param index the index of the key
+     * @param key the other key
+     * @return true if they are equal
+     */
+    boolean matches(int index, Object key);
+
+    /**
+     * Inserts a key, moving the keys from index on up by one
+     * @param index where the key goes
+     * @param key the key
+     */
+    void insert(int index, Object key);
+
+    /**
+     * Removes a key, moving the keys after it down by one
+     * @param index the index of the key
+     */
+    void remove(int index);
+
+    /**
+     * Splits the keys in two
+     * @param from the index of the first key to move
+     * @return new keys holding the keys from index on; they are removed from these keys
+     */
+    NodeKeys splitOff(int from);
+
+    /**
+     * Writes the keys into the image of a node
+     * @param buffer the buffer to write into, positioned where the keys go
+     */
+    void write(ByteBuffer buffer);
+
+    /**
+     * Reads keys from the image of a node and adds them after the keys already held
+     * @param buffer the buffer to read from, positioned at the first key
+     * @param count the number of keys to read
+     * @param size the size of the primary key; the number of chars in a char
+     */
+    void read(ByteBuffer buffer, int count, int size);
+}
@@ -1,11 +1,19 @@
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Represents a database page that stores multiple records.
  * A page is a fixed-size unit of storage in the database system.
  * Each page holds records and is stored as binary data.
+ * The records are kept in primary key order. Alongside them the page keeps a slot array
+ *  holding the offset of each record's primary key in the record's data, in the same order,
+ *  so a record can be placed with a binary search that compares key bytes where they sit.
+ * A page of a table whose row format is known is stored in that format, and its size is
+ *  counted the way it is stored; otherwise it is stored in the old format.
+ * Every change to the records of a page holds the page's latch for writing, so the page buffer
+ *  can copy the page to be written while holding it for reading and never copies half a change.
  * 
  * @author Justin Talbot, jmt8032@rit.edu
  * @contributor Tyler Black tcb8683
@@ -15,282 +23,237 @@ public class Page {
     private List<Record> records; // List of records stored in the page
     private int numRecords; // The current number of records in the page
     private int pageId;
+    private volatile int version; // incremented every time the page changes
+    private int cleanVersion; // the version that was last read from or written to disk
+    private int[] keyOffsets; // slot array: offset of each record's primary key in its data; null until built
+    private List<AttributeSchema> keyAttributes; // attributes the slot array was built with
+    private int keyIndex; // index of the primary key in keyAttributes
+    private final RowFormat rowFormat; // format the records are stored in; null for the old format
+    private final ReentrantReadWriteLock latch; // held for writing while the records change, for reading while the page is copied
 
     /**
      * Constructs an empty Page with the given page size.
      * @param pageSize The fixed size of the page in bytes.
      */
     public Page(int pageSize, int pageId) {
+        this(pageSize, pageId, null);
+    }
+
+    /**
+     * Constructs an empty Page with the given page size that is stored in the given row format.
+     * @param pageSize The fixed size of the page in bytes.
+     * @param pageId the id of the page
+     * @param rowFormat the format the records are stored in; null for the old format
+     */
+    public Page(int pageSize, int pageId, RowFormat rowFormat) {
         PAGE_SIZE = pageSize;
+        this.rowFormat = rowFormat;
         this.records = new ArrayList<>();
         this.numRecords = 0;
         this.pageId = pageId;
+        this.version = 1; //a new page has not been written to disk
+        this.cleanVersion = 0;
+        this.keyOffsets = null;
+        this.keyAttributes = null;
+        this.keyIndex = 0;
+        this.latch = new ReentrantReadWriteLock();
     }
 
     /**
-     * Finds the primary key value in a record and returns it
-     * @param record the record to find the primary key value in
-     * @param attributeSchemas the list of attributeSchemas for the table that the record is in
-     * @param primaryKeyAttributeIndex The index in the list of attributeSchemas that is the Attribute that is the primaryKey
-     * @return a byte array of the primary key value
+     * Inserts a record to the end of the records array
+     * This is mostly a helper function for when records are
+     * being read back in from the file and being put in a new
+     * Page object.
+     * @param newRecord the record to insert into this page
      */
-    private byte[] getPrimaryKeyValue(Record record, List<AttributeSchema> attributeSchemas, int primaryKeyAttributeIndex){
-        ByteBuffer buffer = ByteBuffer.allocate(record.computeSize());
-        record.writeToBuffer(buffer);
-
-        int numAttributes = attributeSchemas.size();
-        byte[] nullMap = new byte[numAttributes];
-
-        // move past size of record
-        buffer.position(4);
+    public void insertAtTheEnd(Record newRecord){
+        latch.writeLock().lock();
+        try {
+            records.add(newRecord);
+            numRecords += 1;
+            version++;
+            dropSlots();
+        } finally {
+            latch.writeLock().unlock();
+        }
+    }
 
-        // get the null map for record
-        for(int i = 0; i < numAttributes; i++){
-            nullMap[i] = buffer.get();
+    /**
+     * Inserts a record at the given index in the record array
+     * This is used for bPlusTree insertion
+     * @param newRecord the record to insert into this page
+     * @param index index to insert record at
+     */
+    public void insertAtIndex(Record newRecord, int index){
+        latch.writeLock().lock();
+        try {
+            records.add(index, newRecord);
+            numRecords += 1;
+            version++;
+            dropSlots();
+        } finally {
+            latch.writeLock().unlock();
         }
+    }
 
-        int count = 0; //current attribute
-        while (count < primaryKeyAttributeIndex){
-            if (nullMap[count] == 0){
-                AttributeSchema attributeSchema = attributeSchemas.get(count);
-                //boolean for checking if the current attribute is a VarChar
-                boolean isVarChar = false; 
-                if (attributeSchema.getType() == AttributeType.VARCHAR){
-                    isVarChar = true;
-                }
-
-                //If attribute is a varchar, get attributeSize from 
-                //  the next thing in buffer
-                //Otherwise, attributeSize is gotten from attributeSchema
-                int attributeSize = 0;
-                if (isVarChar){
-                    attributeSize = buffer.getInt();
-                } else {
-                    attributeSize = attributeSchema.getSize();
-                }
-
-                //Move through the buffer for attributeSize bytes
-                if (attributeSchema.getType() == AttributeType.CHAR ||
-                    attributeSchema.getType() == AttributeType.VARCHAR){
-                    for(int i = 0; i < attributeSize*2; i++){
-                        buffer.get();
-                    }
-                } else {
-                    for(int i = 0; i < attributeSize; i++){
-                        buffer.get();
-                    }
-                }
-                
+    /**
+     * Adds a record to the page in primary key order.
+     * The record goes in front of the first record with a greater primary key,
+     *  which is found with a binary search over the slot array.
+     * If no record in the page has a greater primary key the record is not added,
+     *  so that it can be tried in the next page.
+     * @param newRecord The record to add.
+     * @param tableSchema the schema of the table the page belongs to
+     * @return true if the record was added to this page
+     */
+    public boolean addRecord(Record newRecord, TableSchema tableSchema) {
+        List<AttributeSchema> attributeSchemas = tableSchema.getAttributes();
+        if (records.isEmpty()){
+            return false;
+        }
+        buildSlots(attributeSchemas);
+
+        AttributeSchema primaryKey = attributeSchemas.get(keyIndex);
+        byte[] newData = newRecord.getData();
+        int newOffset = newRecord.getAttributeOffset(attributeSchemas, keyIndex);
+
+        //find the first slot whose key is greater than the new record's key
+        int low = 0;
+        int high = records.size();
+        while (low < high){
+            int mid = (low + high) >>> 1;
+            if (compareKeys(primaryKey, newData, newOffset, records.get(mid).getData(), keyOffsets[mid]) < 0){
+                high = mid;
+            } else {
+                low = mid + 1;
             }
-            count += 1;
         }
-
-        AttributeSchema attributeSchema = attributeSchemas.get(count);
-        //boolean for checking if the current attribute is a VarChar
-        boolean isVarChar = false; 
-        if (attributeSchema.getType() == AttributeType.VARCHAR){
-            isVarChar = true;
+        if (low == records.size()){
+            return false;
         }
 
-        //If attribute is a varchar, get attributeSize from 
-        //  the next thing in buffer
-        //Otherwise, attributeSize is gotten from attributeSchema
-        int attributeSize = 0;
-        if (isVarChar){
-            attributeSize = buffer.getInt();
-        } else {
-            attributeSize = attributeSchema.getSize();
+        latch.writeLock().lock();
+        try {
+            records.add(low, newRecord);
+            if (keyOffsets.length == records.size() - 1){
+                keyOffsets = Arrays.copyOf(keyOffsets, Math.max(8, keyOffsets.length * 2));
+            }
+            System.arraycopy(keyOffsets, low, keyOffsets, low + 1, records.size() - 1 - low);
+            keyOffsets[low] = newOffset;
+            numRecords += 1;
+            version++;
+        } finally {
+            latch.writeLock().unlock();
         }
+        return true;
+    }
 
-        byte[] primaryKeyValueByte = null;
-        if (attributeSchema.getType() == AttributeType.CHAR ||
-            attributeSchema.getType() == AttributeType.VARCHAR){
-            primaryKeyValueByte = new byte[attributeSize*2];
-        } else {
-            primaryKeyValueByte = new byte[attributeSize];
-        }
-        //Move through the buffer for attributeSize bytes
-        if (attributeSchema.getType() == AttributeType.CHAR ||
-            attributeSchema.getType() == AttributeType.VARCHAR){
-            for(int i = 0; i < attributeSize*2; i++){
-                primaryKeyValueByte[i] = buffer.get();
-            }
-        } else {
-            for(int i = 0; i < attributeSize; i++){
-                primaryKeyValueByte[i] = buffer.get();
+    /**
+     * Finds the record with a primary key value with a binary search over the slot array.
+     * This is how a record is found from the B+ tree, which only knows the page it is in.
+     * @param key the primary key value, as Record.getPrimaryKeyValue gives it
+     * @param tableSchema the schema of the table the page belongs to
+     * @return the index of the record in the page; -1 if no record in the page has the key
+     */
+    public int indexOfKey(Object key, TableSchema tableSchema) {
+        List<AttributeSchema> attributeSchemas = tableSchema.getAttributes();
+        buildSlots(attributeSchemas);
+
+        AttributeSchema primaryKey = attributeSchemas.get(keyIndex);
+        byte[] keyData = Record.valueToBytes(primaryKey, String.valueOf(key));
+        int low = 0;
+        int high = records.size() - 1;
+        while (low <= high){
+            int mid = (low + high) >>> 1;
+            int compared = compareKeys(primaryKey, records.get(mid).getData(), keyOffsets[mid], keyData, 0);
+            if (compared < 0){
+                low = mid + 1;
+            } else if (compared > 0){
+                high = mid - 1;
+            } else {
+                return mid;
             }
         }
-        return primaryKeyValueByte;
+        return -1;
     }
 
     /**
-     * Inserts a record to the end of the records array
-     * This is mostly a helper function for when records are
-     * being read back in from the file and being put in a new
-     * Page object.
-     * @param newRecord the record to insert into this page
+     * Builds the slot array of this page if it is not already built for the given attributes
+     * @param attributeSchemas the list of attributes of the table the page belongs to
      */
-    public void insertAtTheEnd(Record newRecord){
-        records.add(newRecord);
-        numRecords += 1;
+    private void buildSlots(List<AttributeSchema> attributeSchemas){
+        if (keyOffsets != null && keyAttributes == attributeSchemas){
+            return;
+        }
+        keyIndex = 0;
+        for (int i = 0; i < attributeSchemas.size(); i++){
+            if (attributeSchemas.get(i).isPrimaryKey()){
+                keyIndex = i;
+                break;
+            }
+        }
+        keyOffsets = new int[Math.max(8, records.size() + 1)];
+        for (int i = 0; i < records.size(); i++){
+            keyOffsets[i] = records.get(i).getAttributeOffset(attributeSchemas, keyIndex);
+        }
+        keyAttributes = attributeSchemas;
     }
 
     /**
-     * Inserts a record at the given index in the record array
-     * This is used for bPlusTree insertion
-     * @param newRecord the record to insert into this page
-     * @param index index to insert record at
+     * Drops the slot array, used when the records of this page change
+     *  other than through addRecord; it is built again the next time it is needed
      */
-    public void insertAtIndex(Record newRecord, int index){
-        records.add(index, newRecord);
-        numRecords += 1;
+    private void dropSlots(){
+        keyOffsets = null;
+        keyAttributes = null;
     }
 
     /**
-     * Adds a record to the page if there is enough space.
-     * @param record The record to add.
-     * @throws IllegalStateException If the page is full.
+     * Compares two primary key values where they sit in the data of their records,
+     *  without copying them or turning them into objects
+     * @param primaryKey the primary key attribute
+     * @param a the data of the first record
+     * @param aOffset the offset of the first key in a
+     * @param b the data of the second record
+     * @param bOffset the offset of the second key in b
+     * @return less than 0 if the first key is less than the second,
+     *          greater than 0 if it is greater, and 0 if they are equal
      */
-    public boolean addRecord(Record newRecord, TableSchema tableSchema) {
-            List<AttributeSchema> attributeSchemas = tableSchema.getAttributes();
-
-            //Find the index of the Attribute in the list of AttributeSchemas that is the primarykey
-            int primaryKeyAttributeIndex = 0;
-            for (int i = 0; i < attributeSchemas.size(); i++){
-                if (attributeSchemas.get(i).isPrimaryKey()){
-                    primaryKeyAttributeIndex = i;
-                    break;
-                }
+    static int compareKeys(AttributeSchema primaryKey, byte[] a, int aOffset, byte[] b, int bOffset){
+        switch (primaryKey.getType()){
+            case BOOLEAN:
+                return Boolean.compare(a[aOffset] != 0, b[bOffset] != 0);
+            case INTEGER:
+                return Integer.compare(Record.readInt(a, aOffset), Record.readInt(b, bOffset));
+            case DOUBLE: {
+                double aValue = readDouble(a, aOffset);
+                double bValue = readDouble(b, bOffset);
+                return aValue < bValue ? -1 : (bValue < aValue ? 1 : 0);
             }
-
-            /*
-             * Creates the new recordList after inserting the new record,
-             *  if the new record should be inserted.
-             * Gets the primary key value for the new record and loops through
-             *  the current records, getting their primary key value and comparing
-             *  it to the new record's primary key value.
-             * If the primary key value of the new record is "less than" the primary
-             *  key value of another record, the new record is inserted before the other
-             *  record.
-             */
-            List<Record> newRecordsList = new ArrayList<>();
-            byte[] newRecordPrimaryKeyValue = getPrimaryKeyValue(newRecord, attributeSchemas, primaryKeyAttributeIndex);
-            int count = 0;
-            boolean brokeOut = false;
-            while (count < records.size()){
-                byte[] recordPrimaryKeyValue = getPrimaryKeyValue(records.get(count), attributeSchemas, primaryKeyAttributeIndex);
-                if (attributeSchemas.get(primaryKeyAttributeIndex).getType() == AttributeType.BOOLEAN){
-                    boolean newRecordValue = false;
-                    boolean recordValue = false;
-                    if (newRecordPrimaryKeyValue[0] != 0){
-                        newRecordValue = true;
-                    }
-                    if (recordPrimaryKeyValue[0] != 0){
-                        recordValue = false;
-                    }
-
-                    if (newRecordValue == false && recordValue == true){
-                        newRecordsList.add(newRecord);
-                        newRecordsList.add(records.get(count));
-                    }else{
-                        newRecordsList.add(records.get(count));
-                        newRecordsList.add(newRecord);
-                    }
-                    count += 1;
-                    brokeOut = true;
-                    break;
-                } else if (attributeSchemas.get(primaryKeyAttributeIndex).getType() == AttributeType.INTEGER){
-                    int newRecordValue = ByteBuffer.wrap(newRecordPrimaryKeyValue).getInt();
-
-                    int recordValue = ByteBuffer.wrap(recordPrimaryKeyValue).getInt();
-                    if (newRecordValue < recordValue){
-                        newRecordsList.add(newRecord);
-                        newRecordsList.add(records.get(count));
-                        count += 1;
-                        brokeOut = true;
-                        break;
-                    }
-                    newRecordsList.add(records.get(count));
-                } else if (attributeSchemas.get(primaryKeyAttributeIndex).getType() == AttributeType.DOUBLE){
-
-                    double newRecordValue = ByteBuffer.wrap(newRecordPrimaryKeyValue).getDouble();
-
-                    double recordValue = ByteBuffer.wrap(recordPrimaryKeyValue).getDouble();
-                    if (newRecordValue < recordValue){
-                        newRecordsList.add(newRecord);
-                        newRecordsList.add(records.get(count));
-                        count += 1;
-                        brokeOut = true;
-                        break;
-                    }
-                    newRecordsList.add(records.get(count));
-                }else if (attributeSchemas.get(primaryKeyAttributeIndex).getType() == AttributeType.CHAR){
-                    int charSize = attributeSchemas.get(primaryKeyAttributeIndex).getSize();
-
-                    String newRecordValue = "";
-                    ByteBuffer newRecordBuffer = ByteBuffer.wrap(newRecordPrimaryKeyValue);
-                    for (int i = 0; i < charSize; i++){
-                        newRecordValue += newRecordBuffer.getChar();
-                    }
-
-                    String recordValue = "";
-                    ByteBuffer recordBuffer = ByteBuffer.wrap(recordPrimaryKeyValue);
-                    for (int i = 0; i < charSize; i++){
-                        recordValue += recordBuffer.getChar();
-                    }
-                    if (newRecordValue.compareTo(recordValue) < 0 ){
-                        newRecordsList.add(newRecord);
-                        newRecordsList.add(records.get(count));
-                        count += 1;
-                        brokeOut = true;
-                        break;
-                    }
-                    newRecordsList.add(records.get(count));
-                }else if (attributeSchemas.get(primaryKeyAttributeIndex).getType() == AttributeType.VARCHAR){
-                    int newRecordValueSize = newRecordPrimaryKeyValue.length;
-                    int recordValueSize = recordPrimaryKeyValue.length;
-
-                    String newRecordValue = "";
-                    ByteBuffer newRecordBuffer = ByteBuffer.wrap(newRecordPrimaryKeyValue);
-                    for (int i = 0; i < (newRecordValueSize / 2); i++){
-                        newRecordValue += newRecordBuffer.getChar();
-                    }
-                    
-                    String recordValue = "";
-                    ByteBuffer recordBuffer = ByteBuffer.wrap(recordPrimaryKeyValue);
-                    for (int i = 0; i < (recordValueSize / 2); i++){
-                        recordValue += recordBuffer.getChar();
-                    }
-                    if (newRecordValue.compareTo(recordValue) < 0 ){
-                        newRecordsList.add(newRecord);
-                        newRecordsList.add(records.get(count));
-                        count += 1;
-                        brokeOut = true;
-                        break;
-                    }
-                    newRecordsList.add(records.get(count));
-                }
-                count += 1;
+            case CHAR: {
+                //chars are stored big-endian, so comparing the bytes unsigned compares the chars
+                int length = primaryKey.getSize() * 2;
+                return Arrays.compareUnsigned(a, aOffset, aOffset + length, b, bOffset, bOffset + length);
             }
-            while (count < records.size()){
-                newRecordsList.add(records.get(count));
-                count+=1;
+            case VARCHAR: {
+                int aLength = Record.readInt(a, aOffset) * 2;
+                int bLength = Record.readInt(b, bOffset) * 2;
+                return Arrays.compareUnsigned(a, aOffset + 4, aOffset + 4 + aLength, b, bOffset + 4, bOffset + 4 + bLength);
             }
+            default:
+                return 0;
+        }
+    }
 
-            /*
-             * brokeOut will be true if the new record was added.
-             * If so, the new record list will replace the old one,
-             *  the number of records is increased, and true is returned.
-             * Otherwise, false is returned, so that the record can be
-             *  attempted to be added to the next page
-             */
-            if(!brokeOut){
-                return false;
-            }else{
-                records = newRecordsList;
-                numRecords += 1;
-                return true;
-            }
+    /**
+     * Reads a big-endian double out of a byte array, the way a ByteBuffer writes it
+     * @param bytes the array
+     * @param offset the offset of the double in the array
+     * @return the double
+     */
+    private static double readDouble(byte[] bytes, int offset){
+        long bits = ((long)Record.readInt(bytes, offset) << 32) | (Record.readInt(bytes, offset + 4) & 0xffffffffL);
+        return Double.longBitsToDouble(bits);
     }
 
     /**
@@ -300,11 +263,31 @@ public class Page {
     public int computeSize() {
         int size = 4; // 4 bytes for numRecords metadata
         for (Record record : records) {
-            size += record.computeSize();
+            size += getRecordSize(record);
         }
         return size;
     }
 
+    /**
+     * Computes the number of bytes a record takes up when it is stored in this page
+     * @param record the record
+     * @return the size of the record in bytes
+     */
+    public int getRecordSize(Record record) {
+        if (rowFormat == null){
+            return record.computeSize();
+        }
+        return record.getStoredSize(rowFormat);
+    }
+
+    /**
+     * Gets the format the records of this page are stored in
+     * @return the row format, or null if the page is stored in the old format
+     */
+    public RowFormat getRowFormat() {
+        return rowFormat;
+    }
+
     /**
      * Sets the global page size. This should be called before creating pages.
      * @param pageSize The fixed size of pages in the system.
@@ -364,8 +347,15 @@ public class Page {
      * @param newRecords the Record list to set as this Page's
      */
     public void setRecords(List<Record> newRecords){
-        this.records = newRecords;
-        numRecords = newRecords.size();
+        latch.writeLock().lock();
+        try {
+            this.records = newRecords;
+            numRecords = newRecords.size();
+            version++;
+            dropSlots();
+        } finally {
+            latch.writeLock().unlock();
+        }
     }
 
     /**
@@ -373,8 +363,80 @@ public class Page {
      * @param recordIndex the index of the record to remove in this page
      */
     public void removeRecord(int recordIndex){
-        records.remove(recordIndex);
-        numRecords -= 1;
+        latch.writeLock().lock();
+        try {
+            records.remove(recordIndex);
+            numRecords -= 1;
+            version++;
+            if (keyOffsets != null){
+                System.arraycopy(keyOffsets, recordIndex + 1, keyOffsets, recordIndex, records.size() - recordIndex);
+            }
+        } finally {
+            latch.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the record at the given index in this page with a record that has the same primary key,
+     *  so the order of the records does not change
+     * @param recordIndex the index of the record to replace in this page
+     * @param newRecord the record to put in its place
+     */
+    public void replaceRecord(int recordIndex, Record newRecord){
+        latch.writeLock().lock();
+        try {
+            records.set(recordIndex, newRecord);
+            version++;
+            //the key is the same, but a change to a value before it moves it
+            if (keyOffsets != null){
+                keyOffsets[recordIndex] = newRecord.getAttributeOffset(keyAttributes, keyIndex);
+            }
+        } finally {
+            latch.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the latch of this page; it is held for writing while the records of the page change
+     * @return the latch
+     */
+    public ReentrantReadWriteLock getLatch(){
+        return latch;
+    }
+
+    /**
+     * Checks if this page has changed since it was last written to disk
+     * @return true if the page needs to be written back
+     */
+    public boolean isDirty(){
+        return version != cleanVersion;
+    }
+
+    /**
+     * Marks this page as matching what is on disk.
+     * Used after the page has been read from or written to disk.
+     */
+    public void markClean(){
+        cleanVersion = version;
+    }
+
+    /**
+     * Gets the version of this page; it changes every time the page changes
+     * @return the version of this page
+     */
+    public int getVersion(){
+        return version;
+    }
+
+    /**
+     * Marks this page as matching what is on disk as of the given version.
+     * The page stays dirty if it has changed since that version was written.
+     * @param writtenVersion the version of the page that was written to disk
+     */
+    public void markClean(int writtenVersion){
+        if (version == writtenVersion){
+            cleanVersion = writtenVersion;
+        }
     }
 
     /**
@@ -1,258 +1,1762 @@
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
 
 /**
- * Manages the storage of pages in memory using an LRU cache.
+ * Manages the storage of pages in memory using a replacement policy (LRU by default).
  * Handles reading and writing pages to disk when necessary.
+ *
+ * The buffer is safe to use from more than one thread. Pages are split across
+ *  shards by key, and each shard has its own lock and its own replacement policy,
+ *  so threads working on different pages rarely wait on each other.
+ * A caller that needs a page to stay in memory while it works on it pins the page
+ *  and unpins it when done; pinned pages are never evicted.
+ * Pages are read from and written to disk without holding the lock of their shard.
+ *  A page being read in has a placeholder frame that anyone else asking for it waits on,
+ *  and a changed page is pinned while it is written back and only evicted once it is clean.
+ *  A page is only copied to be written while holding its latch for reading (a table page's own
+ *  latch, or the lock of the B+ tree a node belongs to), and is skipped if it is being changed
+ *  or is over full and waiting to be split;
+ *  the copy remembers the version of the page it was made from and only marks the page
+ *  clean if the page has not changed since (see PageImage).
+ *
+ * The buffer can also be given a memory budget in bytes. Pages that leave the buffer
+ *  are then kept as their on-disk images in a FrameSlab of off-heap memory of exactly
+ *  that size, and are only written to disk when they leave the slab.
+ *  Only the pages in the buffer itself are held as Page and BplusTreeNode objects;
+ *  the budget does not cover them, since the buffer is still sized by its number of pages.
+ *
+ * Changed pages are written in batches sorted by their place in the file, both when the
+ *  buffer is flushed and by the background PageWriter, which keeps the pages that are
+ *  next in line to be evicted clean so that making room rarely has to wait on a write.
+ *
+ * When read-ahead is on, a scan that reads the pages of a table in page order
+ *  has the next pages of the table read by background threads before it asks for them.
+ *  Pages read ahead are held next to the buffer and only move into it when the scan asks for them,
+ *  so reading ahead never evicts a page from the buffer.
+ *  Reading ahead starts small once the scan has read a few pages in order; the number of pages
+ *  read ahead only grows after the scan has used a whole window of pages read ahead in a row,
+ *  and shrinks when pages read ahead are dropped without being used.
  * 
  * @author Justin Talbot, jmt8032@rit.edu
  * @Contributor Tyler Black, tcb863
  */
 public class PageBuffer {
     private final int bufferSize; // Maximum number of pages that can be stored in memory
-    private final LRUCache cache; // LRU cache for managing page memory
+    private final Shard[] shards; // the pages in memory, split up by key
     private final String dbLocation; // Location of the database files
     private final int pageSize; // Size of each page in bytes
+    private final Map<Long, PageDirectory> directories; // page directories that have been loaded, by table and tree
+    private final FileChannelPool channelPool; // table and tree files that are kept open
+    private final Map<Long, MappedFile> mappedFiles; // memory mapped table and tree files; used when mappedReads is on
+    private volatile boolean mappedReads; // true if pages are read from memory mapped files instead of being copied in
+    private volatile FrameSlab slab; // off-heap images of pages that left the buffer; null if there is no memory budget
+    private final PageWriter pageWriter; // writes changed pages in the background; also orders writes of the same page
+    private final ReentrantReadWriteLock fileLock; // read locked by a background round, write locked while a table's files are removed
+    private final BufferStats stats; // counts of hits, misses, reads and writes
+    private static final int MAX_OPEN_FILES = 16; // maximum number of table, tree and directory files open at once
+    private static final int DIRECTORY_FILE = 1; // page id in the key of a table's or tree's directory file
+    private static final int FENCE_FILE = 2; // page id in the key of a table's fence file
+    private static final int MAX_SHARDS = 16; // maximum number of shards the buffer is split into
+    private static final int MIN_PAGES_PER_SHARD = 8; // a shard always holds at least this many pages
+    private static final int MAX_BATCH_FRAMES = 256; // most pages written together in one write
+    private static final int READ_AHEAD_THREADS = 2; // number of threads reading pages ahead of scans
+    private static final int READ_AHEAD_START = 2; // pages a scan reads in page order before reading ahead, and the first window
+    private volatile int maxReadAhead; // most pages read ahead of a scan; 0 if read-ahead is off
+    private final Map<Long, ReadAheadState> readAheadStates; // read-ahead state of each table being scanned
+    private ExecutorService readAheadThreads; // threads that read pages ahead of scans; null until read-ahead is turned on
+    private final Map<Integer, RowFormat> rowFormats; // row format of each table whose pages have been used, by table id
+    private volatile IntFunction<RowFormat> rowFormatSource; // makes the row format of a table; null if there is none
+    private final Map<Integer, ReadWriteLock> treeLatches; // lock of each B+ tree, held for writing while its nodes change
+
+    /**
+     * A page held in the buffer, along with the number of callers that have it pinned.
+     * A frame with no page is a placeholder for a page that is being read in, either ahead
+     *  of a scan or by the caller that asked for it; anyone else asking for the page waits on the frame.
+     */
+    static class Frame {
+        volatile Object page; // null while the page is being read in
+        volatile boolean failed; // true if reading the page in failed; the frame has been dropped
+        int pinCount;
+
+        Frame(Object page) {
+            this.page = page;
+            this.failed = false;
+            this.pinCount = 0;
+        }
+    }
+
+    /**
+     * Tracks where a scan of a table is in the table's page order
+     *  and how far ahead of it pages are being read.
+     */
+    static class ReadAheadState {
+        int lastIndex; // index in the page order of the page the scan read last; -1 if none
+        int sequentialReads; // number of pages in a row the scan has read in page order
+        int sequentialHits; // number of pages in a row the scan found read ahead since the window last grew
+        int window; // number of pages to read ahead
+        int scheduledUpTo; // index in the page order of the last page asked to be read ahead
+
+        ReadAheadState(int window) {
+            this.lastIndex = -1;
+            this.sequentialReads = 0;
+            this.sequentialHits = 0;
+            this.window = window;
+            this.scheduledUpTo = -1;
+        }
+    }
+
+    /**
+     * A copy of a changed page that is about to be written to disk,
+     *  along with the version of the page the copy was made from.
+     */
+    static class PageImage {
+        final long key;
+        final long fileKey; // key of the file the page is written to
+        final Object page;
+        int version; // version of the page the copy was made from
+        int slot; // slot of the page in its file; -1 if the page can not be written
+        ByteBuffer image; // the on-disk image; null until the page has been copied
+
+        PageImage(long key, Object page) {
+            this.key = key;
+            this.fileKey = getPageKey(getTableId(key), 0, isTreeKey(key));
+            this.page = page;
+            this.version = 0;
+            this.slot = -1;
+            this.image = null;
+        }
+    }
+
+    /**
+     * One part of the buffer. All access to the frames and the replacement
+     *  policy of a shard happens while holding the shard's lock.
+     */
+    static class Shard {
+        final ReentrantLock lock;
+        final LongLinkedMap frames; // frames by key, for looking up without recording a use
+        final ReplacementPolicy policy; // picks which frame of this shard to evict
+        final int capacity; // number of pages this shard holds
+        final LongLinkedMap readAhead; // frames of pages read ahead of a scan and not asked for yet, oldest first
+
+        Shard(ReplacementPolicy policy, int capacity) {
+            this.lock = new ReentrantLock();
+            this.frames = new LongLinkedMap(capacity);
+            this.policy = policy;
+            this.capacity = capacity;
+            this.readAhead = new LongLinkedMap();
+        }
+    }
+
+    /**
+     * Constructs a PageBuffer for managing in-memory pages and file storage.
+     *  Pages are evicted in least recently used (LRU) order.
+     * @param bufferSize Maximum number of pages to store in memory.
+     * @param dbLocation Directory path for database storage.
+     * @param pageSize The fixed size of each page.
+     */
+    public PageBuffer(int bufferSize, String dbLocation, int pageSize) {
+        this(bufferSize, dbLocation, pageSize, "lru");
+    }
 
     /**
      * Constructs a PageBuffer for managing in-memory pages and file storage.
      * @param bufferSize Maximum number of pages to store in memory.
      * @param dbLocation Directory path for database storage.
      * @param pageSize The fixed size of each page.
+     * @param replacementPolicy the name of the policy used to pick which page to evict;
+     *                          "lru" or "2q"
+     */
+    public PageBuffer(int bufferSize, String dbLocation, int pageSize, String replacementPolicy) {
+        this.bufferSize = bufferSize;
+        this.dbLocation = dbLocation;
+        this.pageSize = pageSize;
+        this.directories = new ConcurrentHashMap<>();
+        this.channelPool = new FileChannelPool(MAX_OPEN_FILES);
+        this.mappedFiles = new ConcurrentHashMap<>();
+        this.mappedReads = false;
+        this.pageWriter = new PageWriter(this);
+        this.fileLock = new ReentrantReadWriteLock();
+        this.stats = new BufferStats();
+        this.maxReadAhead = 0;
+        this.readAheadStates = new ConcurrentHashMap<>();
+        this.readAheadThreads = null;
+        this.rowFormats = new ConcurrentHashMap<>();
+        this.rowFormatSource = null;
+        this.treeLatches = new ConcurrentHashMap<>();
+
+        //only split the buffer when every shard still holds a useful number of pages
+        int numShards = 1;
+        while (numShards * 2 <= MAX_SHARDS && bufferSize / (numShards * 2) >= MIN_PAGES_PER_SHARD){
+            numShards *= 2;
+        }
+        this.shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++){
+            int capacity = bufferSize / numShards + (i < bufferSize % numShards ? 1 : 0);
+            shards[i] = new Shard(createReplacementPolicy(replacementPolicy, capacity), Math.max(1, capacity));
+        }
+    }
+
+    /**
+     * Gets the number of pages the buffer holds
+     * @return the capacity of every shard added up
+     */
+    public int getCapacity(){
+        int capacity = 0;
+        for (Shard shard : shards){
+            capacity += shard.capacity;
+        }
+        return capacity;
+    }
+
+    /**
+     * Creates the replacement policy with the given name
+     * @param name the name of the policy; "lru" or "2q"
+     * @param bufferSize the number of pages the buffer holds
+     * @return the replacement policy; LRU if the name is not known
+     */
+    private static ReplacementPolicy createReplacementPolicy(String name, int bufferSize){
+        switch (name.toLowerCase()) {
+            case "2q":
+                return new TwoQueueCache(bufferSize);
+            case "lru":
+                return new LRUCache();
+            default:
+                System.err.println("Unknown replacement policy \"" + name + "\"; using lru");
+                return new LRUCache();
+        }
+    }
+
+    /**
+     * Stores a page in the buffer, 
+     *  writing the page chosen by the replacement policy to disk if necessary.
+     * @param tableId the id of the table the page belongs to
+     * @param pageId the unique id of the page
+     * @param page the Page object ot store
+     * @throws IOException
+     */
+    public void pushPage(int tableId, int pageId, Object page) throws IOException{
+        pushPage(tableId, pageId, page, false);
+    }
+
+    /**
+     * Stores a page in the buffer, 
+     *  writing the page chosen by the replacement policy to disk if necessary.
+     * @param tableId the id of the table the page belongs to
+     * @param pageId the unique id of the page
+     * @param page the Page object ot store
+     * @param scan true if the page was read by a sequential scan
+     * @throws IOException
+     */
+    private void pushPage(int tableId, int pageId, Object page, boolean scan) throws IOException{
+        long key;
+        if (page instanceof Page){
+            key = getPageKey(tableId, pageId, false);
+        } else {
+            key = getPageKey(tableId, pageId, true);
+        }
+
+        Shard shard = getShard(key);
+        Frame frame;
+        shard.lock.lock();
+        try {
+            frame = (Frame)shard.policy.get(key, scan);
+            if (frame != null){
+                frame.page = page;
+                return;
+            }
+            shard.readAhead.remove(key);
+            frame = new Frame(page);
+            // held while room is made so the new page is not the one evicted
+            frame.pinCount = 1;
+            shard.frames.put(key, frame);
+            shard.policy.put(key, frame, scan);
+        } finally {
+            shard.lock.unlock();
+        }
+        try {
+            makeRoom(shard);
+        } finally {
+            shard.lock.lock();
+            try {
+                frame.pinCount -= 1;
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Retrieves a page from the buffer. If not found, it is loaded from disk.
+     * @param tableId The id of the table the page belongs to
+     * @param pageId The unique id of the page.
+     * @param primaryKey the primary key of the table; used when reading B+ tree nodes
+     * @param getTreeNode true if the page is a node of the table's B+ tree
+     * @return the page retrieved from the buffer
+     * @throws IOException
+     */
+    public Object getPage(int tableId, int pageId, AttributeSchema primaryKey, boolean getTreeNode) throws IOException{
+        return getPage(tableId, pageId, primaryKey, getTreeNode, false);
+    }
+
+    /**
+     * Retrieves a page from the buffer. If not found, it is loaded from disk.
+     * @param tableId The id of the table the page belongs to
+     * @param pageId The unique id of the page.
+     * @param primaryKey the primary key of the table; used when reading B+ tree nodes
+     * @param getTreeNode true if the page is a node of the table's B+ tree
+     * @param scan true if the page is being read by a sequential scan;
+     *              the replacement policy will evict it before other pages
+     * @return the page retrieved from the buffer
+     * @throws IOException
+     */
+    public Object getPage(int tableId, int pageId, AttributeSchema primaryKey, boolean getTreeNode, boolean scan) throws IOException{
+        return getFrame(tableId, pageId, primaryKey, getTreeNode, scan, false).page;
+    }
+
+    /**
+     * Retrieves a page from the buffer and pins it, so it will not be evicted
+     *  until unpinPage is called for it. If not found, it is loaded from disk.
+     * Every call must be matched by a call to unpinPage.
+     * @param tableId The id of the table the page belongs to
+     * @param pageId The unique id of the page.
+     * @param primaryKey the primary key of the table; used when reading B+ tree nodes
+     * @param getTreeNode true if the page is a node of the table's B+ tree
+     * @param scan true if the page is being read by a sequential scan
+     * @return the page retrieved from the buffer
+     * @throws IOException
+     */
+    public Object pinPage(int tableId, int pageId, AttributeSchema primaryKey, boolean getTreeNode, boolean scan) throws IOException{
+        return getFrame(tableId, pageId, primaryKey, getTreeNode, scan, true).page;
+    }
+
+    /**
+     * Unpins a page that was pinned with pinPage.
+     * The page can be evicted again once every caller that pinned it has unpinned it.
+     * @param tableId The id of the table the page belongs to
+     * @param pageId The unique id of the page.
+     * @param isTree true if the page is a node of the table's B+ tree
+     */
+    public void unpinPage(int tableId, int pageId, boolean isTree){
+        long key = getPageKey(tableId, pageId, isTree);
+        Shard shard = getShard(key);
+        shard.lock.lock();
+        try {
+            Frame frame = (Frame)shard.frames.get(key);
+            if (frame == null || frame.pinCount == 0){
+                throw new IllegalStateException("Page " + pageId + " of table " + tableId + " is not pinned");
+            }
+            frame.pinCount -= 1;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the frame of a page, reading the page in from disk if it is not in the buffer
+     * @param tableId The id of the table the page belongs to
+     * @param pageId The unique id of the page.
+     * @param primaryKey the primary key of the table; used when reading B+ tree nodes
+     * @param getTreeNode true if the page is a node of the table's B+ tree
+     * @param scan true if the page is being read by a sequential scan
+     * @param pin true if the frame should be pinned
+     * @return the frame holding the page
+     * @throws IOException if the page can not be read
+     */
+    private Frame getFrame(int tableId, int pageId, AttributeSchema primaryKey, boolean getTreeNode, boolean scan, boolean pin) throws IOException{
+        long key = getPageKey(tableId, pageId, getTreeNode);
+        Shard shard = getShard(key);
+        Frame frame;
+        boolean readAheadHit = false; // true if the page was read ahead
+        boolean missed = false; // true if the page was not in the buffer
+        boolean load = false; // true if this caller reads the page in
+        boolean held; // true if the frame is pinned only until the page is ready and there is room for it
+        shard.lock.lock();
+        try {
+            frame = (Frame)shard.policy.get(key, scan);
+            if (frame != null){
+                stats.recordHit(tableId);
+            } else {
+                stats.recordMiss(tableId);
+                missed = true;
+                frame = (Frame)shard.readAhead.remove(key);
+                if (frame != null){
+                    stats.recordReadAheadHit();
+                    readAheadHit = true;
+                } else {
+                    //anyone else asking for the page waits on the placeholder instead of reading it again
+                    frame = new Frame(null);
+                    load = true;
+                }
+                shard.frames.put(key, frame);
+                shard.policy.put(key, frame, scan);
+            }
+            //also pin a page that is still being read in, so it stays while it is waited on
+            held = !pin && (missed || frame.page == null);
+            if (pin || held){
+                frame.pinCount += 1;
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+
+        if (frame.page == null){
+            RuntimeException error = null;
+            if (load){
+                try {
+                    readIn(frame, tableId, pageId, primaryKey, getTreeNode);
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+            } else {
+                waitForPage(frame);
+            }
+            if (frame.failed){
+                shard.lock.lock();
+                try {
+                    frame.pinCount -= 1;
+                    if (shard.frames.get(key) == frame){
+                        shard.frames.remove(key);
+                        shard.policy.remove(key);
+                    }
+                } finally {
+                    shard.lock.unlock();
+                }
+                if (error != null){
+                    throw error;
+                }
+                if (load){
+                    throw new IOException("Page " + pageId + " of table " + tableId + " could not be read");
+                }
+                //the page could not be read by whoever was reading it; read it again
+                return getFrame(tableId, pageId, primaryKey, getTreeNode, scan, pin);
+            }
+        }
+        if (held){
+            try {
+                if (missed){
+                    makeRoom(shard);
+                }
+            } finally {
+                shard.lock.lock();
+                try {
+                    frame.pinCount -= 1;
+                } finally {
+                    shard.lock.unlock();
+                }
+            }
+        } else if (missed){
+            makeRoom(shard);
+        }
+        if (scan && !getTreeNode && maxReadAhead > 0){
+            readAhead(tableId, pageId, readAheadHit, load);
+        }
+        return frame;
+    }
+
+    /**
+     * Reads a page into its placeholder frame, from the slab if its image is there and from disk if not,
+     *  and wakes up anyone waiting for it. The frame is marked failed if the page can not be read.
+     * Must not be called while holding the shard's lock.
+     * @param frame the placeholder frame of the page
+     * @param tableId The id of the table the page belongs to
+     * @param pageId The unique id of the page.
+     * @param primaryKey the primary key of the table; used when reading B+ tree nodes
+     * @param isTree true if the page is a node of the table's B+ tree
+     */
+    private void readIn(Frame frame, int tableId, int pageId, AttributeSchema primaryKey, boolean isTree){
+        Object page = null;
+        try {
+            page = takeFromSlab(tableId, pageId, primaryKey, isTree);
+            if (page != null){
+                stats.recordSlabHit();
+            } else if (!isTree){
+                page = readPageFromDisk(tableId, pageId);
+            } else {
+                page = readBPlusNodeFromDisk(tableId, pageId, primaryKey);
+            }
+        } finally {
+            synchronized (frame){
+                //a page pushed while this one was being read is newer than the one read
+                if (frame.page == null){
+                    if (page == null){
+                        frame.failed = true;
+                    } else {
+                        frame.page = page;
+                    }
+                }
+                frame.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits for a page that is being read in by someone else
+     * @param frame the frame of the page
+     */
+    private void waitForPage(Frame frame){
+        boolean interrupted = false;
+        synchronized (frame){
+            while (frame.page == null && !frame.failed){
+                try {
+                    frame.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Turns reading pages ahead of scans on or off
+     * @param maxPages the most pages to read ahead of a scan; 0 to turn read-ahead off.
+     *                 Never more than half of the buffer is used for pages read ahead.
+     */
+    public synchronized void setReadAhead(int maxPages){
+        this.maxReadAhead = Math.max(0, Math.min(maxPages, bufferSize / 2));
+        readAheadStates.clear();
+        if (maxReadAhead > 0 && readAheadThreads == null){
+            readAheadThreads = Executors.newFixedThreadPool(READ_AHEAD_THREADS, task -> {
+                Thread thread = new Thread(task, "read-ahead");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Takes a snapshot of the buffer's counts: hits, misses, evictions, reads and writes,
+     *  the counts of each table, and how long reads and writes have taken
+     * @return the snapshot
+     */
+    public BufferStats.Snapshot getStats(){
+        int pagesInBuffer = 0;
+        for (Shard shard : shards){
+            shard.lock.lock();
+            try {
+                pagesInBuffer += shard.frames.size();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        FrameSlab slab = this.slab;
+        int slabFrames = slab == null ? 0 : slab.getNumFrames();
+        int pagesInSlab = slab == null ? 0 : slab.size();
+        return stats.snapshot(bufferSize, pageSize, pagesInBuffer, slabFrames, pagesInSlab);
+    }
+
+    /**
+     * Sets all of the buffer's counts back to 0
+     */
+    public void resetStats(){
+        stats.reset();
+    }
+
+    /**
+     * Moves a table's counts to the table that was rebuilt to replace it.
+     * Must be called before the old table is removed, which drops its counts.
+     * @param oldTableId the id of the table being replaced
+     * @param newTableId the id of the table replacing it
+     */
+    public void moveTableStats(int oldTableId, int newTableId){
+        stats.moveTable(oldTableId, newTableId);
+    }
+
+    /**
+     * Records that a scan read a page of a table and, if the scan is reading
+     *  the table in page order, asks for the next pages to be read ahead
+     * @param tableId the id of the table
+     * @param pageId the id of the page the scan read
+     * @param readAheadHit true if the page had been read ahead
+     * @param loaded true if the scan had to read the page itself
+     */
+    private void readAhead(int tableId, int pageId, boolean readAheadHit, boolean loaded){
+        PageDirectory directory;
+        try {
+            directory = getPageDirectory(tableId, false);
+        } catch (IOException e) {
+            return;
+        }
+        if (directory == null){
+            return;
+        }
+        ReadAheadState state = readAheadStates.computeIfAbsent(getPageKey(tableId, 0, false),
+                                                               key -> new ReadAheadState(Math.min(READ_AHEAD_START, maxReadAhead)));
+        int firstIndex; // index in the page order of the first page to read ahead
+        int[] pageIds;
+        synchronized (state){
+            int numPages = directory.getNumPages();
+            int index;
+            if (state.lastIndex >= 0 && state.lastIndex + 1 < numPages && directory.getPageId(state.lastIndex + 1) == pageId){
+                index = state.lastIndex + 1;
+                state.sequentialReads += 1;
+                if (readAheadHit){
+                    state.sequentialHits += 1;
+                } else if (loaded){
+                    state.sequentialHits = 0;
+                }
+            } else {
+                //not reading in page order; start over from this page
+                index = directory.indexOf(pageId);
+                state.sequentialReads = 0;
+                state.sequentialHits = 0;
+                state.scheduledUpTo = index;
+            }
+            state.lastIndex = index;
+            if (index == -1 || state.sequentialReads < READ_AHEAD_START){
+                return;
+            }
+            if (state.sequentialHits >= state.window){
+                //the scan used every page of the last window, so it is worth reading further ahead
+                state.window = Math.min(state.window * 2, maxReadAhead);
+                state.sequentialHits = 0;
+            }
+            if (state.scheduledUpTo > index + state.window / 2){
+                return; //enough pages are already on their way
+            }
+            int from = Math.max(state.scheduledUpTo, index) + 1;
+            int to = Math.min(index + state.window, numPages - 1);
+            if (from > to){
+                return;
+            }
+            state.scheduledUpTo = to;
+            firstIndex = from;
+            pageIds = new int[to - from + 1];
+            for (int i = from; i <= to; i++){
+                pageIds[i - from] = directory.getPageId(i);
+            }
+        }
+        readAheadThreads.execute(() -> readPagesAhead(tableId, firstIndex, pageIds));
+    }
+
+    /**
+     * Reads pages of a table ahead of a scan.
+     * Each page gets a frame before it is read, so anyone asking for the page
+     *  while it is being read waits for it instead of reading it again.
+     * Pages that are in the buffer or the slab are skipped, since the copy on disk may be out of date,
+     *  and so are pages the scan has already got to, since it read them itself.
+     * @param tableId the id of the table
+     * @param firstIndex the index in the page order of the first page to read
+     * @param pageIds the ids of the pages to read, in the order the scan will read them
+     */
+    private void readPagesAhead(int tableId, int firstIndex, int[] pageIds){
+        long fileKey = getPageKey(tableId, 0, false);
+        //tables can not be removed while their pages are being read
+        fileLock.readLock().lock();
+        try {
+            for (int i = 0; i < pageIds.length; i++){
+                int pageId = pageIds[i];
+                //stop if the table was removed; its directory is not loaded again from a file about to be deleted
+                if (!directories.containsKey(fileKey)){
+                    return;
+                }
+                ReadAheadState state = readAheadStates.get(fileKey);
+                if (state == null){
+                    return;
+                }
+                synchronized (state){
+                    if (state.lastIndex >= firstIndex + i){
+                        continue;
+                    }
+                }
+                long key = getPageKey(tableId, pageId, false);
+                Shard shard = getShard(key);
+                Frame frame = new Frame(null);
+                FrameSlab slab = this.slab;
+                shard.lock.lock();
+                try {
+                    if (shard.frames.containsKey(key) || shard.readAhead.containsKey(key) ||
+                        (slab != null && slab.contains(key))){
+                        continue;
+                    }
+                    if (shard.readAhead.size() >= Math.max(1, shard.capacity / 2)){
+                        //the oldest page read ahead was never asked for
+                        long oldest = shard.readAhead.keyAt(shard.readAhead.firstEntry());
+                        shard.readAhead.remove(oldest);
+                        shrinkReadAhead(getTableId(oldest));
+                    }
+                    shard.readAhead.put(key, frame);
+                } finally {
+                    shard.lock.unlock();
+                }
+
+                Page page;
+                try {
+                    page = decodePage(readFrame(tableId, pageId, false), pageId, getRowFormat(tableId));
+                    page.markClean(); //page matches what is on disk
+                    stats.recordReadAhead();
+                } catch (IOException | RuntimeException e) {
+                    //leave the page to be read normally, which reports the error
+                    page = null;
+                }
+                synchronized (frame){
+                    if (page == null){
+                        frame.failed = true;
+                    } else if (frame.page == null){
+                        frame.page = page;
+                    }
+                    frame.notifyAll();
+                }
+                if (frame.failed){
+                    shard.lock.lock();
+                    try {
+                        if (shard.readAhead.get(key) == frame){
+                            shard.readAhead.remove(key);
+                        }
+                    } finally {
+                        shard.lock.unlock();
+                    }
+                }
+            }
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Makes a table read fewer pages ahead, used when a page read ahead was never asked for
+     * @param tableId the id of the table
+     */
+    private void shrinkReadAhead(int tableId){
+        ReadAheadState state = readAheadStates.get(getPageKey(tableId, 0, false));
+        if (state != null){
+            synchronized (state){
+                state.window = Math.max(1, state.window / 2);
+            }
+        }
+    }
+
+    /**
+     * Gets the shard that a page belongs to
+     * @param key the key of the page
+     * @return the shard of the page
+     */
+    private Shard getShard(long key){
+        return shards[Math.floorMod(Long.hashCode(key), shards.length)];
+    }
+
+    /**
+     * Evicts pages from a shard until it holds no more pages than its capacity.
+     * If every page in the shard is pinned, the shard is allowed to go over
+     *  its capacity until pages are unpinned.
+     * Must not be called while holding the shard's lock.
+     * @param shard the shard to make room in
+     * @throws IOException
+     */
+    private void makeRoom(Shard shard) throws IOException{
+        evictPages(shard, false);
+    }
+
+    /**
+     * Evicts the pages of a shard that are not pinned, in the order the replacement policy picks them.
+     * Changed pages that have nowhere to go but their data file are pinned and handed to the writer
+     *  as one batch, sorted by their place in the file, which is written without holding the shard's lock;
+     *  each is evicted once it is clean. Changed images pushed out of the slab to make room
+     *  are also written once the lock is released.
+     * A page that is being changed by someone else right now is passed over until the next time.
+     * Must not be called while holding the shard's lock.
+     * @param shard the shard to evict from
+     * @param all true to evict every page that is not pinned;
+     *            false to stop once the shard holds no more pages than its capacity
+     * @throws IOException
+     */
+    private void evictPages(Shard shard, boolean all) throws IOException{
+        while (true){
+            LongLinkedMap toWrite = new LongLinkedMap(); // changed pages to write before they can leave, pinned while written
+            LongLinkedMap busy = new LongLinkedMap(); // pages being changed right now, pinned so the policy passes over them
+            List<Long> leftSlab = new ArrayList<>(); // changed images pushed out of the slab
+            shard.lock.lock();
+            try {
+                while (shard.frames.size() - toWrite.size() - busy.size() > (all ? 0 : shard.capacity)){
+                    long keyToEvict = shard.policy.getVictimKey(key -> ((Frame)shard.frames.get(key)).pinCount == 0);
+                    if (keyToEvict == -1){
+                        break;
+                    }
+                    Frame frame = (Frame)shard.frames.get(keyToEvict);
+                    FrameSlab slab = this.slab;
+                    if (slab == null && isDirty(frame.page) &&
+                        getPageDirectory(getTableId(keyToEvict), isTreeKey(keyToEvict)) != null){
+                        frame.pinCount += 1;
+                        toWrite.put(keyToEvict, frame);
+                        continue;
+                    }
+                    //a page going to the slab is copied there, which can not happen while it changes
+                    //  or while it is over full and waiting to be split
+                    Lock latch = slab == null ? null : getCopyLatch(keyToEvict, frame.page);
+                    if (latch != null && !latch.tryLock()){
+                        frame.pinCount += 1;
+                        busy.put(keyToEvict, frame);
+                        continue;
+                    }
+                    try {
+                        if (slab != null && isOverFull(frame.page)){
+                            frame.pinCount += 1;
+                            busy.put(keyToEvict, frame);
+                            continue;
+                        }
+                        long left = evictPage(shard, keyToEvict);
+                        if (left != -1){
+                            leftSlab.add(left);
+                        }
+                    } finally {
+                        if (latch != null){
+                            latch.unlock();
+                        }
+                    }
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+            boolean evicted = false; // true if a page that had to be written was evicted
+            try {
+                for (long key : leftSlab){
+                    writeFromSlab(key);
+                }
+                if (toWrite.size() > 0){
+                    //the background writer fell behind if pages being evicted still have to be written
+                    pageWriter.wakeUp();
+                    //marked in key order, like flush, so two callers can not each wait on a page the other has marked
+                    long[] keys = toWrite.keys();
+                    Arrays.sort(keys);
+                    List<PageImage> images = new ArrayList<>();
+                    for (long key : keys){
+                        pageWriter.beginWrite(key);
+                        images.add(new PageImage(key, ((Frame)toWrite.get(key)).page));
+                    }
+                    writeImages(images);
+                }
+            } finally {
+                shard.lock.lock();
+                try {
+                    for (long key : toWrite.keys()){
+                        Frame frame = (Frame)toWrite.get(key);
+                        frame.pinCount -= 1;
+                        //evict it now unless it was used or changed while it was being written
+                        if (shard.frames.get(key) == frame && frame.pinCount == 0 && !isDirty(frame.page)){
+                            shard.frames.remove(key);
+                            shard.policy.remove(key);
+                            stats.recordEviction(true);
+                            evicted = true;
+                        }
+                    }
+                    for (long key : busy.keys()){
+                        ((Frame)busy.get(key)).pinCount -= 1;
+                    }
+                } finally {
+                    shard.lock.unlock();
+                }
+            }
+            if (!evicted){
+                //nothing was left to write, or every page written was changed again;
+                //  the shard stays over its capacity until the next time room is made
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the path of the data file of a table or tree
+     * @param tableId the id of the table
+     * @param isTree true if the path of the B+ tree file is wanted
+     * @return the path of the data file
+     */
+    private String getFilePath(int tableId, boolean isTree){
+        if (isTree){
+            return dbLocation + "/indexes/tree" + tableId + ".bpt";
+        }
+        return dbLocation + "/tables/table" + tableId + ".tbl";
+    }
+
+    /**
+     * Gets the size of one slot in a table file or tree file.
+     * Tree nodes are stored with 12 bytes of metadata in front of the node.
+     * @param isTree true if the size of a tree file slot is wanted
+     * @return the size of the slot in bytes
+     */
+    private int getFrameSize(boolean isTree){
+        if (isTree){
+            return pageSize + 12;
+        }
+        return pageSize;
+    }
+
+    /**
+     * Gets the page directory of a table or tree.
+     * The directory is read from its file the first time it is needed
+     *  and kept in memory after that.
+     * @param tableId the id of the table
+     * @param isTree true if the directory of the B+ tree is wanted
+     * @return the page directory, or null if the table does not exist
+     * @throws IOException
+     */
+    public PageDirectory getPageDirectory(int tableId, boolean isTree) throws IOException{
+        long key = getPageKey(tableId, 0, isTree);
+        PageDirectory directory = directories.get(key);
+        if (directory == null){
+            directory = PageDirectory.readFromFile(PageDirectory.getDirectoryPath(dbLocation, tableId, isTree),
+                                                   isTree ? null : PageDirectory.getFencePath(dbLocation, tableId));
+            if (directory != null){
+                //another thread may have loaded the directory at the same time
+                PageDirectory loaded = directories.putIfAbsent(key, directory);
+                if (loaded != null){
+                    directory = loaded;
+                }
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * Enters a new page into the page directory of a table or tree
+     *  and writes the change through to its file; only the new entry, the entry before it
+     *  and the header are written (see PageDirectory.save).
+     * @param tableId the id of the table
+     * @param indexToEnter the index in the page order to enter the new page id
+     * @param newPageId the new page id to enter
+     * @param isTree true if the page is being entered into the B+ tree directory
+     * @return the updated page directory, or null if the table does not exist
+     * @throws IOException
+     */
+    public PageDirectory insertPage(int tableId, int indexToEnter, int newPageId, boolean isTree) throws IOException{
+        PageDirectory directory = getPageDirectory(tableId, isTree);
+        if (directory == null){
+            return null;
+        }
+        synchronized (directory){
+            if (directory.insertPage(indexToEnter, newPageId)){
+                dropSavedFences(tableId);
+            }
+            saveDirectory(tableId, isTree, directory);
+        }
+        return directory;
+    }
+
+    /**
+     * Adds pages with ids one after the other to the end of the page directory of a table or tree
+     *  and writes their entries through to its file at once, after all of them are added.
+     * @param tableId the id of the table
+     * @param firstPageId the id of the first page to add
+     * @param count the number of pages to add
+     * @param isTree true if the pages are being added to the B+ tree directory
+     * @return the updated page directory, or null if the table does not exist
+     * @throws IOException
+     */
+    public PageDirectory appendPages(int tableId, int firstPageId, int count, boolean isTree) throws IOException{
+        PageDirectory directory = getPageDirectory(tableId, isTree);
+        if (directory == null){
+            return null;
+        }
+        synchronized (directory){
+            boolean fencesOutOfDate = false;
+            for (int i = 0; i < count; i++){
+                fencesOutOfDate |= directory.insertPage(directory.getNumPages(), firstPageId + i);
+            }
+            if (fencesOutOfDate){
+                dropSavedFences(tableId);
+            }
+            saveDirectory(tableId, isTree, directory);
+        }
+        return directory;
+    }
+
+    /**
+     * Sets the fence keys of a page of a table in its page directory.
+     * If the fence file held fence keys they are marked as out of date in the file
+     *  right away; the new fence keys are saved on the next flush.
+     * @param tableId the id of the table
+     * @param pageId the id of the page
+     * @param low the lowest primary key in the page; null if not known
+     * @param high the highest primary key in the page; null if not known
+     * @throws IOException
+     */
+    public void setFences(int tableId, int pageId, byte[] low, byte[] high) throws IOException{
+        PageDirectory directory = getPageDirectory(tableId, false);
+        if (directory == null){
+            return;
+        }
+        synchronized (directory){
+            if (directory.setFences(pageId, low, high)){
+                dropSavedFences(tableId);
+            }
+        }
+    }
+
+    /**
+     * Writes the changes to the page directory of a table or tree through to its file.
+     * Must be called while holding the directory's lock.
+     * @param tableId the id of the table
+     * @param isTree true if the directory is the B+ tree's
+     * @param directory the directory
+     * @throws IOException
+     */
+    private void saveDirectory(int tableId, boolean isTree, PageDirectory directory) throws IOException{
+        long key = getPageKey(tableId, DIRECTORY_FILE, isTree);
+        String path = PageDirectory.getDirectoryPath(dbLocation, tableId, isTree);
+        try {
+            directory.save(channelPool.getChannel(key, path));
+        } catch (ClosedChannelException e) {
+            //the pool closed the file while it was being written; nothing was counted as saved, so save again
+            directory.save(channelPool.getChannel(key, path));
+        }
+    }
+
+    /**
+     * Marks the fence keys in the fence file of a table as out of date.
+     * Must be called while holding the lock of the table's directory.
+     * @param tableId the id of the table
+     * @throws IOException
+     */
+    private void dropSavedFences(int tableId) throws IOException{
+        long key = getPageKey(tableId, FENCE_FILE, false);
+        String path = PageDirectory.getFencePath(dbLocation, tableId);
+        try {
+            PageDirectory.dropSavedFences(channelPool.getChannel(key, path));
+        } catch (ClosedChannelException e) {
+            PageDirectory.dropSavedFences(channelPool.getChannel(key, path));
+        }
+    }
+
+    /**
+     * Saves the fence keys of a table to its fence file if they have changed, making the file if there is none
+     * @param tableId the id of the table
+     * @param directory the table's directory
+     * @throws IOException
+     */
+    private void saveFences(int tableId, PageDirectory directory) throws IOException{
+        synchronized (directory){
+            if (!directory.hasFencesToSave()){
+                return;
+            }
+            long key = getPageKey(tableId, FENCE_FILE, false);
+            String path = PageDirectory.getFencePath(dbLocation, tableId);
+            new File(path).createNewFile();
+            try {
+                directory.saveFences(channelPool.getChannel(key, path));
+            } catch (ClosedChannelException e) {
+                directory.saveFences(channelPool.getChannel(key, path));
+            }
+        }
+    }
+
+    /**
+     * Forgets the page directory of a table or tree, closes its file,
+     *  and drops its pages from the buffer without writing them.
+     * Must be called before the files of the table or tree are deleted.
+     * @param tableId the id of the table
+     * @param isTree true if the B+ tree of the table is being removed
+     * @throws IOException
+     */
+    public void removeTable(int tableId, boolean isTree) throws IOException{
+        long key = getPageKey(tableId, 0, isTree);
+        //wait for a background round that may be writing the table's pages
+        fileLock.writeLock().lock();
+        try {
+            directories.remove(key);
+            //the mapping has to be let go of before the file is closed and deleted
+            MappedFile mappedFile = mappedFiles.remove(key);
+            if (mappedFile != null){
+                mappedFile.close();
+            }
+            readAheadStates.remove(key);
+            if (!isTree){
+                rowFormats.remove(tableId);
+                stats.removeTable(tableId);
+            } else {
+                treeLatches.remove(tableId);
+            }
+            channelPool.close(key);
+            channelPool.close(getPageKey(tableId, DIRECTORY_FILE, isTree));
+            if (!isTree){
+                channelPool.close(getPageKey(tableId, FENCE_FILE, false));
+            }
+            for (Shard shard : shards){
+                shard.lock.lock();
+                try {
+                    for (long pageKey : shard.frames.keys()){
+                        if (getTableId(pageKey) == tableId && isTreeKey(pageKey) == isTree &&
+                            ((Frame)shard.frames.get(pageKey)).pinCount == 0){
+                            shard.frames.remove(pageKey);
+                            shard.policy.remove(pageKey);
+                        }
+                    }
+                    for (long pageKey : shard.readAhead.keys()){
+                        if (getTableId(pageKey) == tableId && isTreeKey(pageKey) == isTree){
+                            shard.readAhead.remove(pageKey);
+                        }
+                    }
+                } finally {
+                    shard.lock.unlock();
+                }
+            }
+            FrameSlab slab = this.slab;
+            if (slab != null){
+                slab.removeIf(pageKey -> getTableId(pageKey) == tableId && isTreeKey(pageKey) == isTree);
+            }
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the open channel of a table file or tree file
+     * @param tableId the id of the table
+     * @param isTree true if the channel of the B+ tree file is wanted
+     * @return the channel of the file
+     * @throws IOException
+     */
+    private FileChannel getChannel(int tableId, boolean isTree) throws IOException{
+        return channelPool.getChannel(getPageKey(tableId, 0, isTree), getFilePath(tableId, isTree));
+    }
+
+    /**
+     * Closes all of the table and tree files that are open.
+     * They are opened again the next time they are needed.
+     * @throws IOException
      */
-    public PageBuffer(int bufferSize, String dbLocation, int pageSize) {
-        this.bufferSize = bufferSize;
-        this.cache = new LRUCache(bufferSize);
-        this.dbLocation = dbLocation;
-        this.pageSize = pageSize;
+    public void closeFiles() throws IOException{
+        channelPool.closeAll();
     }
 
     /**
-     * Stores a page in the buffer, 
-     *  writing the least recently used (LRU) page to disk if necessary.
+     * Gets the slot in the data file of the page with the given id
+     *  by looking it up in the table's page directory
      * @param tableId the id of the table the page belongs to
-     * @param pageId the unique id of the page
-     * @param page the Page object ot store
-     * @param pageOrder the order of the pages in the table with the given table id
-     * @param shiftAmount the shift that should be accounted for when writing the page
-     *                      Used when table file header is being rewritten and all pages are being shifted
+     * @param pageId the id of the page
+     * @param isTree true if the page is a node in the table's B+ tree
+     * @return the slot of the page
      * @throws IOException
      */
-    public void pushPage(int tableId, int pageId, Object page, List<Integer> pageOrder, int shiftAmount) throws IOException{
-        int key;
-        if (page instanceof Page){
-            key = getPageKey(tableId, pageId, false);
-        } else {
-            key = getPageKey(tableId, pageId, true);
+    private int getSlot(int tableId, int pageId, boolean isTree) throws IOException{
+        PageDirectory directory = getPageDirectory(tableId, isTree);
+        int slot = directory.getSlot(pageId);
+        if (slot == -1){
+            throw new IOException("Page " + pageId + " is not in the directory of " + getFilePath(tableId, isTree));
         }
-        int excessKey = this.cache.getLRUKey();
-        Object excess = this.cache.put(key, page);
+        return slot;
+    }
+
+    /**
+     * Gets the offset in the data file of the page with the given id
+     * @param tableId the id of the table the page belongs to
+     * @param pageId the id of the page
+     * @param isTree true if the page is a node in the table's B+ tree
+     * @return the offset of the page in bytes
+     * @throws IOException
+     */
+    private long getPageOffset(int tableId, int pageId, boolean isTree) throws IOException{
+        return (long)getSlot(tableId, pageId, isTree) * getFrameSize(isTree);
+    }
 
-        if (excess != null) {
-            assert(excessKey != -1);
-            int excessTableId = Math.abs(excessKey / 100000);
-            int excessPageId = Math.abs(excessKey % 100000);
+    /**
+     * Sets where the row format of a table comes from.
+     * Pages of tables that have a row format are stored in it; the rest are stored in the old format.
+     * @param rowFormatSource makes the row format of a table from its id; may return null
+     */
+    public void setRowFormatSource(IntFunction<RowFormat> rowFormatSource){
+        this.rowFormatSource = rowFormatSource;
+        rowFormats.clear();
+    }
 
-            String filePath;
-            if (excess instanceof Page){
-                filePath = dbLocation + "/tables/table" + excessTableId + ".tbl";
-            } else {
-                filePath = dbLocation + "/indexes/tree" + excessTableId + ".bpt";
-            }
-            File tableFile = new File(filePath);
-            if (tableFile.exists()){
-                if (tableId != excessTableId ||
-                    (page instanceof Page && !(excess instanceof Page))||
-                     (!(page instanceof Page) && excess instanceof Page)){
-                    if (excess instanceof Page){
-                        pageOrder = getPageOrder(excessTableId, true);
-                    } else {
-                        pageOrder = getPageOrder(excessTableId, false);
-                    }
-                }
-                if (excess instanceof Page){
-                    writePageToDisk(excessTableId, excessPageId, (Page)excess, pageOrder, shiftAmount);
-                } else {
-                    writeBplusNodeToDisk(excessTableId, excessPageId, (BplusTreeNode)excess, pageOrder, shiftAmount);
-                }
-            }  
+    /**
+     * Gets the row format the pages of a table are stored in.
+     * Made the first time it is needed and kept until the table is removed.
+     * @param tableId the id of the table
+     * @return the row format, or null if the table has none
+     */
+    public RowFormat getRowFormat(int tableId){
+        RowFormat rowFormat = rowFormats.get(tableId);
+        IntFunction<RowFormat> source = this.rowFormatSource;
+        if (rowFormat == null && source != null){
+            rowFormat = source.apply(tableId);
+            if (rowFormat != null){
+                rowFormats.put(tableId, rowFormat);
+            }
         }
+        return rowFormat;
+    }
 
-        // Ensure buffer does not exceed its limit
-        if (cache.size() > bufferSize) {
-            evictLRUPage(0, false);
+    /**
+     * Turns reading pages through memory mapped files on or off.
+     * When on, a page is read straight out of the mapping instead of
+     *  being copied into a new buffer, letting the OS page cache act as
+     *  a second level buffer. Writes always go through the file channel.
+     * @param mappedReads true to read pages from memory mapped files
+     */
+    public void setMappedReads(boolean mappedReads){
+        this.mappedReads = mappedReads;
+        if (!mappedReads){
+            for (MappedFile mappedFile : mappedFiles.values()){
+                mappedFile.close();
+            }
+            mappedFiles.clear();
         }
     }
 
     /**
-     * Used for when all pages need to be shifted some amount of bytes
-     *  to accomidate re-writing the tableheader
-     * @param tableId the id of the table to maipulate
-     * @param pageId the id of the page to shift
-     * @param pageOrder the page order of the table with the given id
-     * @param shiftAmount the shift that should be accounted for when writing the page
-     *                      Used when table file header is being rewritten and all pages are being shifted
+     * Sets the amount of off-heap memory used to hold the images of pages
+     *  that have left the buffer. Any images held under the old budget are written to disk.
+     * Should be set before the buffer is used.
+     * @param memoryBudget the number of bytes to use; 0 to keep no images
      * @throws IOException
      */
-    public void shiftPage(int tableId, int pageId, List<Integer> pageOrder, int shiftAmount, AttributeSchema primaryKey, boolean getTreeNode) throws IOException{
-        Object pageToShift = getPage(tableId, pageId, pageOrder, shiftAmount, primaryKey, getTreeNode);
-        Object removed = cache.remove(getPageKey(tableId, pageId, getTreeNode));
-        assert(removed != null);
-        if (pageToShift instanceof Page){
-            writePageToDisk(tableId, pageId, (Page)pageToShift, pageOrder, shiftAmount);
+    public void setMemoryBudget(long memoryBudget) throws IOException{
+        FrameSlab oldSlab = this.slab;
+        if (oldSlab != null){
+            for (long key : oldSlab.getChangedKeys()){
+                writeFromSlab(oldSlab, key);
+            }
+        }
+        if (memoryBudget > 0){
+            //one frame size for both kinds so any frame can hold a table page or a tree node
+            this.slab = new FrameSlab(memoryBudget, getFrameSize(true));
         } else {
-            writeBplusNodeToDisk(tableId, pageId, (BplusTreeNode)pageToShift, pageOrder, shiftAmount);
+            this.slab = null;
         }
     }
 
     /**
-     * Retrieves a page from the buffer. If not found, it is loaded from disk.
-     * @param tableId The id of the table the page belongs to
-     * @param pageId The unique id of the page.
-     * @param pageOrder the page order of the table with the given id
-     * @param shiftAmount the shift that should be accounted for when writing the page
-     *                      Used when table file header is being rewritten and all pages are being shifted
-     * @return the page retrieved from the buffer
+     * Writes the image of a changed page that left the slab to its data file
+     * @param key the key of the page
      * @throws IOException
      */
-    public Object getPage(int tableId, int pageId, List<Integer> pageOrder, int shiftAmount, AttributeSchema primaryKey, boolean getTreeNode) throws IOException{
-        int key = getPageKey(tableId, pageId, getTreeNode);
-        Object page = this.cache.get(key);
+    private void writeFromSlab(long key) throws IOException{
+        FrameSlab slab = this.slab;
+        if (slab != null){
+            writeFromSlab(slab, key);
+        }
+    }
 
-        if (page == null) {
-            //System.out.println("Happening when pageId is:"+pageId);
-            if (!getTreeNode){
-                page = readPageFromDisk(tableId, pageId, pageOrder);
-            }else {
-                page = readBPlusNodeFromDisk(tableId, pageId, pageOrder, primaryKey);
+    /**
+     * Writes the changed image of a page that left a slab, or is still in it, to its data file.
+     * The image is only copied out of the slab once the page's write mark is held.
+     * Nothing is written if the page was taken back out of the slab since,
+     *  or if the table's file has already been deleted.
+     * Must not be called while holding a shard's lock or the slab's lock.
+     * @param slab the slab the image left
+     * @param key the key of the page
+     * @throws IOException
+     */
+    private void writeFromSlab(FrameSlab slab, long key) throws IOException{
+        int tableId = getTableId(key);
+        boolean isTree = isTreeKey(key);
+        pageWriter.beginWrite(key);
+        try {
+            ByteBuffer copy = slab.getImageToWrite(key);
+            if (copy == null){
+                return;
             }
-            pushPage(tableId, pageId, page, pageOrder, shiftAmount);
+            if (getPageDirectory(tableId, isTree) != null){
+                ByteBuffer image = copy.duplicate();
+                image.limit(getFrameSize(isTree));
+                writeFrame(tableId, getPageId(key), isTree, image);
+            }
+            slab.written(key, copy);
+        } finally {
+            pageWriter.endWrite(key);
         }
-        return page;
     }
 
+    /**
+     * Takes a page out of the slab if its image is there
+     * @param tableId the id of the table the page belongs to
+     * @param pageId the id of the page
+     * @param primaryKey the primary key of the table; used when reading B+ tree nodes
+     * @param isTree true if the page is a node in the table's B+ tree
+     * @return the page, or null if it is not in the slab
+     */
+    private Object takeFromSlab(int tableId, int pageId, AttributeSchema primaryKey, boolean isTree){
+        FrameSlab slab = this.slab;
+        if (slab == null){
+            return null;
+        }
+        return slab.take(getPageKey(tableId, pageId, isTree), (image, changed) -> {
+            if (isTree){
+                BplusTreeNode node = decodeBplusNode(image, tableId, primaryKey);
+                if (!changed){
+                    node.markClean();
+                }
+                return node;
+            }
+            Page page = decodePage(image, pageId, getRowFormat(tableId));
+            if (!changed){
+                page.markClean();
+            }
+            return page;
+        });
+    }
 
     /**
-     * Gets the order of pages in the table with the given tableId
-     * @param tableId the id of the table to get the page order from
-     * @return a list of page ids
+     * Reads the slot of a page or B+ tree node from its data file
+     * @param tableId the id of the table the page belongs to
+     * @param pageId the id of the page
+     * @param isTree true if the page is a node in the table's B+ tree
+     * @return a buffer holding the slot, positioned at the start of it
      * @throws IOException
      */
-    private List<Integer> getPageOrder(int tableId, boolean isPage) throws IOException{
-        String filePath;
-        if(isPage){
-            filePath = dbLocation + "tables/table" + tableId + ".tbl";
-        }else{
-            filePath = dbLocation + "/indexes/tree" + tableId + ".bpt";
+    private ByteBuffer readFrame(int tableId, int pageId, boolean isTree) throws IOException{
+        int slot = getSlot(tableId, pageId, isTree);
+        long start = System.nanoTime();
+        ByteBuffer frame;
+        try {
+            frame = readFrame(getChannel(tableId, isTree), tableId, slot, isTree);
+        } catch (ClosedChannelException e) {
+            //the pool closed the file while it was being read; open it again and retry
+            frame = readFrame(getChannel(tableId, isTree), tableId, slot, isTree);
         }
-        
-        //String filePath = dbLocation + "tables/table" + tableId + ".tbl";
-        File tableFile = new File(filePath);
-        if (!tableFile.exists()){
-            System.out.println("table"+tableId+" does not exist.");
-            return null;
+        stats.recordRead(tableId, frame.remaining(), System.nanoTime() - start);
+        return frame;
+    }
+
+    /**
+     * Helper function for reading a slot from an open data file
+     * @param channel the channel of the data file
+     * @param tableId the id of the table the file belongs to
+     * @param slot the slot to read
+     * @param isTree true if the file is the table's B+ tree file
+     * @return a buffer holding the slot, positioned at the start of it
+     * @throws IOException
+     */
+    private ByteBuffer readFrame(FileChannel channel, int tableId, int slot, boolean isTree) throws IOException{
+        if (mappedReads){
+            MappedFile mappedFile = mappedFiles.computeIfAbsent(getPageKey(tableId, 0, isTree),
+                                                                key -> new MappedFile(getFrameSize(isTree)));
+            ByteBuffer frame = mappedFile.getFrame(channel, slot);
+            if (frame != null){
+                return frame;
+            }
+            //slot has not been written to the file yet; fall through to a normal read
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(getFrameSize(isTree));
+        channel.read(buffer, (long)slot * getFrameSize(isTree)); //read in the slot of the page
+        buffer.flip(); //flip buffer; buffer position 0
+        return buffer;
+    }
+
+    /**
+     * Writes a buffer holding a page or B+ tree node to the page's slot in its data file
+     * @param tableId the id of the table the page belongs to
+     * @param pageId the id of the page
+     * @param isTree true if the page is a node in the table's B+ tree
+     * @param buffer the buffer to write, positioned at 0
+     * @return the number of bytes written
+     * @throws IOException
+     */
+    private long writeFrame(int tableId, int pageId, boolean isTree, ByteBuffer buffer) throws IOException{
+        return writeAt(tableId, isTree, buffer, getPageOffset(tableId, pageId, isTree));
+    }
+
+    /**
+     * Writes a buffer to a table file or tree file at the given offset
+     * @param tableId the id of the table the file belongs to
+     * @param isTree true if the file is the table's B+ tree file
+     * @param buffer the buffer to write, positioned at 0
+     * @param offset the offset in the file to write at
+     * @return the number of bytes written
+     * @throws IOException
+     */
+    private long writeAt(int tableId, boolean isTree, ByteBuffer buffer, long offset) throws IOException{
+        long start = System.nanoTime();
+        long bytesWritten;
+        try {
+            bytesWritten = getChannel(tableId, isTree).write(buffer, offset);
+        } catch (ClosedChannelException e) {
+            //the pool closed the file while it was being written; open it again and retry
+            buffer.position(0);
+            bytesWritten = getChannel(tableId, isTree).write(buffer, offset);
         }
+        int pages = (int)Math.max(1, bytesWritten / getFrameSize(isTree));
+        stats.recordWrite(tableId, pages, bytesWritten, System.nanoTime() - start);
+        return bytesWritten;
+    }
 
-        try (RandomAccessFile raf = new RandomAccessFile(filePath, "r"); FileChannel channel = raf.getChannel()) {
-            ByteBuffer buffer = ByteBuffer.allocate(pageSize);
-            channel.read(buffer); //reads pageSize bytes into buffer from start of file
-            buffer.flip(); //flip buffer. buffer position 0
-
-            int numPages = buffer.getInt(); //gets number of pages
-            
-
-            buffer.clear(); //set buffer back to position 0 to read again
-            channel.position(4); //set channel to the beginning of page order
-            channel.read(buffer); //read in page order
-            buffer.flip(); //flip buffer; buffer position is 0
-
-            //get the order of the pages
-            List<Integer> pageOrder = new ArrayList<>();
-            for (int i = 0; i < numPages; i++){
-                pageOrder.add(buffer.getInt());
-                //check if adding one more pageid would be greater than the pageSize
-                if (buffer.position()+4 > pageSize){
-                    //gets difference between how many bytes have been retrieved from
-                    //  the buffer and how many bytes are in the buffer
-                    int difference = pageSize - buffer.position();
-                    //move channel back the size of difference so that
-                    //  next thing being read is on a int boundary
-                    channel.position(channel.position() - difference);
-                    buffer.clear();
-                    channel.read(buffer);
-                    buffer.flip();
+    /**
+     * Evicts a page from a shard, keeping its image in the slab if there is a memory budget.
+     * A page with nowhere to go but its data file must be clean, or belong to a table whose file
+     *  has been deleted, since nothing is written to disk here (see evictPages).
+     * Must be called while holding the shard's lock.
+     * @param shard the shard the page is in
+     * @param keyToEvict the key of the page to evict
+     * @return the key of a changed image that left the slab to make room, which has to be written
+     *          with writeFromSlab once the shard's lock is released; -1 if there is none
+     * @throws IOException
+     */
+    private long evictPage(Shard shard, long keyToEvict) throws IOException{
+        Frame frameToEvict = (Frame)shard.frames.remove(keyToEvict);
+        shard.policy.remove(keyToEvict);
+        long left = -1;
+        if (frameToEvict != null) {
+            FrameSlab slab = this.slab;
+            if (slab != null && getPageDirectory(getTableId(keyToEvict), isTreeKey(keyToEvict)) != null){
+                Object page = frameToEvict.page;
+                if (page instanceof Page){
+                    left = slab.put(keyToEvict, ((Page)page).isDirty(), image -> encodePage((Page)page, image));
+                } else {
+                    left = slab.put(keyToEvict, ((BplusTreeNode)page).isDirty(), image -> encodeBplusNode((BplusTreeNode)page, image));
                 }
             }
-            return pageOrder;
+            stats.recordEviction(false);
+        }
+        return left;
+    }
+
+    /**
+     * Checks if a page or B+ tree node has changed since it was last written to disk
+     * @param page the Page or BplusTreeNode
+     * @return true if it needs to be written
+     */
+    private static boolean isDirty(Object page){
+        if (page instanceof Page){
+            return ((Page)page).isDirty();
+        }
+        return ((BplusTreeNode)page).isDirty();
+    }
+
+    /**
+     * Checks if a page holds more than fits in its slot, which it does between a record
+     *  being added to it and it being split or having records moved off it
+     * @param page the Page or BplusTreeNode
+     * @return true if it is a table page that can not be copied until it is split
+     */
+    private static boolean isOverFull(Object page){
+        return page instanceof Page && ((Page)page).pageIsGreaterThanPageSize();
+    }
+
+    /**
+     * Gets the version of a page or B+ tree node
+     * @param page the Page or BplusTreeNode
+     * @return the version; it changes every time the page changes
+     */
+    private static int getVersion(Object page){
+        if (page instanceof Page){
+            return ((Page)page).getVersion();
+        }
+        return ((BplusTreeNode)page).getVersion();
+    }
+
+    /**
+     * Turns the background page writer on or off
+     * @param on true to start the writer, false to stop it
+     */
+    public void setBackgroundWriter(boolean on){
+        if (on){
+            pageWriter.start();
+        } else {
+            pageWriter.stop();
+        }
+    }
+
+    /**
+     * Writes out the changed pages that are next in line to be evicted from each shard,
+     *  so evicting them later does not have to wait on a write.
+     * Called by the background PageWriter. Pages that are pinned or that are
+     *  already being written are skipped.
+     * @throws IOException
+     */
+    void cleanAhead() throws IOException{
+        //tables can not be removed while their pages are being written
+        fileLock.readLock().lock();
+        try {
+            cleanAheadLocked();
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Helper function for cleanAhead; called while holding the file lock for reading
+     * @throws IOException
+     */
+    private void cleanAheadLocked() throws IOException{
+        for (Shard shard : shards){
+            int lookAhead = Math.max(1, shard.capacity / 4); // number of next victims to keep clean
+            int[] visited = {0};
+            List<PageImage> images = new ArrayList<>();
+            shard.lock.lock();
+            try {
+                //walk the frames in the order the policy would evict them,
+                //  stopping once enough of them have been looked at
+                shard.policy.getVictimKey(key -> {
+                    Frame frame = (Frame)shard.frames.get(key);
+                    if (frame.pinCount == 0){
+                        visited[0] += 1;
+                        if (isDirty(frame.page) && pageWriter.tryBeginWrite(key)){
+                            images.add(new PageImage(key, frame.page));
+                        }
+                    }
+                    return visited[0] >= lookAhead;
+                });
+            } finally {
+                shard.lock.unlock();
+            }
+            //the marks are let go before the next shard is locked; a caller holding that lock
+            //  may be waiting to write one of these pages
+            writeImages(images);
         }
     }
 
     /**
-     * Evicts the least recently used (LRU) page from memory and writes it to disk.
-     * @param shiftAmount the shift that should be accounted for when writing the page
-     *                      Used when table file header is being rewritten and all pages are being shifted
+     * Copies the given pages and writes them to disk, grouped by file and
+     *  sorted by slot, so pages in neighboring slots go out in a single write.
+     * Every page must have been marked as being written with the PageWriter;
+     *  the marks are removed once the pages are written.
+     * A page that is being changed when it is to be copied is skipped and left dirty.
+     * @param images the pages to write
      * @throws IOException
      */
-    private void evictLRUPage(int shiftAmount, boolean shiftTree) throws IOException{
-        int keyToEvict = cache.getLRUKey();
-        Object pageToEvict = cache.remove(keyToEvict);
-        if (pageToEvict != null) {
-            int tableId = Math.abs(keyToEvict / 100000);
-            int pageId = Math.abs(keyToEvict % 100000);
-            
-            String filePath;
-            if (pageToEvict instanceof Page){
-                filePath = dbLocation + "/tables/table" + tableId + ".tbl";
-            }else{
-                filePath = dbLocation + "/indexes/tree" + tableId + ".bpt";
+    private void writeImages(List<PageImage> images) throws IOException{
+        try {
+            List<PageImage> ready = new ArrayList<>();
+            for (PageImage image : images){
+                encodeImage(image);
+                if (image.image != null){
+                    ready.add(image);
+                }
             }
-            //String filePath = dbLocation + "/tables/table" + tableId + ".tbl";
-            File tableFile = new File(filePath);
-            if (tableFile.exists()){
-                List<Integer> pageOrder;
-                if (pageToEvict instanceof Page){
-                    if (shiftTree){
-                        shiftAmount = 0;
-                    }
-                    pageOrder = getPageOrder(tableId, true);
-                    writePageToDisk(tableId, pageId, (Page)pageToEvict, pageOrder, shiftAmount);
-                } else {
-                    if (!shiftTree){
-                        shiftAmount = 0;
-                    }
-                    pageOrder = getPageOrder(tableId, false);
-                    writeBplusNodeToDisk(tableId, pageId, (BplusTreeNode)pageToEvict, pageOrder, shiftAmount);
+            ready.sort(Comparator.comparingLong((PageImage image) -> image.fileKey)
+                                 .thenComparingInt(image -> image.slot));
+
+            int start = 0;
+            while (start < ready.size()){
+                int end = start + 1;
+                while (end < ready.size() && end - start < MAX_BATCH_FRAMES &&
+                       ready.get(end).fileKey == ready.get(start).fileKey &&
+                       ready.get(end).slot == ready.get(end - 1).slot + 1){
+                    end += 1;
                 }
-            }   
+                writeRun(ready.subList(start, end));
+                start = end;
+            }
+        } finally {
+            for (PageImage image : images){
+                pageWriter.endWrite(image.key);
+            }
+        }
+    }
+
+    /**
+     * Makes the on-disk image of a page that is about to be written.
+     * The page is copied while holding its latch for reading, so no change to it is copied halfway;
+     *  the copy is not made if the page is being changed right now, is over full or is already clean.
+     * @param image the page to copy; its slot, image and version are filled in,
+     *              or the image is left empty if the page's file has been deleted or the page was not copied
+     * @throws IOException
+     */
+    private void encodeImage(PageImage image) throws IOException{
+        int tableId = getTableId(image.key);
+        boolean isTree = isTreeKey(image.key);
+        PageDirectory directory = getPageDirectory(tableId, isTree);
+        if (directory == null){
+            return;
+        }
+        image.slot = directory.getSlot(getPageId(image.key));
+        if (image.slot == -1){
+            return;
+        }
+        Lock latch = getCopyLatch(image.key, image.page);
+        if (latch != null && !latch.tryLock()){
+            return; //it is written once it is no longer being changed
+        }
+        try {
+            if (!isDirty(image.page)){
+                return; //written by someone else while this waited for its mark
+            }
+            if (isOverFull(image.page)){
+                return; //it is written once it has been split
+            }
+            image.version = getVersion(image.page);
+            ByteBuffer buffer = ByteBuffer.allocate(getFrameSize(isTree));
+            if (isTree){
+                encodeBplusNode((BplusTreeNode)image.page, buffer);
+            } else {
+                encodePage((Page)image.page, buffer);
+            }
+            buffer.position(0);
+            image.image = buffer;
+        } finally {
+            if (latch != null){
+                latch.unlock();
+            }
+        }
+    }
+
+    /**
+     * Gets the lock held for reading while a page is copied to be written.
+     * A table page is changed while holding its own latch, and the nodes of a B+ tree
+     *  are only changed while holding the tree's lock for writing.
+     * @param key the key of the page
+     * @param page the Page or BplusTreeNode
+     * @return the read lock; null for a node of a tree whose lock has not been given
+     */
+    private Lock getCopyLatch(long key, Object page){
+        if (page instanceof Page){
+            return ((Page)page).getLatch().readLock();
+        }
+        ReadWriteLock latch = treeLatches.get(getTableId(key));
+        return latch == null ? null : latch.readLock();
+    }
+
+    /**
+     * Gives the buffer the lock of a B+ tree, which is held for writing while the tree's nodes change,
+     *  so nodes are only copied to be written between changes
+     * @param tableId the id of the table the tree is for
+     * @param latch the tree's lock
+     */
+    public void setTreeLatch(int tableId, ReadWriteLock latch){
+        treeLatches.put(tableId, latch);
+    }
+
+    /**
+     * Writes pages that sit in neighboring slots of the same file with one write
+     *  and marks them clean, unless they have changed since they were copied
+     * @param run the pages, sorted by slot with no gaps
+     * @throws IOException
+     */
+    private void writeRun(List<PageImage> run) throws IOException{
+        PageImage first = run.get(0);
+        boolean isTree = isTreeKey(first.key);
+        int frameSize = getFrameSize(isTree);
+        ByteBuffer buffer = first.image;
+        if (run.size() > 1){
+            buffer = ByteBuffer.allocate(run.size() * frameSize);
+            for (PageImage image : run){
+                buffer.put(image.image);
+            }
+            buffer.position(0);
+        }
+        writeAt(getTableId(first.key), isTree, buffer, (long)first.slot * frameSize);
+        for (PageImage image : run){
+            if (image.page instanceof Page){
+                ((Page)image.page).markClean(image.version);
+            } else {
+                ((BplusTreeNode)image.page).markClean(image.version);
+            }
         }
     }
 
     /**
      * Generates a unique key for a page based on table ID and page ID.
+     * The key is laid out as [kind: 2 bits][table id: 31 bits][page id: 31 bits],
+     *  where the kind is 0 for table pages and 1 for B+ tree nodes,
+     *  so every table and page id an int can hold gets its own key and the key is never negative.
      * @param tableId The table's unique identifier.
      * @param pageId The page's unique identifier within the table.
-     * @return A computed unique integer key.
+     * @param isTree true if the page is a node of the table's B+ tree
+     * @return A computed unique long key.
      */
-    private int getPageKey(int tableId, int pageId, boolean isTree) {
-        if (!isTree){
-            return tableId * 100000 + pageId;
-        } else {
-            return tableId * -100000 - pageId;
-        }
+    static long getPageKey(int tableId, int pageId, boolean isTree) {
+        long kind = isTree ? 1L : 0L;
+        return (kind << 62) | ((long)tableId << 31) | pageId;
+    }
+
+    /**
+     * Gets the id of the table a page key belongs to
+     * @param key the key made by getPageKey
+     * @return the table id
+     */
+    static int getTableId(long key) {
+        return (int)((key >>> 31) & Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets the id of the page a page key belongs to
+     * @param key the key made by getPageKey
+     * @return the page id
+     */
+    static int getPageId(long key) {
+        return (int)(key & Integer.MAX_VALUE);
+    }
+
+    /**
+     * Checks if a page key belongs to a B+ tree node
+     * @param key the key made by getPageKey
+     * @return true if the key is for a B+ tree node
+     */
+    static boolean isTreeKey(long key) {
+        return (key >>> 62) == 1;
     }
 
     /**
-     * Method for writing everything in the pageBuffer to file
-     * @param shiftAmount the shift that should be accounted for when writing the page
-     *                      Used when table file header is being rewritten and all pages are being shifted
+     * Method for writing everything in the pageBuffer to file.
+     * Only pages that have changed are written.
+     * Pages that are not pinned are removed from the buffer;
+     *  if there is a memory budget their images stay in the slab.
      * @throws IOException
      */
-    public void flush(int shiftAmount, boolean shiftTree) throws IOException{
-        while(cache.size() != 0){
-            evictLRUPage(shiftAmount, shiftTree);
+    public void flush() throws IOException{
+        //write every changed page first, in file order
+        LongLinkedMap changed = new LongLinkedMap(); // changed pages by key
+        for (Shard shard : shards){
+            shard.lock.lock();
+            try {
+                for (long key : shard.frames.keys()){
+                    Frame frame = (Frame)shard.frames.get(key);
+                    if (frame.page != null && isDirty(frame.page)){
+                        changed.put(key, frame.page);
+                    }
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        //the pages are marked once no lock is held, in key order,
+        //  so two flushes can not each wait on a page the other has marked
+        long[] keys = changed.keys();
+        Arrays.sort(keys);
+        List<PageImage> images = new ArrayList<>();
+        for (long key : keys){
+            pageWriter.beginWrite(key);
+            //the page may have left the buffer before it was marked; it is then written by whoever evicted it
+            Shard shard = getShard(key);
+            boolean stillHere;
+            shard.lock.lock();
+            try {
+                Frame frame = (Frame)shard.frames.get(key);
+                stillHere = frame != null && frame.page == changed.get(key);
+            } finally {
+                shard.lock.unlock();
+            }
+            if (stillHere){
+                images.add(new PageImage(key, changed.get(key)));
+            } else {
+                pageWriter.endWrite(key);
+            }
+        }
+        writeImages(images);
+
+        //then empty the buffer; pinned pages stay in the buffer but have been saved
+        for (Shard shard : shards){
+            evictPages(shard, true);
+        }
+        FrameSlab slab = this.slab;
+        if (slab != null){
+            for (long key : slab.getChangedKeys()){
+                writeFromSlab(slab, key);
+            }
+        }
+
+        //every page is on disk now, so the fence keys match the data files
+        for (Map.Entry<Long, PageDirectory> entry : directories.entrySet()){
+            long key = entry.getKey();
+            if (!isTreeKey(key)){
+                saveFences(getTableId(key), entry.getValue());
+            }
         }
     }
 
@@ -268,58 +1772,26 @@ public class PageBuffer {
     }
 
     /**
-     * Writes a page to disk in binary format.
-     * @param tableId the table the page belongs to
-     * @param pageId the page's unique identifier
-     * @param page The Page object to store
-     * @param pageOrder the page order of the table with the given id
-     * @param shiftAmount the shift that should be accounted for when writing the page
-     *                      Used when table file header is being rewritten and all pages are being shifted
-     */
-    private void writePageToDisk(int tableId, int pageId, Page page, List<Integer> pageOrder, int shiftAmount) {
-        String filePath = dbLocation + "/tables/table" + tableId + ".tbl";
-        try (RandomAccessFile raf = new RandomAccessFile(filePath, "rw");
-            FileChannel channel = raf.getChannel()) {
-            ByteBuffer buffer = ByteBuffer.allocate(pageSize);
-
-            int numPages = pageOrder.size();
-            //skip over the header
-            raf.skipBytes(4 + 4*numPages);
-            //loop through the pageIds until find the pageId passed in
-            //For each pageId that isn't the one given, skip over PageSize bytes
-            for (int pageNum : pageOrder){
-                if (pageNum == pageId){
-                    break;
-                }
-                int bytesSkipped = raf.skipBytes(pageSize);
-                assert(bytesSkipped == pageSize);
-            }
-
-
-            List<Record> records = page.getRecords();
-            int numRecords = records.size();
+     * Writes the on-disk image of a page into a buffer
+     * @param page the page to write
+     * @param buffer the buffer to write into, positioned where the image starts
+     */
+    private void encodePage(Page page, ByteBuffer buffer) {
+        List<Record> records = page.getRecords();
+        int numRecords = records.size();
+        RowFormat rowFormat = page.getRowFormat();
+        if (rowFormat == null){
             buffer.putInt(numRecords); //put the number of records into the buffer
             //write each record into the buffer
             for (Record record : records) {
                 writeRecordToBuffer(buffer, record);
             }
-
-            buffer.position(0); //move the position of the buffer to 0
-                                            //this is so writting begins from the
-                                            //  beginning of the buffer
-            /*if (shiftingPage){
-                raf.skipBytes(4); //skip 4 bytes because int is being added to page order
-            }*/
-            //raf.skipBytes(shiftAmount);
-            channel.position(raf.getFilePointer()+shiftAmount);
-            //raf.seek(raf.getFilePointer())
-            //raf.
-
-            long bytesWritten = channel.write(buffer);
-            assert (bytesWritten == pageSize);
-            raf.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+            return;
+        }
+        //a negative first int marks a page in the new row format
+        buffer.putInt(rowFormat.getPageHeader(numRecords));
+        for (Record record : records) {
+            rowFormat.write(record.getData(), buffer);
         }
     }
 
@@ -337,41 +1809,16 @@ public class PageBuffer {
 
     /**
      * Reads a page from disk in binary format.
+     * The page is read from its slot in the table file.
      * @param tableId The table the page belongs to.
      * @param pageId The page's unique identifier.
-     * @param pageOrder the page order of the table with the given id
      * @return The Page object retrieved from disk, or null if not found.
      */
-    private Page readPageFromDisk(int tableId, int pageId, List<Integer> pageOrder) {
-        String filePath = dbLocation + "/tables/table" + tableId + ".tbl";
-        try (RandomAccessFile raf = new RandomAccessFile(filePath, "r");
-                FileChannel channel = raf.getChannel()) {
-            ByteBuffer buffer = ByteBuffer.allocate(pageSize);
-            
-            int numPages = pageOrder.size();
-            //skip over the header
-            raf.skipBytes(4 + 4*numPages);
-            //loop through the pageIds until find the pageId passed in
-            //For each pageId that isn't the one given, skip over PageSize bytes
-            for (int pageNum : pageOrder){
-                if (pageNum == pageId){
-                    break;
-                }
-                int bytesSkipped = raf.skipBytes(pageSize);
-                assert(bytesSkipped == pageSize);
-            }
-
-            channel.position(raf.getFilePointer()); //move the channel to the filepointer
-                                                    //this is where reading will be done from
-            channel.read(buffer); //read in pageSize bytes into the buffer
-            buffer.flip(); //flip buffer; buffer position 0
-
-            Page page = new Page(pageSize, pageId);
-            int numRecords = buffer.getInt(); //get the number of records
-            for (int i = 0; i < numRecords; i++) {
-                page.insertAtTheEnd(readRecordFromDisk(buffer)); //get the record and insert it into the page
-            }
-            raf.close();
+    private Page readPageFromDisk(int tableId, int pageId) {
+        try {
+            ByteBuffer buffer = readFrame(tableId, pageId, false);
+            Page page = decodePage(buffer, pageId, getRowFormat(tableId));
+            page.markClean(); //page matches what is on disk
             return page;
         } catch (IOException e) {
             System.out.println("HUGE PROBLEM\nLOOK HERE\nTHROWING I/O EXCEPTION");
@@ -380,154 +1827,73 @@ public class PageBuffer {
     }
 
     /**
-     * write out bplusnode
+     * Builds a page from its on-disk image.
+     * The image may be in the old format or in the row format of the table, with or without
+     *  compact strings; either way the page is stored in the row format of the table the next
+     *  time it is written, as long as its records still fit in a page that way.
+     * @param buffer the buffer holding the image, positioned at the start of it
+     * @param pageId the page's unique identifier
+     * @param rowFormat the row format of the table; null if it has none
+     * @return the Page object
      */
-    private void writeBplusNodeToDisk(int tableId, int pageId, BplusTreeNode node, List<Integer> pageOrder, int shiftAmount) {
-        String filePath = dbLocation + "/indexes/tree" + tableId + ".bpt";
-    
-        try (RandomAccessFile raf = new RandomAccessFile(filePath, "rw");
-             FileChannel channel = raf.getChannel()) {
-            ByteBuffer buffer = ByteBuffer.allocate(pageSize);
-    
-
-            // Skip Header
-            raf.skipBytes(4+(4*pageOrder.size()));
-
-            // Move to correct page position
-            for(int pid: pageOrder) {
-                if(pid==pageId) break;
-                raf.skipBytes(pageSize+12);
+    private Page decodePage(ByteBuffer buffer, int pageId, RowFormat rowFormat) {
+        int numRecords = buffer.getInt(); //get the number of records
+        RowFormat imageFormat = null; //format the image is in; null for the old format
+        if (numRecords < 0){
+            if (rowFormat == null){
+                throw new IllegalStateException("Page " + pageId + " is in a row format that is not known");
             }
-                
-            // 1. Write metadata
-            buffer.putInt(node.getPageNumber());           // page number
-            buffer.putInt(node.getParentPointer());        // parent pointer
-            buffer.putInt(node.getValues().size());        // num entries
-
-            //write out metadata
-            buffer.flip();
-            channel.position(raf.getFilePointer() + shiftAmount);
-            channel.write(buffer);
-            //set position back to 0 and limit back to pageSize
-            buffer.clear();
+            imageFormat = rowFormat.withCompactStrings(RowFormat.isCompactStringsPage(numRecords));
+            numRecords = RowFormat.getNumRecords(numRecords);
+        }
 
-    
-            // 2. Write values
-            for (Object value : node.getValues()) {
-                AttributeType type = node.getPrimaryKeyType();
-                switch (type) {
-                    case BOOLEAN -> buffer.put((byte) ((Boolean) value ? 1 : 0));
-                    case INTEGER -> buffer.putInt((Integer) value);
-                    case DOUBLE -> buffer.putDouble((Double) value);
-                    case CHAR -> {
-                        String str = (String) value;
-                        for (char c : str.toCharArray()) buffer.putChar(c);
-                    } 
-                    case VARCHAR -> {
-                        String str = (String) value;
-                        buffer.putInt(str.length());
-                        for (char c : str.toCharArray()) buffer.putChar(c);
-                    }
-                }
-            }
-    
-            // 3. Write pointers (numEntries + 1)
-            for (int[] pointer : node.getPointers()) {
-                buffer.putInt(pointer[0]);  // page number
-                buffer.putInt(pointer[1]);  // index
-            }
-    
-            // 4. Write to file
-            buffer.position(0);
-            channel.position(raf.getFilePointer());
-            int amountWritten = channel.write(buffer);
-        } catch (IOException e) {
-            e.printStackTrace();
+        List<Record> records = new ArrayList<>(numRecords);
+        for (int i = 0; i < numRecords; i++) {
+            //get the record and insert it into the page
+            records.add(imageFormat == null ? readRecordFromDisk(buffer) : new Record(imageFormat.read(buffer)));
+        }
+        Page page = new Page(pageSize, pageId, rowFormat);
+        page.setRecords(records);
+        if (rowFormat != imageFormat && page.pageIsGreaterThanPageSize()){
+            //records can be larger in the format of the table than in the one
+            //  they were stored in, such as a record with many nulls; keep that one
+            page = new Page(pageSize, pageId, imageFormat);
+            page.setRecords(records);
         }
+        return page;
     }
 
     /**
-     * read in bplusnode
+     * Writes the on-disk image of a B+ tree node into a buffer
+     * @param node the node to write
+     * @param buffer the buffer to write into, positioned where the image starts
      */
-    private BplusTreeNode readBPlusNodeFromDisk(int tableId, int pageId, List<Integer> pageOrder, AttributeSchema primaryKey) {
-        String filePath = dbLocation + "/indexes/tree" + tableId + ".bpt";
-    
-        try (RandomAccessFile raf = new RandomAccessFile(filePath, "r");
-             FileChannel channel = raf.getChannel()) {
-            ByteBuffer buffer = ByteBuffer.allocate(pageSize);
-    
-            // Skip Header
-            raf.skipBytes(4+(4*pageOrder.size()));
+    private void encodeBplusNode(BplusTreeNode node, ByteBuffer buffer) {
+        // 1. Write metadata
+        buffer.putInt(node.getPageNumber());           // page number
+        buffer.putInt(node.getParentPointer());        // parent pointer
+        buffer.putInt(node.getValues().size());        // num entries
 
+        // 2. Write values
+        node.getValues().write(buffer);
 
-            // Move to correct page position
-            for(int pid: pageOrder) {
-                if(pid==pageId) break;
-                raf.skipBytes(pageSize+12);
-            }
-
-            channel.position(raf.getFilePointer());
-            int numBytesRead = channel.read(buffer);
-            buffer.flip();
-    
-            // 1. Metadata
-            int actualPageNum = buffer.getInt();
-            int parentPointer = buffer.getInt();
-            int numEntries = buffer.getInt();
-
-            //clear buffer; set position pass the metadata
-            buffer.clear();
-            channel.position(raf.getFilePointer() - numBytesRead + 12);
-            channel.read(buffer);
-            buffer.flip();
-    
-            // 2. Read values
-            List<Object> values = new ArrayList<>();
-            AttributeType keyType = primaryKey.getType();
-            for (int i = 0; i < numEntries; i++) {
-                switch (keyType) {
-                    case BOOLEAN -> values.add(buffer.get() == 1);
-                    case INTEGER -> values.add(buffer.getInt());
-                    case DOUBLE -> values.add(buffer.getDouble());
-                    case CHAR ->{
-                        StringBuilder sb = new StringBuilder();
-                        for (int j = 0; j < primaryKey.getSize(); j++) sb.append(buffer.getChar());
-                        values.add(sb.toString());
-                    } 
-                    case VARCHAR -> {
-                        /*TODO: Char doesn't have an int; needs to be it's own thing */
-                        int len = buffer.getInt();
-                        StringBuilder sb = new StringBuilder();
-                        for (int j = 0; j < len; j++) sb.append(buffer.getChar());
-                        values.add(sb.toString());
-                    }
-                }
-            }
-    
-            // 3. Read pointers
-            List<int[]> pointers = new ArrayList<>();
-            for (int i = 0; i < numEntries + 1; i++) {
-                int page = buffer.getInt();
-                int index = buffer.getInt();
-                pointers.add(new int[]{page, index});
-            }
-    
+        // 3. Write pointers (numEntries + 1)
+        for (int i = 0; i < node.getNumPointers(); i++) {
+            buffer.putInt(node.getPointerPage(i));   // page number
+            buffer.putInt(node.getPointerIndex(i));  // index
+        }
+    }
 
-            // 4.5 calculate n for the BplusTreeNode
-            int keyPointerSize;
-            if (keyType == AttributeType.CHAR || keyType == AttributeType.VARCHAR){
-                keyPointerSize = primaryKey.getSize()*2 + 8;
-            } else{
-                keyPointerSize = primaryKey.getSize() + 8;
-            }
-            int n = (int)Math.floor(((double)pageSize)/keyPointerSize) - 1;
-            
-    
-            // 5. Reconstruct node
-            BplusTreeNode node = new BplusTreeNode(n, actualPageNum, tableId, parentPointer, primaryKey.getType());
-            node.setValues(values);
-            node.setPointers(pointers);
+    /**
+     * read in bplusnode
+     * The node is read from its slot in the tree file
+     */
+    private BplusTreeNode readBPlusNodeFromDisk(int tableId, int pageId, AttributeSchema primaryKey) {
+        try {
+            ByteBuffer buffer = readFrame(tableId, pageId, true);
     
+            BplusTreeNode node = decodeBplusNode(buffer, tableId, primaryKey);
+            node.markClean(); //node matches what is on disk
             return node;
         } catch (IOException e) {
             e.printStackTrace();
@@ -535,4 +1901,44 @@ public class PageBuffer {
         }
     }
     
+    /**
+     * Builds a B+ tree node from its on-disk image
+     * @param buffer the buffer holding the image, positioned at the start of it
+     * @param tableId the id of the table the node belongs to
+     * @param primaryKey the primary key of the table
+     * @return the BplusTreeNode object
+     */
+    private BplusTreeNode decodeBplusNode(ByteBuffer buffer, int tableId, AttributeSchema primaryKey) {
+        // 1. Metadata
+        int actualPageNum = buffer.getInt();
+        int parentPointer = buffer.getInt();
+        int numEntries = buffer.getInt();
+
+        // 2. Read values
+        AttributeType keyType = primaryKey.getType();
+        NodeKeys values = NodeKeys.forType(keyType);
+        values.read(buffer, numEntries, primaryKey.getSize());
+
+        // 3. Read pointers
+        //an empty node has no pointers
+        int numPointers = numEntries > 0 ? numEntries + 1 : 0;
+        int[] pages = new int[numPointers];
+        int[] indexes = new int[numPointers];
+        for (int i = 0; i < numPointers; i++) {
+            pages[i] = buffer.getInt();
+            indexes[i] = buffer.getInt();
+        }
+
+
+        // 4.5 calculate n for the BplusTreeNode
+        int n = BplusTree.computeN(primaryKey, pageSize);
+
+
+        // 5. Reconstruct node
+        BplusTreeNode node = new BplusTreeNode(n, actualPageNum, tableId, parentPointer, primaryKey.getType());
+        node.setValues(values);
+        node.setPointers(pages, indexes, numPointers);
+        return node;
+    }
+
 }
@@ -0,0 +1,512 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents the page directory of a table file or B+ tree file.
+ * The directory keeps the order of the pages and maps every page id to the
+ *  fixed slot that the page occupies in the data file.
+ * Pages are always appended to the end of the data file and never move,
+ *  so a page can be found by seeking straight to slot * frameSize.
+ *
+ * The directory also keeps the fence keys of each page of a table: the lowest and highest
+ *  primary key in the page, in the form the key is stored in a record. Since the pages of a table
+ *  are in primary key order, the page a key belongs in can be found with a binary search
+ *  over the fence keys without reading any pages.
+ *
+ * The directory is stored in its own file next to the data file in the form:
+ *      [-1][numPages][firstSlot][pageId nextSlot]...[pageId nextSlot]
+ *  with one (pageId, nextSlot) entry for each slot of the data file, in slot order, where nextSlot is
+ *  the slot of the page after it in the page order, or -1 for the last page. A new page takes the next
+ *  slot, so entering it only appends its entry, points the page before it at it and rewrites the header.
+ *  Files written before this form start with numPages and hold the (pageId, slot) pairs in page order,
+ *  followed by the fence keys; they are turned into this form when they are read.
+ * The fence keys of a table are stored in a second file in the form:
+ *      [fencesSaved]([lowLength][low][highLength][high])...
+ *  with the fence keys stored in page order. They are only read back when fencesSaved is 1,
+ *  which is only the case when they were saved after every page was written to disk;
+ *  otherwise they are built again when needed.
+ * A PageDirectory can be shared between threads.
+ *
+ * @author Tyler Black tcb8683
+ */
+public class PageDirectory {
+    private static final int FORMAT = -1; // first int of a directory file in the current form
+    private static final int HEADER_SIZE = 12; // bytes before the first entry of a directory file
+    private static final int ENTRY_SIZE = 8; // bytes of one entry of a directory file
+    private int[] pageOrder; // page ids in the order of the pages in the table
+    private int[] slots; // slot of each page in the data file, indexed by page id; -1 if not in table
+    private int[] slotPages; // id of the page in each slot of the data file
+    private int[] nextSlots; // slot of the next page in the page order, indexed by slot; -1 for the last page
+    private int numPages; // number of pages in the table
+    private List<Integer> pageOrderList; // read only copy of pageOrder handed out to callers; null when out of date
+    private int savedPages; // number of entries in the directory file
+    private int[] changedLinks; // slots of saved entries whose next slot has changed since they were saved
+    private int numChangedLinks; // number of slots in changedLinks
+    private boolean rewrite; // true if the whole directory file has to be written again
+    private byte[][] lowKeys; // lowest primary key in each page, indexed by page id; null if not known
+    private byte[][] highKeys; // highest primary key in each page, indexed by page id; null if not known
+    private int numMissingFences; // number of pages whose fence keys are not known
+    private boolean fencesChanged; // true if the fence keys have changed since they were last saved
+    private boolean fencesInFile; // true if the fence file holds fence keys that are up to date
+
+    /**
+     * Constructs an empty PageDirectory
+     */
+    public PageDirectory() {
+        this.pageOrder = new int[8];
+        this.slots = new int[8];
+        Arrays.fill(this.slots, -1);
+        this.slotPages = new int[8];
+        this.nextSlots = new int[8];
+        this.numPages = 0;
+        this.savedPages = 0;
+        this.changedLinks = new int[4];
+        this.numChangedLinks = 0;
+        this.rewrite = true; //nothing has been written yet
+        this.lowKeys = new byte[8][];
+        this.highKeys = new byte[8][];
+        this.numMissingFences = 0;
+        this.fencesChanged = false;
+        this.fencesInFile = false;
+    }
+
+    /**
+     * Gets the path of the directory file for a table or tree
+     * @param dbLocation the location of the database directory
+     * @param tableId the id of the table
+     * @param isTree true if the directory is for the B+ tree file of the table
+     * @return the path of the directory file
+     */
+    public static String getDirectoryPath(String dbLocation, int tableId, boolean isTree) {
+        if (isTree){
+            return dbLocation + "/indexes/tree" + tableId + ".dir";
+        }
+        return dbLocation + "/tables/table" + tableId + ".dir";
+    }
+
+    /**
+     * Gets the path of the file the fence keys of a table are saved in
+     * @param dbLocation the location of the database directory
+     * @param tableId the id of the table
+     * @return the path of the fence file
+     */
+    public static String getFencePath(String dbLocation, int tableId) {
+        return dbLocation + "/tables/table" + tableId + ".fen";
+    }
+
+    /**
+     * Creates a new, empty directory file
+     * @param dirPath the path of where the directory file will be located
+     * @return false if error, true otherwise
+     * @throws IOException
+     */
+    public static boolean createNewDirectoryFile(String dirPath) throws IOException {
+        File dirFile = new File(dirPath);
+        if (dirFile.exists()){
+            System.err.println("Directory File " + dirPath + " already exists");
+            return false;
+        }
+        if (!dirFile.createNewFile()){
+            System.err.println("Error with creating Directory file");
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(dirFile, "rw");
+             FileChannel channel = raf.getChannel()) {
+            new PageDirectory().save(channel);
+        }
+        return true;
+    }
+
+    /**
+     * Reads a PageDirectory from its directory file, and the fence keys from the fence file if it has one.
+     * A directory file in the old form is written again in the current form.
+     * @param dirPath the path of the directory file
+     * @param fencePath the path of the fence file; null for a B+ tree, which has no fence keys
+     * @return the PageDirectory read in, or null if the file does not exist
+     * @throws IOException
+     */
+    public static PageDirectory readFromFile(String dirPath, String fencePath) throws IOException {
+        File dirFile = new File(dirPath);
+        if (!dirFile.exists()){
+            return null;
+        }
+
+        PageDirectory directory = new PageDirectory();
+        try (RandomAccessFile raf = new RandomAccessFile(dirFile, "rw");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) dirFile.length());
+            channel.read(buffer);
+            buffer.flip();
+
+            int first = buffer.getInt();
+            if (first != FORMAT){
+                //old form: the pairs in page order, then the fence keys
+                for (int i = 0; i < first; i++){
+                    int pageId = buffer.getInt();
+                    int slot = buffer.getInt();
+                    directory.addEntry(i, pageId, slot);
+                }
+                boolean hasFences = buffer.remaining() >= 4 && buffer.getInt() == 1;
+                if (hasFences){
+                    for (int i = 0; i < first; i++){
+                        directory.putFences(directory.pageOrder[i], readKey(buffer), readKey(buffer));
+                    }
+                }
+                directory.save(channel);
+                if (hasFences && fencePath != null){
+                    directory.fencesChanged = true;
+                    try (RandomAccessFile fenceRaf = new RandomAccessFile(fencePath, "rw");
+                         FileChannel fenceChannel = fenceRaf.getChannel()) {
+                        directory.saveFences(fenceChannel);
+                    }
+                }
+                return directory;
+            }
+
+            int numPages = buffer.getInt();
+            int slot = buffer.getInt();
+            for (int i = 0; i < numPages; i++){
+                int pageId = buffer.getInt(HEADER_SIZE + slot*ENTRY_SIZE);
+                directory.addEntry(i, pageId, slot);
+                slot = buffer.getInt(HEADER_SIZE + slot*ENTRY_SIZE + 4);
+            }
+            directory.savedPages = numPages;
+            directory.rewrite = false;
+        }
+
+        File fenceFile = fencePath == null ? null : new File(fencePath);
+        if (fenceFile != null && fenceFile.length() >= 4){
+            try (RandomAccessFile raf = new RandomAccessFile(fenceFile, "r");
+                 FileChannel channel = raf.getChannel()) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) fenceFile.length());
+                channel.read(buffer);
+                buffer.flip();
+                if (buffer.getInt() == 1){
+                    for (int i = 0; i < directory.numPages; i++){
+                        directory.putFences(directory.pageOrder[i], readKey(buffer), readKey(buffer));
+                    }
+                    directory.fencesInFile = true;
+                }
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * Helper function for reading a fence key written as its length and then its bytes
+     * @param buffer the buffer to read from, positioned at the length
+     * @return the key
+     */
+    private static byte[] readKey(ByteBuffer buffer) {
+        byte[] key = new byte[buffer.getInt()];
+        buffer.get(key);
+        return key;
+    }
+
+    /**
+     * Writes the changes to this PageDirectory since it was last saved to its directory file:
+     *  the entries of the pages entered since, the saved entries whose next slot has changed, and the header.
+     * Nothing is counted as saved until every write is done, so a save that fails can be done again.
+     * @param channel an open channel of the directory file
+     * @throws IOException
+     */
+    public synchronized void save(FileChannel channel) throws IOException {
+        int from = rewrite ? 0 : savedPages;
+        if (numPages > from){
+            ByteBuffer entries = ByteBuffer.allocate((numPages - from) * ENTRY_SIZE);
+            for (int slot = from; slot < numPages; slot++){
+                entries.putInt(slotPages[slot]);
+                entries.putInt(nextSlots[slot]);
+            }
+            entries.flip();
+            channel.write(entries, HEADER_SIZE + (long)from*ENTRY_SIZE);
+        }
+        if (!rewrite){
+            ByteBuffer link = ByteBuffer.allocate(4);
+            for (int i = 0; i < numChangedLinks; i++){
+                link.clear();
+                link.putInt(nextSlots[changedLinks[i]]);
+                link.flip();
+                channel.write(link, HEADER_SIZE + (long)changedLinks[i]*ENTRY_SIZE + 4);
+            }
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(FORMAT);
+        header.putInt(numPages);
+        header.putInt(numPages == 0 ? -1 : slots[pageOrder[0]]);
+        header.flip();
+        channel.write(header, 0);
+        if (rewrite){
+            channel.truncate(HEADER_SIZE + (long)numPages*ENTRY_SIZE);
+        }
+        savedPages = numPages;
+        numChangedLinks = 0;
+        rewrite = false;
+    }
+
+    /**
+     * Checks if the fence keys have changed since they were last saved and are all known,
+     *  so they can be saved to the fence file
+     * @return true if saveFences would write them
+     */
+    public synchronized boolean hasFencesToSave() {
+        return fencesChanged && numMissingFences == 0 && numPages > 0;
+    }
+
+    /**
+     * Writes the fence keys to the fence file if they have changed since they were last saved.
+     * Must only be called once every page of the table has been written to disk,
+     *  so the saved fence keys match the pages in the data file.
+     * @param channel an open channel of the fence file
+     * @throws IOException
+     */
+    public synchronized void saveFences(FileChannel channel) throws IOException {
+        if (!hasFencesToSave()){
+            return;
+        }
+        int size = 4;
+        for (int i = 0; i < numPages; i++){
+            size += 8 + lowKeys[pageOrder[i]].length + highKeys[pageOrder[i]].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(1);
+        for (int i = 0; i < numPages; i++){
+            buffer.putInt(lowKeys[pageOrder[i]].length);
+            buffer.put(lowKeys[pageOrder[i]]);
+            buffer.putInt(highKeys[pageOrder[i]].length);
+            buffer.put(highKeys[pageOrder[i]]);
+        }
+        buffer.flip();
+        channel.write(buffer, 0);
+        channel.truncate(size);
+        fencesChanged = false;
+        fencesInFile = true;
+    }
+
+    /**
+     * Marks the fence keys in the fence file as out of date, so they are not read back
+     * @param channel an open channel of the fence file
+     * @throws IOException
+     */
+    public static void dropSavedFences(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        buffer.putInt(0);
+        buffer.flip();
+        channel.write(buffer, 0);
+    }
+
+    /**
+     * Inserts a new page into the page order at the given index.
+     * The new page is given the next slot at the end of the data file.
+     * @param index the index in the page order to enter the new page id
+     * @param pageId the id of the new page
+     * @return true if the fence file held fence keys, which are now out of date
+     *          since the new page has none, so they have to be dropped from the file
+     */
+    public synchronized boolean insertPage(int index, int pageId) {
+        addEntry(index, pageId, numPages);
+        boolean wasInFile = fencesInFile;
+        fencesInFile = false;
+        return wasInFile;
+    }
+
+    /**
+     * Helper function for adding a page id and its slot to the directory
+     * @param index the index in the page order to enter the page id
+     * @param pageId the id of the page
+     * @param slot the slot of the page in the data file
+     */
+    private void addEntry(int index, int pageId, int slot) {
+        if (numPages == pageOrder.length){
+            pageOrder = Arrays.copyOf(pageOrder, pageOrder.length * 2);
+        }
+        if (slot >= slotPages.length){
+            slotPages = Arrays.copyOf(slotPages, Math.max(slot + 1, slotPages.length * 2));
+            nextSlots = Arrays.copyOf(nextSlots, slotPages.length);
+        }
+        if (pageId >= slots.length){
+            int oldLength = slots.length;
+            slots = Arrays.copyOf(slots, Math.max(pageId + 1, oldLength * 2));
+            Arrays.fill(slots, oldLength, slots.length, -1);
+            lowKeys = Arrays.copyOf(lowKeys, slots.length);
+            highKeys = Arrays.copyOf(highKeys, slots.length);
+        }
+        //the page before the new one now leads to it, and it leads to the page that was at its index
+        slotPages[slot] = pageId;
+        nextSlots[slot] = index < numPages ? slots[pageOrder[index]] : -1;
+        if (index > 0){
+            int previousSlot = slots[pageOrder[index - 1]];
+            nextSlots[previousSlot] = slot;
+            if (previousSlot < savedPages){
+                if (numChangedLinks == changedLinks.length){
+                    changedLinks = Arrays.copyOf(changedLinks, numChangedLinks * 2);
+                }
+                changedLinks[numChangedLinks++] = previousSlot;
+            }
+        }
+        System.arraycopy(pageOrder, index, pageOrder, index + 1, numPages - index);
+        pageOrder[index] = pageId;
+        slots[pageId] = slot;
+        numPages += 1;
+        pageOrderList = null;
+        //a new page has no fence keys until its records are known
+        lowKeys[pageId] = null;
+        highKeys[pageId] = null;
+        numMissingFences += 1;
+    }
+
+    /**
+     * Sets the fence keys of a page
+     * @param pageId the id of the page
+     * @param low the lowest primary key in the page; null if not known
+     * @param high the highest primary key in the page; null if not known
+     * @return true if the fence file held fence keys, which are now out of date,
+     *          so they have to be dropped from the file
+     */
+    public synchronized boolean setFences(int pageId, byte[] low, byte[] high) {
+        if (getSlot(pageId) == -1){
+            return false;
+        }
+        putFences(pageId, low, high);
+        fencesChanged = true;
+        boolean wasInFile = fencesInFile;
+        fencesInFile = false;
+        return wasInFile;
+    }
+
+    /**
+     * Helper function for setting the fence keys of a page
+     * @param pageId the id of the page
+     * @param low the lowest primary key in the page; null if not known
+     * @param high the highest primary key in the page; null if not known
+     */
+    private void putFences(int pageId, byte[] low, byte[] high) {
+        boolean wasMissing = lowKeys[pageId] == null || highKeys[pageId] == null;
+        boolean isMissing = low == null || high == null;
+        lowKeys[pageId] = low;
+        highKeys[pageId] = high;
+        if (wasMissing && !isMissing){
+            numMissingFences -= 1;
+        } else if (!wasMissing && isMissing){
+            numMissingFences += 1;
+        }
+    }
+
+    /**
+     * Checks if the fence keys of every page are known
+     * @return true if they are all known
+     */
+    public synchronized boolean hasFences() {
+        return numMissingFences == 0;
+    }
+
+    /**
+     * Gets the lowest primary key in a page
+     * @param pageId the id of the page
+     * @return the key, in the form it is stored in a record; null if not known
+     */
+    public synchronized byte[] getLowKey(int pageId) {
+        return getSlot(pageId) == -1 ? null : lowKeys[pageId];
+    }
+
+    /**
+     * Gets the highest primary key in a page
+     * @param pageId the id of the page
+     * @return the key, in the form it is stored in a record; null if not known
+     */
+    public synchronized byte[] getHighKey(int pageId) {
+        return getSlot(pageId) == -1 ? null : highKeys[pageId];
+    }
+
+    /**
+     * Finds the first page in the page order whose highest primary key is greater than the given key,
+     *  or greater than or equal to it, with a binary search over the fence keys
+     * @param primaryKey the primary key attribute of the table
+     * @param key the key, in the form it is stored in a record
+     * @param orEqual true to also stop at a page whose highest key equals the key
+     * @return the index of the page in the page order, the number of pages if there is no such page,
+     *          or -1 if the fence keys are not all known
+     */
+    public synchronized int findPage(AttributeSchema primaryKey, byte[] key, boolean orEqual) {
+        if (numMissingFences != 0){
+            return -1;
+        }
+        int low = 0;
+        int high = numPages;
+        while (low < high){
+            int mid = (low + high) >>> 1;
+            int compare = Page.compareKeys(primaryKey, key, 0, highKeys[pageOrder[mid]], 0);
+            if (compare < 0 || (orEqual && compare == 0)){
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Gets the slot in the data file of the page with the given id
+     * @param pageId the id of the page
+     * @return the slot of the page, or -1 if the page is not in this directory
+     */
+    public synchronized int getSlot(int pageId) {
+        if (pageId < 0 || pageId >= slots.length){
+            return -1;
+        }
+        return slots[pageId];
+    }
+
+    /**
+     * Gets the number of pages in this directory
+     * @return the number of pages
+     */
+    public synchronized int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Gets the id of the page at the given index in the page order
+     * @param index the index in the page order
+     * @return the id of the page
+     */
+    public synchronized int getPageId(int index) {
+        return pageOrder[index];
+    }
+
+    /**
+     * Gets the index in the page order of the page with the given id
+     * @param pageId the id of the page
+     * @return the index of the page, or -1 if the page is not in this directory
+     */
+    public synchronized int indexOf(int pageId) {
+        for (int i = 0; i < numPages; i++){
+            if (pageOrder[i] == pageId){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the order of the pages in this directory.
+     * The list is read only and the same list is returned until a page is inserted,
+     *  so asking for the page order repeatedly does not copy it every time.
+     * @return a list of page ids
+     */
+    public synchronized List<Integer> getPageOrder() {
+        if (pageOrderList == null){
+            List<Integer> order = new ArrayList<>(numPages);
+            for (int i = 0; i < numPages; i++){
+                order.add(pageOrder[i]);
+            }
+            pageOrderList = Collections.unmodifiableList(order);
+        }
+        return pageOrderList;
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Background writer for the page buffer.
+ * When started, a daemon thread wakes up every so often (or when the buffer asks it to)
+ *  and writes out the changed pages that are next in line to be evicted, so that
+ *  evicting them later does not have to wait on a disk write.
+ *  The pages are written in batches sorted by their place in the file; see PageBuffer.cleanAhead.
+ *
+ * The writer also makes sure that only one write of a page is happening at a time,
+ *  whether from the background thread or from a caller evicting or flushing the page,
+ *  so an older image of a page can never be written over a newer one.
+ *
+ * @author Tyler Black tcb8683
+ */
+public class PageWriter implements Runnable {
+    private static final long INTERVAL_MILLIS = 50; // time between rounds when nothing wakes the writer
+
+    private final PageBuffer pageBuffer; // the buffer whose pages are written
+    private final LongLinkedMap writing; // keys of the pages that are being written right now; also the lock for them
+    private volatile Thread thread; // the background thread; null when not running
+    private boolean wakeUpRequested; // true if a round should start without waiting
+
+    /**
+     * Constructs a PageWriter; the background thread is not started
+     * @param pageBuffer the buffer whose pages are written
+     */
+    public PageWriter(PageBuffer pageBuffer) {
+        this.pageBuffer = pageBuffer;
+        this.writing = new LongLinkedMap();
+        this.thread = null;
+        this.wakeUpRequested = false;
+    }
+
+    /**
+     * Starts the background thread if it is not running
+     */
+    public synchronized void start() {
+        if (thread == null){
+            thread = new Thread(this, "page-writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the background thread and waits for its current round to finish
+     */
+    public void stop() {
+        Thread running;
+        synchronized (this){
+            running = thread;
+            thread = null;
+            notifyAll();
+        }
+        if (running != null){
+            try {
+                running.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Checks if the background thread is running
+     * @return true if it is running
+     */
+    public boolean isRunning() {
+        return thread != null;
+    }
+
+    /**
+     * Asks the background thread to start a round now,
+     *  used when a caller had to write a page itself to make room
+     */
+    public synchronized void wakeUp() {
+        if (thread != null && !wakeUpRequested){
+            wakeUpRequested = true;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (thread == Thread.currentThread()){
+            try {
+                pageBuffer.cleanAhead();
+            } catch (Exception e) {
+                System.err.println("Page writer failed to write pages: " + e.getMessage());
+            }
+            synchronized (this){
+                try {
+                    if (!wakeUpRequested && thread == Thread.currentThread()){
+                        wait(INTERVAL_MILLIS);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                wakeUpRequested = false;
+            }
+        }
+    }
+
+    /**
+     * Waits until no one else is writing a page, then marks it as being written.
+     * Must be matched by a call to endWrite.
+     * @param key the key of the page
+     */
+    public void beginWrite(long key) {
+        synchronized (writing){
+            boolean interrupted = false;
+            while (writing.containsKey(key)){
+                try {
+                    writing.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            writing.put(key, Boolean.TRUE);
+            if (interrupted){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Marks a page as being written if no one else is writing it
+     * @param key the key of the page
+     * @return true if the page was marked; it must then be matched by a call to endWrite
+     */
+    public boolean tryBeginWrite(long key) {
+        synchronized (writing){
+            if (writing.containsKey(key)){
+                return false;
+            }
+            writing.put(key, Boolean.TRUE);
+            return true;
+        }
+    }
+
+    /**
+     * Marks a page as no longer being written
+     * @param key the key of the page
+     */
+    public void endWrite(long key) {
+        synchronized (writing){
+            writing.remove(key);
+            writing.notifyAll();
+        }
+    }
+}
@@ -1,4 +1,5 @@
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -10,6 +11,8 @@ import java.util.List;
  */
 public class Record {
     private byte[] data; // Binary representation of the record
+    private RowFormat storedFormat; // format storedSize was counted in; null if not counted yet
+    private int storedSize; // bytes the record takes up on a page stored in storedFormat
 
     /**
      * Constructs a Record with the given binary data.
@@ -17,6 +20,22 @@ public class Record {
      */
     public Record(byte[] data) {
         this.data = data;
+        this.storedFormat = null;
+    }
+
+    /**
+     * Gets the size of the record when stored in a row format.
+     * The size of the last format asked for is kept, since pages ask for it often
+     *  and counting it means walking every string of the record.
+     * @param rowFormat the row format
+     * @return the size in bytes, including its length
+     */
+    public int getStoredSize(RowFormat rowFormat) {
+        if (storedFormat != rowFormat){
+            storedSize = rowFormat.getStoredSize(data);
+            storedFormat = rowFormat;
+        }
+        return storedSize;
     }
 
     /**
@@ -53,107 +72,73 @@ public class Record {
     }
 
     /**
-     * Helper function for getting the data of an attribute from a given buffer
-     * @param attribute the attribute that the value being retrieved is
-     * @param buffer buffer containing the data of this record
-     * @param isNull byte of whether or not this attribute is null
-     * @return the data retrived in byte form
+     * Finds where the value of an attribute starts in this record's data without copying it
+     * @param attributeSchemas the list of attributes of the table this record belongs to
+     * @param attributeIndex the index of the attribute in the list
+     * @return the offset of the value in the data; for a varchar this is the offset
+     *          of its length. -1 if the value is null.
      */
-    private byte[] getAttributeData(AttributeSchema attribute, ByteBuffer buffer, byte isNull){
-        byte[] returnData = null;
-        if (isNull == 0){
-            //boolean for checking if the current attribute is a VarChar
-            boolean isVarChar = false; 
-            if (attribute.getType() == AttributeType.VARCHAR){
-                isVarChar = true;
-            }
-
-            //If attribute is a varchar, get attributeSize from 
-            //  the next thing in buffer
-            //Otherwise, attributeSize is gotten from attributeSchema
-            int attributeSize = 0;
-            if (isVarChar){
-                attributeSize = buffer.getInt();
-            } else {
-                attributeSize = attribute.getSize();
-            }
-
-            //size of bytes to retrieve
-            int dataSize = 0;
-            if (attribute.getType() == AttributeType.CHAR ||
-                attribute.getType() == AttributeType.VARCHAR){
-                if (attribute.getType() == AttributeType.VARCHAR){
-                    //add on 4 bytes for the size of the varChar
-                    dataSize += 4;
-                }
-                dataSize += attributeSize*2;
-            } else {
-                dataSize += attributeSize;
-            }
-
-            returnData = new byte[dataSize];
-            if(attribute.getType() == AttributeType.VARCHAR){
-                //move the buffer back 4 bytes so the size of the varChar can be read in
-                buffer.position(buffer.position() - 4);
-            }
-            for (int i = 0; i < dataSize; i++){
-                returnData[i] = buffer.get();
+    public int getAttributeOffset(List<AttributeSchema> attributeSchemas, int attributeIndex){
+        if (data[attributeIndex] != 0){
+            return -1;
+        }
+        int offset = attributeSchemas.size(); //values start after the null map
+        for (int i = 0; i < attributeIndex; i++){
+            if (data[i] == 0){
+                offset += getAttributeLength(attributeSchemas.get(i), offset);
             }
-            
-            return returnData;
-        } else {
-            returnData = new byte[0];
-            return returnData;
         }
+        return offset;
     }
 
     /**
-     * Helper function for retrieving the value of an attribute from this record
-     *  based on a list of attributes
-     * @param attributeIndex the index of the attribute in the list to retrieve the value from
-     * @param attributeSchemas a list of attributes of this record
-     * @param buffer buffer containing the data of this record
-     * @return the value of the attribute in byte form
+     * Copies the value of an attribute out of this record's data, in the form it is stored
+     * @param attributeSchemas the list of attributes of the table this record belongs to
+     * @param attributeIndex the index of the attribute in the list
+     * @return the bytes of the value; for a varchar this includes its length. null if the value is null.
      */
-    private byte[] getValueForAttribute(int attributeIndex, List<AttributeSchema> attributeSchemas, ByteBuffer buffer){
-        byte[] returnValue = null;
-        int numAttributes = attributeSchemas.size();
-        // move past size of record
-        buffer.position(4);
-
-        byte[] nullMap = new byte[numAttributes];
-        // get the null map for record
-        int byteIndex = 0;
-        while (byteIndex < attributeIndex){
-            nullMap[byteIndex] = buffer.get();
-            byteIndex += 1;
-        }
-        //null byte of the attribute at attributeIndex
-        byte isNull = buffer.get();
-        if (isNull == 1){
-            returnValue = new byte[0];
-            return returnValue;
-        } else {
-            nullMap[byteIndex] = isNull;
-            byteIndex += 1;
-            while (byteIndex < numAttributes){
-                nullMap[byteIndex] = buffer.get();
-                byteIndex += 1;
-            }
+    public byte[] getAttributeBytes(List<AttributeSchema> attributeSchemas, int attributeIndex){
+        int offset = getAttributeOffset(attributeSchemas, attributeIndex);
+        if (offset == -1){
+            return null;
         }
+        int length = getAttributeLength(attributeSchemas.get(attributeIndex), offset);
+        return Arrays.copyOfRange(data, offset, offset + length);
+    }
 
-        //skip through all the the attributes until arrive at the attribute at attribute index
-        int currentAttributeIndex = 0;
-        while (currentAttributeIndex < attributeIndex){
-            AttributeSchema currentAttribute = attributeSchemas.get(currentAttributeIndex);
-            getAttributeData(currentAttribute, buffer, nullMap[currentAttributeIndex]);
-            currentAttributeIndex += 1;
+    /**
+     * Gets the number of bytes a value takes up in this record's data
+     * @param attribute the attribute the value is a value of
+     * @param offset the offset of the value in the data
+     * @return the number of bytes, including the length of a varchar
+     */
+    private int getAttributeLength(AttributeSchema attribute, int offset){
+        switch (attribute.getType()){
+            case VARCHAR:
+                return 4 + readInt(data, offset) * 2;
+            case CHAR:
+                return attribute.getSize() * 2;
+            default:
+                return attribute.getSize();
         }
-        returnValue = getAttributeData(attributeSchemas.get(currentAttributeIndex), buffer, nullMap[currentAttributeIndex]);
+    }
 
-        return returnValue;
+    /**
+     * Reads a big-endian int out of a byte array, the way a ByteBuffer writes it
+     * @param bytes the array
+     * @param offset the offset of the int in the array
+     * @return the int
+     */
+    static int readInt(byte[] bytes, int offset){
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16) |
+               ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
     }
 
+    /**
+     * Gets the primary key value of this record
+     * @param tableSchema the schema of the table that this record belongs to
+     * @return the value as a Boolean, Integer, Double or String
+     */
     public Object getPrimaryKeyValue(TableSchema tableSchema){
         List<AttributeSchema> attributeSchemas = tableSchema.getAttributes();
         int primaryKeyIndex = 0;
@@ -164,54 +149,20 @@ public class Record {
             }
         }
 
-        ByteBuffer bufferForOriginalData = ByteBuffer.allocate(computeSize());
-        writeToBuffer(bufferForOriginalData);
-
-        //use this to get the primary key as bytes
-        byte[] primaryKeyAsBytes = getValueForAttribute(primaryKeyIndex, attributeSchemas, bufferForOriginalData);
-        ByteBuffer primaryKeyBuffer = ByteBuffer.allocate(primaryKeyAsBytes.length);
-        primaryKeyBuffer.put(primaryKeyAsBytes);
-        primaryKeyBuffer.flip();
-        AttributeSchema primaryKeyAttribute = attributeSchemas.get(primaryKeyIndex);
-
-        Object primaryKey;
-        AttributeType primaryKeyType = primaryKeyAttribute.getType();
-        switch(primaryKeyType){
+        RecordView view = new RecordView(attributeSchemas).wrap(this);
+        switch(view.getType(primaryKeyIndex)){
             case BOOLEAN:
-                byte bool = primaryKeyBuffer.get();
-                if (bool == 0){
-                    primaryKey = false;
-                }else{
-                    primaryKey = true;
-                }
-                break;
+                return view.getBoolean(primaryKeyIndex);
             case INTEGER:
-                primaryKey = primaryKeyBuffer.getInt();
-                break;
+                return view.getInt(primaryKeyIndex);
             case DOUBLE:
-                primaryKey = primaryKeyBuffer.getDouble();
-                break;
+                return view.getDouble(primaryKeyIndex);
             case CHAR:
-                int charSize = primaryKeyAttribute.getSize();
-                String primaryKeyString = "";
-                for (int i = 0; i < charSize; i++){
-                    primaryKeyString += primaryKeyBuffer.getChar();
-                }
-                primaryKey = primaryKeyString;
-                break;
             case VARCHAR:
-                int varCharSize = primaryKeyBuffer.getInt();
-                primaryKeyString = "";
-                for (int i = 0; i < varCharSize; i++){
-                    primaryKeyString += primaryKeyBuffer.getChar();
-                }
-                primaryKey = primaryKeyString;
-                break;
+                return view.getString(primaryKeyIndex);
             default:
-                primaryKey = null;
-                break;
+                return null;
         }
-        return primaryKey;
     }
 
     /**
@@ -226,22 +177,13 @@ public class Record {
 
         byte[] valueAsBytes = valueToBytes(attributeSchemas.get(attributeIndex), value);
 
-        ByteBuffer bufferForOriginalData = ByteBuffer.allocate(computeSize());
-        writeToBuffer(bufferForOriginalData);
-
-        //use this to get the original value so the size of it can be obtained
-        byte[] originalValueAsBytes = getValueForAttribute(attributeIndex, attributeSchemas, bufferForOriginalData);
-
-        if (valueAsBytes.length != originalValueAsBytes.length){
-            return false;
-        }
-
-        for (int i = 0; i < valueAsBytes.length; i++){
-            if (valueAsBytes[i] != originalValueAsBytes[i]){
-                return false;
-            }
+        //compare against the value where it is in the data; a null value has no bytes
+        int offset = getAttributeOffset(attributeSchemas, attributeIndex);
+        if (offset == -1){
+            return valueAsBytes.length == 0;
         }
-        return true;
+        int length = getAttributeLength(attributeSchemas.get(attributeIndex), offset);
+        return Arrays.equals(data, offset, offset + length, valueAsBytes, 0, valueAsBytes.length);
     }
 
     /**
@@ -366,7 +308,7 @@ public class Record {
      * @param value the string value to be converted to bytes
      * @return an array of bytes that represent the given value
      */
-    private byte[] valueToBytes(AttributeSchema attributeSchema, String value){
+    static byte[] valueToBytes(AttributeSchema attributeSchema, String value){
         ByteBuffer buffer = null;
         if (value == null){
             buffer = ByteBuffer.allocate(0);
@@ -472,64 +414,33 @@ public class Record {
 
         byte[] valueAsBytes = valueToBytes(attributeSchemas.get(attributeIndex), newData);
 
-        ByteBuffer bufferForOriginalData = ByteBuffer.allocate(computeSize());
-        writeToBuffer(bufferForOriginalData);
-
-        //use this to get the original value so the size of it can be obtained
-        byte[] originalValueAsBytes = getValueForAttribute(attributeIndex, attributeSchemas, bufferForOriginalData);
+        //find the original value so the data before and after it can be copied over as is
+        int originalOffset = getAttributeOffset(attributeSchemas, attributeIndex);
+        int originalLength = 0;
+        if (originalOffset == -1){
+            //a null value has no bytes; it goes where the next value starts
+            originalOffset = numAttributes;
+            for (int i = 0; i < attributeIndex; i++){
+                if (data[i] == 0){
+                    originalOffset += getAttributeLength(attributeSchemas.get(i), originalOffset);
+                }
+            }
+        } else {
+            originalLength = getAttributeLength(attributeSchemas.get(attributeIndex), originalOffset);
+        }
 
         //new data size is the original size of the data - 
         //  the size of the orignial attribute data +
         //  the size of the value as bytes
-        int newDataSize = data.length - originalValueAsBytes.length + valueAsBytes.length;
-        ByteBuffer bufferForNewData = ByteBuffer.allocate(newDataSize);
-
-        bufferForOriginalData.position(0);
-        // move past size of record
-        bufferForOriginalData.position(4);
-
-        byte[] newNullMap = new byte[numAttributes];
-        // get the null map for record
-        int byteIndex = 0;
-        while (byteIndex < attributeIndex){
-            newNullMap[byteIndex] = bufferForOriginalData.get();
-            byteIndex += 1;
-        }
-        //skip over attribute null byte in original
-        byte originalAttributeNullByte = bufferForOriginalData.get();
-        //add new attribute null byte in new nullbit map
-        if (newData == null){
-            newNullMap[byteIndex] = 1;
-        } else {
-            newNullMap[byteIndex] = 0;
-        }
-        byteIndex += 1;
-        while (byteIndex < numAttributes){
-            newNullMap[byteIndex] = bufferForOriginalData.get();
-            byteIndex += 1;
-        }
-        bufferForNewData.put(newNullMap);
-
-        int currentAttributeIndex = 0;
-        while (currentAttributeIndex < attributeIndex){
-            AttributeSchema currentAttribute = attributeSchemas.get(currentAttributeIndex);
-            byte[] attributeData = getAttributeData(currentAttribute, bufferForOriginalData, newNullMap[currentAttributeIndex]);
-            bufferForNewData.put(attributeData);
-            currentAttributeIndex += 1;
-        }
-        //skip over attribute data from original
-        getAttributeData(attributeSchemas.get(currentAttributeIndex), bufferForOriginalData, originalAttributeNullByte);
-        currentAttributeIndex += 1;
-        //add new attribute data in new
+        byte[] newRecordData = new byte[data.length - originalLength + valueAsBytes.length];
+        System.arraycopy(data, 0, newRecordData, 0, originalOffset);
         //don't need to check for null because if null valueAsBytes will be size 0
-        bufferForNewData.put(valueAsBytes);
-        while (currentAttributeIndex < numAttributes){
-            AttributeSchema currentAttribute = attributeSchemas.get(currentAttributeIndex);
-            byte[] attributeData = getAttributeData(currentAttribute, bufferForOriginalData, newNullMap[currentAttributeIndex]);
-            bufferForNewData.put(attributeData);
-            currentAttributeIndex += 1;
-        }
+        System.arraycopy(valueAsBytes, 0, newRecordData, originalOffset, valueAsBytes.length);
+        System.arraycopy(data, originalOffset + originalLength, newRecordData, originalOffset + valueAsBytes.length,
+                         data.length - originalOffset - originalLength);
+        //update the null byte of the attribute in the null map
+        newRecordData[attributeIndex] = (byte)(newData == null ? 1 : 0);
         
-        return new Record(bufferForNewData.array());
+        return new Record(newRecordData);
     }
 }
@@ -0,0 +1,280 @@
+import java.util.List;
+
+/**
+ * A reusable, read-only view of the data of a record, as it is kept in memory:
+ *      [null map, one byte per attribute][each value that is not null, in attribute order]
+ *  with a varchar stored as its length in an int followed by its chars.
+ * Values are read straight out of the record's data, nothing is copied.
+ *  This is the record decoded from its page, not the page itself; the format of the page
+ *  (see RowFormat) is only read when the page is brought into the buffer.
+ *
+ * The width of every value and where it starts are worked out from the attributes when the view
+ *  is made. A value with no varchar before it starts at the same offset in every record that has
+ *  no null before it; any other value is found by walking from the last one found, and where it
+ *  starts is kept until the view is moved to another record.
+ * Moving the view to another record allocates nothing, so one view can be used for a whole scan.
+ *  A view is made for the attributes of one table and is not safe to share between threads.
+ *
+ * @author Tyler Black tcb8683
+ */
+public class RecordView {
+    private final AttributeType[] types; // type of each attribute
+    private final int[] widths; // bytes each value takes up; -1 for a varchar
+    private final int[] fixedOffsets; // offset of each value when nothing before it is null; -1 after a varchar
+    private final int[] offsets; // offset of each value in the current record, for the first numFound values
+    private byte[] data; // data of the current record; null until the view is moved to one
+    private int numFound; // number of values, from the first, whose offsets are in offsets
+    private int firstNull; // index of the first null value of the current record; -1 if not looked for yet
+
+    /**
+     * Constructs a RecordView for the attributes of a table
+     * @param attributes the attributes of the table, in order
+     */
+    public RecordView(List<AttributeSchema> attributes) {
+        int numAttributes = attributes.size();
+        this.types = new AttributeType[numAttributes];
+        this.widths = new int[numAttributes];
+        this.fixedOffsets = new int[numAttributes];
+        this.offsets = new int[numAttributes];
+        int offset = numAttributes; //values start after the null map
+        for (int i = 0; i < numAttributes; i++){
+            AttributeSchema attribute = attributes.get(i);
+            types[i] = attribute.getType();
+            switch (types[i]){
+                case VARCHAR:
+                    widths[i] = -1;
+                    break;
+                case CHAR:
+                    widths[i] = attribute.getSize() * 2;
+                    break;
+                default:
+                    widths[i] = attribute.getSize();
+                    break;
+            }
+            fixedOffsets[i] = offset;
+            if (offset != -1){
+                offset = widths[i] == -1 ? -1 : offset + widths[i];
+            }
+        }
+        this.data = null;
+        this.numFound = 0;
+        this.firstNull = -1;
+    }
+
+    /**
+     * Moves the view to a record
+     * @param record the record
+     * @return this view
+     */
+    public RecordView wrap(Record record) {
+        return wrap(record.getData());
+    }
+
+    /**
+     * Moves the view to the data of a record
+     * @param data the data of the record, as it is in memory
+     * @return this view
+     */
+    public RecordView wrap(byte[] data) {
+        this.data = data;
+        this.numFound = 0;
+        this.firstNull = -1;
+        return this;
+    }
+
+    /**
+     * Gets the number of attributes the view was made for
+     * @return the number of attributes
+     */
+    public int getNumAttributes() {
+        return types.length;
+    }
+
+    /**
+     * Gets the type of an attribute
+     * @param column the index of the attribute
+     * @return the type
+     */
+    public AttributeType getType(int column) {
+        return types[column];
+    }
+
+    /**
+     * Checks if a value of the current record is null
+     * @param column the index of the attribute
+     * @return true if the value is null
+     */
+    public boolean isNull(int column) {
+        return data[column] != 0;
+    }
+
+    /**
+     * Finds where a value starts in the data of the current record
+     * @param column the index of the attribute
+     * @return the offset of the value; for a varchar this is the offset of its length. -1 if the value is null.
+     */
+    public int getOffset(int column) {
+        if (data[column] != 0){
+            return -1;
+        }
+        if (fixedOffsets[column] != -1 && column < getFirstNull()){
+            return fixedOffsets[column];
+        }
+        if (column < numFound){
+            return offsets[column];
+        }
+        int offset = numFound == 0 ? types.length : offsets[numFound - 1] + getWidth(numFound - 1, offsets[numFound - 1]);
+        while (numFound <= column){
+            offsets[numFound] = offset;
+            offset += getWidth(numFound, offset);
+            numFound += 1;
+        }
+        return offsets[column];
+    }
+
+    /**
+     * Helper function for finding the first null value of the current record
+     * @return the index of the first null value, or the number of attributes if there is none
+     */
+    private int getFirstNull() {
+        if (firstNull == -1){
+            firstNull = 0;
+            while (firstNull < types.length && data[firstNull] == 0){
+                firstNull += 1;
+            }
+        }
+        return firstNull;
+    }
+
+    /**
+     * Helper function for getting the number of bytes a value takes up in the current record
+     * @param column the index of the attribute
+     * @param offset the offset of the value
+     * @return the number of bytes, including the length of a varchar; 0 if the value is null
+     */
+    private int getWidth(int column, int offset) {
+        if (data[column] != 0){
+            return 0;
+        }
+        return widths[column] != -1 ? widths[column] : 4 + Record.readInt(data, offset) * 2;
+    }
+
+    /**
+     * Gets an integer value of the current record
+     * @param column the index of the attribute; must not be null
+     * @return the value
+     */
+    public int getInt(int column) {
+        return Record.readInt(data, getOffset(column));
+    }
+
+    /**
+     * Gets a double value of the current record
+     * @param column the index of the attribute; must not be null
+     * @return the value
+     */
+    public double getDouble(int column) {
+        int offset = getOffset(column);
+        long bits = ((long)Record.readInt(data, offset) << 32) | (Record.readInt(data, offset + 4) & 0xffffffffL);
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * Gets a boolean value of the current record
+     * @param column the index of the attribute; must not be null
+     * @return the value
+     */
+    public boolean getBoolean(int column) {
+        return data[getOffset(column)] != 0;
+    }
+
+    /**
+     * Gets the number of chars in a char or varchar value of the current record
+     * @param column the index of the attribute; must not be null
+     * @return the number of chars
+     */
+    public int getStringLength(int column) {
+        if (types[column] == AttributeType.VARCHAR){
+            return Record.readInt(data, getOffset(column));
+        }
+        return widths[column] / 2;
+    }
+
+    /**
+     * Gets one char of a char or varchar value of the current record
+     * @param column the index of the attribute; must not be null
+     * @param index the index of the char in the value
+     * @return the char
+     */
+    public char getChar(int column, int index) {
+        int offset = getCharsOffset(column) + index * 2;
+        return (char)(((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff));
+    }
+
+    /**
+     * Helper function for finding where the chars of a char or varchar value start
+     * @param column the index of the attribute; must not be null
+     * @return the offset of the first char
+     */
+    private int getCharsOffset(int column) {
+        int offset = getOffset(column);
+        return types[column] == AttributeType.VARCHAR ? offset + 4 : offset;
+    }
+
+    /**
+     * Gets a char or varchar value of the current record as a String
+     * @param column the index of the attribute; must not be null
+     * @return a new String holding the chars of the value
+     */
+    public String getString(int column) {
+        int offset = getCharsOffset(column);
+        char[] chars = new char[getStringLength(column)];
+        for (int i = 0; i < chars.length; i++){
+            chars[i] = (char)(((data[offset + i * 2] & 0xff) << 8) | (data[offset + i * 2 + 1] & 0xff));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Compares a char or varchar value of the current record to a String
+     *  the same way String.compareTo does, without making a String of the value
+     * @param column the index of the attribute; must not be null
+     * @param other the String to compare to
+     * @return less than 0, 0, or greater than 0 if the value is less than, equal to or greater than other
+     */
+    public int compareString(int column, String other) {
+        int offset = getCharsOffset(column);
+        int length = getStringLength(column);
+        int shared = Math.min(length, other.length());
+        for (int i = 0; i < shared; i++){
+            char c = (char)(((data[offset + i * 2] & 0xff) << 8) | (data[offset + i * 2 + 1] & 0xff));
+            if (c != other.charAt(i)){
+                return c - other.charAt(i);
+            }
+        }
+        return length - other.length();
+    }
+
+    /**
+     * Gets a value of the current record the way the rest of the database shows it:
+     *  an Integer, a Double, a String for a char or varchar,
+     *  "true" or "false" for a boolean and "null" for a null value
+     * @param column the index of the attribute
+     * @return the value
+     */
+    public Object getValue(int column) {
+        if (isNull(column)){
+            return "null";
+        }
+        switch (types[column]){
+            case INTEGER:
+                return getInt(column);
+            case DOUBLE:
+                return getDouble(column);
+            case BOOLEAN:
+                return getBoolean(column) ? "true" : "false";
+            default:
+                return getString(column);
+        }
+    }
+}
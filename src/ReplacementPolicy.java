@@ -0,0 +1,64 @@
+import java.util.function.LongPredicate;
+
+/**
+ * Holds the pages in the page buffer and decides which page leaves
+ *  the buffer when room is needed for another one.
+ * A policy is not thread safe; the PageBuffer only uses it while holding the lock
+ *  of the shard the policy belongs to.
+ * The PageBuffer decides when a page has to leave and asks the policy which one;
+ *  a policy never removes pages on its own.
+ *
+ * Pages are identified by their 64 bit frame key (see PageBuffer.getPageKey),
+ *  which is never negative.
+ *
+ * Pages read by a sequential scan are passed in with scan set to true.
+ *  A policy should evict those before pages that are used again and again,
+ *  so that one full table scan does not push the hot pages out of the buffer.
+ *
+ * @author Tyler Black tcb8683
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Retrieves a page and records that it was used.
+     * @param key the key of the page
+     * @param scan true if the page is being read by a sequential scan
+     * @return the page, or null if it is not in the buffer
+     */
+    Object get(long key, boolean scan);
+
+    /**
+     * Adds a page, or replaces the page stored under the key, and records that it was used.
+     * @param key the key of the page
+     * @param page the page to store
+     * @param scan true if the page is being read by a sequential scan
+     */
+    void put(long key, Object page, boolean scan);
+
+    /**
+     * Checks if a page is in the buffer, without recording a use
+     * @param key the key of the page
+     * @return true if the page is in the buffer
+     */
+    boolean contains(long key);
+
+    /**
+     * Gets the key of the page that should leave the buffer next,
+     *  skipping pages that can not be evicted right now (pinned pages).
+     * @param evictable tells if the page with a given key may be evicted
+     * @return the key of the page to evict, or -1 if no page can be evicted
+     */
+    long getVictimKey(LongPredicate evictable);
+
+    /**
+     * Removes a page that is leaving the buffer
+     * @param key the key of the page
+     * @return the page removed, or null if it was not in the buffer
+     */
+    Object remove(long key);
+
+    /**
+     * Returns the current number of pages held.
+     */
+    int size();
+}
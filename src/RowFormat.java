@@ -0,0 +1,567 @@
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Version 2 of the format records are stored in on a table page.
+ * In memory a record keeps the layout the rest of the database reads:
+ *      [null map, one byte per attribute][each value that is not null, in attribute order]
+ *  with a varchar stored as its length in an int followed by its chars.
+ * On disk each record of a version 2 page is stored in the form:
+ *      [length][null bitmap][fixed values][end offsets][variable values]
+ *  - length is the number of bytes after it, as a varint
+ *  - the null bitmap has one bit per attribute, set if the value is null
+ *  - integers, doubles, booleans and chars that can not be null are fixed values;
+ *    each has its own place, the same in every record, and a null one is left as zeros
+ *  - varchars and chars that can be null are variable values; the end offsets hold
+ *    where each one ends, counted from the start of the variable values, so a varchar
+ *    needs no length of its own
+ * So any attribute of a stored record can be found without walking the ones before it.
+ *  Only read and write use this: a page is decoded into records in the memory layout when it
+ *  is read into the buffer, and queries read those records (see RecordView), not the page.
+ *
+ * Chars and varchars are kept two bytes to a char. With compact strings they are instead
+ *  stored one byte to a char when every char of the value fits in Latin-1, and in UTF-8
+ *  otherwise, each char on its own so any string comes back the same. Every char is then
+ *  a variable value, and a second bitmap after the null bitmap, with one bit for each
+ *  char or varchar attribute, marks the values stored in UTF-8.
+ *  A Latin-1 value compares the same byte by byte as the chars it holds.
+ *  Compact strings only apply to table pages; B+ tree nodes keep two bytes to a char (see BplusTree.computeN).
+ *
+ * A version 2 page starts with the number of records flipped (~numRecords), which is negative;
+ *  a page with compact strings starts with COMPACT_STRINGS_PAGE plus the number of records,
+ *  which is below any flipped number of records a page can hold.
+ *  A page of the old format starts with the number of records and its records are stored as
+ *  [length][record as it is in memory], so all of them can be read.
+ * A RowFormat is made for the attributes of one table and never changes.
+ *
+ * @author Tyler Black tcb8683
+ */
+public class RowFormat {
+    public static final int COMPACT_STRINGS_PAGE = Integer.MIN_VALUE; // first int of a page with compact strings, less its number of records
+    private static final int MIN_FLIPPED = -(1 << 30); // lowest flipped number of records of a page without compact strings
+
+    private final List<AttributeSchema> attributes; // attributes of the table, in order
+    private final int pageSize; // the size of a page
+    private final boolean compactStrings; // true if chars are stored in Latin-1 or UTF-8
+    private final int bitmapSize; // bytes in the null bitmap
+    private final int[] stringSlots; // bit of each char or varchar in the UTF-8 bitmap; -1 for other attributes
+    private final int wideBitmapSize; // bytes in the UTF-8 bitmap; 0 without compact strings
+    private final int[] fixedOffsets; // place of each fixed value in the fixed values; -1 if variable
+    private final int[] variableSlots; // index of each variable value in the end offsets; -1 if fixed
+    private final int fixedSize; // bytes of fixed values
+    private final int numVariable; // number of variable values
+    private final int offsetSize; // bytes in each end offset; 2, or 4 for pages of 64K or more
+    private RowFormat other; // the same format with the other kind of strings; null until needed
+
+    /**
+     * Constructs a RowFormat for the attributes of a table
+     * @param attributes the attributes of the table
+     * @param pageSize the size of a page
+     * @param compactStrings true to store chars in Latin-1 or UTF-8 instead of two bytes each
+     */
+    public RowFormat(List<AttributeSchema> attributes, int pageSize, boolean compactStrings) {
+        this.attributes = List.copyOf(attributes);
+        this.pageSize = pageSize;
+        this.compactStrings = compactStrings;
+        int numAttributes = attributes.size();
+        this.bitmapSize = (numAttributes + 7) / 8;
+        this.stringSlots = new int[numAttributes];
+        this.fixedOffsets = new int[numAttributes];
+        this.variableSlots = new int[numAttributes];
+        int strings = 0;
+        int fixed = 0;
+        int variable = 0;
+        for (int i = 0; i < numAttributes; i++){
+            AttributeSchema attribute = attributes.get(i);
+            stringSlots[i] = -1;
+            if (compactStrings && isString(attribute)){
+                stringSlots[i] = strings;
+                strings += 1;
+            }
+            if (isFixed(attribute, compactStrings)){
+                fixedOffsets[i] = fixed;
+                variableSlots[i] = -1;
+                fixed += getFixedSize(attribute);
+            } else {
+                fixedOffsets[i] = -1;
+                variableSlots[i] = variable;
+                variable += 1;
+            }
+        }
+        this.wideBitmapSize = (strings + 7) / 8;
+        this.fixedSize = fixed;
+        this.numVariable = variable;
+        this.offsetSize = pageSize < 65536 ? 2 : 4;
+        this.other = null;
+    }
+
+    /**
+     * Gets this format with or without compact strings
+     * @param compactStrings true for the format with compact strings
+     * @return the format for the same attributes
+     */
+    public synchronized RowFormat withCompactStrings(boolean compactStrings) {
+        if (compactStrings == this.compactStrings){
+            return this;
+        }
+        if (other == null){
+            other = new RowFormat(attributes, pageSize, compactStrings);
+            other.other = this;
+        }
+        return other;
+    }
+
+    /**
+     * Gets the first int of a page stored in this format
+     * @param numRecords the number of records on the page
+     * @return the int that marks the format and holds the number of records
+     */
+    public int getPageHeader(int numRecords) {
+        return compactStrings ? COMPACT_STRINGS_PAGE + numRecords : ~numRecords;
+    }
+
+    /**
+     * Checks if the first int of a page marks a page with compact strings
+     * @param header the first int of the page; negative for a version 2 page
+     * @return true if the page has compact strings
+     */
+    public static boolean isCompactStringsPage(int header) {
+        return header < MIN_FLIPPED;
+    }
+
+    /**
+     * Gets the number of records of a version 2 page from its first int
+     * @param header the first int of the page; negative for a version 2 page
+     * @return the number of records
+     */
+    public static int getNumRecords(int header) {
+        return isCompactStringsPage(header) ? header - COMPACT_STRINGS_PAGE : ~header;
+    }
+
+    /**
+     * Checks if this format stores chars in Latin-1 or UTF-8
+     * @return true if it has compact strings
+     */
+    public boolean hasCompactStrings() {
+        return compactStrings;
+    }
+
+    /**
+     * Checks if an attribute is a char or varchar
+     * @param attribute the attribute
+     * @return true if its values are strings
+     */
+    private static boolean isString(AttributeSchema attribute) {
+        return attribute.getType() == AttributeType.CHAR || attribute.getType() == AttributeType.VARCHAR;
+    }
+
+    /**
+     * Checks if an attribute is stored as a fixed value
+     * @param attribute the attribute
+     * @param compactStrings true if chars are stored in Latin-1 or UTF-8
+     * @return true if it has its own place in every record
+     */
+    private static boolean isFixed(AttributeSchema attribute, boolean compactStrings) {
+        switch (attribute.getType()){
+            case VARCHAR:
+                return false;
+            case CHAR:
+                //a char that can be null would waste its whole size when it is,
+                //  and a compact one does not always take up the same number of bytes
+                return !compactStrings && (attribute.isNotNull() || attribute.isPrimaryKey());
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Gets the number of bytes a fixed value takes up
+     * @param attribute the attribute
+     * @return the number of bytes
+     */
+    private static int getFixedSize(AttributeSchema attribute) {
+        if (attribute.getType() == AttributeType.CHAR){
+            return attribute.getSize() * 2;
+        }
+        return attribute.getSize();
+    }
+
+    /**
+     * Gets the number of bytes a record takes up on a page in this format
+     * @param data the data of the record, as it is in memory
+     * @return the number of bytes, including its length
+     */
+    public int getStoredSize(byte[] data) {
+        int bodySize = getBodySize(data);
+        return varintSize(bodySize) + bodySize;
+    }
+
+    /**
+     * Helper function for getting the number of bytes a record takes up after its length
+     * @param data the data of the record, as it is in memory
+     * @return the number of bytes
+     */
+    private int getBodySize(byte[] data) {
+        int size = bitmapSize + wideBitmapSize + fixedSize + numVariable * offsetSize;
+        int offset = attributes.size();
+        for (int i = 0; i < attributes.size(); i++){
+            if (data[i] != 0){
+                continue;
+            }
+            int length = getMemoryLength(attributes.get(i), data, offset);
+            if (variableSlots[i] != -1){
+                //a varchar is stored without its length
+                int start = attributes.get(i).getType() == AttributeType.VARCHAR ? offset + 4 : offset;
+                int charBytes = length - (start - offset);
+                size += stringSlots[i] == -1 ? charBytes : getCompactLength(data, start, charBytes / 2);
+            }
+            offset += length;
+        }
+        return size;
+    }
+
+    /**
+     * Gets the number of bytes a string takes up with compact strings
+     * @param data the data of a record in memory
+     * @param start the offset of the first char of the string
+     * @param numChars the number of chars in the string
+     * @return the number of bytes in Latin-1 if every char fits, otherwise the number in UTF-8
+     */
+    private static int getCompactLength(byte[] data, int start, int numChars) {
+        boolean latin1 = true;
+        int utf8Length = 0;
+        for (int i = 0; i < numChars; i++){
+            char c = (char)(((data[start + i * 2] & 0xff) << 8) | (data[start + i * 2 + 1] & 0xff));
+            latin1 &= c <= 0xff;
+            utf8Length += c < 0x80 ? 1 : (c < 0x800 ? 2 : 3);
+        }
+        //a char past Latin-1 takes two or more bytes in UTF-8, so the lengths only match in Latin-1
+        return latin1 ? numChars : utf8Length;
+    }
+
+    /**
+     * Gets the number of bytes a value takes up in the data of a record in memory
+     * @param attribute the attribute the value is a value of
+     * @param data the data of the record
+     * @param offset the offset of the value in the data
+     * @return the number of bytes, including the length of a varchar
+     */
+    private static int getMemoryLength(AttributeSchema attribute, byte[] data, int offset) {
+        if (attribute.getType() == AttributeType.VARCHAR){
+            return 4 + Record.readInt(data, offset) * 2;
+        }
+        return getFixedSize(attribute);
+    }
+
+    /**
+     * Writes a record into a buffer in this format
+     * @param data the data of the record, as it is in memory
+     * @param buffer the buffer to write into, positioned where the record starts
+     */
+    public void write(byte[] data, ByteBuffer buffer) {
+        int numAttributes = attributes.size();
+        putVarint(buffer, getBodySize(data));
+
+        int bitmapStart = buffer.position();
+        int fixedStart = bitmapStart + bitmapSize + wideBitmapSize;
+        int offsetsStart = fixedStart + fixedSize;
+        int variableStart = offsetsStart + numVariable * offsetSize;
+        //the bitmaps and fixed values are written in place, so clear them first for nulls
+        for (int i = bitmapStart; i < offsetsStart; i++){
+            buffer.put(i, (byte)0);
+        }
+
+        int offset = numAttributes; //values start after the null map
+        int variableEnd = 0;
+        for (int i = 0; i < numAttributes; i++){
+            boolean isNull = data[i] != 0;
+            if (isNull){
+                buffer.put(bitmapStart + i / 8, (byte)(buffer.get(bitmapStart + i / 8) | (1 << (i % 8))));
+            }
+            AttributeSchema attribute = attributes.get(i);
+            int length = isNull ? 0 : getMemoryLength(attribute, data, offset);
+            if (fixedOffsets[i] != -1){
+                if (!isNull){
+                    buffer.put(fixedStart + fixedOffsets[i], data, offset, length);
+                }
+            } else {
+                int start = offset;
+                int valueLength = length;
+                if (!isNull && attribute.getType() == AttributeType.VARCHAR){
+                    start += 4;
+                    valueLength -= 4;
+                }
+                if (stringSlots[i] == -1){
+                    buffer.put(variableStart + variableEnd, data, start, valueLength);
+                    variableEnd += valueLength;
+                } else {
+                    int numChars = valueLength / 2;
+                    int compactLength = getCompactLength(data, start, numChars);
+                    if (compactLength != numChars){
+                        int wideBit = bitmapStart + bitmapSize + stringSlots[i] / 8;
+                        buffer.put(wideBit, (byte)(buffer.get(wideBit) | (1 << (stringSlots[i] % 8))));
+                    }
+                    writeCompact(data, start, numChars, compactLength != numChars, buffer, variableStart + variableEnd);
+                    variableEnd += compactLength;
+                }
+                putOffset(buffer, offsetsStart + variableSlots[i] * offsetSize, variableEnd);
+            }
+            offset += length;
+        }
+        buffer.position(variableStart + variableEnd);
+    }
+
+    /**
+     * Reads a record written in this format out of a buffer
+     * @param buffer the buffer to read from, positioned where the record starts;
+     *               it is left positioned after the record
+     * @return the data of the record, as it is in memory
+     */
+    public byte[] read(ByteBuffer buffer) {
+        int numAttributes = attributes.size();
+        int bodySize = getVarint(buffer);
+        int bitmapStart = buffer.position();
+        int wideStart = bitmapStart + bitmapSize;
+        int fixedStart = wideStart + wideBitmapSize;
+        int offsetsStart = fixedStart + fixedSize;
+        int variableStart = offsetsStart + numVariable * offsetSize;
+
+        //find the size of the record in memory first, so it is built in one array
+        int memorySize = numAttributes;
+        for (int i = 0; i < numAttributes; i++){
+            if (isNull(buffer, bitmapStart, i)){
+                continue;
+            }
+            if (fixedOffsets[i] != -1){
+                memorySize += getFixedSize(attributes.get(i));
+            } else {
+                memorySize += getMemoryCharBytes(buffer, wideStart, offsetsStart, variableStart, i);
+                if (attributes.get(i).getType() == AttributeType.VARCHAR){
+                    memorySize += 4;
+                }
+            }
+        }
+
+        byte[] data = new byte[memorySize];
+        int offset = numAttributes;
+        for (int i = 0; i < numAttributes; i++){
+            if (isNull(buffer, bitmapStart, i)){
+                data[i] = 1;
+                continue;
+            }
+            if (fixedOffsets[i] != -1){
+                int length = getFixedSize(attributes.get(i));
+                buffer.get(fixedStart + fixedOffsets[i], data, offset, length);
+                offset += length;
+            } else {
+                int start = variableSlots[i] == 0 ? 0 : getOffset(buffer, offsetsStart + (variableSlots[i] - 1) * offsetSize);
+                int length = getVariableLength(buffer, offsetsStart, i);
+                int charBytes = getMemoryCharBytes(buffer, wideStart, offsetsStart, variableStart, i);
+                if (attributes.get(i).getType() == AttributeType.VARCHAR){
+                    int chars = charBytes / 2;
+                    data[offset] = (byte)(chars >>> 24);
+                    data[offset + 1] = (byte)(chars >>> 16);
+                    data[offset + 2] = (byte)(chars >>> 8);
+                    data[offset + 3] = (byte)chars;
+                    offset += 4;
+                }
+                if (stringSlots[i] == -1){
+                    buffer.get(variableStart + start, data, offset, length);
+                } else {
+                    readCompact(buffer, variableStart + start, length, isWide(buffer, wideStart, i), data, offset);
+                }
+                offset += charBytes;
+            }
+        }
+        buffer.position(bitmapStart + bodySize);
+        return data;
+    }
+
+    /**
+     * Checks if a string of a stored record is in UTF-8
+     * @param buffer the buffer holding the record
+     * @param wideStart where the UTF-8 bitmap of the record starts
+     * @param attributeIndex the index of the attribute
+     * @return true if it is in UTF-8, false if it is in Latin-1
+     */
+    private boolean isWide(ByteBuffer buffer, int wideStart, int attributeIndex) {
+        int slot = stringSlots[attributeIndex];
+        return (buffer.get(wideStart + slot / 8) & (1 << (slot % 8))) != 0;
+    }
+
+    /**
+     * Gets the number of bytes the chars of a variable value take up in memory, two to a char
+     * @param buffer the buffer holding the record
+     * @param wideStart where the UTF-8 bitmap of the record starts
+     * @param offsetsStart where the end offsets of the record start
+     * @param variableStart where the variable values of the record start
+     * @param attributeIndex the index of the attribute
+     * @return the number of bytes, not counting the length of a varchar
+     */
+    private int getMemoryCharBytes(ByteBuffer buffer, int wideStart, int offsetsStart, int variableStart, int attributeIndex) {
+        int length = getVariableLength(buffer, offsetsStart, attributeIndex);
+        if (stringSlots[attributeIndex] == -1){
+            return length;
+        }
+        if (!isWide(buffer, wideStart, attributeIndex)){
+            return length * 2;
+        }
+        //every char starts with a byte that does not continue the one before it
+        int slot = variableSlots[attributeIndex];
+        int start = variableStart + (slot == 0 ? 0 : getOffset(buffer, offsetsStart + (slot - 1) * offsetSize));
+        int numChars = 0;
+        for (int i = start; i < start + length; i++){
+            if ((buffer.get(i) & 0xc0) != 0x80){
+                numChars += 1;
+            }
+        }
+        return numChars * 2;
+    }
+
+    /**
+     * Writes a string in Latin-1 or UTF-8
+     * @param data the data of a record in memory
+     * @param start the offset of the first char of the string
+     * @param numChars the number of chars in the string
+     * @param wide true to write UTF-8, false to write Latin-1
+     * @param buffer the buffer to write into
+     * @param index where the string goes in the buffer
+     */
+    private static void writeCompact(byte[] data, int start, int numChars, boolean wide, ByteBuffer buffer, int index) {
+        for (int i = 0; i < numChars; i++){
+            char c = (char)(((data[start + i * 2] & 0xff) << 8) | (data[start + i * 2 + 1] & 0xff));
+            if (!wide || c < 0x80){
+                buffer.put(index++, (byte)c);
+            } else if (c < 0x800){
+                buffer.put(index++, (byte)(0xc0 | (c >> 6)));
+                buffer.put(index++, (byte)(0x80 | (c & 0x3f)));
+            } else {
+                buffer.put(index++, (byte)(0xe0 | (c >> 12)));
+                buffer.put(index++, (byte)(0x80 | ((c >> 6) & 0x3f)));
+                buffer.put(index++, (byte)(0x80 | (c & 0x3f)));
+            }
+        }
+    }
+
+    /**
+     * Reads a string stored in Latin-1 or UTF-8 into memory, two bytes to a char
+     * @param buffer the buffer holding the string
+     * @param index where the string starts in the buffer
+     * @param length the number of bytes the string takes up in the buffer
+     * @param wide true if it is in UTF-8, false if it is in Latin-1
+     * @param data the data of the record being built
+     * @param offset where the first char goes in the data
+     */
+    private static void readCompact(ByteBuffer buffer, int index, int length, boolean wide, byte[] data, int offset) {
+        int end = index + length;
+        while (index < end){
+            int c = buffer.get(index++) & 0xff;
+            if (wide && c >= 0x80){
+                if ((c & 0xe0) == 0xc0){
+                    c = ((c & 0x1f) << 6) | (buffer.get(index++) & 0x3f);
+                } else {
+                    c = ((c & 0x0f) << 12) | ((buffer.get(index++) & 0x3f) << 6);
+                    c |= buffer.get(index++) & 0x3f;
+                }
+            }
+            data[offset++] = (byte)(c >> 8);
+            data[offset++] = (byte)c;
+        }
+    }
+
+    /**
+     * Checks if a value of a stored record is null
+     * @param buffer the buffer holding the record
+     * @param bitmapStart where the null bitmap of the record starts
+     * @param attributeIndex the index of the attribute
+     * @return true if the value is null
+     */
+    private static boolean isNull(ByteBuffer buffer, int bitmapStart, int attributeIndex) {
+        return (buffer.get(bitmapStart + attributeIndex / 8) & (1 << (attributeIndex % 8))) != 0;
+    }
+
+    /**
+     * Gets the number of bytes a variable value of a stored record takes up
+     * @param buffer the buffer holding the record
+     * @param offsetsStart where the end offsets of the record start
+     * @param attributeIndex the index of the attribute
+     * @return the number of bytes
+     */
+    private int getVariableLength(ByteBuffer buffer, int offsetsStart, int attributeIndex) {
+        int slot = variableSlots[attributeIndex];
+        int end = getOffset(buffer, offsetsStart + slot * offsetSize);
+        int start = slot == 0 ? 0 : getOffset(buffer, offsetsStart + (slot - 1) * offsetSize);
+        return end - start;
+    }
+
+    /**
+     * Reads an end offset
+     * @param buffer the buffer holding the record
+     * @param index where the offset is in the buffer
+     * @return the offset
+     */
+    private int getOffset(ByteBuffer buffer, int index) {
+        if (offsetSize == 2){
+            return buffer.getShort(index) & 0xffff;
+        }
+        return buffer.getInt(index);
+    }
+
+    /**
+     * Writes an end offset
+     * @param buffer the buffer holding the record
+     * @param index where the offset goes in the buffer
+     * @param offset the offset
+     */
+    private void putOffset(ByteBuffer buffer, int index, int offset) {
+        if (offsetSize == 2){
+            buffer.putShort(index, (short)offset);
+        } else {
+            buffer.putInt(index, offset);
+        }
+    }
+
+    /**
+     * Gets the number of bytes a varint takes up
+     * @param value the value, not negative
+     * @return the number of bytes
+     */
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0){
+            size += 1;
+        }
+        return size;
+    }
+
+    /**
+     * Writes a value as a varint: seven bits to a byte, lowest first,
+     *  with the top bit set on every byte but the last
+     * @param buffer the buffer to write into
+     * @param value the value, not negative
+     */
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0){
+            buffer.put((byte)((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte)value);
+    }
+
+    /**
+     * Reads a varint
+     * @param buffer the buffer to read from
+     * @return the value
+     */
+    private static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
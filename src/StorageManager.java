@@ -5,6 +5,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.List;
 import java.util.Map;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import java.util.ArrayList;
@@ -24,20 +25,46 @@ public class StorageManager {
     private static int bufferSize;
     private static PageBuffer pageBuffer;
     private static Catalog catalog;
+    private static Map<Integer, FreeSpaceMap> freeSpaceMaps; // free space of the pages of each table, by table id
+    private static Map<Integer, BplusTree> bplusTrees; // B+ tree of each table that has been used, by table id
+    private static double indexFillFactor; // how full a bulk load makes the nodes of a B+ tree, from 0 to 1
     
     /**
      * Constructor for the Storage Manager
+     * The page buffer evicts pages with the "2q" policy
      * @param dbLocation the path to the location of the database directory
      * @param pageSize the size of a page
      * @param bufferSize the size of the bugger
      * @param catalog the catalog for the database
      */
     public StorageManager(String dbLocation, int pageSize, int bufferSize, Catalog catalog) {
+        this(dbLocation, pageSize, bufferSize, catalog, "2q");
+    }
+
+    /**
+     * Constructor for the Storage Manager
+     * Until their setters are called, pages are read by copying them in, no off-heap memory is used,
+     *  the background writer is on, up to 8 pages are read ahead of a scan, strings are compact
+     *  and a bulk loaded B+ tree's nodes are packed full
+     * @param dbLocation the path to the location of the database directory
+     * @param pageSize the size of a page
+     * @param bufferSize the size of the bugger
+     * @param catalog the catalog for the database
+     * @param replacementPolicy the policy the page buffer uses to pick which page to evict;
+     *                          "lru" or "2q"
+     */
+    public StorageManager(String dbLocation, int pageSize, int bufferSize, Catalog catalog, String replacementPolicy) {
         this.dbLocation = dbLocation;
         this.pageSize = pageSize;
         this.bufferSize = bufferSize;
-        this.pageBuffer = new PageBuffer(bufferSize, dbLocation, pageSize);
+        this.pageBuffer = new PageBuffer(bufferSize, dbLocation, pageSize, replacementPolicy);
         this.catalog = catalog;
+        this.freeSpaceMaps = new HashMap<>();
+        this.bplusTrees = new HashMap<>();
+        this.indexFillFactor = 1.0;
+        setCompactStrings(true);
+        setBackgroundWriter(true);
+        setReadAhead(8);
     }
     
     /**
@@ -111,7 +138,7 @@ public class StorageManager {
                 buffer.get(tableNameBytes);
                 String tableName = new String(tableNameBytes);
 
-                TableSchema schema = readTableSchema(buffer, tableName, tableNum, oldPageSize);
+                TableSchema schema = readTableSchema(buffer, tableName, tableNum);
                 tableSchemasByNum.put(tableNum, schema);
                 tableSchemasByName.put(tableName, schema);
             }
@@ -127,17 +154,13 @@ public class StorageManager {
      * @param tableNum The unique identifier of the table.
      * @return A TableSchema object with the extracted information.
      */
-    private static TableSchema readTableSchema(ByteBuffer buffer, String tableName, int tableNum, int pageSize) {
+    private static TableSchema readTableSchema(ByteBuffer buffer, String tableName, int tableNum) {
         int attributeCount = buffer.getInt();
         TableSchema schema = new TableSchema(tableName, tableNum);
 
         for (int i = 0; i < attributeCount; i++) {
             schema.addAttribute(readAttributeFromBuffer(buffer));
         }
-
-        if (catalog.isIndexOn()){
-            schema.computeBPlusTreeN(pageSize);
-        }
         return schema;
     }
 
@@ -226,107 +249,23 @@ public class StorageManager {
     }
 
     /**
-     * Rewrites the table header of a table file
-     * @param tableId the id of the table file that will be rewritten
+     * Enters a new page into the page directory of a table file or tree file.
+     * The new page is given its own slot at the end of the file,
+     *  so no existing pages need to be moved.
+     * @param tableId the id of the table whose directory will be updated
      * @param indexToEnter the index in the page order to enter the new page id
      * @param newPageId the new page id to enter
+     * @param getTreeOrder true if the page is being entered into the B+ tree directory
      * @return updated order of page id
      * @throws IOException
      */
-    public static List<Integer> rewriteTableFileHeader(int tableId, int indexToEnter, int newPageId, boolean getTreeOrder) throws IOException{
-        String filePath;
-        if (getTreeOrder){
-            filePath = dbLocation + "/indexes/tree" + tableId + ".bpt";
-        } else {
-            filePath = dbLocation + "/tables/table" + tableId + ".tbl";
-        }
-        //String filePath = dbLocation + "/tables/table" + tableId + ".tbl";
-        File tableFile = new File(filePath);
-        if (!tableFile.exists()){
+    public static List<Integer> insertPageIntoDirectory(int tableId, int indexToEnter, int newPageId, boolean getTreeOrder) throws IOException{
+        PageDirectory directory = pageBuffer.insertPage(tableId, indexToEnter, newPageId, getTreeOrder);
+        if (directory == null){
             System.out.println("table"+tableId+" does not exist.");
             return null;
         }
-
-        try (RandomAccessFile raf = new RandomAccessFile(filePath, "rw"); FileChannel channel = raf.getChannel()) {
-
-            //get the order of the pages
-
-            List<Integer> pageOrder = getPageOrder(tableId, getTreeOrder);
-            int numPages = pageOrder.size();
-
-            //Based on the indexToEnter the new page in, make the new pageOrder
-            List<Integer> newPageOrder = new ArrayList<>();
-            int count = 0;            while (count < indexToEnter){
-                newPageOrder.add(pageOrder.get(count));
-                count += 1;
-            }
-            newPageOrder.add(newPageId);
-            while (count < pageOrder.size()){
-                newPageOrder.add(pageOrder.get(count));
-                count += 1;
-            }
-            
-            AttributeSchema primaryKey = null;
-            for (AttributeSchema as : catalog.getTableSchemaByNum(tableId).getAttributes()){
-                if (as.isPrimaryKey()){
-                    primaryKey = as;
-                    break;
-                }
-            }
-            //perform shifting of pages
-            pageBuffer.flush(0, getTreeOrder);
-            count = newPageOrder.size() - 1;
-            while (count > indexToEnter){
-                //shift all pages right pageSize+4 to account for added page and pageid
-                pageBuffer.shiftPage(tableId, newPageOrder.get(count), pageOrder, pageSize+4, primaryKey, getTreeOrder);
-                count -= 1;
-            }
-            count -= 1;
-            pageBuffer.flush(pageSize+4, getTreeOrder);
-            while (count > -1){
-                //shift all pages right 4 to account for added pageid
-                pageBuffer.shiftPage(tableId, newPageOrder.get(count), pageOrder, 4, primaryKey, getTreeOrder);
-                count -= 1;
-            }
-
-            numPages += 1;
-            channel.position(0); //will write to the beginning of the file
-
-            ByteBuffer numPagesBuffer = ByteBuffer.allocate(4);
-            numPagesBuffer.putInt(numPages); //put in the buffer the new number of pages
-            numPagesBuffer.flip();
-            channel.write(numPagesBuffer);
-
-            //put in buffer the new page order
-            int totalPages = newPageOrder.size();
-            ByteBuffer writeBuffer = null;
-            if (totalPages * 4 > pageSize){
-                writeBuffer = ByteBuffer.allocate(pageSize);
-            } else {
-                writeBuffer = ByteBuffer.allocate(totalPages *4);
-            }
-            for (int i = 0; i < newPageOrder.size(); i++){
-                if (writeBuffer.position() + 4 > pageSize){
-                    writeBuffer.flip(); //flip buffer. buffer position 0
-                    channel.write(writeBuffer); //write the data that is in the buffer
-                    if (totalPages * 4 > pageSize){
-                        writeBuffer = ByteBuffer.allocate(pageSize);
-                    } else {
-                        writeBuffer = ByteBuffer.allocate(totalPages *4);
-                    }
-                }
-
-                writeBuffer.putInt(newPageOrder.get(i));
-                totalPages -= 1;
-                  //writing the pageOrder
-            }
-            writeBuffer.flip(); //flip buffer. buffer position 0
-
-            channel.write(writeBuffer); //write the data that is in the buffer
-
-            return newPageOrder;
-        }
-
+        return directory.getPageOrder();
     }
     
     /**
@@ -335,6 +274,7 @@ public class StorageManager {
      * @param primaryKeyValue the primary key value of the record
      * @return the retrieved record with the given primary key value
      * @throws IOException
+     * @throws IllegalStateException if the index has the key but its page does not
      */
     public Record getRecord(int tableId, String primaryKeyValue) throws IOException {
         TableSchema tableSchema = catalog.getTableSchemaByNum(tableId); 
@@ -352,177 +292,324 @@ public class StorageManager {
             }
         }
 
+        //with an index, the tree says where the record is
+        Object keyValue = primaryKeyToValue(primaryKeyAttributeSchema, primaryKeyValue);
+        if (catalog.isIndexOn() && keyValue != null){
+            int pageId = getBplusTree(tableId).search(keyValue);
+            if (pageId == -1){
+                return null;
+            }
+            Page page = getPage(tableId, pageId);
+            int index = page.indexOfKey(keyValue, tableSchema);
+            if (index != -1){
+                Record record = page.getRecords().get(index);
+                if (keyValue.equals(record.getPrimaryKeyValue(tableSchema))){
+                    return record;
+                }
+            }
+            //the tree only holds keys that are in the table, so it is wrong about this one
+            throw new IllegalStateException("Index of table " + tableId + " does not point to the record with key " + primaryKeyValue);
+        }
+
+        //go straight to the one page the key can be in when the fence keys of the table are known
+        byte[] key = keyValue == null ? null : Record.valueToBytes(primaryKeyAttributeSchema, primaryKeyValue);
+        PageDirectory directory = key == null ? null : ensureFences(tableId);
+        if (directory != null){
+            int index = directory.findPage(primaryKeyAttributeSchema, key, true);
+            if (index != -1){
+                if (index == directory.getNumPages()){
+                    return null; //greater than every key in the table
+                }
+                int pageId = directory.getPageId(index);
+                if (Page.compareKeys(primaryKeyAttributeSchema, key, 0, directory.getLowKey(pageId), 0) < 0){
+                    return null; //falls between this page and the one before it
+                }
+                for (Record record : getPage(tableId, pageId).getRecords()){
+                    int offset = record.getAttributeOffset(attributeSchemas, primaryKeyIndex);
+                    byte[] data = record.getData();
+                    if (offset != -1 && offset + key.length <= data.length &&
+                        Arrays.equals(data, offset, offset + key.length, key, 0, key.length)){
+                        return record;
+                    }
+                }
+                return null;
+            }
+        }
+
+        if (primaryKeyValue == null){
+            return null;
+        }
         List<Integer> pageOrder = getPageOrder(tableId, false); 
+        RecordView view = tableSchema.newRecordView();
+        boolean isString = primaryKeyAttributeSchema.getType() == AttributeType.CHAR ||
+                           primaryKeyAttributeSchema.getType() == AttributeType.VARCHAR;
 
         // Loops through the pageOrder to get the page and then the records
         for(int k = 0; k < pageOrder.size(); k++){
-            Page page = (Page)pageBuffer.getPage(tableId, pageOrder.get(k), pageOrder, 0, primaryKeyAttributeSchema, false);
+            Page page = scanPage(tableId, pageOrder.get(k));
             List<Record> records = page.getRecords();
             
             // Search for the record with the given primary key
             for (int i = 0; i < records.size(); i++){  
                 Record curRecord = records.get(i); // Current record
-                byte[] primaryKeyByte = getPrimaryKeyValue(curRecord, attributeSchemas, primaryKeyIndex);
-            
-                //Check if the primary key is a boolean
-                if (attributeSchemas.get(primaryKeyIndex).getType() == AttributeType.BOOLEAN){
-                    String strBool = "";
-                    if(primaryKeyByte[0] == 0){
-                        strBool = "false";   
-                    }
-                    else{
-                    strBool = "true";
-                    }
-                    if (strBool.equals(primaryKeyValue)){
-                        return curRecord;
-                    }
+                view.wrap(curRecord);
+                //the key is matched against the way the value is printed
+                if (isString ? view.compareString(primaryKeyIndex, primaryKeyValue) == 0 :
+                               view.getValue(primaryKeyIndex).toString().equals(primaryKeyValue)){
+                    return curRecord;
                 }
+            }
+        }
+        return null;
+    }
 
-                //Check if the primary key is an integer
-                else if (attributeSchemas.get(primaryKeyIndex).getType() == AttributeType.INTEGER){
-                    String strInt = "";
-                    int recordValue = ByteBuffer.wrap(primaryKeyByte).getInt();
-                    strInt = Integer.toString(recordValue);
-                    if (strInt.equals(primaryKeyValue)){
-                        return curRecord;
+    /**
+     * Helper function to turn a primary key value given as a string into the value
+     *  Record.getPrimaryKeyValue gives for it, so it can be looked up in the index
+     *  or turned into the form it is stored in a record
+     * @param primaryKey the primary key attribute of the table
+     * @param value the primary key value
+     * @return a Boolean, Integer, Double or String, or null if the value is not written the way a key
+     *          of its type is printed, in which case it can not be looked up or compared as bytes
+     */
+    private static Object primaryKeyToValue(AttributeSchema primaryKey, String value){
+        if (value == null){
+            return null;
+        }
+        try {
+            switch (primaryKey.getType()){
+                case BOOLEAN:
+                    if (!value.equals("true") && !value.equals("false")){
+                        return null;
                     }
-                }
-
-                //Check if the primary key is a double
-                else if (attributeSchemas.get(primaryKeyIndex).getType() == AttributeType.DOUBLE){
-                    String strDouble = "";
-                    double recordValue = ByteBuffer.wrap(primaryKeyByte).getDouble();
-                    strDouble = Double.toString(recordValue);
-                    if (strDouble.equals(primaryKeyValue)){
-                        return curRecord;
+                    return value.equals("true");
+                case INTEGER:
+                    int intValue = Integer.parseInt(value);
+                    return Integer.toString(intValue).equals(value) ? intValue : null;
+                case DOUBLE:
+                    double doubleValue = Double.parseDouble(value);
+                    if (Double.isNaN(doubleValue) || !Double.toString(doubleValue).equals(value)){
+                        return null;
                     }
-                }
+                    return doubleValue;
+                case CHAR:
+                    return value.length() == primaryKey.getSize() ? value : null;
+                default:
+                    return value;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
 
-                //Check if the primary key is a char
-                else if (attributeSchemas.get(primaryKeyIndex).getType() == AttributeType.CHAR){
-                    int charSize = attributeSchemas.get(primaryKeyIndex).getSize();
-                    String strChar = "";
-                    ByteBuffer buffer = ByteBuffer.wrap(primaryKeyByte);
-                    for (int j = 0; j < charSize; j++){
-                        strChar += buffer.getChar();
-                    }
-                    if (strChar.equals(primaryKeyValue)){
-                        return curRecord;
-                    }
-                }
+    /**
+     * Helper function to find the index of the primary key in a list of attributes
+     * @param attributeSchemas the attributes of a table
+     * @return the index of the primary key
+     */
+    private static int getPrimaryKeyIndex(List<AttributeSchema> attributeSchemas){
+        for (int i = 0; i < attributeSchemas.size(); i++){
+            if (attributeSchemas.get(i).isPrimaryKey()){
+                return i;
+            }
+        }
+        return 0;
+    }
 
-                //Check if the primary key is a varchar
-                else if (attributeSchemas.get(primaryKeyIndex).getType() == AttributeType.VARCHAR){
-                    int varcharSize = primaryKeyByte.length;;
-                    String strVarChar = "";
-                    ByteBuffer buffer = ByteBuffer.wrap(primaryKeyByte);
-                    for (int j = 0; j < (varcharSize / 2); j++){
-                        strVarChar += buffer.getChar();
-                        }
-                    if (strVarChar.equals(primaryKeyValue)){
-                        return curRecord;
-                    }
-                }
+    /**
+     * Gets the page directory of a table with the fence keys of every page known,
+     *  reading the pages of the table to build them if they were not saved
+     * @param tableId the id of the table
+     * @return the page directory, or null if the table does not exist or its fence keys can not be built
+     * @throws IOException
+     */
+    private PageDirectory ensureFences(int tableId) throws IOException{
+        PageDirectory directory = pageBuffer.getPageDirectory(tableId, false);
+        if (directory == null || directory.hasFences()){
+            return directory;
+        }
+        for (int pageId : directory.getPageOrder()){
+            if (directory.getLowKey(pageId) == null){
+                Page page = scanPage(tableId, pageId);
+                updateFences(tableId, pageId, page);
+                updateFreeSpace(tableId, pageId, page);
             }
         }
-        return null;
+        return directory.hasFences() ? directory : null;
     }
- 
+
     /**
-     * Helper function to get the primary key value from a record
-     * @param record Record to retrieve primary key value from
-     * @param attributeSchemas the attribute schema associated with the table that the record is from
-     * @param primaryKeyIndex the index in the attribute schema that holds the primary key
-     * @return the byte array representing the primary key value
+     * Sets the fence keys of a page from its first and last records.
+     * Must be called whenever the records of a table page change.
+     * @param tableId the id of the table
+     * @param pageId the id of the page
+     * @param page the page
+     * @throws IOException
      */
-    private byte[] getPrimaryKeyValue(Record record, List<AttributeSchema> attributeSchemas, int primaryKeyIndex){
-        ByteBuffer buffer = ByteBuffer.allocate(record.computeSize());
-        record.writeToBuffer(buffer);
+    private void updateFences(int tableId, int pageId, Page page) throws IOException{
+        TableSchema tableSchema = catalog.getTableSchemaByNum(tableId);
+        List<Record> records = page.getRecords();
+        byte[] low = null;
+        byte[] high = null;
+        if (tableSchema != null && !records.isEmpty()){
+            List<AttributeSchema> attributeSchemas = tableSchema.getAttributes();
+            int primaryKeyIndex = getPrimaryKeyIndex(attributeSchemas);
+            low = records.get(0).getAttributeBytes(attributeSchemas, primaryKeyIndex);
+            high = records.get(records.size() - 1).getAttributeBytes(attributeSchemas, primaryKeyIndex);
+        }
+        pageBuffer.setFences(tableId, pageId, low, high);
+    }
 
-        int numAttributes = attributeSchemas.size();
-        byte[] nullMap = new byte[numAttributes];
+    /**
+     * Gets the free space map of a table, making an empty one if there is none yet
+     * @param tableId the id of the table
+     * @return the free space map
+     */
+    private static FreeSpaceMap getFreeSpaceMap(int tableId){
+        return freeSpaceMaps.computeIfAbsent(tableId, id -> new FreeSpaceMap(pageSize));
+    }
 
-        // move past size of record
-        buffer.position(4);
+    /**
+     * Records the free space of a table page in the free space map of its table.
+     * A page must stay smaller than the page size, so a page has room for
+     *  one byte less than the page size minus its size.
+     * @param tableId the id of the table
+     * @param pageId the id of the page
+     * @param page the page
+     * @return the free space of the page
+     */
+    private int updateFreeSpace(int tableId, int pageId, Page page){
+        int freeBytes = Math.max(0, pageSize - 1 - page.computeSize());
+        getFreeSpaceMap(tableId).set(pageId, freeBytes);
+        return freeBytes;
+    }
 
-        // get the null map for record
-        for(int i = 0; i < numAttributes; i++){
-            nullMap[i] = buffer.get();
+    /**
+     * Gets the page after or before an overfull page if it has room for the given number of bytes.
+     * Pages the free space map knows to be too full are not read.
+     * @param tableId the id of the table
+     * @param pageId the id of the neighbouring page
+     * @param bytesNeeded the number of bytes that have to fit
+     * @return the page, or null if it does not have room
+     * @throws IOException
+     */
+    private Page getNeighbourWithRoom(int tableId, int pageId, int bytesNeeded) throws IOException{
+        int freeBytes = getFreeSpaceMap(tableId).get(pageId);
+        if (freeBytes != -1 && freeBytes < bytesNeeded){
+            return null;
         }
+        //the free space map is only a hint, so check the page itself
+        Page page = getPage(tableId, pageId);
+        if (updateFreeSpace(tableId, pageId, page) < bytesNeeded){
+            return null;
+        }
+        return page;
+    }
 
-        int count = 0; //current attribute
-        while (count < primaryKeyIndex){
-            if (nullMap[count] == 0){
-                AttributeSchema attributeSchema = attributeSchemas.get(count);
-                //boolean for checking if the current attribute is a VarChar
-                boolean isVarChar = false; 
-                if (attributeSchema.getType() == AttributeType.VARCHAR){
-                    isVarChar = true;
-                }
-
-                //If attribute is a varchar, get attributeSize from 
-                //  the next thing in buffer
-                //Otherwise, attributeSize is gotten from attributeSchema
-                int attributeSize = 0;
-                if (isVarChar){
-                    attributeSize = buffer.getInt();
-                } else {
-                    attributeSize = attributeSchema.getSize();
+    /**
+     * Makes an overfull page fit by moving records off one of its ends into the page
+     *  after or before it, instead of splitting it, when that page has room.
+     * Records only move across the boundary between the two pages,
+     *  so the order of the records in the table does not change.
+     * @param tableId the id of the table
+     * @param pageOrder the page order of the table
+     * @param pageOrderIndex the index of the overfull page in the page order
+     * @param page the overfull page
+     * @return true if the records were moved and both pages pushed to the page buffer;
+     *          false if neither neighbour has room and the page is unchanged
+     * @throws IOException
+     */
+    private boolean moveToNeighbour(int tableId, List<Integer> pageOrder, int pageOrderIndex, Page page) throws IOException{
+        int pageId = pageOrder.get(pageOrderIndex);
+        List<Record> records = page.getRecords();
+        int pageBytes = page.computeSize();
+
+        //the overfull page can not be written to disk, so it is pinned while its neighbours are read
+        pageBuffer.pinPage(tableId, pageId, null, false, false);
+        try {
+            //try moving records off the end of the page into the front of the next page
+            int numToMove = 0;
+            int bytesToMove = 0;
+            while (pageBytes - bytesToMove >= pageSize && numToMove < records.size() - 1){
+                numToMove += 1;
+                bytesToMove += page.getRecordSize(records.get(records.size() - numToMove));
+            }
+            if (pageOrderIndex + 1 < pageOrder.size() && pageBytes - bytesToMove < pageSize){
+                int nextPageId = pageOrder.get(pageOrderIndex + 1);
+                Page nextPage = getNeighbourWithRoom(tableId, nextPageId, bytesToMove);
+                //records are only counted the same way on both pages if they share a row format
+                if (nextPage != null && nextPage.getRowFormat() == page.getRowFormat()){
+                    for (int i = 0; i < numToMove; i++){
+                        nextPage.insertAtIndex(records.get(records.size() - 1), 0);
+                        page.removeRecord(records.size() - 1);
+                    }
+                    pushTablePage(tableId, pageId, page);
+                    pushTablePage(tableId, nextPageId, nextPage);
+                    return true;
                 }
+            }
 
-                //Move through the buffer for attributeSize bytes
-                if (attributeSchema.getType() == AttributeType.CHAR ||
-                    attributeSchema.getType() == AttributeType.VARCHAR){
-                    for(int i = 0; i < attributeSize*2; i++){
-                        buffer.get();
-                    }
-                } else {
-                    for(int i = 0; i < attributeSize; i++){
-                        buffer.get();
+            //then moving records off the front of the page onto the end of the previous page
+            numToMove = 0;
+            bytesToMove = 0;
+            while (pageBytes - bytesToMove >= pageSize && numToMove < records.size() - 1){
+                bytesToMove += page.getRecordSize(records.get(numToMove));
+                numToMove += 1;
+            }
+            if (pageOrderIndex > 0 && pageBytes - bytesToMove < pageSize){
+                int previousPageId = pageOrder.get(pageOrderIndex - 1);
+                Page previousPage = getNeighbourWithRoom(tableId, previousPageId, bytesToMove);
+                if (previousPage != null && previousPage.getRowFormat() == page.getRowFormat()){
+                    for (int i = 0; i < numToMove; i++){
+                        previousPage.insertAtTheEnd(records.get(0));
+                        page.removeRecord(0);
                     }
+                    pushTablePage(tableId, pageId, page);
+                    pushTablePage(tableId, previousPageId, previousPage);
+                    return true;
                 }
-                
             }
-            count += 1;
+            return false;
+        } finally {
+            unpinPage(tableId, pageId);
         }
+    }
 
-        AttributeSchema attributeSchema = attributeSchemas.get(count);
-        
-        //boolean for checking if the current attribute is a VarChar
-        boolean isVarChar = false; 
-        if (attributeSchema.getType() == AttributeType.VARCHAR){
-            isVarChar = true;
-        }
-
-        //If attribute is a varchar, get attributeSize from 
-        //  the next thing in buffer
-        //Otherwise, attributeSize is gotten from attributeSchema
-        int attributeSize = 0;
-        if (isVarChar){
-            attributeSize = buffer.getInt();
-        } else {
-            attributeSize = attributeSchema.getSize();
-        }
+    /**
+     * Pushes a changed table page to the page buffer and updates its fence keys and free space
+     * @param tableId the id of the table
+     * @param pageId the id of the page
+     * @param page the page
+     * @throws IOException
+     */
+    private void pushTablePage(int tableId, int pageId, Page page) throws IOException{
+        pageBuffer.pushPage(tableId, pageId, page);
+        updateFences(tableId, pageId, page);
+        updateFreeSpace(tableId, pageId, page);
+    }
 
-        byte[] primaryKeyValueByte = null;
-        if (attributeSchema.getType() == AttributeType.CHAR ||
-            attributeSchema.getType() == AttributeType.VARCHAR){
-            primaryKeyValueByte = new byte[attributeSize*2];
-        } else {
-            primaryKeyValueByte = new byte[attributeSize];
+    /**
+     * Finds where in the page order to start looking for the page a record belongs in
+     * @param record the record being inserted
+     * @param tableId the id of the table
+     * @param pageOrder the page order of the table
+     * @return the index of the first page whose highest key is greater than the key of the record,
+     *          the number of pages if there is none, or 0 if the fence keys of the table are not known
+     * @throws IOException
+     */
+    private int findInsertIndex(Record record, int tableId, List<Integer> pageOrder) throws IOException{
+        TableSchema tableSchema = catalog.getTableSchemaByNum(tableId);
+        PageDirectory directory = tableSchema == null ? null : ensureFences(tableId);
+        if (directory == null || directory.getNumPages() != pageOrder.size()){
+            return 0;
         }
-        //Move through the buffer for attributeSize bytes
-        if (attributeSchema.getType() == AttributeType.CHAR ||
-            attributeSchema.getType() == AttributeType.VARCHAR){
-            for(int i = 0; i < attributeSize*2; i++){
-                primaryKeyValueByte[i] = buffer.get();
-            }
-        } else {
-            for(int i = 0; i < attributeSize; i++){
-                primaryKeyValueByte[i] = buffer.get();
-            }
+        List<AttributeSchema> attributeSchemas = tableSchema.getAttributes();
+        int primaryKeyIndex = getPrimaryKeyIndex(attributeSchemas);
+        byte[] key = record.getAttributeBytes(attributeSchemas, primaryKeyIndex);
+        if (key == null){
+            return 0;
         }
-        return primaryKeyValueByte;
+        return Math.max(directory.findPage(attributeSchemas.get(primaryKeyIndex), key, false), 0);
     }
 
     /**
@@ -532,83 +619,126 @@ public class StorageManager {
      * @throws IOException
      */
     public static List<Integer> getPageOrder(int tableId, boolean getTreeOrder) throws IOException{
-        String filePath = "";
-        if(getTreeOrder){
-            filePath = dbLocation + "/indexes/tree" + tableId + ".bpt";
-        }else{
-            filePath = dbLocation + "tables/table" + tableId + ".tbl";
-        }
-        File tableFile = new File(filePath);
-        if (!tableFile.exists()){
+        PageDirectory directory = pageBuffer.getPageDirectory(tableId, getTreeOrder);
+        if (directory == null){
             System.out.println("table"+tableId+" does not exist.");
             return null;
         }
+        return directory.getPageOrder();
+    }
 
-        try (RandomAccessFile raf = new RandomAccessFile(filePath, "r"); FileChannel channel = raf.getChannel()) {
-            ByteBuffer buffer = ByteBuffer.allocate(pageSize);
-            channel.read(buffer); //reads pageSize bytes into buffer from start of file
-            buffer.flip(); //flip buffer. buffer position 0
-
-            int numPages = buffer.getInt(); //gets number of pages
-            
+    /**
+     * Gets a page with the given pageId from the pageBuffer
+     * @param tableId the id of table where the page is
+     * @param pageId the id of the page to get
+     * @return the Page retrieved
+     * @throws IOException
+     */
+    public Page getPage(int tableId, int pageId) throws IOException{
+        return (Page)pageBuffer.getPage(tableId, pageId, null, false);
+    }
 
-            buffer.clear(); //set buffer back to position 0 to read again
-            channel.position(4); //set channel to the beginning of page order
-            channel.read(buffer); //read in page order
-            buffer.flip(); //flip buffer; buffer position is 0
-
-            //get the order of the pages
-            List<Integer> pageOrder = new ArrayList<>();
-            for (int i = 0; i < numPages; i++){
-                pageOrder.add(buffer.getInt());
-                //check if adding one more pageid would be greater than the pageSize
-                if (buffer.position()+4 > pageSize){
-                    //gets difference between how many bytes have been retrieved from
-                    //  the buffer and how many bytes are in the buffer
-                    int difference = pageSize - buffer.position();
-                    //move channel back the size of difference so that
-                    //  next thing being read is on a int boundary
-                    channel.position(channel.position() - difference);
-                    buffer.clear();
-                    channel.read(buffer);
-                    buffer.flip();
-                }
-            }
-            return pageOrder;
-        }
+    /**
+     * Gets a page with the given pageId from the pageBuffer for a sequential scan.
+     * The page is marked as part of a scan so the page buffer evicts it
+     *  before pages that are used more often.
+     * @param tableId the id of table where the page is
+     * @param pageId the id of the page to get
+     * @return the Page retrieved
+     * @throws IOException
+     */
+    public Page scanPage(int tableId, int pageId) throws IOException{
+        return (Page)pageBuffer.getPage(tableId, pageId, null, false, true);
     }
 
     /**
-     * Gets a page with the given pageId from the pageBuffer
+     * Gets a page for a sequential scan and pins it in the pageBuffer,
+     *  so it stays in memory while other pages are read.
+     * Every call must be matched by a call to unpinPage.
      * @param tableId the id of table where the page is
      * @param pageId the id of the page to get
-     * @param pageOrder the order of the pages in the table with the given table id
      * @return the Page retrieved
      * @throws IOException
      */
-    public Page getPage(int tableId, int pageId, List<Integer> pageOrder) throws IOException{
-        return (Page)pageBuffer.getPage(tableId, pageId, pageOrder, 0, null, false);
+    public Page pinPage(int tableId, int pageId) throws IOException{
+        return (Page)pageBuffer.pinPage(tableId, pageId, null, false, true);
     }
 
     /**
-     * Function for getting BplusNodes from buffer
+     * Unpins a page that was pinned with pinPage
+     * @param tableId the id of table where the page is
+     * @param pageId the id of the page
      */
-    public static BplusTreeNode getBplusNode(int tableId, int pageId, List<Integer> pageOrder) throws IOException{
-        AttributeSchema primaryKey = null;
-        for (AttributeSchema as : catalog.getTableSchemaByNum(tableId).getAttributes()){
-            if (as.isPrimaryKey()){
-                primaryKey = as;
-                break;
+    public void unpinPage(int tableId, int pageId){
+        pageBuffer.unpinPage(tableId, pageId, false);
+    }
+
+    /**
+     * Gets the B+ tree of a table, loading it from the root the catalog has for it
+     *  the first time it is used
+     * @param tableId the id of the table
+     * @return the tree
+     * @throws IOException
+     */
+    public static BplusTree getBplusTree(int tableId) throws IOException{
+        synchronized (bplusTrees){
+            BplusTree tree = bplusTrees.get(tableId);
+            if (tree == null){
+                AttributeSchema primaryKey = catalog.getTableSchemaByNum(tableId).getPrimaryKey();
+                tree = new BplusTree(pageBuffer, tableId, primaryKey, catalog.getRoot(tableId), pageSize);
+                bplusTrees.put(tableId, tree);
             }
+            return tree;
+        }
+    }
+
+    /**
+     * Makes a new, empty B+ tree for a table; the tree file must already exist
+     * @param tableId the id of the table
+     * @param primaryKey the primary key of the table
+     * @return the tree
+     * @throws IOException
+     */
+    public static BplusTree createBplusTree(int tableId, AttributeSchema primaryKey) throws IOException{
+        BplusTree tree = BplusTree.create(pageBuffer, tableId, primaryKey, pageSize);
+        synchronized (bplusTrees){
+            bplusTrees.put(tableId, tree);
         }
-        return (BplusTreeNode)pageBuffer.getPage(tableId, pageId, pageOrder, 0, primaryKey, true);
+        return tree;
     }
 
     /**
-     * Push BplusNode to buffer
+     * Checks if the B+ tree of a table that is being copied into is built with a bulk load
+     *  once all its records are in, instead of one key at a time as each record goes in.
+     * Only a tree with room for at least 2 values in a node can be bulk loaded.
+     * @param tableId the id of the table being copied into
+     * @return true if it is
+     * @throws IOException
      */
-    public static void pushBplusNode(int tableId, int pageId, BplusTreeNode node, List<Integer> pageOrder) throws IOException{
-        pageBuffer.pushPage(tableId, pageId, node, pageOrder, 0);
+    private boolean bulkLoadsIndex(int tableId) throws IOException{
+        return catalog.isIndexOn() && getBplusTree(tableId).getN() >= 2;
+    }
+
+    /**
+     * Builds the empty B+ tree of a table from the bottom up, out of the records of the table.
+     * The records must already be in primary key order across the pages of the table,
+     *  the way a copy of a table with an index leaves them.
+     * @param tableId the id of the table
+     * @param numRecords the number of records in the table
+     * @throws IOException
+     */
+    private void loadBplusTree(int tableId, int numRecords) throws IOException{
+        if (numRecords == 0){
+            return;
+        }
+        TableSchema tableSchema = catalog.getTableSchemaByNum(tableId);
+        BplusTree.Loader loader = getBplusTree(tableId).load(numRecords, indexFillFactor);
+        for (int pageId : getPageOrder(tableId, false)){
+            for (Record record : scanPage(tableId, pageId).getRecords()){
+                loader.add(record.getPrimaryKeyValue(tableSchema), pageId);
+            }
+        }
+        loader.finish();
     }
 
     /**
@@ -623,7 +753,7 @@ public class StorageManager {
     public boolean checkForSameValue(int tableId, TableSchema tableSchema, int attributeIndex, String value) throws IOException{
         List<Integer> pageOrder = getPageOrder(tableId, false);
         for (int pageId : pageOrder){
-            Page page = getPage(tableId, pageId, pageOrder);
+            Page page = scanPage(tableId, pageId);
             List<Record> records = page.getRecords();
             for (Record record : records){
                 if(record.checkForValue(tableSchema, attributeIndex, value)){
@@ -653,16 +783,9 @@ public class StorageManager {
             return false;
         }
 
-        RandomAccessFile raf = new RandomAccessFile(tableFile, "rw");
-
         // Guaranteed empty file since we just created it
-        // pass in 0 for current number of pages
-        ByteBuffer buffer = ByteBuffer.allocate(4);
-        buffer.putInt(0);
-        raf.write(buffer.array());
-        raf.close();
-
-        return true;
+        // the page directory starts with 0 pages
+        return PageDirectory.createNewDirectoryFile(PageDirectory.getDirectoryPath(dbLocation, tableId, false));
     }
 
     /**
@@ -680,16 +803,9 @@ public class StorageManager {
             return false;
         }
 
-        RandomAccessFile raf = new RandomAccessFile(BplusFile, "rw");
-
         // Guaranteed empty file since we just created it
-        // pass in 0 for current number of pages
-        ByteBuffer buffer = ByteBuffer.allocate(4);
-        buffer.putInt(0);
-        raf.write(buffer.array());
-        raf.close();
-
-        return true;
+        // the page directory starts with 0 pages
+        return PageDirectory.createNewDirectoryFile(PageDirectory.getDirectoryPath(dbLocation, tableId, true));
     }
 
     /**
@@ -701,13 +817,28 @@ public class StorageManager {
     public static boolean deleteTable(int tableId, boolean indexOn) throws IOException{
         String tablePath = dbLocation + "/tables/table" + tableId + ".tbl";
         File fileToDelete = new File(tablePath);
+        //the file has to be closed before it can be deleted
+        pageBuffer.removeTable(tableId, false);
+        freeSpaceMaps.remove(tableId);
         if(fileToDelete.delete()){
+            new File(PageDirectory.getDirectoryPath(dbLocation, tableId, false)).delete();
+            new File(PageDirectory.getFencePath(dbLocation, tableId)).delete();
             if(indexOn){
                 String treePath = dbLocation + "/indexes/tree" + tableId + ".bpt";
                 fileToDelete = new File(treePath);
+                //the pinned nodes of the tree have to be let go of before the tree can be removed
+                BplusTree tree;
+                synchronized (bplusTrees){
+                    tree = bplusTrees.remove(tableId);
+                }
+                if (tree != null){
+                    tree.close();
+                }
+                pageBuffer.removeTable(tableId, true);
                 if(!fileToDelete.delete()){
                     return false;
                 }
+                new File(PageDirectory.getDirectoryPath(dbLocation, tableId, true)).delete();
                 catalog.removeRoot(tableId);
                 catalog.saveCatalog();
             }
@@ -769,27 +900,7 @@ public class StorageManager {
             }
 
 
-            AttributeSchema primaryKey = tableSchema.getPrimaryKey();
-            AttributeType keyType = primaryKey.getType();
-
-            int keyPointerSize;
-            if (keyType == AttributeType.CHAR || keyType == AttributeType.VARCHAR){
-                keyPointerSize = primaryKey.getSize()*2 + 8;
-            } else{
-                keyPointerSize = primaryKey.getSize() + 8;
-            }
-            int n = (int)Math.floor(((double)pageSize)/keyPointerSize) - 1;
-
-            BplusTreeNode root = new BplusTreeNode(n, 1, newTableId, -1, keyType);
-            catalog.setRoot(newTableId, 1);
-
-            //Rewrite the header and push the new page
-            //This will make a table's Bplus file always start with one page before inserts begin
-            rewriteTableFileHeader(newTableId, 0, 1, true);
-            List<Integer> pageOrder = getPageOrder(newTableId, true);
-            StorageManager.pushBplusNode(newTableId, 1, root, pageOrder);
-
-            Catalog.saveCatalog();
+            createBplusTree(newTableId, tableSchema.getPrimaryKey());
         }
 
         List<Integer> oldPageOrder = getPageOrder(oldTableId, false);
@@ -797,8 +908,13 @@ public class StorageManager {
         List<TableSchema> passToWhere = new ArrayList<>();
         passToWhere.add(tableSchema);
         passToWhere.add(tableSchema);
+        DMLFunctions.WhereCondition condition = new DMLFunctions.WhereCondition(tableSchema, whereClause, passToWhere);
 
         boolean uniqueRecordChanged = false;
+        //changing the primary key can change the order of the records, so the index is only
+        //  bulk loaded when the records are copied in the order they are in
+        boolean loadIndex = bulkLoadsIndex(newTableId) && !tableSchema.getAttributes().get(attributeIndex).isPrimaryKey();
+        int numRecords = 0;
 
         boolean errorThrown = false;
         String errorMessage = "";
@@ -809,7 +925,7 @@ public class StorageManager {
         //For a unique attribute, if a record is updated, only one can be
         //For all records that will not be changed, they are inserted into the new table normally
         for (int pageId : oldPageOrder){
-            Page page = getPage(oldTableId, pageId, oldPageOrder);
+            Page page = scanPage(oldTableId, pageId);
             List<Record> recordsList = page.getRecords();
             for (Record record : recordsList){
                 Record newRecord = record;
@@ -820,7 +936,7 @@ public class StorageManager {
                     try{
                         //updates record if where clause is empty or the record meets the where clause
                         if (whereClause.equals("") ||
-                            DMLFunctions.whereRecord(tableSchema, record, whereClause, passToWhere)){
+                            DMLFunctions.whereRecord(condition, record)){
                             newRecord = record.changeData(newValue, attributeIndex, tableSchema);
                             //if attribute being changed is unique,
                             //  then only one record can be changed
@@ -840,17 +956,23 @@ public class StorageManager {
                 if (tableSchema.getAttributes().get(attributeIndex).isPrimaryKey()){
                     newPageOrder = insertRecord(newRecord, newTableId, newPageOrder, false, catalog.isIndexOn());
                 } else {
-                    newPageOrder = insertRecord(newRecord, newTableId, newPageOrder, true, catalog.isIndexOn());
+                    newPageOrder = insertRecord(newRecord, newTableId, newPageOrder, true, catalog.isIndexOn() && !loadIndex);
                 }
+                numRecords += 1;
             }
         }
 
+        if (loadIndex){
+            loadBplusTree(newTableId, numRecords);
+        }
+
         if (uniqueRecordChanged){
             System.out.println("Notice: "+tableSchema.getAttributes().get(attributeIndex).getName()+
                                 " is unique. Only one record was updated with value of "+newValue);
         }
 
         //remove old table file
+        pageBuffer.moveTableStats(oldTableId, newTableId);
         deleteTable(oldTableId, catalog.isIndexOn());
 
         if (errorThrown){
@@ -858,6 +980,63 @@ public class StorageManager {
         }
     }
     
+    /**
+     * Updates a value of the one record a where clause can match, found through the B+ tree, in its page,
+     *  instead of copying the table into a new file.
+     * This can only be done when the primary key is not the value being changed and
+     *  the changed record still fits in its page; otherwise the table is left as it is
+     *  for updateRecords to rebuild.
+     * @param tableId the id of the table of the record
+     * @param key the primary key value the where clause limits the records to, as the index holds it
+     * @param attributeIndex the index of a list of the table's attributes that is being updated
+     * @param newValue the value to update the record with
+     * @param isUnique if the attribute for the record that is being updated is unique
+     * @param whereClause the clause to use to verify if the record needs to be updated
+     * @return true if the update is done; false if the table has to be rebuilt
+     * @throws IOException
+     * @throws Exception if the where clause or the new value can not be applied to the record
+     */
+    public boolean updateRecordInPlace(int tableId, Object key, int attributeIndex, String newValue, boolean isUnique, String whereClause) throws IOException, Exception{
+        TableSchema tableSchema = catalog.getTableSchemaByNum(tableId);
+        if (tableSchema.getAttributes().get(attributeIndex).isPrimaryKey()){
+            return false;
+        }
+        int pageId = getBplusTree(tableId).search(key);
+        if (pageId == -1){
+            return true;
+        }
+        Page page = pinPage(tableId, pageId);
+        try {
+            int index = page.indexOfKey(key, tableSchema);
+            if (index == -1){
+                //the tree only holds keys that are in the table, so it is wrong about this one
+                throw new IllegalStateException("Index of table " + tableId + " does not point to the record with key " + key);
+            }
+            Record record = page.getRecords().get(index);
+            List<TableSchema> passToWhere = new ArrayList<>();
+            passToWhere.add(tableSchema);
+            passToWhere.add(tableSchema);
+            DMLFunctions.WhereCondition condition = new DMLFunctions.WhereCondition(tableSchema, whereClause, passToWhere);
+            if (!DMLFunctions.whereRecord(condition, record)){
+                return true;
+            }
+            Record newRecord = record.changeData(newValue, attributeIndex, tableSchema);
+            if (page.computeSize() - page.getRecordSize(record) + page.getRecordSize(newRecord) >= pageSize){
+                return false; //the page would overflow
+            }
+            page.replaceRecord(index, newRecord);
+            pushTablePage(tableId, pageId, page);
+        } finally {
+            unpinPage(tableId, pageId);
+        }
+
+        if (isUnique){
+            System.out.println("Notice: "+tableSchema.getAttributes().get(attributeIndex).getName()+
+                                " is unique. Only one record was updated with value of "+newValue);
+        }
+        return true;
+    }
+
     /**
      * Function for inserting using the BplusTree 
      */
@@ -872,35 +1051,34 @@ public class StorageManager {
             }
         }
 
-        //Insert into Bplus tree to get the page and index in the table to insert
-        BplusTreeNode root = getBplusNode(tableId, catalog.getRoot(tableId), treePageOrder);
-        int[] pagePointer = root.addNewValue(primaryKeyValue);
+        //Insert into Bplus tree to get the page in the table to insert into
+        BplusTree tree = getBplusTree(tableId);
+        int originalPageID = tree.insert(primaryKeyValue);
         treePageOrder = getPageOrder(tableId, true);
-        root = getBplusNode(tableId, catalog.getRoot(tableId), treePageOrder);
-        if (pagePointer == null){
+        if (originalPageID == -1){
             throw new Exception("Duplicate Value");
         }
-        int originalPageID = pagePointer[0];
-        int pageIndex = pagePointer[1];
 
         if (oldPageOrder.size() == 0){
-            Page newPage = new Page(pageSize, 1);
+            Page newPage = new Page(pageSize, 1, pageBuffer.getRowFormat(tableId));
             List<Record> newRecordsList = new ArrayList<>();
             newRecordsList.add(record);
             newPage.setRecords(newRecordsList);
-            List<Integer> newPageOrder = rewriteTableFileHeader(tableId, 0, 1, false);
-            pageBuffer.pushPage(tableId, 1, newPage, newPageOrder, 0);
+            List<Integer> newPageOrder = insertPageIntoDirectory(tableId, 0, 1, false);
+            pushTablePage(tableId, 1, newPage);
 
             return newPageOrder;
         }
 
-        //insert into page at index
-        Page page = (Page)pageBuffer.getPage(tableId, originalPageID, oldPageOrder, 0, primaryKeyAttributeSchema, false);
-        page.insertAtIndex(record, pageIndex);
+        //insert into the page in primary key order; the end of the page if no record in it has a greater key
+        Page page = (Page)pageBuffer.getPage(tableId, originalPageID, primaryKeyAttributeSchema, false);
+        if (!page.addRecord(record, tableSchema)){
+            page.insertAtTheEnd(record);
+        }
 
         //do splitting of page if necessary
         if(page.pageIsGreaterThanPageSize()){
-            Page newPage = new Page(pageSize, Collections.max(oldPageOrder)+1);
+            Page newPage = new Page(pageSize, Collections.max(oldPageOrder)+1, page.getRowFormat());
             List<Record> oldPageOrignalList = page.getRecords();
             int numberOfRecords = oldPageOrignalList.size();
             int numberOfRecordsForOldPage = (int)(Math.ceil((double)numberOfRecords)/2.0);
@@ -916,12 +1094,12 @@ public class StorageManager {
             page.setRecords(oldPageNewRecords);
             newPage.setRecords(newPageRecords);
 
-            //update the BplusTree leaf nodes so they point to the new table page and correct indexs
+            //update the BplusTree leaf nodes so they point to the new table page
             Object NewRecordsFirstPrimary = newPageRecords.get(0).getPrimaryKeyValue(tableSchema);
             Object NewRecordsLastPrimary = newPageRecords.get(newPageRecords.size() - 1).getPrimaryKeyValue(tableSchema);
 
             //update the BplusTree leaf nodes
-            root.updatePagePointer(NewRecordsFirstPrimary, NewRecordsLastPrimary, newPage.getPageId());
+            tree.updatePagePointer(NewRecordsFirstPrimary, NewRecordsLastPrimary, newPage.getPageId());
 
             int pageOrderIndex = oldPageOrder.indexOf(originalPageID);
             if(pageOrderIndex == -1) {
@@ -931,12 +1109,12 @@ public class StorageManager {
                 pageOrderIndex += 1;
             }
 
-            List<Integer> newPageOrder = rewriteTableFileHeader(tableId, pageOrderIndex, Collections.max(oldPageOrder)+1, false);
-            pageBuffer.pushPage(tableId, originalPageID, page, newPageOrder, 0);
-            pageBuffer.pushPage(tableId, Collections.max(oldPageOrder)+1, newPage, newPageOrder, 0);
+            List<Integer> newPageOrder = insertPageIntoDirectory(tableId, pageOrderIndex, Collections.max(oldPageOrder)+1, false);
+            pushTablePage(tableId, originalPageID, page);
+            pushTablePage(tableId, Collections.max(oldPageOrder)+1, newPage);
             return newPageOrder;
         }else{
-            pageBuffer.pushPage(tableId, originalPageID, page, oldPageOrder, 0);
+            pushTablePage(tableId, originalPageID, page);
             return oldPageOrder;
         }
     }
@@ -955,151 +1133,147 @@ public class StorageManager {
      * @throws IOException
      */
     public List<Integer> insertRecord(Record record, int tableId, List<Integer> oldPageOrder, boolean addAtEnd, boolean indexOn) throws Exception{
-        //file should always exist and if empty, just has pagesize of 0
-        String filePath;
-        if (indexOn){
-            filePath = dbLocation + "/indexes/tree" + tableId + ".bpt";
-        } else {
-            filePath = dbLocation + "/tables/table" + tableId + ".tbl";
-        }
-        //String filePath = dbLocation + "/tables/table" + tableId + ".tbl";
-        File tableFile = new File(filePath);
-        if (!tableFile.exists()){
+        //the page directory is kept in memory, so checking that the table
+        //  exists does not need to touch the file
+        if (pageBuffer.getPageDirectory(tableId, indexOn) == null){
             System.out.println("table"+tableId+" does not exist.");
             return null;
         }
-        try (RandomAccessFile raf = new RandomAccessFile(filePath, "r"); FileChannel channel = raf.getChannel()) {
-
-            int numPages;
-            List<Integer> treePageOrder = null;
-            if (indexOn){
-                treePageOrder = getPageOrder(tableId, true);
-                numPages = treePageOrder.size();
-            } else {
-                numPages = oldPageOrder.size(); //get the number of pages
-            }
+        int numPages;
+        List<Integer> treePageOrder = null;
+        if (indexOn){
+            treePageOrder = getPageOrder(tableId, true);
+            numPages = treePageOrder.size();
+        } else {
+            numPages = oldPageOrder.size(); //get the number of pages
+        }
 
-            /*If the number of pages is 0, a new Page will be created,
-             *  the record will be added to the new page, the Table file
-             *  header will be rewritten to accomidate the new page,
-             *  and the new page will be pushed to the PageBuffer.
-            */
-            if (numPages == 0){
-                Page newPage = new Page(pageSize, 1);
-                List<Record> newRecordsList = new ArrayList<>();
-                newRecordsList.add(record);
-                newPage.setRecords(newRecordsList);
-                List<Integer> newPageOrder = rewriteTableFileHeader(tableId, 0, 1, false);
-                pageBuffer.pushPage(tableId, 1, newPage, newPageOrder, 0);
-                raf.close();
-                return newPageOrder;
-            }
+        /*If the number of pages is 0, a new Page will be created,
+         *  the record will be added to the new page, the Table file
+         *  header will be rewritten to accomidate the new page,
+         *  and the new page will be pushed to the PageBuffer.
+        */
+        if (numPages == 0){
+            Page newPage = new Page(pageSize, 1, pageBuffer.getRowFormat(tableId));
+            List<Record> newRecordsList = new ArrayList<>();
+            newRecordsList.add(record);
+            newPage.setRecords(newRecordsList);
+            List<Integer> newPageOrder = insertPageIntoDirectory(tableId, 0, 1, false);
+            pushTablePage(tableId, 1, newPage);
+            return newPageOrder;
+        }
 
-            if (indexOn){
-                return insertBplusTree(record, tableId, treePageOrder, oldPageOrder);
-            }
+        if (indexOn){
+            return insertBplusTree(record, tableId, treePageOrder, oldPageOrder);
+        }
 
-            int pageOrderIndex = 0; //the current index in the pageOrder array
-            boolean wasRecordAdded = false; //used to check if the record was added to a page
-
-            //Skips looping through all the pages and goes right to adding to the end
-            if (!addAtEnd){
-                //Loops through the pageOrder, getting pageIds and seeing if the record can be inserted
-                for (int pageId : oldPageOrder){
-                    Page page = (Page)pageBuffer.getPage(tableId, pageId, oldPageOrder, 0, null, false);
-                    wasRecordAdded = page.addRecord(record, catalog.getTableSchemaByNum(tableId));
-
-                    /*
-                     * If page was added, checks to see if the current size of the records in
-                     *  the page is larger than the max pageSize.
-                     * If it is, the Page is split, a new Page is made, each Page
-                     *  gets half of the records, the Table file header is rewritten
-                     *  to accomadate the new page, and both pages are pushed onto
-                     *  the PageBuffer.
-                     * Otherwise, the current Page is pushed back onto the page buffer
-                     */
-                    if (wasRecordAdded){
-                        if(page.pageIsGreaterThanPageSize()){
-                            Page newPage = new Page(pageSize, Collections.max(oldPageOrder)+1);
-                            List<Record> oldPageOrignalList = page.getRecords();
-                            int numberOfRecords = oldPageOrignalList.size();
-                            int numberOfRecordsForOldPage = (int)(Math.ceil((double)numberOfRecords)/2.0);
-                            List<Record> oldPageNewRecords = new ArrayList<>();
-                            List<Record> newPageRecords = new ArrayList<>();
-                            for (int i = 0; i < numberOfRecords; i++){
-                                if (i < numberOfRecordsForOldPage){
-                                    oldPageNewRecords.add(oldPageOrignalList.get(i));
-                                } else {
-                                    newPageRecords.add(oldPageOrignalList.get(i));
-                                }
+        int pageOrderIndex = 0; //the current index in the pageOrder array
+        boolean wasRecordAdded = false; //used to check if the record was added to a page
+
+        //Skips looping through all the pages and goes right to adding to the end
+        if (!addAtEnd){
+            //Loops through the pageOrder, getting pageIds and seeing if the record can be inserted,
+            //  starting at the page the fence keys say the record belongs in
+            pageOrderIndex = findInsertIndex(record, tableId, oldPageOrder);
+            while (pageOrderIndex < oldPageOrder.size()){
+                int pageId = oldPageOrder.get(pageOrderIndex);
+                Page page = (Page)pageBuffer.getPage(tableId, pageId, null, false);
+                wasRecordAdded = page.addRecord(record, catalog.getTableSchemaByNum(tableId));
+
+                /*
+                 * If page was added, checks to see if the current size of the records in
+                 *  the page is larger than the max pageSize.
+                 * If it is, the Page is split, a new Page is made, each Page
+                 *  gets half of the records, the Table file header is rewritten
+                 *  to accomadate the new page, and both pages are pushed onto
+                 *  the PageBuffer.
+                 * Otherwise, the current Page is pushed back onto the page buffer
+                 */
+                if (wasRecordAdded){
+                    //a neighbouring page with room takes the overflow before the page is split
+                    if (page.pageIsGreaterThanPageSize() && moveToNeighbour(tableId, oldPageOrder, pageOrderIndex, page)){
+                        return oldPageOrder;
+                    }
+                    if(page.pageIsGreaterThanPageSize()){
+                        Page newPage = new Page(pageSize, Collections.max(oldPageOrder)+1, page.getRowFormat());
+                        List<Record> oldPageOrignalList = page.getRecords();
+                        int numberOfRecords = oldPageOrignalList.size();
+                        int numberOfRecordsForOldPage = (int)(Math.ceil((double)numberOfRecords)/2.0);
+                        List<Record> oldPageNewRecords = new ArrayList<>();
+                        List<Record> newPageRecords = new ArrayList<>();
+                        for (int i = 0; i < numberOfRecords; i++){
+                            if (i < numberOfRecordsForOldPage){
+                                oldPageNewRecords.add(oldPageOrignalList.get(i));
+                            } else {
+                                newPageRecords.add(oldPageOrignalList.get(i));
                             }
-                            page.setRecords(oldPageNewRecords);
-                            newPage.setRecords(newPageRecords);
-
-                            List<Integer> newPageOrder = rewriteTableFileHeader(tableId, pageOrderIndex+1, Collections.max(oldPageOrder)+1, false);
-                            pageBuffer.pushPage(tableId, pageId, page, newPageOrder, 0);
-                            pageBuffer.pushPage(tableId, Collections.max(oldPageOrder)+1, newPage, newPageOrder, 0);
-
-                            raf.close();
-                            return newPageOrder;
                         }
-                        pageBuffer.pushPage(tableId, pageId,page, oldPageOrder, 0);
+                        page.setRecords(oldPageNewRecords);
+                        newPage.setRecords(newPageRecords);
 
-                        raf.close();
-                        return oldPageOrder;
+                        List<Integer> newPageOrder = insertPageIntoDirectory(tableId, pageOrderIndex+1, Collections.max(oldPageOrder)+1, false);
+                        pushTablePage(tableId, pageId, page);
+                        pushTablePage(tableId, Collections.max(oldPageOrder)+1, newPage);
+
+                        return newPageOrder;
                     }
-                    pageBuffer.pushPage(tableId, pageId,page, oldPageOrder, 0);
-                    pageOrderIndex += 1;
+                    pushTablePage(tableId, pageId,page);
+
+                    return oldPageOrder;
                 }
-            } else {
-                pageOrderIndex = oldPageOrder.size();
+                pageBuffer.pushPage(tableId, pageId,page);
+                pageOrderIndex += 1;
             }
+        } else {
+            pageOrderIndex = oldPageOrder.size();
+        }
 
-            /**
-             * Only gets here if the record wasn't inserted into any of the pages
-             * The record is then inserted into the last page in the Table,
-             *  and the same check to see if the size of the records in the Page
-             *  is larger than the max pageSize and if splitting needs to occur
-             *  as above
-             */
-            if (!wasRecordAdded){
-                Page page = (Page)pageBuffer.getPage(tableId, oldPageOrder.get(oldPageOrder.size()-1), oldPageOrder, 0, null, false);
+        /**
+         * Only gets here if the record wasn't inserted into any of the pages
+         * The record is then inserted into the last page in the Table,
+         *  and the same check to see if the size of the records in the Page
+         *  is larger than the max pageSize and if splitting needs to occur
+         *  as above
+         */
+        if (!wasRecordAdded){
+            Page page = (Page)pageBuffer.getPage(tableId, oldPageOrder.get(oldPageOrder.size()-1), null, false);
+            page.insertAtTheEnd(record);
+            if(page.pageIsGreaterThanPageSize()){
+                Page newPage = new Page(pageSize, Collections.max(oldPageOrder)+1, page.getRowFormat());
                 List<Record> oldPageOrignalList = page.getRecords();
-                oldPageOrignalList.add(record);
-                page.setRecords(oldPageOrignalList);
-                if(page.pageIsGreaterThanPageSize()){
-                    Page newPage = new Page(pageSize, Collections.max(oldPageOrder)+1);
-                    oldPageOrignalList = page.getRecords();
-                    int numberOfRecords = oldPageOrignalList.size();
-                    int numberOfRecordsForOldPage = (int)(Math.ceil((double)numberOfRecords)/2.0);
-                    List<Record> oldPageNewRecords = new ArrayList<>();
-                    List<Record> newPageRecords = new ArrayList<>();
-                    for (int i = 0; i < numberOfRecords; i++){
-                        if (i < numberOfRecordsForOldPage){
-                            oldPageNewRecords.add(oldPageOrignalList.get(i));
-                        } else {
-                            newPageRecords.add(oldPageOrignalList.get(i));
-                        }
+                int numberOfRecords = oldPageOrignalList.size();
+                //the record went on the end of the table, so the last page is not split in half:
+                //  only the records that no longer fit move to the new page and the last page stays full
+                int numberOfRecordsForOldPage = numberOfRecords;
+                int oldPageSize = page.computeSize();
+                while (oldPageSize >= pageSize && numberOfRecordsForOldPage > 1){
+                    numberOfRecordsForOldPage -= 1;
+                    oldPageSize -= page.getRecordSize(oldPageOrignalList.get(numberOfRecordsForOldPage));
+                }
+                List<Record> oldPageNewRecords = new ArrayList<>();
+                List<Record> newPageRecords = new ArrayList<>();
+                for (int i = 0; i < numberOfRecords; i++){
+                    if (i < numberOfRecordsForOldPage){
+                        oldPageNewRecords.add(oldPageOrignalList.get(i));
+                    } else {
+                        newPageRecords.add(oldPageOrignalList.get(i));
                     }
-                    page.setRecords(oldPageNewRecords);
-                    newPage.setRecords(newPageRecords);
-
-                    List<Integer> newPageOrder = rewriteTableFileHeader(tableId, pageOrderIndex, Collections.max(oldPageOrder)+1, false);
+                }
+                page.setRecords(oldPageNewRecords);
+                newPage.setRecords(newPageRecords);
 
-                    pageBuffer.pushPage(tableId, oldPageOrder.get(oldPageOrder.size()-1), page, newPageOrder, 0);
-                    pageBuffer.pushPage(tableId, Collections.max(oldPageOrder)+1, newPage, newPageOrder, 0);
+                List<Integer> newPageOrder = insertPageIntoDirectory(tableId, pageOrderIndex, Collections.max(oldPageOrder)+1, false);
 
-                    raf.close();
-                    return newPageOrder;
-                }
-                pageBuffer.pushPage(tableId, oldPageOrder.get(oldPageOrder.size()-1),page, oldPageOrder, 0);
+                pushTablePage(tableId, oldPageOrder.get(oldPageOrder.size()-1), page);
+                pushTablePage(tableId, Collections.max(oldPageOrder)+1, newPage);
 
-                raf.close();
-                return oldPageOrder;
+                return newPageOrder;
             }
-            raf.close();
-            return null;
+            pushTablePage(tableId, oldPageOrder.get(oldPageOrder.size()-1),page);
+
+            return oldPageOrder;
         }
+        return null;
     }
 
     /**
@@ -1133,31 +1307,7 @@ public class StorageManager {
                 return;
             }
 
-            TableSchema schema = catalog.getTableSchemaByNum(oldTableId);
-            AttributeSchema primaryKey = schema.getPrimaryKey();
-            AttributeType keyType = primaryKey.getType();
-
-            int keyPointerSize;
-            if (keyType == AttributeType.CHAR || keyType == AttributeType.VARCHAR){
-                keyPointerSize = primaryKey.getSize()*2 + 8;
-            } else{
-                keyPointerSize = primaryKey.getSize() + 8;
-            }
-            int n = (int)Math.floor(((double)pageSize)/keyPointerSize) - 1;
-            
-            BplusTreeNode root = new BplusTreeNode(n, 1, newTableId, -1, keyType);
-            //Rewrite the header and push the new page
-            //This will make a table's Bplus file always start with one page before inserts begin
-            // StorageManager.rewriteTableFileHeader(lastUsedId, 0, 1, true);
-            // List<Integer> pageOrder = StorageManager.getPageOrder(lastUsedId, true);
-            // StorageManager.pushBplusNode(lastUsedId, 1, root, pageOrder);
-
-            catalog.setRoot(newTableId, 1);
-            catalog.saveCatalog();
-
-            StorageManager.rewriteTableFileHeader(newTableId, 0, 1, true);
-            List<Integer> pageOrder = StorageManager.getPageOrder(newTableId, true);
-            StorageManager.pushBplusNode(newTableId, 1, root, pageOrder);
+            createBplusTree(newTableId, catalog.getTableSchemaByNum(oldTableId).getPrimaryKey());
         }
 
         
@@ -1165,19 +1315,28 @@ public class StorageManager {
 
             List<Integer> pageOrder = getPageOrder(oldTableId, false);
             List<Integer> newPageOrder = new ArrayList<>();
+            //the records are copied in primary key order, so the index is built once they are all in
+            boolean loadIndex = bulkLoadsIndex(newTableId);
+            int numRecords = 0;
 
             for (int pageId : pageOrder){
-                Page oldPage = (Page) pageBuffer.getPage(oldTableId, pageId, pageOrder, 0, null, false);
+                Page oldPage = scanPage(oldTableId, pageId);
                 List<Record> oldRecords = oldPage.getRecords();
                 for (Record record : oldRecords){
                     Record newRecord = record.removeAttribute(attrName, catalog.getTableSchemaByNum(oldTableId));
                     //insertRecord(newRecord, newTableId, pageOrder);
-                    newPageOrder = insertRecord(newRecord, newTableId, newPageOrder, true, catalog.isIndexOn());
+                    newPageOrder = insertRecord(newRecord, newTableId, newPageOrder, true, catalog.isIndexOn() && !loadIndex);
+                    numRecords += 1;
                 }
             }
+
+            if (loadIndex){
+                loadBplusTree(newTableId, numRecords);
+            }
         }
 
         //remove old table file
+        pageBuffer.moveTableStats(oldTableId, newTableId);
         deleteTable(oldTableId, catalog.isIndexOn());
 
     }
@@ -1213,37 +1372,14 @@ public class StorageManager {
                 return;
             }
 
-            TableSchema schema = catalog.getTableSchemaByNum(old_table_id);
-            AttributeSchema primaryKey = schema.getPrimaryKey();
-            AttributeType keyType = primaryKey.getType();
-
-            int keyPointerSize;
-            if (keyType == AttributeType.CHAR || keyType == AttributeType.VARCHAR){
-                keyPointerSize = primaryKey.getSize()*2 + 8;
-            } else{
-                keyPointerSize = primaryKey.getSize() + 8;
-            }
-            int n = (int)Math.floor(((double)pageSize)/keyPointerSize) - 1;
-            
-            BplusTreeNode root = new BplusTreeNode(n, 1, new_table_id, -1, keyType);
-            //Rewrite the header and push the new page
-            //This will make a table's Bplus file always start with one page before inserts begin
-            // StorageManager.rewriteTableFileHeader(lastUsedId, 0, 1, true);
-            // List<Integer> pageOrder = StorageManager.getPageOrder(lastUsedId, true);
-            // StorageManager.pushBplusNode(lastUsedId, 1, root, pageOrder);
-
-            catalog.setRoot(new_table_id, 1);
-            catalog.saveCatalog();
-
-            StorageManager.rewriteTableFileHeader(new_table_id, 0, 1, true);
-            List<Integer> pageOrder = StorageManager.getPageOrder(new_table_id, true);
-            StorageManager.pushBplusNode(new_table_id, 1, root, pageOrder);
+            createBplusTree(new_table_id, catalog.getTableSchemaByNum(old_table_id).getPrimaryKey());
         }
 
 
         // if no where condition, all are deleted
         if(where_condition.equals("")){
             //remove old table file
+            pageBuffer.moveTableStats(old_table_id, new_table_id);
             deleteTable(old_table_id, catalog.isIndexOn());
             System.out.println("SUCCESS");
             return;
@@ -1259,29 +1395,41 @@ public class StorageManager {
             List<TableSchema> dud_schemas = new ArrayList<>();
             dud_schemas.add(schema);
             dud_schemas.add(schema);
+            DMLFunctions.WhereCondition condition = new DMLFunctions.WhereCondition(schema, where_condition, dud_schemas);
+            //the records that are kept are copied in primary key order, so the index is built once they are all in
+            boolean load_index = bulkLoadsIndex(new_table_id);
+            int num_records = 0;
 
             for (int page_id : page_order){
-                Page old_page = (Page)pageBuffer.getPage(old_table_id, page_id, page_order, 0, null, false);
+                Page old_page = scanPage(old_table_id, page_id);
                 List<Record> records = old_page.getRecords();
                 for (Record record : records){
                     if(error_encountered){
-                        new_page_order = insertRecord(record, new_table_id, new_page_order, true, catalog.isIndexOn());
+                        new_page_order = insertRecord(record, new_table_id, new_page_order, true, catalog.isIndexOn() && !load_index);
+                        num_records += 1;
                     }else{
                         try {
-                            boolean satisfies_where = DMLFunctions.whereRecord(schema, record, where_condition, dud_schemas);
+                            boolean satisfies_where = DMLFunctions.whereRecord(condition, record);
                             if(!satisfies_where){
-                                new_page_order = insertRecord(record, new_table_id, new_page_order, true, catalog.isIndexOn());
+                                new_page_order = insertRecord(record, new_table_id, new_page_order, true, catalog.isIndexOn() && !load_index);
+                                num_records += 1;
                             }
                         } catch (Exception e) {
-                            new_page_order = insertRecord(record, new_table_id, new_page_order, true, catalog.isIndexOn());
+                            new_page_order = insertRecord(record, new_table_id, new_page_order, true, catalog.isIndexOn() && !load_index);
+                            num_records += 1;
                             error_message = e.getMessage() + "\nError";
                             error_encountered = true;
                         }
                     }
                 }
             }
+
+            if (load_index){
+                loadBplusTree(new_table_id, num_records);
+            }
         }
         //remove old table file
+        pageBuffer.moveTableStats(old_table_id, new_table_id);
         deleteTable(old_table_id, catalog.isIndexOn());
         if(error_encountered){
             System.out.println(error_message);
@@ -1290,6 +1438,59 @@ public class StorageManager {
         }
     }
 
+    /**
+     * Deletes the one record a where clause can match, found through the B+ tree, from its page,
+     *  instead of copying the rest of the table into a new file.
+     * This can only be done when the record is not the last one in its page and its key
+     *  is not the last one in its leaf of the tree; otherwise the table is left as it is
+     *  for deleteRows to rebuild.
+     * @param where_condition condition to check to delete
+     * @param table_id the id of the table of the record
+     * @param key the primary key value the where clause limits the records to, as the index holds it
+     * @return true if the delete is done; false if the table has to be rebuilt
+     * @throws IOException
+     */
+    public boolean deleteRowInPlace(String where_condition, int table_id, Object key) throws IOException{
+        TableSchema schema = catalog.getTableSchemaByNum(table_id);
+        BplusTree tree = getBplusTree(table_id);
+        int page_id = tree.search(key);
+        if (page_id == -1){
+            System.out.println("SUCCESS");
+            return true;
+        }
+        Page page = pinPage(table_id, page_id);
+        try {
+            int index = page.indexOfKey(key, schema);
+            if (index == -1){
+                //the tree only holds keys that are in the table, so it is wrong about this one
+                throw new IllegalStateException("Index of table " + table_id + " does not point to the record with key " + key);
+            }
+            List<TableSchema> dud_schemas = new ArrayList<>();
+            dud_schemas.add(schema);
+            dud_schemas.add(schema);
+            DMLFunctions.WhereCondition condition = new DMLFunctions.WhereCondition(schema, where_condition, dud_schemas);
+            boolean satisfies_where;
+            try {
+                satisfies_where = DMLFunctions.whereRecord(condition, page.getRecords().get(index));
+            } catch (Exception e) {
+                System.out.println(e.getMessage() + "\nError");
+                return true;
+            }
+            if (satisfies_where){
+                //an empty page or leaf is left to the rebuild
+                if (page.getNumRecords() == 1 || !tree.remove(key)){
+                    return false;
+                }
+                page.removeRecord(index);
+                pushTablePage(table_id, page_id, page);
+            }
+        } finally {
+            unpinPage(table_id, page_id);
+        }
+        System.out.println("SUCCESS");
+        return true;
+    }
+
     /**
      * Add the given attribute to all records with the value of the given default
      * If default is null, then all records will have the value null for the new attribute
@@ -1323,55 +1524,119 @@ public class StorageManager {
                 return;
             }
 
-            TableSchema schema = catalog.getTableSchemaByNum(oldTableId);
-            AttributeSchema primaryKey = schema.getPrimaryKey();
-            AttributeType keyType = primaryKey.getType();
-
-            int keyPointerSize;
-            if (keyType == AttributeType.CHAR || keyType == AttributeType.VARCHAR){
-                keyPointerSize = primaryKey.getSize()*2 + 8;
-            } else{
-                keyPointerSize = primaryKey.getSize() + 8;
-            }
-            int n = (int)Math.floor(((double)pageSize)/keyPointerSize) - 1;
-            
-            BplusTreeNode root = new BplusTreeNode(n, 1, newTableId, -1, keyType);
-            //Rewrite the header and push the new page
-            //This will make a table's Bplus file always start with one page before inserts begin
-            // StorageManager.rewriteTableFileHeader(lastUsedId, 0, 1, true);
-            // List<Integer> pageOrder = StorageManager.getPageOrder(lastUsedId, true);
-            // StorageManager.pushBplusNode(lastUsedId, 1, root, pageOrder);
-
-            catalog.setRoot(newTableId, 1);
-            catalog.saveCatalog();
-
-            StorageManager.rewriteTableFileHeader(newTableId, 0, 1, true);
-            List<Integer> pageOrder = StorageManager.getPageOrder(newTableId, true);
-            StorageManager.pushBplusNode(newTableId, 1, root, pageOrder);
+            createBplusTree(newTableId, catalog.getTableSchemaByNum(oldTableId).getPrimaryKey());
         }
 
         try (RandomAccessFile raf = new RandomAccessFile(originalFilePath, "rw"); FileChannel channel = raf.getChannel()) {
             List<Integer> pageOrder = getPageOrder(oldTableId, false);
             List<Integer> newPageOrder = new ArrayList<>();
+            //the records are copied in primary key order, so the index is built once they are all in
+            boolean loadIndex = bulkLoadsIndex(newTableId);
+            int numRecords = 0;
 
             for (int pageId : pageOrder){
-                Page oldPage = (Page)pageBuffer.getPage(oldTableId, pageId, pageOrder, 0, null, false);
+                Page oldPage = scanPage(oldTableId, pageId);
                 List<Record> oldRecords = oldPage.getRecords();
                 for (Record record : oldRecords){
                     Record newRecord = record.addAttribute(newAttribute, defaultValue, catalog.getTableSchemaByNum(oldTableId));
-                    newPageOrder = insertRecord(newRecord, newTableId, newPageOrder, true, catalog.isIndexOn());
+                    newPageOrder = insertRecord(newRecord, newTableId, newPageOrder, true, catalog.isIndexOn() && !loadIndex);
+                    numRecords += 1;
                 }
             }
+
+            if (loadIndex){
+                loadBplusTree(newTableId, numRecords);
+            }
         }
 
         //remove old table file
+        pageBuffer.moveTableStats(oldTableId, newTableId);
         deleteTable(oldTableId, catalog.isIndexOn());
     }
 
+    /**
+     * Turns reading pages through memory mapped files on or off
+     * @param mappedReads true to read pages from memory mapped files
+     */
+    public void setMappedReads(boolean mappedReads){
+        pageBuffer.setMappedReads(mappedReads);
+    }
+
+    /**
+     * Sets the amount of off-heap memory the page buffer uses to hold
+     *  the images of pages that have left the buffer
+     * @param bufferMemory the number of bytes to use; 0 to not use any
+     * @throws IOException
+     */
+    public void setBufferMemory(long bufferMemory) throws IOException{
+        pageBuffer.setMemoryBudget(bufferMemory);
+    }
+
+    /**
+     * Turns the page buffer's background writer on or off.
+     * When on, changed pages are written out before they are evicted,
+     *  so inserts and updates rarely have to wait on a write.
+     * @param backgroundWriter true to start the writer
+     */
+    public void setBackgroundWriter(boolean backgroundWriter){
+        pageBuffer.setBackgroundWriter(backgroundWriter);
+    }
+
+    /**
+     * Turns compact strings on or off for table pages.
+     * When on, chars and varchars are stored one byte to a char when they fit in Latin-1,
+     *  and in UTF-8 when they do not, instead of two bytes to a char.
+     * Pages already stored the other way are still read, and are changed over when they are next written.
+     * @param compactStrings true to store chars in Latin-1 or UTF-8
+     */
+    public void setCompactStrings(boolean compactStrings){
+        //pages of a table are stored in the row format made from its attributes;
+        //  formats made before this are dropped, so pages are written the new way from here on
+        pageBuffer.setRowFormatSource(tableId -> {
+            TableSchema tableSchema = StorageManager.catalog.getTableSchemaByNum(tableId);
+            return tableSchema == null ? null : new RowFormat(tableSchema.getAttributes(), pageSize, compactStrings);
+        });
+    }
+
+    /**
+     * Sets how many pages the page buffer reads ahead of a scan that reads a table in page order
+     * @param readAheadPages the most pages to read ahead; 0 to turn read-ahead off
+     */
+    public void setReadAhead(int readAheadPages){
+        pageBuffer.setReadAhead(readAheadPages);
+    }
+
+    /**
+     * Sets how full the nodes of a B+ tree are made when it is bulk loaded, after a table with an index is copied.
+     * Leaves are packed with keys in order, so a fill factor below 1 leaves room for keys inserted later
+     *  before the leaves have to split.
+     * @param indexFillFactor how full to make the nodes, from 0 to 1
+     */
+    public void setIndexFillFactor(double indexFillFactor){
+        StorageManager.indexFillFactor = indexFillFactor;
+    }
+
+    /**
+     * Gets a snapshot of the page buffer's counts
+     * @return the snapshot
+     */
+    public BufferStats.Snapshot getBufferStats(){
+        return pageBuffer.getStats();
+    }
+
+    /**
+     * Sets all of the page buffer's counts back to 0
+     */
+    public void resetBufferStats(){
+        pageBuffer.resetStats();
+    }
+
     /**
      * Method for writing everything in the pageBuffer to file
+     *  and closing the table and tree files
      */
     public void flushBuffer() throws IOException{
-        pageBuffer.flush(0, false);
+        pageBuffer.flush();
+        pageBuffer.closeFiles();
     }
 }
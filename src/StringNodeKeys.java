@@ -0,0 +1,152 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The keys of a B+ tree node with a char or varchar primary key.
+ * The chars of every key are held one after the other in one byte array, two bytes to a char
+ *  with the high byte first, and an int array holds where each key starts.
+ *  Comparing the bytes of two keys gives the same order as comparing their Strings.
+ *  Keys are written the same way, with or without compact strings, so they take up
+ *  the room BplusTree.computeN sizes a node for.
+ *
+ * @author Tyler Black tcb8683
+ */
+public class StringNodeKeys implements NodeKeys {
+    private final boolean fixedLength; // true for a char, which is written without its length
+    private byte[] bytes; // chars of the keys, in order
+    private int[] starts; // where each key starts in bytes; starts[size] is where the last one ends
+    private int size; // the number of keys
+
+    /**
+     * Constructs an empty set of keys
+     * @param fixedLength true if the keys are chars, false if they are varchars
+     */
+    public StringNodeKeys(boolean fixedLength) {
+        this.fixedLength = fixedLength;
+        this.bytes = new byte[64];
+        this.starts = new int[9];
+        this.size = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Object get(int index) {
+        char[] chars = new char[getLength(index)];
+        int start = starts[index];
+        for (int i = 0; i < chars.length; i++){
+            chars[i] = (char)(((bytes[start + i * 2] & 0xff) << 8) | (bytes[start + i * 2 + 1] & 0xff));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Gets the number of chars in a key
+     * @param index the index of the key
+     * @return the number of chars
+     */
+    public int getLength(int index) {
+        return (starts[index + 1] - starts[index]) / 2;
+    }
+
+    @Override
+    public int compare(int index, Object key) {
+        String other = (String)key;
+        int start = starts[index];
+        int length = getLength(index);
+        int shared = Math.min(length, other.length());
+        for (int i = 0; i < shared; i++){
+            char c = (char)(((bytes[start + i * 2] & 0xff) << 8) | (bytes[start + i * 2 + 1] & 0xff));
+            if (c != other.charAt(i)){
+                return c - other.charAt(i);
+            }
+        }
+        return length - other.length();
+    }
+
+    @Override
+    public boolean matches(int index, Object key) {
+        return getLength(index) == ((String)key).length() && compare(index, key) == 0;
+    }
+
+    @Override
+    public void insert(int index, Object key) {
+        String value = (String)key;
+        int length = value.length() * 2;
+        ensureRoom(length, 1);
+        int start = starts[index];
+        System.arraycopy(bytes, start, bytes, start + length, starts[size] - start);
+        for (int i = 0; i < value.length(); i++){
+            bytes[start + i * 2] = (byte)(value.charAt(i) >> 8);
+            bytes[start + i * 2 + 1] = (byte)value.charAt(i);
+        }
+        for (int i = size; i >= index; i--){
+            starts[i + 1] = starts[i] + length;
+        }
+        starts[index] = start;
+        size += 1;
+    }
+
+    /**
+     * Helper function for growing the arrays so more keys fit
+     * @param moreBytes the number of bytes that are being added
+     * @param moreKeys the number of keys that are being added
+     */
+    private void ensureRoom(int moreBytes, int moreKeys) {
+        if (starts[size] + moreBytes > bytes.length){
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, starts[size] + moreBytes));
+        }
+        if (size + moreKeys + 1 > starts.length){
+            starts = Arrays.copyOf(starts, Math.max(starts.length * 2, size + moreKeys + 1));
+        }
+    }
+
+    @Override
+    public void remove(int index) {
+        int start = starts[index];
+        int length = starts[index + 1] - start;
+        System.arraycopy(bytes, start + length, bytes, start, starts[size] - start - length);
+        for (int i = index; i < size; i++){
+            starts[i] = starts[i + 1] - length;
+        }
+        size -= 1;
+    }
+
+    @Override
+    public NodeKeys splitOff(int from) {
+        StringNodeKeys other = new StringNodeKeys(fixedLength);
+        int start = starts[from];
+        other.bytes = Arrays.copyOfRange(bytes, start, Math.max(starts[size], start + 64));
+        other.starts = new int[Math.max(size - from + 1, 9)];
+        for (int i = from; i <= size; i++){
+            other.starts[i - from] = starts[i] - start;
+        }
+        other.size = size - from;
+        size = from;
+        return other;
+    }
+
+    @Override
+    public void write(ByteBuffer buffer) {
+        for (int i = 0; i < size; i++){
+            if (!fixedLength){
+                buffer.putInt(getLength(i));
+            }
+            buffer.put(bytes, starts[i], starts[i + 1] - starts[i]);
+        }
+    }
+
+    @Override
+    public void read(ByteBuffer buffer, int count, int size) {
+        for (int i = 0; i < count; i++){
+            int length = (fixedLength ? size : buffer.getInt()) * 2;
+            ensureRoom(length, 1);
+            buffer.get(bytes, starts[this.size], length);
+            starts[this.size + 1] = starts[this.size] + length;
+            this.size += 1;
+        }
+    }
+}
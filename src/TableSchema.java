@@ -12,7 +12,6 @@ public class TableSchema {
     private final String tableName; // The name of the table
     private final int tableNum; // Unique identifier for the table
     private final List<AttributeSchema> attributes; // List of attributes defining the schema
-    private int N;
 
     /**
      * Constructs a TableSchema with the given table name and unique identifier.
@@ -23,7 +22,6 @@ public class TableSchema {
         this.tableName = tableName;
         this.tableNum = tableNum;
         this.attributes = new ArrayList<>();
-        this.N = 0;
     }
 
     /**
@@ -34,6 +32,16 @@ public class TableSchema {
         attributes.add(attribute);
     }
 
+    /**
+     * Makes a view for reading the records of this table without copying them.
+     * Where each value starts is worked out from the attributes the table has now,
+     *  so a new view is needed after the attributes change.
+     * @return a new RecordView for the attributes of this table
+     */
+    public RecordView newRecordView() {
+        return new RecordView(attributes);
+    }
+
     /**
      * removes a column from the table schema
      * @param name the name of the column to be deleted
@@ -102,26 +110,6 @@ public class TableSchema {
         }
     }
 
-    public void computeBPlusTreeN(int pageSize) {
-        AttributeSchema pk = getPrimaryKey();
-        int keySize;
-
-        switch (pk.getType()) {
-            case BOOLEAN -> keySize = 1;
-            case INTEGER -> keySize = 4;
-            case DOUBLE -> keySize = 8;
-            case CHAR, VARCHAR -> keySize = pk.getSize() * 2;
-            default -> throw new IllegalArgumentException("Unsupported key type");
-        }
-
-        int pairSize = keySize + 8; // pointer = 2 * int (page + index)
-        this.N = Math.floorDiv(pageSize, pairSize) - 1;
-    }
-
-    public int getN(){
-        return this.N;
-    }
-
     public AttributeSchema getPrimaryKey() {
         for (AttributeSchema attr : attributes) {
             if (attr.isPrimaryKey()) return attr;
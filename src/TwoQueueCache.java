@@ -0,0 +1,162 @@
+import java.util.function.LongPredicate;
+
+/**
+ * Implements the 2Q replacement policy for managing pages in memory.
+ * A page that is used for the first time goes into a first in first out queue (A1in).
+ *  If it is evicted from there, only its key is remembered (A1out).
+ *  A page that is used again while its key is remembered is known to be hot
+ *  and goes into an LRU list (Am) that is only evicted from when A1in is small.
+ * Pages that are only read once, like the pages of a table scan or a temp table,
+ *  never get into Am, so they can not push the hot pages out.
+ * Pages read by a sequential scan are kept in their own queue and are evicted first.
+ * Every queue is a LongLinkedMap, so keys are never boxed.
+ *
+ * @author Tyler Black tcb8683
+ */
+public class TwoQueueCache implements ReplacementPolicy {
+    private final LongLinkedMap am; // hot pages, least recently used first
+    private final LongLinkedMap a1in; // pages used once, oldest first
+    private final LongLinkedMap scanPages; // pages read by a scan, oldest first
+    private final LongLinkedMap a1out; // keys of pages recently evicted from a1in, oldest first; values are not used
+    private final int maxA1in; // size a1in can grow to before it is evicted from ahead of am
+    private final int maxA1out; // number of evicted keys that are remembered
+
+    /**
+     * Constructor for 2Q cache
+     * @param capacity the number of pages the buffer holds
+     */
+    public TwoQueueCache(int capacity) {
+        this.am = new LongLinkedMap();
+        this.a1in = new LongLinkedMap();
+        this.scanPages = new LongLinkedMap();
+        this.a1out = new LongLinkedMap();
+        this.maxA1in = Math.max(1, capacity / 4);
+        this.maxA1out = Math.max(1, capacity / 2);
+    }
+
+    /**
+     * Retrieves a page from the cache.
+     * A page in Am becomes the most recently used. A scan page that is used
+     *  by something other than a scan is treated as used for the first time.
+     */
+    @Override
+    public Object get(long key, boolean scan) {
+        Object page = am.moveToLast(key);
+        if (page != null) {
+            return page;
+        }
+        page = a1in.get(key);
+        if (page != null) {
+            return page;
+        }
+        page = scanPages.get(key);
+        if (page != null && !scan) {
+            scanPages.remove(key);
+            a1in.put(key, page);
+        }
+        return page;
+    }
+
+    /**
+     * Inserts a page into the cache.
+     * A new page goes into Am if its key was remembered, otherwise into A1in,
+     *  or into the scan queue if it is being read by a scan.
+     */
+    @Override
+    public void put(long key, Object page, boolean scan) {
+        if (am.containsKey(key)) {
+            am.put(key, page);
+            am.moveToLast(key);
+        } else if (a1in.containsKey(key)) {
+            a1in.put(key, page);
+        } else if (scanPages.containsKey(key)) {
+            if (scan) {
+                scanPages.put(key, page);
+            } else {
+                scanPages.remove(key);
+                a1in.put(key, page);
+            }
+        } else if (scan) {
+            scanPages.put(key, page);
+        } else if (a1out.remove(key) != null) {
+            am.put(key, page);
+        } else {
+            a1in.put(key, page);
+        }
+    }
+
+    /**
+     * Checks if a page is in the cache.
+     */
+    @Override
+    public boolean contains(long key) {
+        return am.containsKey(key) || a1in.containsKey(key) || scanPages.containsKey(key);
+    }
+
+    /**
+     * Gets the key of the page to evict: the oldest scan page if there is one,
+     *  then the oldest page of A1in if A1in is over its size,
+     *  then the least recently used page of Am.
+     * Pages that can not be evicted are skipped.
+     */
+    @Override
+    public long getVictimKey(LongPredicate evictable) {
+        long key = firstEvictable(scanPages, evictable);
+        if (key != -1) {
+            return key;
+        }
+        if (a1in.size() > maxA1in || am.isEmpty()) {
+            key = firstEvictable(a1in, evictable);
+            return key != -1 ? key : firstEvictable(am, evictable);
+        }
+        key = firstEvictable(am, evictable);
+        return key != -1 ? key : firstEvictable(a1in, evictable);
+    }
+
+    /**
+     * Finds the first key in a queue that can be evicted
+     * @param queue the queue to search, oldest first
+     * @param evictable tells if the page with a given key may be evicted
+     * @return the key, or -1 if none of the pages can be evicted
+     */
+    private long firstEvictable(LongLinkedMap queue, LongPredicate evictable) {
+        for (int entry = queue.firstEntry(); entry != LongLinkedMap.NONE; entry = queue.nextEntry(entry)) {
+            if (evictable.test(queue.keyAt(entry))) {
+                return queue.keyAt(entry);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes a page from the cache.
+     * The key of a page removed from A1in is remembered in A1out.
+     */
+    @Override
+    public Object remove(long key) {
+        Object page = scanPages.remove(key);
+        if (page != null) {
+            return page;
+        }
+        page = am.remove(key);
+        if (page != null) {
+            return page;
+        }
+        page = a1in.remove(key);
+        if (page != null) {
+            a1out.put(key, Boolean.TRUE);
+            if (a1out.size() > maxA1out) {
+                a1out.remove(a1out.keyAt(a1out.firstEntry()));
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Returns the current number of pages in the cache.
+     */
+    @Override
+    public int size() {
+        return am.size() + a1in.size() + scanPages.size();
+    }
+}